@@ -29,27 +29,32 @@ import androidx.annotation.Keep
 import com.android.launcher3.Utilities
 import org.zimmob.zimlx.blur.BlurWallpaperProvider
 import org.zimmob.zimlx.flowerpot.Flowerpot
+import org.zimmob.zimlx.iconpack.IconPackManager
 import org.zimmob.zimlx.smartspace.ZimSmartspaceController
 import org.zimmob.zimlx.theme.ThemeManager
+import org.zimmob.zimlx.util.StartupGraph
 
 class ZimApp : Application() {
     val activityHandler = ActivityHandler()
     val smartspace by lazy { ZimSmartspaceController(this) }
     val recentsEnabled by lazy { checkRecentsComponent() }
     var accessibilityService: ZimAccessibilityService? = null
-
-    override fun onCreate() {
-        super.onCreate()
-
-        ThemeManager.getInstance(this)
-        BlurWallpaperProvider.getInstance(this)
-    }
+    val startup by lazy { createStartupGraph() }
 
     fun onLauncherAppStateCreated() {
         registerActivityLifecycleCallbacks(activityHandler)
+    }
 
-        BlurWallpaperProvider.getInstance(this)
-        Flowerpot.Manager.getInstance(this)
+    private fun createStartupGraph() = StartupGraph(this).apply {
+        add(STARTUP_THEME, firstFrame = true) { ThemeManager.getInstance(it) }
+        // Created before the loader starts so that it isn't created concurrently
+        add(STARTUP_ICON_PACKS, firstFrame = true) { IconPackManager.getInstance(it) }
+        add(STARTUP_DYNAMIC_CLOCK, STARTUP_ICON_PACKS, lane = StartupGraph.Lane.BACKGROUND) {
+            IconPackManager.getInstance(it).defaultPack.dynamicClockDrawer
+        }
+        // Decodes and blurs the wallpaper, views using it create it sooner if needed
+        add(STARTUP_BLUR, STARTUP_THEME) { BlurWallpaperProvider.getInstance(it) }
+        add(STARTUP_FLOWERPOT) { Flowerpot.Manager.getInstance(it) }
     }
 
 
@@ -129,6 +134,13 @@ class ZimApp : Application() {
         //&& recentsComponent.className == RecentsActivity::class.java.name
     }
 
+    companion object {
+        const val STARTUP_THEME = "theme"
+        const val STARTUP_ICON_PACKS = "iconPacks"
+        const val STARTUP_DYNAMIC_CLOCK = "dynamicClock"
+        const val STARTUP_BLUR = "blur"
+        const val STARTUP_FLOWERPOT = "flowerpot"
+    }
 }
 
 
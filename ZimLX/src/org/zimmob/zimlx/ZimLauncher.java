@@ -31,6 +31,7 @@ import org.zimmob.zimlx.iconpack.IconPackManager;
 import org.zimmob.zimlx.iconpack.IconPackManager.CustomIconEntry;
 import org.zimmob.zimlx.override.CustomInfoProvider;
 import org.zimmob.zimlx.sensors.BrightnessManager;
+import org.zimmob.zimlx.util.StartupGraph;
 import org.zimmob.zimlx.views.OptionsPanel;
 import org.zimmob.zimlx.views.ZimBackgroundView;
 
@@ -72,10 +73,13 @@ public class ZimLauncher extends NexusLauncherActivity implements ZimPreferences
             Utilities.requestStoragePermission(this);
 
         }
-        IconPackManager.Companion.getInstance(this).getDefaultPack().getDynamicClockDrawer();
+        ZimLayoutInflater.LauncherViewFactory.install(getLayoutInflater());
+        StartupGraph startup = ZimAppKt.getZimApp(this).getStartup();
+        startup.runFirstFrame();
         gestureController = new GestureController(this);
 
         super.onCreate(savedInstanceState);
+        startup.runAfterFirstDraw(getWindow().getDecorView());
 
         mContext = this;
         mZimPrefs = Utilities.getZimPrefs(mContext);
@@ -21,9 +21,24 @@ import android.util.AttributeSet
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import android.widget.TextView
+import android.widget.*
 import androidx.appcompat.app.AppCompatDelegate
+import com.android.launcher3.BubbleTextView
+import com.android.launcher3.folder.Folder
+import com.android.launcher3.folder.FolderIcon
+import com.android.launcher3.folder.FolderPagedView
+import com.android.launcher3.notification.NotificationFooterLayout
+import com.android.launcher3.notification.NotificationMainView
+import com.android.launcher3.pageindicators.PageIndicatorDots
+import com.android.launcher3.popup.PopupContainerWithArrow
+import com.android.launcher3.shortcuts.DeepShortcutTextView
+import com.android.launcher3.shortcuts.DeepShortcutView
+import com.android.launcher3.views.DoubleShadowBubbleTextView
+import com.android.launcher3.widget.WidgetCell
+import com.android.launcher3.widget.WidgetImageView
 import org.xmlpull.v1.XmlPullParser
+import java.lang.reflect.Constructor
+import java.util.concurrent.ConcurrentHashMap
 
 class ZimLayoutInflater(original: LayoutInflater, newContext: Context) : LayoutInflater(original, newContext) {
 
@@ -38,10 +53,9 @@ class ZimLayoutInflater(original: LayoutInflater, newContext: Context) : LayoutI
             }
 
             private fun onCreateViewImpl(parent: View?, name: String, context: Context, attrs: AttributeSet): View? {
+                sLauncherViews[name]?.let { return it(context, attrs) }
                 if (name == "android.support.v7.widget.DialogTitle") {
-                    return (Class.forName(name).getConstructor(Context::class.java,
-                            AttributeSet::class.java)
-                            .newInstance(context, attrs) as TextView)
+                    return getConstructor(name).newInstance(context, attrs) as TextView
                 }
                 return delegate.createView(parent, name, context, attrs)
             }
@@ -73,10 +87,16 @@ class ZimLayoutInflater(original: LayoutInflater, newContext: Context) : LayoutI
 
     @Throws(ClassNotFoundException::class)
     override fun onCreateView(name: String, attrs: AttributeSet): View {
+        val resolved = sResolvedPrefixes[name]
+        if (resolved != null) {
+            return if (resolved == NO_PREFIX) super.onCreateView(name, attrs)
+            else createView(name, resolved, attrs)
+        }
         for (prefix in sClassPrefixList) {
             try {
                 val view = createView(name, prefix, attrs)
                 if (view != null) {
+                    sResolvedPrefixes[name] = prefix
                     return view
                 }
             } catch (e: ClassNotFoundException) {
@@ -86,6 +106,7 @@ class ZimLayoutInflater(original: LayoutInflater, newContext: Context) : LayoutI
 
         }
 
+        sResolvedPrefixes[name] = NO_PREFIX
         return super.onCreateView(name, attrs)
     }
 
@@ -101,9 +122,75 @@ class ZimLayoutInflater(original: LayoutInflater, newContext: Context) : LayoutI
         }
     }
 
+    /**
+     * Creates the most inflated views of the launcher directly, instead of looking up their class
+     * and constructor for each inflation.
+     */
+    object LauncherViewFactory : LayoutInflater.Factory2 {
+
+        override fun onCreateView(parent: View?, name: String, context: Context, attrs: AttributeSet): View? {
+            return (sLauncherViews[name] ?: sFrameworkViews[name])?.invoke(context, attrs)
+        }
+
+        override fun onCreateView(name: String, context: Context, attrs: AttributeSet): View? {
+            return onCreateView(null, name, context, attrs)
+        }
+
+        /**
+         * Installs the factory on {@param inflater} unless it already has one. Inflaters cloned
+         * from it afterwards keep the factory.
+         */
+        @JvmStatic
+        fun install(inflater: LayoutInflater) {
+            if (inflater.factory == null) {
+                inflater.factory2 = this
+            }
+        }
+    }
+
     companion object {
 
         @JvmStatic
         private val sClassPrefixList = arrayOf("android.widget.", "android.webkit.", "android.app.", "androidx.cardview.widget.")
+
+        // Marks tags which didn't match any prefix, for the base class to resolve
+        private const val NO_PREFIX = ""
+
+        private val sResolvedPrefixes = ConcurrentHashMap<String, String>()
+        private val sConstructors = ConcurrentHashMap<String, Constructor<out View>>()
+
+        private val sLauncherViews = HashMap<String, (Context, AttributeSet) -> View>().apply {
+            put("com.android.launcher3.BubbleTextView") { c, a -> BubbleTextView(c, a) }
+            put("com.android.launcher3.views.DoubleShadowBubbleTextView") { c, a -> DoubleShadowBubbleTextView(c, a) }
+            put("com.android.launcher3.folder.Folder") { c, a -> Folder(c, a) }
+            put("com.android.launcher3.folder.FolderIcon") { c, a -> FolderIcon(c, a) }
+            put("com.android.launcher3.folder.FolderPagedView") { c, a -> FolderPagedView(c, a) }
+            put("com.android.launcher3.notification.NotificationFooterLayout") { c, a -> NotificationFooterLayout(c, a) }
+            put("com.android.launcher3.notification.NotificationMainView") { c, a -> NotificationMainView(c, a) }
+            put("com.android.launcher3.pageindicators.PageIndicatorDots") { c, a -> PageIndicatorDots(c, a) }
+            put("com.android.launcher3.popup.PopupContainerWithArrow") { c, a -> PopupContainerWithArrow(c, a) }
+            put("com.android.launcher3.shortcuts.DeepShortcutTextView") { c, a -> DeepShortcutTextView(c, a) }
+            put("com.android.launcher3.shortcuts.DeepShortcutView") { c, a -> DeepShortcutView(c, a) }
+            put("com.android.launcher3.widget.WidgetCell") { c, a -> WidgetCell(c, a) }
+            put("com.android.launcher3.widget.WidgetImageView") { c, a -> WidgetImageView(c, a) }
+        }
+
+        // Unqualified framework tags, which would otherwise be looked up in each package in turn
+        private val sFrameworkViews = HashMap<String, (Context, AttributeSet) -> View>().apply {
+            put("View") { c, a -> View(c, a) }
+            put("TextView") { c, a -> TextView(c, a) }
+            put("ImageView") { c, a -> ImageView(c, a) }
+            put("FrameLayout") { c, a -> FrameLayout(c, a) }
+            put("LinearLayout") { c, a -> LinearLayout(c, a) }
+            put("Space") { c, a -> Space(c, a) }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun getConstructor(name: String): Constructor<out View> {
+            return sConstructors.getOrPut(name) {
+                (Class.forName(name) as Class<out View>)
+                        .getConstructor(Context::class.java, AttributeSet::class.java)
+            }
+        }
     }
 }
@@ -6,10 +6,14 @@ import android.content.SharedPreferences
 import android.net.Uri
 import android.os.Looper
 import android.text.TextUtils
+import android.util.Log
 import com.android.launcher3.*
 import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm
+import com.android.launcher3.logging.FrameStats
+import com.android.launcher3.logging.Profiler
 import com.android.launcher3.util.ComponentKey
 import org.json.JSONArray
+import org.json.JSONException
 import org.json.JSONObject
 import org.zimmob.zimlx.gestures.BlankGestureHandler
 import org.zimmob.zimlx.gestures.handlers.*
@@ -23,6 +27,7 @@ import org.zimmob.zimlx.settings.GridSize2D
 import org.zimmob.zimlx.smartspace.*
 import org.zimmob.zimlx.theme.ThemeManager
 import org.zimmob.zimlx.util.Config
+import org.zimmob.zimlx.util.PrefsCollectionStore
 import org.zimmob.zimlx.util.Temperature
 import org.zimmob.zimlx.util.ZimFlags
 import java.io.File
@@ -40,6 +45,11 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     private val onChangeListeners: MutableMap<String, MutableSet<OnPreferenceChangeListener>> = HashMap()
     private var onChangeCallback: ZimPreferencesChangeCallback? = null
     val sharedPrefs = migratePrefs()
+    val collectionStore = PrefsCollectionStore(context, LauncherFiles.PREFS_COLLECTIONS_DB)
+    private val deviceCollectionStore = PrefsCollectionStore(context, LauncherFiles.DEVICE_PREFS_COLLECTIONS_DB)
+    // Keys of the collections kept in the stores instead of the shared preferences
+    private val storeKeys = HashSet<String>()
+    private val pendingStoreChanges = LinkedHashSet<String>()
 
     private fun migratePrefs(): SharedPreferences {
         val dir = context.cacheDir.parent
@@ -60,6 +70,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     val restart = { restart() }
     private val refreshGrid = { refreshGrid() }
     private val updateBlur = { updateBlur() }
+    private val updateFrameStats = { runOnMainThread { FrameStats.setEnabled(context, recordFrameStats) } }
+    private val updateProfiler = { Profiler.setEnabled(profileHotPaths) }
     private val reloadIcons = { reloadIcons() }
     private val reloadIconPacks = { IconPackManager.getInstance(context).packList.reloadPacks() }
     private val resetAllApps = { onChangeCallback?.resetAllApps() ?: Unit }
@@ -189,7 +201,7 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         onChangeCallback?.launcher?.background?.onEnabledChanged()
     }
 
-    var hiddenAppSet by StringSetPref("hidden-app-set", Collections.emptySet(), reloadApps)
+    var hiddenAppSet by StringSetPref(HIDDEN_APP_SET, Collections.emptySet(), reloadApps)
     var hiddenPredictionAppSet by StringSetPref("pref_hidden_prediction_set", Collections.emptySet(), doNothing)
 
     val lowPerformanceMode by BooleanPref("pref_lowPerformanceMode", false, doNothing)
@@ -235,6 +247,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     val showDebugInfo by BooleanPref("pref_showDebugInfo", false, doNothing)
     val debugOkHttp by BooleanPref("pref_debugOkhttp", onChange = restart)
     val folderBgColored by BooleanPref("pref_folderBgColorGen", false)
+    val recordFrameStats by BooleanPref("pref_recordFrameStats", false, updateFrameStats)
+    val profileHotPaths by BooleanPref("pref_profileHotPaths", false, updateProfiler)
     val brightnessTheme by BooleanPref("pref_brightnessTheme", false, restart)
 
     val customAppName = object : MutableMapPref<ComponentKey, String>("pref_appNameMap", reloadAll) {
@@ -252,7 +266,7 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     }
 
     val recentBackups = object : MutableListPref<Uri>(
-            Utilities.getDevicePrefs(context), "pref_recentBackups") {
+            Utilities.getDevicePrefs(context), deviceCollectionStore, "pref_recentBackups") {
         override fun unflattenValue(value: String) = Uri.parse(value)
     }
 
@@ -337,24 +351,37 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
 
 
     abstract inner class MutableListPref<T>(private val prefs: SharedPreferences,
+                                            private val store: PrefsCollectionStore,
                                             private val prefKey: String,
                                             onChange: () -> Unit = doNothing,
-                                            default: List<T> = emptyList()) {
+                                            private val default: List<T> = emptyList()) {
 
         constructor(prefKey: String, onChange: () -> Unit = doNothing, default: List<T> = emptyList())
-                : this(sharedPrefs, prefKey, onChange, default)
+                : this(sharedPrefs, collectionStore, prefKey, onChange, default)
 
-        private val valueList = ArrayList<T>()
+        private val valueList by lazy { loadValues() }
+        // What the store currently holds, to only write the positions which changed
+        private var savedValues: List<String>? = null
         private val listeners: MutableSet<MutableListPrefChangeListener> = Collections.newSetFromMap(WeakHashMap())
 
         init {
-            val arr = JSONArray(prefs.getString(prefKey, getJsonString(default)))
-            (0 until arr.length()).mapTo(valueList) { unflattenValue(arr.getString(it)) }
+            storeKeys.add(prefKey)
             if (onChange != doNothing) {
                 onChangeMap[prefKey] = onChange
             }
         }
 
+        private fun loadValues(): ArrayList<T> {
+            migrateToStore(prefs, prefKey) { json ->
+                val arr = JSONArray(json)
+                val values = (0 until arr.length()).map { arr.getString(it) }
+                store.writeList(prefKey, values, null, true)
+            }
+            val values = store.readList(prefKey)
+            savedValues = values
+            return values?.mapTo(ArrayList()) { unflattenValue(it) } ?: ArrayList(default)
+        }
+
         fun toList() = ArrayList<T>(valueList)
 
         open fun flattenValue(value: T) = value.toString()
@@ -419,17 +446,12 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         }
 
         private fun saveChanges() {
-            @SuppressLint("CommitPrefEdits")
-            val editor = prefs.edit()
-            editor.putString(prefKey, getJsonString(valueList))
-            if (!bulkEditing)
-                commitOrApply(editor, blockingEditing)
-        }
-
-        private fun getJsonString(list: List<T>): String {
-            val arr = JSONArray()
-            list.forEach { arr.put(flattenValue(it)) }
-            return arr.toString()
+            val values = valueList.map { flattenValue(it) }
+            if (store.writeList(prefKey, values, savedValues, blockingEditing && !bulkEditing)) {
+                savedValues = values
+                onStoreChanged(prefKey)
+                listeners.toList().forEach { it.onListPrefChanged(prefKey) }
+            }
         }
     }
 
@@ -439,18 +461,29 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     }
 
     abstract inner class MutableMapPref<K, V>(private val prefKey: String, onChange: () -> Unit = doNothing) {
-        private val valueMap = HashMap<K, V>()
+        private val valueMap by lazy { loadValues() }
 
         init {
-            val obj = JSONObject(sharedPrefs.getString(prefKey, "{}"))
-            obj.keys().forEach {
-                valueMap[unflattenKey(it)] = unflattenValue(obj.getString(it))
-            }
+            storeKeys.add(prefKey)
             if (onChange !== doNothing) {
                 onChangeMap[prefKey] = onChange
             }
         }
 
+        private fun loadValues(): HashMap<K, V> {
+            migrateToStore(sharedPrefs, prefKey) { json ->
+                val obj = JSONObject(json)
+                val entries = HashMap<String, String>()
+                obj.keys().forEach { entries[it] = obj.getString(it) }
+                collectionStore.replaceMap(prefKey, entries, true)
+            }
+            val values = HashMap<K, V>()
+            collectionStore.readMap(prefKey).forEach { (key, value) ->
+                values[unflattenKey(key)] = unflattenValue(value)
+            }
+            return values
+        }
+
         fun toMap() = HashMap<K, V>(valueMap)
 
         open fun flattenKey(key: K) = key.toString()
@@ -460,22 +493,18 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         abstract fun unflattenValue(value: String): V
 
         operator fun set(key: K, value: V?) {
+            val old = valueMap[key]
+            val flatValue = value?.let { flattenValue(it) }
+            if (flatValue == old?.let { flattenValue(it) }) return
+            val blocking = blockingEditing && !bulkEditing
             if (value != null) {
                 valueMap[key] = value
+                collectionStore.putEntry(prefKey, flattenKey(key), flatValue!!, blocking)
             } else {
                 valueMap.remove(key)
+                collectionStore.removeEntry(prefKey, flattenKey(key), blocking)
             }
-            saveChanges()
-        }
-
-        private fun saveChanges() {
-            val obj = JSONObject()
-            valueMap.entries.forEach { obj.put(flattenKey(it.key), flattenValue(it.value)) }
-            @SuppressLint("CommitPrefEdits")
-            val editor = if (bulkEditing) editor!! else sharedPrefs.edit()
-            editor.putString(prefKey, obj.toString())
-            if (!bulkEditing)
-                commitOrApply(editor, blockingEditing)
+            onStoreChanged(prefKey)
         }
 
         operator fun get(key: K): V? {
@@ -483,8 +512,10 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
         }
 
         fun clear() {
+            if (valueMap.isEmpty()) return
             valueMap.clear()
-            saveChanges()
+            collectionStore.replaceMap(prefKey, emptyMap(), blockingEditing && !bulkEditing)
+            onStoreChanged(prefKey)
         }
     }
 
@@ -632,12 +663,67 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     fun beginBulkEdit() {
         bulkEditing = true
         editor = sharedPrefs.edit()
+        collectionStore.beginBatch()
+        deviceCollectionStore.beginBatch()
     }
 
     fun endBulkEdit() {
         bulkEditing = false
         commitOrApply(editor!!, blockingEditing)
         editor = null
+        collectionStore.endBatch(blockingEditing)
+        deviceCollectionStore.endBatch(blockingEditing)
+        val changed = ArrayList(pendingStoreChanges)
+        pendingStoreChanges.clear()
+        changed.forEach { onStoreChanged(it) }
+    }
+
+    /**
+     * Moves a collection which used to be saved as a single json string in [prefs] to one of the
+     * collection stores. [migrate] must write the parsed json to the store with blocking writes
+     * and return whether they were committed.
+     *
+     * If the json can't be parsed it is kept under [key] with a suffix, as the store will start
+     * empty and a later migration must not overwrite what is saved there. If it can't be written
+     * it is kept under [key], to be migrated again on the next load.
+     */
+    fun migrateToStore(prefs: SharedPreferences, key: String, migrate: (String) -> Boolean) {
+        storeKeys.add(key)
+        val json = prefs.getString(key, null) ?: return
+        val migrated = try {
+            migrate(json)
+        } catch (e: JSONException) {
+            Log.e(TAG, "Failed to migrate $key", e)
+            prefs.edit().putString(key + UNMIGRATED_SUFFIX, json).remove(key).commit()
+            return
+        }
+        if (!migrated) {
+            Log.e(TAG, "Failed to write $key to the store, keeping it for the next load")
+            return
+        }
+        prefs.edit().remove(key).commit()
+    }
+
+    /**
+     * Registers a collection kept in a store by its owner, [onChange] is called from
+     * [onStoreChanged].
+     */
+    fun registerStoreKey(key: String, onChange: () -> Unit) {
+        storeKeys.add(key)
+        onChangeMap[key] = onChange
+    }
+
+    /**
+     * Notifies the listeners of a collection kept in a store, as the shared preferences
+     * listener won't.
+     */
+    fun onStoreChanged(key: String) {
+        if (bulkEditing) {
+            pendingStoreChanges.add(key)
+            return
+        }
+        onChangeMap[key]?.invoke()
+        onChangeListeners[key]?.forEach { it.onValueChanged(key, this, false) }
     }
 
     inline fun blockingEdit(body: ZimPreferences.() -> Unit) {
@@ -726,6 +812,8 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
     }
 
     override fun onSharedPreferenceChanged(sharedPreferences: SharedPreferences?, key: String) {
+        // Only the removal of the migrated json
+        if (key in storeKeys) return
         onChangeMap[key]?.invoke()
         onChangeListeners[key]?.forEach { it.onValueChanged(key, this, false) }
     }
@@ -858,6 +946,9 @@ class ZimPreferences(val context: Context) : SharedPreferences.OnSharedPreferenc
 
         const val CURRENT_VERSION = 200
         const val VERSION_KEY = "config_version"
+        const val HIDDEN_APP_SET = "hidden-app-set"
+        // Saved copy of a json collection which failed to move to a store
+        private const val UNMIGRATED_SUFFIX = "_unmigrated"
 
         fun getInstance(context: Context): ZimPreferences {
             if (INSTANCE == null) {
@@ -56,8 +56,8 @@ import androidx.preference.PreferenceGroup
 import androidx.viewpager.widget.PagerAdapter
 import com.android.launcher3.*
 import com.android.launcher3.compat.LauncherAppsCompat
-import com.android.launcher3.compat.UserManagerCompat
 import com.android.launcher3.model.BgDataModel
+import com.android.launcher3.model.IconsUpdatedTask
 import com.android.launcher3.shortcuts.DeepShortcutManager
 import com.android.launcher3.util.ComponentKey
 import com.android.launcher3.util.LooperExecutor
@@ -65,7 +65,6 @@ import com.android.launcher3.util.PackageUserKey
 import com.android.launcher3.util.Themes
 import com.android.launcher3.views.OptionsPopupView
 import com.google.android.apps.nexuslauncher.CustomAppPredictor
-import com.google.android.apps.nexuslauncher.CustomIconUtils
 import org.json.JSONArray
 import org.json.JSONObject
 import org.xmlpull.v1.XmlPullParser
@@ -327,32 +326,26 @@ fun java.text.Collator.matches(query: String, target: String): Boolean {
 fun String.toTitleCase(): String = splitToSequence(" ").map { it.capitalize() }.joinToString(" ")
 
 fun reloadIconsFromComponents(context: Context, components: Collection<ComponentKey>) {
-    reloadIcons(context, components.map { PackageUserKey(it.componentName.packageName, it.user) })
-}
-
-fun reloadIcons(context: Context, packages: Collection<PackageUserKey>) {
     LooperExecutor(LauncherModel.getIconPackLooper()).execute {
-        val userManagerCompat = UserManagerCompat.getInstance(context)
         val las = LauncherAppState.getInstance(context)
         val model = las.model
         val launcher = las.launcher
 
-        for (user in userManagerCompat.userProfiles) {
-            model.onPackagesReload(user)
-        }
-
         val shortcutManager = DeepShortcutManager.getInstance(context)
-        packages.forEach {
-            CustomIconUtils.reloadIcon(shortcutManager, model, it.mUser, it.mPackageName)
-        }
-        if (launcher != null) {
-            runOnMainThread {
-                (launcher.userEventDispatcher as CustomAppPredictor).uiManager.onPredictionsUpdated()
+        components.mapTo(HashSet()) { PackageUserKey(it.componentName.packageName, it.user) }.forEach {
+            val shortcuts = shortcutManager.queryForPinnedShortcuts(it.mPackageName, it.mUser)
+            if (shortcutManager.wasLastCallSuccess() && shortcuts.isNotEmpty()) {
+                model.updatePinnedShortcuts(it.mPackageName, shortcuts, it.mUser)
             }
         }
+        model.enqueueModelUpdateTask(IconsUpdatedTask(HashSet(components), updatePredictions(launcher)))
     }
 }
 
+private fun updatePredictions(launcher: Launcher?) = if (launcher != null) Runnable {
+    (launcher.userEventDispatcher as CustomAppPredictor).uiManager.onPredictionsUpdated()
+} else null
+
 fun Context.getIcon(): Drawable = packageManager.getApplicationIcon(applicationInfo)
 
 fun <T, A> ensureOnMainThread(creator: (A) -> T): (A) -> T {
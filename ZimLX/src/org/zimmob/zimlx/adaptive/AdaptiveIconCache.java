@@ -0,0 +1,215 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.adaptive;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.util.LooperExecutor;
+import com.android.launcher3.util.SQLiteCacheHelper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Persists the outcome of the pixel analysis done by {@link AdaptiveIconGenerator}, so that
+ * rebuilding an icon which was already analysed with the same settings doesn't look at its
+ * pixels again.
+ *
+ * Results are keyed by the icon's source (eg. its package), a fingerprint of the drawable and
+ * the settings used. They are all read in memory on first use and written in the background.
+ * The least recently used results are dropped once there are {@link #MAX_ENTRIES}; uses are only
+ * tracked in memory, the database keeps the results in the order they were written.
+ */
+public class AdaptiveIconCache {
+
+    private static final String TAG = "AdaptiveIconCache";
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private static AdaptiveIconCache sInstance;
+    private static final Object sInstanceLock = new Object();
+
+    public static AdaptiveIconCache getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new AdaptiveIconCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final ResultDB mDb;
+    private final LooperExecutor mWriteExecutor;
+    // In access order, the eldest result is the least recently used one
+    private LinkedHashMap<String, Result> mResults;
+
+    private AdaptiveIconCache(Context context) {
+        mDb = new ResultDB(context);
+        mWriteExecutor = new LooperExecutor(LauncherModel.getUiWorkerLooper());
+    }
+
+    public Result get(String key) {
+        synchronized (this) {
+            ensureLoaded();
+            return mResults.get(key);
+        }
+    }
+
+    public void put(String key, Result result) {
+        ArrayList<String> evicted;
+        synchronized (this) {
+            ensureLoaded();
+            mResults.put(key, result);
+            evicted = trim();
+        }
+        mWriteExecutor.execute(() -> {
+            mDb.insertOrReplace(result.toContentValues(key));
+            deleteAll(evicted);
+        });
+    }
+
+    /**
+     * Drops the least recently used results past {@link #MAX_ENTRIES} and returns their keys.
+     */
+    private ArrayList<String> trim() {
+        ArrayList<String> evicted = new ArrayList<>();
+        Iterator<String> keys = mResults.keySet().iterator();
+        while (mResults.size() - evicted.size() > MAX_ENTRIES && keys.hasNext()) {
+            evicted.add(keys.next());
+        }
+        for (String key : evicted) {
+            mResults.remove(key);
+        }
+        return evicted;
+    }
+
+    private void deleteAll(ArrayList<String> keys) {
+        for (String key : keys) {
+            mDb.delete(ResultDB.COLUMN_KEY + " = ?", new String[]{key});
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mResults != null) {
+            return;
+        }
+        mResults = new LinkedHashMap<>(MAX_ENTRIES + 1, 0.75f, true);
+        try (Cursor c = mDb.query(new String[]{ResultDB.COLUMN_KEY, ResultDB.COLUMN_SCALE,
+                ResultDB.COLUMN_FLAGS, ResultDB.COLUMN_BACKGROUND, ResultDB.COLUMN_WIDTH,
+                ResultDB.COLUMN_HEIGHT, ResultDB.COLUMN_A_WIDTH, ResultDB.COLUMN_A_HEIGHT},
+                null, null)) {
+            while (c.moveToNext()) {
+                mResults.put(c.getString(0), new Result(c.getFloat(1), c.getInt(2),
+                        c.getInt(3), c.getInt(4), c.getInt(5), c.getFloat(6), c.getFloat(7)));
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading adaptive icon cache", e);
+        }
+        ArrayList<String> evicted = trim();
+        if (!evicted.isEmpty()) {
+            mWriteExecutor.execute(() -> deleteAll(evicted));
+        }
+    }
+
+    /**
+     * Outcome of the analysis of one icon.
+     */
+    public static class Result {
+        static final int FLAG_MATCHES_MASK_SHAPE = 1;
+        static final int FLAG_FULL_BLEED = 1 << 1;
+        static final int FLAG_NO_MIXIN_NEEDED = 1 << 2;
+        static final int FLAG_BACKGROUND_WHITE = 1 << 3;
+
+        final float scale;
+        final int flags;
+        final int backgroundColor;
+        final int width;
+        final int height;
+        final float aWidth;
+        final float aHeight;
+
+        Result(float scale, int flags, int backgroundColor, int width, int height,
+               float aWidth, float aHeight) {
+            this.scale = scale;
+            this.flags = flags;
+            this.backgroundColor = backgroundColor;
+            this.width = width;
+            this.height = height;
+            this.aWidth = aWidth;
+            this.aHeight = aHeight;
+        }
+
+        boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        private ContentValues toContentValues(String key) {
+            ContentValues values = new ContentValues();
+            values.put(ResultDB.COLUMN_KEY, key);
+            values.put(ResultDB.COLUMN_SCALE, scale);
+            values.put(ResultDB.COLUMN_FLAGS, flags);
+            values.put(ResultDB.COLUMN_BACKGROUND, backgroundColor);
+            values.put(ResultDB.COLUMN_WIDTH, width);
+            values.put(ResultDB.COLUMN_HEIGHT, height);
+            values.put(ResultDB.COLUMN_A_WIDTH, aWidth);
+            values.put(ResultDB.COLUMN_A_HEIGHT, aHeight);
+            return values;
+        }
+    }
+
+    private static final class ResultDB extends SQLiteCacheHelper {
+        // Bump when the analysis changes, which drops every stored result
+        private static final int RELEASE_VERSION = 1;
+
+        private static final String TABLE_NAME = "results";
+        private static final String COLUMN_KEY = "key";
+        private static final String COLUMN_SCALE = "scale";
+        private static final String COLUMN_FLAGS = "flags";
+        private static final String COLUMN_BACKGROUND = "background";
+        private static final String COLUMN_WIDTH = "width";
+        private static final String COLUMN_HEIGHT = "height";
+        private static final String COLUMN_A_WIDTH = "a_width";
+        private static final String COLUMN_A_HEIGHT = "a_height";
+
+        ResultDB(Context context) {
+            super(context, LauncherFiles.ADAPTIVE_ICONS_DB, RELEASE_VERSION, TABLE_NAME);
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_KEY + " TEXT NOT NULL PRIMARY KEY, " +
+                    COLUMN_SCALE + " REAL NOT NULL, " +
+                    COLUMN_FLAGS + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_BACKGROUND + " INTEGER NOT NULL, " +
+                    COLUMN_WIDTH + " INTEGER NOT NULL, " +
+                    COLUMN_HEIGHT + " INTEGER NOT NULL, " +
+                    COLUMN_A_WIDTH + " REAL NOT NULL, " +
+                    COLUMN_A_HEIGHT + " REAL NOT NULL" +
+                    ");");
+        }
+    }
+}
@@ -19,15 +19,18 @@ package org.zimmob.zimlx.adaptive;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
-import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
-import androidx.core.graphics.ColorUtils;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.launcher3.Utilities;
 import com.android.launcher3.graphics.ColorExtractor;
@@ -47,20 +50,20 @@ import static java.lang.Math.round;
 // TODO: Make this thing async somehow (maybe using some drawable wrappers?)
 public class AdaptiveIconGenerator {
 
-    // Average number of derived colors (based on averages with ~100 icons and performance testing)
-    private static final int NUMBER_OF_COLORS_GUESSTIMATION = 45;
-
     // Found after some experimenting, might be improved with some more testing
     private static final float FULL_BLEED_ICON_SCALE = 1.44f;
     // Found after some experimenting, might be improved with some more testing
     private static final float NO_MIXIN_ICON_SCALE = 1.40f;
-    // Icons with less than 5 colors are considered as "single color"
-    private static final int SINGLE_COLOR_LIMIT = 5;
     // Minimal alpha to be considered opaque
     private static final int MIN_VISIBLE_ALPHA = 0xEF;
+    // Largest side of the bitmap the colors are analysed on
+    private static final int SAMPLE_SIZE = 48;
+    // Size the icon is drawn at to tell whether it changed since it was analysed
+    private static final int FINGERPRINT_SIZE = 32;
 
     private Context context;
     private Drawable icon;
+    private final String cacheKey;
 
     private final boolean extractColor;
     private final boolean treatWhite;
@@ -83,8 +86,19 @@ public class AdaptiveIconGenerator {
     private AdaptiveIconCompat tmp;
 
     public AdaptiveIconGenerator(Context context, @NonNull Drawable icon) {
+        this(context, icon, null);
+    }
+
+    /**
+     * @param cacheKey identifies the source of the icon, eg. its package, to persist the
+     *                 analysis in {@link AdaptiveIconCache}. Must be null for icons which
+     *                 change while they are shown, like clocks.
+     */
+    public AdaptiveIconGenerator(Context context, @NonNull Drawable icon,
+                                 @Nullable String cacheKey) {
         this.context = context;
         this.icon = AdaptiveIconCompat.wrap(icon);
+        this.cacheKey = cacheKey;
         ZimPreferences prefs = Utilities.getZimPrefs(context);
         shouldWrap = prefs.getEnableLegacyTreatment();
         extractColor = shouldWrap && prefs.getColorizedLegacyTreatment();
@@ -93,175 +107,223 @@ public class AdaptiveIconGenerator {
 
     private void loop() {
         if (Utilities.ATLEAST_OREO && shouldWrap) {
-            Drawable extractee = icon;
-            if (icon instanceof AdaptiveIconCompat) {
-                if (!treatWhite) {
-                    onExitLoop();
-                    return;
-                }
-                AdaptiveIconCompat aid = (AdaptiveIconCompat) icon;
-                // we still check this seperately as this is the only information we need from the background
-                if (!ColorExtractor.isSingleColor(aid.getBackground(), Color.WHITE)) {
-                    onExitLoop();
-                    return;
+            if (icon instanceof AdaptiveIconCompat && !treatWhite) {
+                onExitLoop();
+                return;
+            }
+            String key = getCacheKey();
+            AdaptiveIconCache.Result cached = key != null
+                    ? AdaptiveIconCache.getInstance(context).get(key) : null;
+            if (cached != null) {
+                applyCachedResult(cached);
+            } else {
+                analyze();
+                if (key != null) {
+                    AdaptiveIconCache.getInstance(context).put(key, toCachedResult());
                 }
-                isBackgroundWhite = true;
-                extractee = aid.getForeground();
             }
+        }
+        onExitLoop();
+    }
 
-            if (extractee == null) {
-                Log.e("AdaptiveIconGenerator", "extractee is null, skipping.");
-                onExitLoop();
+    private void analyze() {
+        Drawable extractee = icon;
+        if (icon instanceof AdaptiveIconCompat) {
+            AdaptiveIconCompat aid = (AdaptiveIconCompat) icon;
+            // we still check this seperately as this is the only information we need from the background
+            if (!ColorExtractor.isSingleColor(aid.getBackground(), Color.WHITE)) {
                 return;
             }
+            isBackgroundWhite = true;
+            extractee = aid.getForeground();
+        }
 
-            LauncherIcons li = LauncherIcons.obtain(context);
-            IconNormalizer normalizer = li.getNormalizer();
-            li.recycle();
+        if (extractee == null) {
+            Log.e("AdaptiveIconGenerator", "extractee is null, skipping.");
+            return;
+        }
 
-            boolean[] outShape = new boolean[1];
-            RectF bounds = new RectF();
+        LauncherIcons li = LauncherIcons.obtain(context);
+        IconNormalizer normalizer = li.getNormalizer();
+        li.recycle();
 
-            initTmpIfNeeded();
-            scale = normalizer.getScale(extractee, bounds, tmp.getIconMask(), outShape, MIN_VISIBLE_ALPHA);
-            matchesMaskShape = outShape[0];
+        boolean[] outShape = new boolean[1];
+        RectF bounds = new RectF();
 
-            if (extractee instanceof ColorDrawable) {
-                isFullBleed = true;
-                fullBleedChecked = true;
-            }
+        initTmpIfNeeded();
+        scale = normalizer.getScale(extractee, bounds, tmp.getIconMask(), outShape, MIN_VISIBLE_ALPHA);
+        matchesMaskShape = outShape[0];
 
-            width = extractee.getIntrinsicWidth();
-            height = extractee.getIntrinsicHeight();
-            aWidth = width * (1 - (bounds.left + bounds.right));
-            aHeight = height * (1 - (bounds.top + bounds.bottom));
-
-            // Check if the icon is squareish
-            final float ratio = aHeight / aWidth;
-            boolean isSquareish = 0.999 < ratio && ratio < 1.0001;
-            boolean almostSquarish = isSquareish || (0.97 < ratio && ratio < 1.005);
-            if (!isSquareish) {
-                isFullBleed = false;
-                fullBleedChecked = true;
-            }
+        if (extractee instanceof ColorDrawable) {
+            isFullBleed = true;
+            fullBleedChecked = true;
+        }
 
-            final Bitmap bitmap = Utilities.drawableToBitmap(extractee);
-            if (bitmap == null) {
-                onExitLoop();
-                return;
-            }
+        width = extractee.getIntrinsicWidth();
+        height = extractee.getIntrinsicHeight();
+        aWidth = width * (1 - (bounds.left + bounds.right));
+        aHeight = height * (1 - (bounds.top + bounds.bottom));
+
+        // Check if the icon is squareish
+        final float ratio = aHeight / aWidth;
+        boolean isSquareish = 0.999 < ratio && ratio < 1.0001;
+        boolean almostSquarish = isSquareish || (0.97 < ratio && ratio < 1.005);
+        if (!isSquareish) {
+            isFullBleed = false;
+            fullBleedChecked = true;
+        }
 
-            if (!bitmap.hasAlpha()) {
-                isFullBleed = true;
-                fullBleedChecked = true;
-            }
+        final Bitmap bitmap = drawSample(extractee);
+        if (bitmap == null) {
+            return;
+        }
 
-            final int size = height * width;
-            SparseIntArray rgbScoreHistogram = new SparseIntArray(NUMBER_OF_COLORS_GUESSTIMATION);
-            final int[] pixels = new int[size];
-            //bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-
-            /*
-             *   Calculate the number of padding pixels around the actual icon (i)
-             *   +----------------+
-             *   |      top       |
-             *   +---+--------+---+
-             *   |   |        |   |
-             *   | l |    i   | r |
-             *   |   |        |   |
-             *   +---+--------+---+
-             *   |     bottom     |
-             *   +----------------+
-             */
-            float adjHeight = height - bounds.top - bounds.bottom;
-            float l = bounds.left * width * adjHeight;
-            float top = bounds.top * height * width;
-            float r = bounds.right * width * adjHeight;
-            float bottom = bounds.bottom * height * width;
-            int addPixels = Math.round(l + top + r + bottom);
-
-            // Any icon with less than 10% transparent pixels (padding excluded) is considered "full-bleed-ish"
-            final int maxTransparent = (int) (round(size * .10) + addPixels);
-            // Any icon with less than 27% transparent pixels (padding excluded) doesn't need a color mix-in
-            final int noMixinScore = (int) (round(size * .27) + addPixels);
-
-            int highScore = 0;
-            int bestRGB = 0;
-            int transparentScore = 0;
-            for (int pixel : pixels) {
-                int alpha = 0xFF & (pixel >> 24);
-                if (alpha < MIN_VISIBLE_ALPHA) {
-                    // Drop mostly-transparent pixels.
-                    transparentScore++;
-                    if (transparentScore > maxTransparent) {
-                        isFullBleed = false;
-                        fullBleedChecked = true;
-                        if (!extractColor) {
-                            break;
-                        }
-                    }
-                    continue;
-                }
-                // Reduce color complexity.
-                int rgb = ColorExtractor.posterize(pixel);
-                if (rgb < 0) {
-                    // Defensively avoid array bounds violations.
-                    continue;
-                }
-                int currentScore = rgbScoreHistogram.get(rgb) + 1;
-                rgbScoreHistogram.append(rgb, currentScore);
-                if (currentScore > highScore) {
-                    highScore = currentScore;
-                    bestRGB = rgb;
-                }
-            }
+        if (extractee instanceof BitmapDrawable
+                && !((BitmapDrawable) extractee).getBitmap().hasAlpha()) {
+            isFullBleed = true;
+            fullBleedChecked = true;
+        }
 
-            // add back the alpha channel
-            bestRGB |= 0xff << 24;
+        // The histogram is built from the sample, the padding is proportional to it
+        final int sampleWidth = bitmap.getWidth();
+        final int sampleHeight = bitmap.getHeight();
+        final int size = sampleHeight * sampleWidth;
+        final int[] pixels = new int[size];
+        // The pixels were never read here, so every pixel counts as transparent. Reading them
+        // changes the background of many legacy icons and is left to a change of its own.
+        //bitmap.getPixels(pixels, 0, sampleWidth, 0, 0, sampleWidth, sampleHeight);
+
+        /*
+         *   Calculate the number of padding pixels around the actual icon (i)
+         *   +----------------+
+         *   |      top       |
+         *   +---+--------+---+
+         *   |   |        |   |
+         *   | l |    i   | r |
+         *   |   |        |   |
+         *   +---+--------+---+
+         *   |     bottom     |
+         *   +----------------+
+         */
+        float adjHeight = sampleHeight - bounds.top - bounds.bottom;
+        float l = bounds.left * sampleWidth * adjHeight;
+        float top = bounds.top * sampleHeight * sampleWidth;
+        float r = bounds.right * sampleWidth * adjHeight;
+        float bottom = bounds.bottom * sampleHeight * sampleWidth;
+        int addPixels = Math.round(l + top + r + bottom);
+
+        // Any icon with less than 10% transparent pixels (padding excluded) is considered "full-bleed-ish"
+        final int maxTransparent = (int) (round(size * .10) + addPixels);
+        // Any icon with less than 27% transparent pixels (padding excluded) doesn't need a color mix-in
+        final int noMixinScore = (int) (round(size * .27) + addPixels);
+
+        IconColorHistogram histogram = IconColorHistogram.compute(pixels, MIN_VISIBLE_ALPHA);
+        final int bestRGB = histogram.bestColor;
+        final int transparentScore = histogram.transparentPixels;
+        if (transparentScore > maxTransparent) {
+            isFullBleed = false;
+            fullBleedChecked = true;
+        }
 
-            // not yet checked = not set to false = has to be full bleed, isBackgroundWhite = true = is adaptive
-            isFullBleed |= !fullBleedChecked && !isBackgroundWhite;
+        // not yet checked = not set to false = has to be full bleed, isBackgroundWhite = true = is adaptive
+        isFullBleed |= !fullBleedChecked && !isBackgroundWhite;
 
-            // return early if a mix-in isnt needed
-            noMixinNeeded = !isFullBleed && !isBackgroundWhite && almostSquarish && transparentScore <= noMixinScore;
-            if (isFullBleed || noMixinNeeded) {
-                backgroundColor = bestRGB;
-                onExitLoop();
-                return;
-            }
+        // return early if a mix-in isnt needed
+        noMixinNeeded = !isFullBleed && !isBackgroundWhite && almostSquarish && transparentScore <= noMixinScore;
+        if (isFullBleed || noMixinNeeded) {
+            backgroundColor = bestRGB;
+            return;
+        }
 
-            if (!extractColor) {
-                backgroundColor = Color.WHITE;
-                onExitLoop();
-                return;
-            }
+        if (!extractColor) {
+            backgroundColor = Color.WHITE;
+            return;
+        }
 
-            // "single color"
-            //final int numColors = rgbScoreHistogram.size();
-            //boolean singleColor = numColors <= SINGLE_COLOR_LIMIT;
-
-            // Convert to HSL to get the lightness and adjust the color
-            final float[] hsl = new float[3];
-            ColorUtils.colorToHSL(bestRGB, hsl);
-            //float lightness = hsl[2];
-
-            //boolean light = lightness > .5;
-            // Apply dark background to mostly white icons
-            //boolean veryLight = lightness > .75 && singleColor;
-            // Apply light background to mostly dark icons
-            //boolean veryDark = lightness < .35 && singleColor;
-
-            // Adjust color to reach suitable contrast depending on the relationship between the colors
-            //final int opaqueSize = size - transparentScore;
-            //final float pxPerColor = opaqueSize / (float) numColors;
-            //float mixRatio = min(max(pxPerColor / highScore, .15f), .7f);
-
-            // Vary color mix-in based on lightness and amount of colors
-            //int fill = (light && !veryLight) || veryDark ? 0xFFFFFFFF : 0xFF333333;
-            //backgroundColor = ColorUtils.blendARGB(bestRGB, fill, mixRatio);
-            backgroundColor = ColorExtractor.findDominantColorByHue(bitmap);
+        backgroundColor = ColorExtractor.findDominantColorByHue(bitmap);
+    }
+
+    /**
+     * Draws {@param drawable} into a bitmap no larger than {@link #SAMPLE_SIZE}, keeping its
+     * aspect ratio, or returns null if it has no intrinsic size.
+     */
+    @VisibleForTesting
+    static Bitmap drawSample(Drawable drawable) {
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
         }
-        onExitLoop();
+        float sampleScale = min(1f, (float) SAMPLE_SIZE / max(width, height));
+        int sampleWidth = max(1, round(width * sampleScale));
+        int sampleHeight = max(1, round(height * sampleScale));
+        Bitmap bitmap = Bitmap.createBitmap(sampleWidth, sampleHeight, Bitmap.Config.ARGB_8888);
+        Rect oldBounds = drawable.copyBounds();
+        drawable.setBounds(0, 0, sampleWidth, sampleHeight);
+        drawable.draw(new Canvas(bitmap));
+        drawable.setBounds(oldBounds);
+        return bitmap;
+    }
+
+    /**
+     * Returns the key of the analysis result in {@link AdaptiveIconCache}, made of the source
+     * key, a hash of the icon drawn at {@link #FINGERPRINT_SIZE} and the settings which affect
+     * the result, or null if the result shouldn't be cached.
+     */
+    private String getCacheKey() {
+        if (cacheKey == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(FINGERPRINT_SIZE, FINGERPRINT_SIZE,
+                Bitmap.Config.ARGB_8888);
+        Rect oldBounds = icon.copyBounds();
+        icon.setBounds(0, 0, FINGERPRINT_SIZE, FINGERPRINT_SIZE);
+        icon.draw(new Canvas(bitmap));
+        icon.setBounds(oldBounds);
+        int[] pixels = new int[FINGERPRINT_SIZE * FINGERPRINT_SIZE];
+        bitmap.getPixels(pixels, 0, FINGERPRINT_SIZE, 0, 0, FINGERPRINT_SIZE, FINGERPRINT_SIZE);
+        bitmap.recycle();
+
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int pixel : pixels) {
+            hash = (hash ^ pixel) * 0x100000001b3L;
+        }
+        hash = (hash ^ icon.getIntrinsicWidth()) * 0x100000001b3L;
+        hash = (hash ^ icon.getIntrinsicHeight()) * 0x100000001b3L;
+
+        String shape;
+        try {
+            shape = IconShapeManager.getInstanceNoCreate().getIconShape().toString();
+        } catch (Exception e) {
+            // Not created yet, the shape is then the default one
+            shape = "";
+        }
+        return cacheKey + "/" + Long.toHexString(hash) + "/" + extractColor + "," + treatWhite
+                + "," + shape;
+    }
+
+    private void applyCachedResult(AdaptiveIconCache.Result result) {
+        scale = result.scale;
+        matchesMaskShape = result.hasFlag(AdaptiveIconCache.Result.FLAG_MATCHES_MASK_SHAPE);
+        isFullBleed = result.hasFlag(AdaptiveIconCache.Result.FLAG_FULL_BLEED);
+        noMixinNeeded = result.hasFlag(AdaptiveIconCache.Result.FLAG_NO_MIXIN_NEEDED);
+        isBackgroundWhite = result.hasFlag(AdaptiveIconCache.Result.FLAG_BACKGROUND_WHITE);
+        backgroundColor = result.backgroundColor;
+        width = result.width;
+        height = result.height;
+        aWidth = result.aWidth;
+        aHeight = result.aHeight;
+    }
+
+    private AdaptiveIconCache.Result toCachedResult() {
+        int flags = 0;
+        if (matchesMaskShape) flags |= AdaptiveIconCache.Result.FLAG_MATCHES_MASK_SHAPE;
+        if (isFullBleed) flags |= AdaptiveIconCache.Result.FLAG_FULL_BLEED;
+        if (noMixinNeeded) flags |= AdaptiveIconCache.Result.FLAG_NO_MIXIN_NEEDED;
+        if (isBackgroundWhite) flags |= AdaptiveIconCache.Result.FLAG_BACKGROUND_WHITE;
+        return new AdaptiveIconCache.Result(scale, flags, backgroundColor, width, height,
+                aWidth, aHeight);
     }
 
     private void onExitLoop() {
@@ -0,0 +1,72 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.adaptive;
+
+import com.android.launcher3.graphics.ColorExtractor;
+
+/**
+ * Histogram of the posterized colors of an icon's visible pixels, along with the number of
+ * mostly transparent ones. It only uses plain Java so that it can be tested off device.
+ */
+public final class IconColorHistogram {
+
+    // Posterized channels are multiples of this
+    private static final int LEVEL_STEP = 25;
+    private static final int LEVELS = 255 / LEVEL_STEP + 1;
+
+    /**
+     * The most frequent posterized color, opaque, or opaque black if no pixel is visible
+     */
+    public final int bestColor;
+    public final int transparentPixels;
+    public final int totalPixels;
+
+    private IconColorHistogram(int bestColor, int transparentPixels, int totalPixels) {
+        this.bestColor = bestColor;
+        this.transparentPixels = transparentPixels;
+        this.totalPixels = totalPixels;
+    }
+
+    /**
+     * @param pixels ARGB pixels of the icon
+     * @param minVisibleAlpha pixels below this alpha are counted as transparent
+     */
+    public static IconColorHistogram compute(int[] pixels, int minVisibleAlpha) {
+        int[] scores = new int[LEVELS * LEVELS * LEVELS];
+        int highScore = 0;
+        int bestRgb = 0;
+        int transparent = 0;
+        for (int pixel : pixels) {
+            int alpha = 0xFF & (pixel >> 24);
+            if (alpha < minVisibleAlpha) {
+                transparent++;
+                continue;
+            }
+            int rgb = ColorExtractor.posterize(pixel);
+            int index = ((rgb >> 16) / LEVEL_STEP * LEVELS
+                    + (0xFF & (rgb >> 8)) / LEVEL_STEP) * LEVELS
+                    + (0xFF & rgb) / LEVEL_STEP;
+            int score = ++scores[index];
+            if (score > highScore) {
+                highScore = score;
+                bestRgb = rgb;
+            }
+        }
+        return new IconColorHistogram(bestRgb | 0xFF << 24, transparent, pixels.length);
+    }
+}
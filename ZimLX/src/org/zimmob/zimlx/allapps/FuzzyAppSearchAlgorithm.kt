@@ -29,6 +29,7 @@ import com.android.launcher3.allapps.search.AllAppsSearchBarController
 import com.android.launcher3.allapps.search.SearchAlgorithm
 import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
+import com.android.launcher3.logging.Profiler
 import me.xdrop.fuzzywuzzy.FuzzySearch
 import me.xdrop.fuzzywuzzy.ToStringFunction
 import org.zimmob.zimlx.ZimAppFilter
@@ -90,13 +91,16 @@ class FuzzyAppSearchAlgorithm(private val context: Context, private val apps: Li
         @JvmStatic
         fun query(context: Context, query: String, defaultApps: List<AppInfo>,
                   filter: AppFilter): List<AppInfo> {
-            return FuzzySearch.extractAll(query, getApps(context, defaultApps, filter),
+            val start = Profiler.SEARCH_QUERY.start()
+            val result = FuzzySearch.extractAll(query, getApps(context, defaultApps, filter),
                     ToStringFunction<AppInfo> { item ->
                         item?.title.toString()
                     }, WinklerWeightedRatio(), MIN_SCORE)
                     .sortedBy { it.referent.title.toString() }
                     .sortedByDescending { it.score }
                     .map { it.referent }
+            Profiler.SEARCH_QUERY.end(start)
+            return result
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package org.zimmob.zimlx.backup
+
+import java.io.*
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.*
+
+/**
+ * Content addressed storage shared by the deduplicated backups of a folder. Files are split in
+ * chunks of [CHUNK_SIZE] bytes named after their SHA-1, so that the parts of a file which didn't
+ * change since a previous backup are only stored once. SQLite rewrites the pages of a database
+ * in place, so the unchanged pages of a database end up in the same chunks.
+ */
+class BackupChunkStore(private val dir: File) {
+
+    /**
+     * Stores the chunks of [input] which aren't stored yet, returns the names of all its chunks.
+     */
+    @Throws(IOException::class)
+    fun write(input: InputStream): List<String> {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw IOException("Unable to create $dir")
+        }
+        val digest = MessageDigest.getInstance("SHA-1")
+        val buffer = ByteArray(CHUNK_SIZE)
+        val names = ArrayList<String>()
+        while (true) {
+            val count = readFully(input, buffer)
+            if (count == 0) break
+            digest.update(buffer, 0, count)
+            val name = digest.digest().joinToString("") { String.format("%02x", it) }
+            val file = File(dir, name)
+            if (!file.exists()) {
+                val tmp = File(dir, "$name$TMP_SUFFIX")
+                FileOutputStream(tmp).use { it.write(buffer, 0, count) }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete()
+                    throw IOException("Unable to store chunk $name")
+                }
+            }
+            names.add(name)
+            if (count < CHUNK_SIZE) break
+        }
+        return names
+    }
+
+    /**
+     * Returns the content of the file made of the chunks [names], opening the chunks one at a
+     * time.
+     */
+    @Throws(IOException::class)
+    fun open(names: List<String>): InputStream {
+        val missing = names.firstOrNull { !File(dir, it).exists() }
+        if (missing != null) {
+            throw FileNotFoundException("Missing chunk $missing")
+        }
+        val iterator = names.iterator()
+        return SequenceInputStream(object : Enumeration<InputStream> {
+            override fun hasMoreElements() = iterator.hasNext()
+
+            override fun nextElement(): InputStream = FileInputStream(File(dir, iterator.next()))
+        })
+    }
+
+    /**
+     * Deletes the chunks which aren't in [used], returns how many were deleted.
+     */
+    fun deleteUnused(used: Set<String>): Int {
+        var deleted = 0
+        dir.listFiles()?.forEach { file ->
+            if (file.name !in used && file.delete()) {
+                deleted++
+            }
+        }
+        return deleted
+    }
+
+    companion object {
+
+        const val CHUNK_SIZE = 64 * 1024
+
+        private const val TMP_SUFFIX = ".tmp"
+
+        fun writeManifest(names: List<String>, out: OutputStream) {
+            out.write(names.joinToString("\n").toByteArray(StandardCharsets.UTF_8))
+        }
+
+        fun readManifest(input: InputStream): List<String> {
+            return String(input.readBytes(), StandardCharsets.UTF_8).split('\n').filter { it.isNotEmpty() }
+        }
+
+        private fun readFully(input: InputStream, buffer: ByteArray): Int {
+            var total = 0
+            while (total < buffer.size) {
+                val count = input.read(buffer, total, buffer.size - total)
+                if (count == -1) break
+                total += count
+            }
+            return total
+        }
+    }
+}
@@ -107,7 +107,9 @@ class BackupListActivity : SettingsBaseActivity(), BackupListAdapter.Callbacks {
         val removeBackup = bottomSheetView.findViewById<View>(R.id.action_remove_backup_from_list)
         val divider = bottomSheetView.findViewById<View>(R.id.divider)
         restoreBackup.visibility = visibility
-        shareBackup.visibility = visibility
+        // Deduplicated backups can't be restored without the chunks stored on this device
+        val deduplicated = adapter[position].meta?.let { it.contents and ZimBackup.DEDUPLICATE != 0 }
+        shareBackup.visibility = if (deduplicated == true) View.GONE else visibility
         divider.visibility = visibility
 
         val bottomSheet = SettingsBottomSheet.inflate(this)
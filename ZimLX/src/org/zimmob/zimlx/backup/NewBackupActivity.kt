@@ -34,6 +34,7 @@ class NewBackupActivity : SettingsBaseActivity() {
     private val backupWallpaper by lazy { findViewById<CheckBox>(R.id.content_wallpaper) }
 
     private val backupLocationDevice by lazy { findViewById<RadioButton>(R.id.location_device) }
+    private val backupDeduplicate by lazy { findViewById<CheckBox>(R.id.location_deduplicate) }
 
     private val config by lazy { findViewById<View>(R.id.config) }
     private val startButton by lazy { findViewById<FloatingActionButton>(R.id.fab) }
@@ -59,6 +60,11 @@ class NewBackupActivity : SettingsBaseActivity() {
 
         backupName.setText(getTimestamp())
 
+        // Deduplicated backups need the chunks kept next to the device backups
+        backupLocationDevice.setOnCheckedChangeListener { _, isChecked ->
+            backupDeduplicate.isEnabled = isChecked
+        }
+
         startButton.setOnClickListener {
             onStartBackup()
         }
@@ -175,6 +181,9 @@ class NewBackupActivity : SettingsBaseActivity() {
             if (backupWallpaper.isChecked) {
                 contents = contents or ZimBackup.INCLUDE_WALLPAPER
             }
+            if (backupLocationDevice.isChecked && backupDeduplicate.isChecked) {
+                contents = contents or ZimBackup.DEDUPLICATE
+            }
             return ZimBackup.create(
                     context = context,
                     name = backupName.text.toString(),
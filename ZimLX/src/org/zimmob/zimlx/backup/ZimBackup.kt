@@ -9,17 +9,27 @@ import android.graphics.BitmapFactory
 import android.net.Uri
 import android.os.AsyncTask
 import android.os.Environment
+import android.os.ParcelFileDescriptor
+import android.os.SystemClock
+import android.system.Os
+import android.system.OsConstants
 import android.util.Log
 import androidx.core.content.FileProvider
 import com.android.launcher3.BuildConfig
 import com.android.launcher3.LauncherFiles
+import com.android.launcher3.LauncherSettings
 import com.android.launcher3.Utilities
+import com.android.launcher3.provider.LauncherDbUtils
 import org.json.JSONArray
+import org.zimmob.zimlx.runOnUiWorkerThread
+import org.zimmob.zimlx.zimPrefs
 import java.io.*
 import java.nio.charset.StandardCharsets
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.zip.Deflater
 import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
 import java.util.zip.ZipInputStream
 import java.util.zip.ZipOutputStream
 
@@ -29,46 +39,23 @@ class ZimBackup(val context: Context, val uri: Uri) {
     val meta by lazy { readMeta() }
 
     private fun readMeta(): Meta? {
-        try {
-            val pfd = context.contentResolver.openFileDescriptor(uri, "r")
-            val inStream = FileInputStream(pfd?.fileDescriptor)
-            val zipIs = ZipInputStream(inStream)
-            var entry: ZipEntry?
-            var meta: Meta? = null
-            try {
-                while (true) {
-                    entry = zipIs.nextEntry
-                    if (entry == null) break
-                    if (entry.name != Meta.FILE_NAME) continue
-                    meta = Meta.fromString(String(zipIs.readBytes(), StandardCharsets.UTF_8))
-                    break
-                }
-            } catch (t: Throwable) {
-                Log.e(TAG, "Unable to read meta for $uri", t)
-            } finally {
-                zipIs.close()
-                inStream.close()
-                pfd?.close()
-                return meta
-            }
-        } catch (t: Throwable) {
-            Log.e(TAG, "Unable to read meta for $uri", t)
-            return null
+        var meta: Meta? = null
+        readEntries(setOf(Meta.FILE_NAME)) { _, input ->
+            meta = Meta.fromString(String(input.readBytes(), StandardCharsets.UTF_8))
         }
+        return meta
     }
 
     private fun readPreview(): Pair<Bitmap?, Bitmap?>? {
-        var entry: ZipEntry?
         var screenshot: Bitmap? = null
         var wallpaper: Bitmap? = null
-        readZip { zipIs ->
-            while (true) {
-                entry = zipIs.nextEntry
-                if (entry == null) break
-                if (entry!!.name == "screenshot.png") {
-                    screenshot = BitmapFactory.decodeStream(zipIs)
-                } else if (entry!!.name == WALLPAPER_FILE_NAME) {
-                    wallpaper = BitmapFactory.decodeStream(zipIs)
+        readEntries(setOf(SCREENSHOT_FILE_NAME, WALLPAPER_FILE_NAME,
+                WALLPAPER_FILE_NAME + CHUNKS_SUFFIX)) { name, input ->
+            when (name) {
+                SCREENSHOT_FILE_NAME -> screenshot = BitmapFactory.decodeStream(input)
+                WALLPAPER_FILE_NAME -> wallpaper = BitmapFactory.decodeStream(input)
+                else -> getChunkStore().open(BackupChunkStore.readManifest(input)).use {
+                    wallpaper = BitmapFactory.decodeStream(it)
                 }
             }
         }
@@ -77,36 +64,72 @@ class ZimBackup(val context: Context, val uri: Uri) {
                 Utilities.getScaledDownBitmap(wallpaper, 1000, false))
     }
 
-    private inline fun readZip(body: (ZipInputStream) -> Unit) {
+    /**
+     * Returns the chunks used by this backup if it's deduplicated, or null if it can't be read.
+     */
+    private fun readChunkNames(): Set<String>? {
+        val names = HashSet<String>()
+        val found = readEntries(DATA_FILE_NAMES.map { it + CHUNKS_SUFFIX }.toSet()) { _, input ->
+            names.addAll(BackupChunkStore.readManifest(input))
+        }
+        return if (found) names else null
+    }
+
+    /**
+     * Calls [body] with the entries of the backup which are in [names], returns whether the
+     * backup could be read.
+     *
+     * Entries are looked up in the central directory of the zip when the backup is a file,
+     * otherwise the backup is read from the start. As the meta and the previews are the first
+     * entries, reading stops at the first other entry when only those are needed.
+     */
+    private fun readEntries(names: Set<String>, body: (String, InputStream) -> Unit): Boolean {
         try {
-            val pfd = context.contentResolver.openFileDescriptor(uri, "r")
-            val inStream = FileInputStream(pfd?.fileDescriptor)
-            val zipIs = ZipInputStream(inStream)
-            try {
-                body(zipIs)
-            } catch (t: Throwable) {
-                Log.e(TAG, "Unable to read zip for $uri", t)
-            } finally {
-                zipIs.close()
-                inStream.close()
-                pfd?.close()
+            val pfd = context.contentResolver.openFileDescriptor(uri, "r") ?: return false
+            pfd.use {
+                if (OsConstants.S_ISREG(Os.fstat(pfd.fileDescriptor).st_mode)) {
+                    ZipFile("/proc/self/fd/${pfd.fd}").use { zipFile ->
+                        names.forEach { name ->
+                            val entry = zipFile.getEntry(name) ?: return@forEach
+                            zipFile.getInputStream(entry).use { body(name, it) }
+                        }
+                    }
+                    return true
+                }
+                val headerOnly = HEADER_FILE_NAMES.containsAll(names)
+                ZipInputStream(FileInputStream(pfd.fileDescriptor)).use { zipIs ->
+                    var remaining = names.size
+                    while (remaining > 0) {
+                        val entry = zipIs.nextEntry ?: break
+                        if (entry.name in names) {
+                            body(entry.name, zipIs)
+                            remaining--
+                        } else if (headerOnly && entry.name !in HEADER_FILE_NAMES) {
+                            break
+                        }
+                    }
+                }
+                return true
             }
         } catch (t: Throwable) {
             Log.e(TAG, "Unable to read zip for $uri", t)
+            return false
         }
     }
 
     fun restore(contents: Int): Boolean {
         try {
+            val start = SystemClock.uptimeMillis()
             val contextWrapper = ContextWrapper(context)
             val dbFile = contextWrapper.getDatabasePath(LauncherFiles.LAUNCHER_DB)
             val dir = contextWrapper.cacheDir.parent
             val settingsFile = File(dir, "shared_prefs/" + LauncherFiles.SHARED_PREFERENCES_KEY + ".xml")
+            val collectionsFile = contextWrapper.getDatabasePath(LauncherFiles.PREFS_COLLECTIONS_DB)
+            var restoredCollections = false
 
             val pfd = context.contentResolver.openFileDescriptor(uri, "r")
             val inStream = FileInputStream(pfd?.fileDescriptor)
-            val zipIs = ZipInputStream(inStream)
-            val data = ByteArray(BUFFER)
+            val zipIs = ZipInputStream(BufferedInputStream(inStream))
             var entry: ZipEntry?
             var success = false
             try {
@@ -114,31 +137,45 @@ class ZimBackup(val context: Context, val uri: Uri) {
                     entry = zipIs.nextEntry
                     if (entry == null) break
                     Log.d(TAG, "Found entry ${entry.name}")
-                    val file = if (entry.name == dbFile.name) {
+                    val name = entry.name.removeSuffix(CHUNKS_SUFFIX)
+                    val file = if (name == dbFile.name) {
                         if (contents and INCLUDE_HOMESCREEN == 0) continue
                         dbFile
-                    } else if (entry.name == settingsFile.name) {
+                    } else if (name == settingsFile.name) {
                         if (contents and INCLUDE_SETTINGS == 0) continue
                         settingsFile
-                    } else if (entry.name == WALLPAPER_FILE_NAME) {
+                    } else if (name == collectionsFile.name) {
+                        if (contents and INCLUDE_SETTINGS == 0) continue
+                        restoredCollections = true
+                        collectionsFile
+                    } else if (name == WALLPAPER_FILE_NAME) {
                         if (contents and INCLUDE_WALLPAPER == 0) continue
-                        val wallpaperManager = WallpaperManager.getInstance(context)
-                        wallpaperManager.setBitmap(BitmapFactory.decodeStream(zipIs))
-                        continue
+                        null
                     } else {
                         continue
                     }
-                    val out = FileOutputStream(file)
-                    Log.d(TAG, "Restoring ${entry.name} to ${file.absolutePath}")
-                    var count: Int
-                    while (true) {
-                        count = zipIs.read(data, 0, BUFFER)
-                        if (count == -1) break
-                        out.write(data, 0, count)
+                    val input = if (name != entry.name) {
+                        getChunkStore().open(BackupChunkStore.readManifest(zipIs))
+                    } else zipIs
+                    try {
+                        if (file == null) {
+                            // Set from the encoded image, without decoding it here
+                            WallpaperManager.getInstance(context).setStream(input)
+                        } else {
+                            Log.d(TAG, "Restoring ${entry.name} to ${file.absolutePath}")
+                            FileOutputStream(file).use { input.copyTo(it) }
+                        }
+                    } finally {
+                        if (input !== zipIs) input.close()
                     }
-                    out.close()
+                }
+                if (contents and INCLUDE_SETTINGS != 0 && !restoredCollections) {
+                    // Older backups keep the collections in the settings file, which are
+                    // migrated again on the next start
+                    collectionsFile.delete()
                 }
                 success = true
+                Log.d(TAG, "Restored $uri in ${SystemClock.uptimeMillis() - start}ms")
             } catch (t: Throwable) {
                 Log.e(TAG, "Failed to restore $uri", t)
             } finally {
@@ -154,7 +191,11 @@ class ZimBackup(val context: Context, val uri: Uri) {
     }
 
     fun delete(): Boolean {
-        return context.contentResolver.delete(uri, null, null) != 0
+        if (context.contentResolver.delete(uri, null, null) == 0) {
+            return false
+        }
+        deleteUnusedChunks(context)
+        return true
     }
 
     class MetaLoader(val backup: ZimBackup) {
@@ -247,14 +288,25 @@ class ZimBackup(val context: Context, val uri: Uri) {
         const val INCLUDE_SETTINGS = 1 shl 1
         const val INCLUDE_WALLPAPER = 1 shl 2
         const val INCLUDE_SCREENSHOT = 1 shl 3
-
-        const val BUFFER = 2018
+        // Only the chunks which aren't stored yet are written, in the chunk store of the folder
+        const val DEDUPLICATE = 1 shl 4
 
         const val EXTENSION = "zbk"
         const val MIME_TYPE = "application/vnd.zim.backup"
         val EXTRA_MIME_TYPES = arrayOf(MIME_TYPE, "application/x-zip", "application/octet-stream")
 
+        // May contain any image format, it's only named after the format of older backups
         const val WALLPAPER_FILE_NAME = "wallpaper.png"
+        const val SCREENSHOT_FILE_NAME = "screenshot.png"
+        const val CHUNKS_SUFFIX = ".chunks"
+        private val HEADER_FILE_NAMES = setOf(Meta.FILE_NAME, SCREENSHOT_FILE_NAME,
+                WALLPAPER_FILE_NAME, WALLPAPER_FILE_NAME + CHUNKS_SUFFIX)
+        private val DATA_FILE_NAMES = listOf(WALLPAPER_FILE_NAME, LauncherFiles.LAUNCHER_DB,
+                LauncherFiles.SHARED_PREFERENCES_KEY + ".xml", LauncherFiles.PREFS_COLLECTIONS_DB)
+        private const val CHUNKS_FOLDER = ".chunks"
+        private const val SNAPSHOT_FOLDER = "backup"
+        // Chunks mustn't be deleted while a backup is storing them
+        private val chunksLock = Any()
         val timestampFormat = SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.US)
 
         fun getFolder(): File {
@@ -266,6 +318,26 @@ class ZimBackup(val context: Context, val uri: Uri) {
             return folder
         }
 
+        fun getChunkStore() = BackupChunkStore(File(getFolder(), CHUNKS_FOLDER))
+
+        /**
+         * Deletes the chunks which aren't used by a local backup anymore, unless a backup
+         * can't be read.
+         */
+        private fun deleteUnusedChunks(context: Context) {
+            if (!File(getFolder(), CHUNKS_FOLDER).exists()) return
+            runOnUiWorkerThread {
+                synchronized(chunksLock) {
+                    val used = HashSet<String>()
+                    listLocalBackups(context).forEach {
+                        used.addAll(it.readChunkNames() ?: return@runOnUiWorkerThread)
+                    }
+                    val deleted = getChunkStore().deleteUnused(used)
+                    Log.d(TAG, "Deleted $deleted unused chunks")
+                }
+            }
+        }
+
         fun listLocalBackups(context: Context): List<ZimBackup> {
             return getFolder().listFiles { file -> file.extension == EXTENSION }
                     ?.sortedByDescending { it.lastModified() }
@@ -289,62 +361,118 @@ class ZimBackup(val context: Context, val uri: Uri) {
         }
 
         fun create(context: Context, name: String, location: Uri, contents: Int): Boolean {
+            val start = SystemClock.uptimeMillis()
             val contextWrapper = ContextWrapper(context)
-            val files: MutableList<File> = ArrayList()
-            if (contents or INCLUDE_HOMESCREEN != 0) {
-                files.add(contextWrapper.getDatabasePath(LauncherFiles.LAUNCHER_DB))
-            }
-            if (contents or INCLUDE_SETTINGS != 0) {
-                val dir = contextWrapper.cacheDir.parent
-                files.add(File(dir, "shared_prefs/" + LauncherFiles.SHARED_PREFERENCES_KEY + ".xml"))
-            }
-
+            val snapshotDir = File(context.cacheDir, SNAPSHOT_FOLDER)
             val devOptionsEnabled = Utilities.getZimPrefs(context)
                     .developerOptionsEnabled
             prepareConfig(context)
             val pfd = context.contentResolver.openFileDescriptor(location, "w")
             val outStream = FileOutputStream(pfd?.fileDescriptor)
             val out = ZipOutputStream(BufferedOutputStream(outStream))
-            val data = ByteArray(BUFFER)
+            val chunkStore = if (contents and DEDUPLICATE != 0) getChunkStore() else null
             var success = false
             try {
-                val metaEntry = ZipEntry(Meta.FILE_NAME)
-                out.putNextEntry(metaEntry)
-                out.write(getMeta(name, contents).toString().toByteArray())
-                if (contents or INCLUDE_WALLPAPER != 0) {
-                    val wallpaperManager = WallpaperManager.getInstance(context)
-                    val wallpaperDrawable = wallpaperManager.drawable
-                    val wallpaperBitmap = Utilities.drawableToBitmap(wallpaperDrawable)
-                    if (wallpaperBitmap != null) {
-                        val wallpaperEntry = ZipEntry(WALLPAPER_FILE_NAME)
-                        out.putNextEntry(wallpaperEntry)
-                        wallpaperBitmap.compress(Bitmap.CompressFormat.PNG, 100, out)
-                    }
+                // The database snapshots of any content are copied there
+                if (!snapshotDir.exists() && !snapshotDir.mkdirs()) {
+                    throw IOException("Unable to create $snapshotDir")
                 }
-                files.forEach { file ->
-                    val input = BufferedInputStream(FileInputStream(file), BUFFER)
-                    val entry = ZipEntry(file.name)
-                    out.putNextEntry(entry)
-                    var count: Int
-                    while (true) {
-                        count = input.read(data, 0, BUFFER)
-                        if (count == -1) break
-                        out.write(data, 0, count)
+                synchronized(chunksLock) {
+                    // Read first when listing the backups
+                    out.putNextEntry(ZipEntry(Meta.FILE_NAME))
+                    out.write(getMeta(name, contents).toString().toByteArray())
+                    if (contents and INCLUDE_WALLPAPER != 0) {
+                        openWallpaper(context)?.use {
+                            // Already compressed
+                            out.setLevel(Deflater.NO_COMPRESSION)
+                            writeEntry(out, WALLPAPER_FILE_NAME, it, chunkStore)
+                            out.setLevel(Deflater.DEFAULT_COMPRESSION)
+                        }
+                    }
+
+                    val files = ArrayList<File>()
+                    if (contents and INCLUDE_HOMESCREEN != 0) {
+                        files.add(snapshotLauncherDb(context, snapshotDir))
+                    }
+                    if (contents and INCLUDE_SETTINGS != 0) {
+                        // Preferences are written to a new file which replaces the old one
+                        val dir = contextWrapper.cacheDir.parent
+                        files.add(File(dir, "shared_prefs/" + LauncherFiles.SHARED_PREFERENCES_KEY + ".xml"))
+                        val collectionsFile = contextWrapper.getDatabasePath(LauncherFiles.PREFS_COLLECTIONS_DB)
+                        if (collectionsFile.exists()) {
+                            val snapshot = File(snapshotDir, LauncherFiles.PREFS_COLLECTIONS_DB)
+                            val collectionStore = context.zimPrefs.collectionStore
+                            collectionStore.flush()
+                            LauncherDbUtils.copyDatabase(collectionStore.writableDatabase, snapshot)
+                            files.add(snapshot)
+                        }
+                    }
+                    files.forEach { file ->
+                        FileInputStream(file).use { writeEntry(out, file.name, it, chunkStore) }
                     }
-                    input.close()
                 }
                 success = true
+                Log.d(TAG, "Created backup in ${SystemClock.uptimeMillis() - start}ms")
             } catch (t: Throwable) {
                 Log.e(TAG, "Failed to create backup", t)
             } finally {
                 out.close()
                 outStream.close()
                 pfd?.close()
+                snapshotDir.listFiles()?.forEach { it.delete() }
                 cleanupConfig(context, devOptionsEnabled)
                 return success
             }
         }
 
+        /**
+         * Copies the launcher database through its provider, which prevents any write while
+         * it's being copied.
+         */
+        private fun snapshotLauncherDb(context: Context, dir: File): File {
+            val snapshot = File(dir, LauncherFiles.LAUNCHER_DB)
+            val result = context.contentResolver.call(LauncherSettings.Settings.CONTENT_URI,
+                    LauncherSettings.Settings.METHOD_COPY_DB, snapshot.path, null)
+            if (result?.getBoolean(LauncherSettings.Settings.EXTRA_VALUE) != true) {
+                throw IOException("Unable to copy the launcher database")
+            }
+            return snapshot
+        }
+
+        /**
+         * Opens the wallpaper as it was set, or the image shown by a live wallpaper.
+         */
+        private fun openWallpaper(context: Context): InputStream? {
+            val wallpaperManager = WallpaperManager.getInstance(context)
+            if (Utilities.ATLEAST_NOUGAT) {
+                try {
+                    val pfd = wallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM)
+                    if (pfd != null) {
+                        return ParcelFileDescriptor.AutoCloseInputStream(pfd)
+                    }
+                } catch (e: SecurityException) {
+                    Log.w(TAG, "Unable to open the wallpaper file", e)
+                }
+            }
+            val wallpaperBitmap = Utilities.drawableToBitmap(wallpaperManager.drawable)
+                    ?: return null
+            val bytes = ByteArrayOutputStream()
+            wallpaperBitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes)
+            return ByteArrayInputStream(bytes.toByteArray())
+        }
+
+        private fun writeEntry(out: ZipOutputStream, name: String, input: InputStream,
+                               chunkStore: BackupChunkStore?) {
+            if (chunkStore != null) {
+                val chunks = chunkStore.write(input)
+                out.putNextEntry(ZipEntry(name + CHUNKS_SUFFIX))
+                BackupChunkStore.writeManifest(chunks, out)
+            } else {
+                out.putNextEntry(ZipEntry(name))
+                input.copyTo(out)
+            }
+        }
+
         private fun getMeta(name: String, contents: Int) = Meta(
                 name = name,
                 contents = contents,
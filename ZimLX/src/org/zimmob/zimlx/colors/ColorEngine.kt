@@ -21,37 +21,131 @@ import android.content.Context
 import android.content.SharedPreferences
 import android.graphics.Color.alpha
 import android.text.TextUtils
-import com.android.launcher3.Utilities
+import com.android.launcher3.dynamicui.WallpaperColorInfo
 import com.google.android.apps.nexuslauncher.utils.ThemedContextProvider
 import org.zimmob.zimlx.*
 import org.zimmob.zimlx.colors.resolvers.DockQsbAutoResolver
 import org.zimmob.zimlx.colors.resolvers.DrawerQsbAutoResolver
 import org.zimmob.zimlx.colors.resolvers.WorkspaceLabelAutoResolver
+import org.zimmob.zimlx.theme.ThemeManager
 import org.zimmob.zimlx.theme.ThemeOverride
 import org.zimmob.zimlx.util.Config
 import org.zimmob.zimlx.util.SingletonHolder
 import java.lang.reflect.Constructor
 
-class ColorEngine private constructor(val context: Context) : ZimPreferences.OnPreferenceChangeListener {
+/**
+ * Resolves the configurable colors and notifies their listeners when they change.
+ *
+ * Resolvers declare the inputs they depend on in [ColorResolver.inputs]. The engine listens to
+ * each input once, and changes are applied in a single batch posted on the main thread: every
+ * listened key depending on a changed input, or invalidated by its resolver, is resolved once,
+ * and only the listeners of keys whose color actually changed are called.
+ */
+class ColorEngine private constructor(val context: Context) : WallpaperColorInfo.OnChangeListener,
+        ThemeOverride.ThemeOverrideListener {
 
-    private val prefs by lazy { Utilities.getZimPrefs(context) }
     private val colorListeners = mutableMapOf<String, MutableSet<OnColorChangeListener>>()
 
     private val resolverCache = mutableMapOf<String, ResolverCache>()
     private val constructorCache = mutableMapOf<String, Constructor<*>>()
 
+    // Last color passed to the listeners of each key, and to the resolvers depending on the accent
+    private val resolvedColors = mutableMapOf<String, Int>()
+    // Keys to resolve in the next batch, the forced ones notify even if their color is unchanged
+    private val dirtyKeys = mutableSetOf<String>()
+    private val forcedKeys = mutableSetOf<String>()
+    private var dirtyInputs = 0
+    private var updatePosted = false
+    private val updateRunnable = Runnable { updateColors() }
+
     private var _accentResolver = getResolverCache(Resolvers.ACCENT)
     val accentResolver get() = _accentResolver.value
     val accent get() = accentResolver.resolveColor()
 
-    override fun onValueChanged(key: String, prefs: ZimPreferences, force: Boolean) {
-        if (!force) {
-            onColorChanged(key, getResolver(key))
+    override val isAlive = true
+
+    init {
+        WallpaperColorInfo.getInstance(context).addOnChangeListener(this)
+        ThemeManager.getInstance(context).addOverride(ThemeOverride(ThemeOverride.Launcher(), this))
+    }
+
+    override fun onExtractedColorsChanged(wallpaperColorInfo: WallpaperColorInfo?) {
+        invalidateInputs(INPUT_WALLPAPER)
+    }
+
+    override fun applyTheme(themeRes: Int) {
+        // Called when registering, nothing was resolved with another theme yet
+    }
+
+    override fun reloadTheme() {
+        invalidateInputs(INPUT_THEME)
+    }
+
+    private fun invalidateInputs(inputs: Int) {
+        runOnMainThread {
+            dirtyInputs = dirtyInputs or inputs
+            postUpdate()
+        }
+    }
+
+    /**
+     * Resolves [key] again in the next batch, its listeners are called if the color changed or
+     * if [force] is true, eg. when another resolver was picked.
+     */
+    fun invalidate(key: String, force: Boolean = false) {
+        runOnMainThread {
+            dirtyKeys.add(key)
+            if (force) forcedKeys.add(key)
+            postUpdate()
+        }
+    }
+
+    private fun postUpdate() {
+        if (!updatePosted) {
+            updatePosted = true
+            mainHandler.post(updateRunnable)
         }
     }
 
-    private fun onColorChanged(key: String, colorResolver: ColorResolver) {
-        runOnMainThread { colorListeners[key]?.forEach { it.onColorChange(ResolveInfo(key, colorResolver)) } }
+    private fun updateColors() {
+        updatePosted = false
+        val inputs = dirtyInputs
+        dirtyInputs = 0
+        if (inputs != 0) {
+            resolverCache.values.forEach { it.value.onInputsChanged(inputs) }
+        }
+
+        val pending = LinkedHashSet<String>()
+        // The accent goes first as other colors may depend on it
+        if (dirtyKeys.remove(Resolvers.ACCENT) || accentResolver.dependsOn(inputs)) {
+            pending.add(Resolvers.ACCENT)
+        }
+        pending.addAll(dirtyKeys)
+        dirtyKeys.clear()
+        colorListeners.keys.filterTo(pending) { getResolver(it).dependsOn(inputs) }
+
+        val forced = HashSet(forcedKeys)
+        forcedKeys.clear()
+        val resolved = mutableSetOf<String>()
+        while (pending.isNotEmpty()) {
+            val key = pending.first()
+            pending.remove(key)
+            if (!resolved.add(key)) continue
+
+            val resolver = getResolver(key)
+            val listeners = colorListeners[key]
+            if (listeners == null && key != Resolvers.ACCENT) continue
+            val color = resolver.resolveColor()
+            if (resolvedColors.put(key, color) == color && key !in forced) continue
+
+            if (key == Resolvers.ACCENT) {
+                colorListeners.keys.filterTo(pending) { getResolver(it).dependsOn(INPUT_ACCENT) }
+            }
+            if (listeners != null) {
+                val resolveInfo = ResolveInfo(key, resolver, color)
+                HashSet(listeners).forEach { it.onColorChange(resolveInfo) }
+            }
+        }
     }
 
     fun addColorChangeListeners(listener: OnColorChangeListener, vararg keys: String) {
@@ -59,12 +153,10 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
             throw RuntimeException("At least one key is required")
         }
         for (key in keys) {
-            if (colorListeners[key] == null) {
-                colorListeners[key] = createWeakSet()
-                prefs.addOnPreferenceChangeListener(this, key)
-            }
-            colorListeners[key]?.add(listener)
-            listener.onColorChange(ResolveInfo(key, getResolver(key)))
+            colorListeners.getOrPut(key) { createWeakSet() }.add(listener)
+            val resolveInfo = ResolveInfo(key, getResolver(key))
+            resolvedColors[key] = resolveInfo.color
+            listener.onColorChange(resolveInfo)
         }
     }
 
@@ -74,7 +166,9 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
             colorListeners[key]?.remove(listener)
             if (colorListeners[key]?.isEmpty() == true) {
                 colorListeners.remove(key)
-                prefs.removeOnPreferenceChangeListener(key, this)
+                if (key != Resolvers.ACCENT) {
+                    resolvedColors.remove(key)
+                }
             }
         }
     }
@@ -93,7 +187,7 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
             val constructor = constructorCache.getOrPut(className) {
                 Class.forName(className).getConstructor(ColorResolver.Config::class.java)
             }
-            resolver = constructor.newInstance(ColorResolver.Config(key, this, ::onColorChanged, args)) as ColorResolver
+            resolver = constructor.newInstance(ColorResolver.Config(key, this, { k, _ -> invalidate(k) }, args)) as ColorResolver
         } catch (e: IllegalStateException) {
         } catch (e: ClassNotFoundException) {
         } catch (e: InstantiationException) {
@@ -115,6 +209,13 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
         @JvmStatic
         override fun getInstance(arg: Context) = super.getInstance(arg)
 
+        /** The wallpaper colors extracted by [WallpaperColorInfo] */
+        const val INPUT_WALLPAPER = 1 shl 0
+        /** The launcher theme, dark or light */
+        const val INPUT_THEME = 1 shl 1
+        /** The color of [Resolvers.ACCENT] */
+        const val INPUT_ACCENT = 1 shl 2
+
         fun setColor(editor: SharedPreferences.Editor, resolver: String, color: Int) {
             editor.putString(
                     resolver, (if (alpha(color) < 0xFF) {
@@ -184,11 +285,11 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
                 }
             }
 
-            private fun createConfig(key: String, engine: ColorEngine) = ColorResolver.Config(key, engine, engine::onColorChanged)
+            private fun createConfig(key: String, engine: ColorEngine) = ColorResolver.Config(key, engine, { k, _ -> engine.invalidate(k) })
         }
     }
 
-    class ResolverCache(private val engine: ColorEngine, key: String)
+    class ResolverCache(private val engine: ColorEngine, val key: String)
         : ZimPreferences.OnPreferenceChangeListener {
 
         private var currentValue: ColorResolver? = null
@@ -211,7 +312,7 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
         override fun onValueChanged(key: String, prefs: ZimPreferences, force: Boolean) {
             currentValue = engine.createColorResolver(key, prefValue)
             if (!force) {
-                engine.onColorChanged(key, currentValue!!)
+                engine.invalidate(key, true)
             }
         }
 
@@ -229,6 +330,12 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
         open val themeAware = false
         open val themeSet: ThemeOverride.ThemeSet = ThemeOverride.Launcher()
 
+        /**
+         * The inputs of [resolveColor], see [INPUT_WALLPAPER], [INPUT_THEME] and [INPUT_ACCENT].
+         * Other changes must be reported with [notifyChanged].
+         */
+        open val inputs get() = if (themeAware) INPUT_THEME else 0
+
         val context get() = engine.context
 
         private val themedContextProvider by lazy { ThemedContextProvider(context, this, themeSet) }
@@ -243,6 +350,17 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
 
         fun computeForegroundColor() = resolveColor().foregroundColor
 
+        fun dependsOn(inputs: Int) = this.inputs and inputs != 0
+
+        /**
+         * Called before resolving the colors again after [inputs] changed.
+         */
+        open fun onInputsChanged(inputs: Int) {
+            if (themeAware && inputs and INPUT_THEME != 0) {
+                themedContextProvider.reloadTheme()
+            }
+        }
+
         open fun startListening() {
             listening = true
         }
@@ -262,7 +380,7 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
         }
 
         override fun onThemeChanged() {
-            notifyChanged()
+            // Only reloaded from onInputsChanged, the engine already resolves this color again
         }
 
 
@@ -273,9 +391,8 @@ class ColorEngine private constructor(val context: Context) : ZimPreferences.OnP
                 val args: List<String> = emptyList())
     }
 
-    class ResolveInfo(val key: String, resolver: ColorResolver) {
+    class ResolveInfo(val key: String, resolver: ColorResolver, val color: Int = resolver.resolveColor()) {
 
-        val color = resolver.resolveColor()
         val foregroundColor by lazy { color.foregroundColor }
         val luminance = color.luminance
         val isDark = luminance < 0.5f
@@ -29,21 +29,9 @@ import org.zimmob.zimlx.getColorAttr
 import org.zimmob.zimlx.theme.ThemeOverride
 
 @Keep
-class ZimAccentResolver(config: Config) : ColorEngine.ColorResolver(config), ColorEngine.OnColorChangeListener {
+class ZimAccentResolver(config: Config) : ColorEngine.ColorResolver(config) {
 
-    override fun startListening() {
-        super.startListening()
-        engine.addColorChangeListeners(this, ColorEngine.Resolvers.ACCENT)
-    }
-
-    override fun onColorChange(resolveInfo: ColorEngine.ResolveInfo) {
-        notifyChanged()
-    }
-
-    override fun stopListening() {
-        super.stopListening()
-        engine.removeColorChangeListeners(this, ColorEngine.Resolvers.ACCENT)
-    }
+    override val inputs = ColorEngine.INPUT_ACCENT
 
     override fun resolveColor() = engine.accent
 
@@ -124,24 +112,11 @@ class ARGBColorResolver(config: Config) : ColorEngine.ColorResolver(config) {
     override fun getDisplayName() = "#${String.format("%07X", color.toLong() and 0xFFFFFFFF)}"
 }
 
-abstract class WallpaperColorResolver(config: Config)
-    : ColorEngine.ColorResolver(config), WallpaperColorInfo.OnChangeListener {
+abstract class WallpaperColorResolver(config: Config) : ColorEngine.ColorResolver(config) {
 
     protected val colorInfo = WallpaperColorInfo.getInstance(engine.context) as WallpaperColorInfo
 
-    override fun startListening() {
-        super.startListening()
-        colorInfo.addOnChangeListener(this)
-    }
-
-    override fun stopListening() {
-        super.stopListening()
-        colorInfo.removeOnChangeListener(this)
-    }
-
-    override fun onExtractedColorsChanged(wallpaperColorInfo: WallpaperColorInfo) {
-        notifyChanged()
-    }
+    override val inputs get() = super.inputs or ColorEngine.INPUT_WALLPAPER
 }
 
 
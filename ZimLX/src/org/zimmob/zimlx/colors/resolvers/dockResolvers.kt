@@ -27,7 +27,7 @@ import org.zimmob.zimlx.colors.WallpaperColorResolver
 import org.zimmob.zimlx.theme.ThemeManager
 
 @Keep
-class DockQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config), ZimPreferences.OnPreferenceChangeListener {
+class DockQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config) {
 
     private val isDark get() = ThemeManager.getInstance(engine.context).isDark
     private val lightResolver = DockQsbLightResolver(Config("DockQsbAutoResolver@Light", engine, { _, _ ->
@@ -37,19 +37,7 @@ class DockQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config), Z
         if (isDark) notifyChanged()
     }))
 
-    override fun startListening() {
-        super.startListening()
-        ZimPreferences.getInstanceNoCreate().addOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
-
-    override fun onValueChanged(key: String, prefs: ZimPreferences, force: Boolean) {
-        notifyChanged()
-    }
-
-    override fun stopListening() {
-        super.stopListening()
-        ZimPreferences.getInstanceNoCreate().removeOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
+    override val inputs = ColorEngine.INPUT_THEME or lightResolver.inputs or darkResolver.inputs
 
     override fun resolveColor() = if (isDark) darkResolver.resolveColor() else lightResolver.resolveColor()
 
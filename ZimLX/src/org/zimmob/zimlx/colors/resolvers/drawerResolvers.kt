@@ -22,13 +22,12 @@ import androidx.core.graphics.ColorUtils
 import com.android.launcher3.R
 import com.android.launcher3.util.Themes
 import org.zimmob.zimlx.ZimLauncher
-import org.zimmob.zimlx.ZimPreferences
 import org.zimmob.zimlx.colors.ColorEngine
 import org.zimmob.zimlx.colors.WallpaperColorResolver
 import org.zimmob.zimlx.theme.ThemeManager
 
 @Keep
-class DrawerQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config), ZimPreferences.OnPreferenceChangeListener {
+class DrawerQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config) {
 
     private val isDark get() = ThemeManager.getInstance(engine.context).isDark
     private val lightResolver = DrawerQsbLightResolver(Config("DrawerQsbAutoResolver@Light", engine, { _, _ ->
@@ -38,19 +37,7 @@ class DrawerQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config),
         if (isDark) notifyChanged()
     }))
 
-    override fun startListening() {
-        super.startListening()
-        ZimPreferences.getInstanceNoCreate().addOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
-
-    override fun onValueChanged(key: String, prefs: ZimPreferences, force: Boolean) {
-        notifyChanged()
-    }
-
-    override fun stopListening() {
-        super.stopListening()
-        ZimPreferences.getInstanceNoCreate().removeOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
+    override val inputs = ColorEngine.INPUT_THEME or lightResolver.inputs or darkResolver.inputs
 
     override fun resolveColor() = if (isDark) darkResolver.resolveColor() else lightResolver.resolveColor()
 
@@ -58,24 +45,12 @@ class DrawerQsbAutoResolver(config: Config) : ColorEngine.ColorResolver(config),
 }
 
 @Keep
-class DrawerQsbLightResolver(config: Config) : WallpaperColorResolver(config), ZimPreferences.OnPreferenceChangeListener {
+class DrawerQsbLightResolver(config: Config) : WallpaperColorResolver(config) {
 
     private val isDark get() = ThemeManager.getInstance(engine.context).isDark
     val launcher = ZimLauncher.getLauncher(engine.context)
 
-    override fun startListening() {
-        super.startListening()
-        ZimPreferences.getInstanceNoCreate().addOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
-
-    override fun onValueChanged(key: String, prefs: ZimPreferences, force: Boolean) {
-        notifyChanged()
-    }
-
-    override fun stopListening() {
-        super.stopListening()
-        ZimPreferences.getInstanceNoCreate().removeOnPreferenceChangeListener(this, "pref_launcherTheme")
-    }
+    override val inputs get() = super.inputs or ColorEngine.INPUT_THEME
 
     override fun resolveColor() = engine.context.resources.getColor(
             if (isDark)
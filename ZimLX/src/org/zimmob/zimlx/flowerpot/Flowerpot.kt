@@ -18,18 +18,25 @@
 package org.zimmob.zimlx.flowerpot
 
 import android.content.Context
+import android.os.UserHandle
+import android.util.Log
+import com.android.launcher3.compat.LauncherAppsCompat
+import com.android.launcher3.shortcuts.ShortcutInfoCompat
 import org.zimmob.zimlx.ensureOnMainThread
+import org.zimmob.zimlx.flowerpot.parser.FlowerpotDatabase
 import org.zimmob.zimlx.flowerpot.parser.FlowerpotReader
 import org.zimmob.zimlx.flowerpot.rules.Rule
 import org.zimmob.zimlx.toTitleCase
 import org.zimmob.zimlx.useApplicationContext
 import org.zimmob.zimlx.util.SingletonHolder
+import java.io.IOException
 import java.io.InputStream
 
 /**
  * A ruleset for an app category
  */
-class Flowerpot(private val context: Context, val name: String, private val loader: Flowerpot.() -> Unit) {
+class Flowerpot(private val context: Context, val name: String,
+                private val intentMatches: IntentMatchCache, private val loader: Flowerpot.() -> Unit) {
 
     val displayName by lazy {
         val id = context.resources.getIdentifier("category_${name.toLowerCase()}", "string", context.packageName)
@@ -38,7 +45,8 @@ class Flowerpot(private val context: Context, val name: String, private val load
         else
             beautifyName(name)
     }
-    private var loaded = false
+    var loaded = false
+        private set
     val rules: MutableSet<Rule> = mutableSetOf()
     val size get() = rules.size
     lateinit var apps: FlowerpotApps
@@ -52,7 +60,7 @@ class Flowerpot(private val context: Context, val name: String, private val load
 
     private fun load() {
         loader(this)
-        apps = FlowerpotApps(context, this)
+        apps = FlowerpotApps(context, this, intentMatches)
     }
 
     /**
@@ -66,12 +74,23 @@ class Flowerpot(private val context: Context, val name: String, private val load
         /**
          * Load a flowerpot from an assets file
          */
-        fun fromAssets(context: Context, path: String, name: String): Flowerpot {
-            return Flowerpot(context, name) {
+        fun fromAssets(context: Context, path: String, name: String,
+                       intentMatches: IntentMatchCache): Flowerpot {
+            return Flowerpot(context, name, intentMatches) {
                 loadFromInputStream(context.assets.open(path))
             }
         }
 
+        /**
+         * Load a flowerpot from the precompiled database
+         */
+        fun fromDatabase(context: Context, database: FlowerpotDatabase, name: String,
+                         intentMatches: IntentMatchCache): Flowerpot {
+            return Flowerpot(context, name, intentMatches) {
+                rules.addAll(database.readRules(name))
+            }
+        }
+
         /**
          * The current Flowerpot format version
          */
@@ -87,6 +106,8 @@ class Flowerpot(private val context: Context, val name: String, private val load
          */
         const val ASSETS_PATH = "flowerpot"
 
+        private const val TAG = "Flowerpot"
+
         private fun beautifyName(name: String): String {
             return name.replace('_', ' ').toLowerCase().toTitleCase()
         }
@@ -106,21 +127,33 @@ class Flowerpot(private val context: Context, val name: String, private val load
     /**
      * Class used to interact with Pots as a whole, load hem
      */
-    class Manager private constructor(private val context: Context) {
+    class Manager private constructor(private val context: Context) : LauncherAppsCompat.OnAppsChangedCallbackCompat {
 
         private val pots = mutableMapOf<String, Flowerpot>()
+        private val intentMatches = IntentMatchCache(context)
 
         init {
             loadAssets()
+            LauncherAppsCompat.getInstance(context).addOnAppsChangedCallback(this)
         }
 
         /**
-         * Load flowerpot files located in assets/
+         * Load the precompiled pots, the flowerpot files in assets/ are only packaged as the
+         * database
          */
         private fun loadAssets() {
-            context.assets.list(ASSETS_PATH)?.forEach {
+            val database = try {
+                context.assets.open(FlowerpotDatabase.ASSET_NAME).use { FlowerpotDatabase.read(it) }
+            } catch (e: IOException) {
+                Log.w(TAG, "Missing flowerpot database", e)
+                return
+            } catch (e: FlowerpotFormatException) {
+                Log.w(TAG, "Invalid flowerpot database", e)
+                return
+            }
+            database.potNames.forEach {
                 pots.getOrPut(it) {
-                    fromAssets(context, "$ASSETS_PATH/$it", it)
+                    fromDatabase(context, database, it, intentMatches)
                 }
             }
         }
@@ -140,6 +173,50 @@ class Flowerpot(private val context: Context, val name: String, private val load
 
         fun getAllPots() = pots.values
 
+        private inline fun forEachLoadedApps(action: (FlowerpotApps) -> Unit) {
+            pots.values.forEach {
+                if (it.loaded) {
+                    action(it.apps)
+                }
+            }
+        }
+
+        override fun onPackageAdded(packageName: String, user: UserHandle) {
+            intentMatches.onPackageChanged(packageName)
+            forEachLoadedApps { it.onPackageAdded(packageName, user) }
+        }
+
+        override fun onPackageChanged(packageName: String, user: UserHandle) {
+            intentMatches.onPackageChanged(packageName)
+            forEachLoadedApps { it.onPackageChanged(packageName, user) }
+        }
+
+        override fun onPackageRemoved(packageName: String, user: UserHandle) {
+            intentMatches.onPackageRemoved(packageName)
+            forEachLoadedApps { it.onPackageRemoved(packageName, user) }
+        }
+
+        override fun onPackagesAvailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+            packageNames.forEach { intentMatches.onPackageChanged(it) }
+            forEachLoadedApps { it.onPackagesAvailable(packageNames, user, replacing) }
+        }
+
+        override fun onPackagesUnavailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+            forEachLoadedApps { it.onPackagesUnavailable(packageNames, user, replacing) }
+        }
+
+        override fun onPackagesSuspended(packageNames: Array<out String>, user: UserHandle) {
+            forEachLoadedApps { it.onPackagesSuspended(packageNames, user) }
+        }
+
+        override fun onPackagesUnsuspended(packageNames: Array<out String>, user: UserHandle) {
+            forEachLoadedApps { it.onPackagesUnsuspended(packageNames, user) }
+        }
+
+        override fun onShortcutsChanged(packageName: String?, shortcuts: MutableList<ShortcutInfoCompat>?, user: UserHandle?) {
+
+        }
+
         companion object : SingletonHolder<Manager, Context>(ensureOnMainThread(useApplicationContext(::Manager))) {
 
             @JvmStatic
@@ -18,8 +18,9 @@
 package org.zimmob.zimlx.flowerpot
 
 import android.content.Context
-import android.content.Intent
+import android.content.pm.ApplicationInfo
 import android.os.UserHandle
+import com.android.launcher3.compat.LauncherActivityInfoCompat
 import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
@@ -28,61 +29,64 @@ import com.android.launcher3.util.PackageUserKey
 import org.zimmob.zimlx.flowerpot.rules.CodeRule
 import org.zimmob.zimlx.flowerpot.rules.Rule
 
-class FlowerpotApps(private val context: Context, private val pot: Flowerpot) : LauncherAppsCompat.OnAppsChangedCallbackCompat {
+/**
+ * The apps matching a pot. Package changes are dispatched by [Flowerpot.Manager] and only
+ * re-evaluate the changed package.
+ */
+class FlowerpotApps(private val context: Context, private val pot: Flowerpot,
+                    private val intentMatches: IntentMatchCache) : LauncherAppsCompat.OnAppsChangedCallbackCompat {
 
     private val launcherApps = LauncherAppsCompat.getInstance(context)
-    private val intentMatches = mutableSetOf<String>()
+    private val rules = CompiledRules(pot.rules)
+    private val matchesByPackage = mutableMapOf<PackageUserKey, MutableList<ComponentKey>>()
     val matches = mutableSetOf<ComponentKey>()
     val packageMatches = mutableSetOf<PackageUserKey>()
 
     init {
         filterApps()
-        launcherApps.addOnAppsChangedCallback(this)
     }
 
     private fun filterApps() {
-        queryIntentMatches()
         matches.clear()
         packageMatches.clear()
+        matchesByPackage.clear()
         UserManagerCompat.getInstance(context).userProfiles.forEach {
             addFromPackage(null, it)
         }
     }
 
     private fun addFromPackage(packageName: String?, user: UserHandle) {
+        // Activities of a package share the same result
+        var lastPackage: String? = null
+        var lastMatched = false
         launcherApps.getActivityList(packageName, user).forEach {
-            if (intentMatches.contains(it.componentName.packageName)
-                    || pot.rules.contains(Rule.Package(it.componentName.packageName))) {
-                matches.add(ComponentKey(it.componentName, it.user))
-                packageMatches.add(PackageUserKey(it.componentName.packageName, it.user))
-            } else {
-                for (rule in pot.rules.filterIsInstance<Rule.CodeRule>()) {
-                    if (CodeRule.get(rule.rule, *rule.args).matches(it.applicationInfo)) {
-                        matches.add(ComponentKey(it.componentName, it.user))
-                        packageMatches.add(PackageUserKey(it.componentName.packageName, it.user))
-                        break
-                    }
-                }
+            val activityPackage = it.componentName.packageName
+            if (activityPackage != lastPackage) {
+                lastPackage = activityPackage
+                lastMatched = rules.matches(activityPackage, it.applicationInfo)
+            }
+            if (lastMatched) {
+                addMatch(it)
             }
         }
     }
 
-    private fun queryIntentMatches() {
-        intentMatches.clear()
-        for (rule in pot.rules.filterIsInstance<Rule.IntentCategory>()) {
-            context.packageManager.queryIntentActivities(Intent(Intent.ACTION_MAIN).addCategory(rule.category), 0).forEach {
-                intentMatches.add(it.activityInfo.packageName)
-            }
-        }
-        for (rule in pot.rules.filterIsInstance<Rule.IntentAction>()) {
-            context.packageManager.queryIntentActivities(Intent(rule.action), 0).forEach {
-                intentMatches.add(it.activityInfo.packageName)
-            }
-        }
+    private fun addMatch(info: LauncherActivityInfoCompat) {
+        val key = ComponentKey(info.componentName, info.user)
+        val packageKey = PackageUserKey(info.componentName.packageName, info.user)
+        matches.add(key)
+        packageMatches.add(packageKey)
+        matchesByPackage.getOrPut(packageKey) { ArrayList() }.add(key)
+    }
+
+    private fun removePackage(packageName: String, user: UserHandle) {
+        val packageKey = PackageUserKey(packageName, user)
+        matchesByPackage.remove(packageKey)?.let { matches.removeAll(it) }
+        packageMatches.remove(packageKey)
     }
 
     override fun onPackageAdded(packageName: String, user: UserHandle) {
-        queryIntentMatches()
+        removePackage(packageName, user)
         addFromPackage(packageName, user)
     }
 
@@ -91,12 +95,7 @@ class FlowerpotApps(private val context: Context, private val pot: Flowerpot) :
     }
 
     override fun onPackageRemoved(packageName: String, user: UserHandle) {
-        matches.removeAll {
-            it.componentName.packageName == packageName && it.user == user
-        }
-        packageMatches.removeAll {
-            it.mPackageName == packageName && it.mUser == user
-        }
+        removePackage(packageName, user)
     }
 
     override fun onPackagesAvailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
@@ -118,4 +117,33 @@ class FlowerpotApps(private val context: Context, private val pot: Flowerpot) :
     override fun onShortcutsChanged(packageName: String?, shortcuts: MutableList<ShortcutInfoCompat>?, user: UserHandle?) {
 
     }
+
+    /**
+     * The rules of the pot, split by type so that matching a package doesn't go through all of them.
+     */
+    private inner class CompiledRules(rules: Collection<Rule>) {
+
+        private val packages = HashSet<String>()
+        private val actions = ArrayList<String>()
+        private val categories = ArrayList<String>()
+        private val codeRules = ArrayList<CodeRule>()
+
+        init {
+            rules.forEach {
+                when (it) {
+                    is Rule.Package -> packages.add(it.filter)
+                    is Rule.IntentAction -> actions.add(it.action)
+                    is Rule.IntentCategory -> categories.add(it.category)
+                    is Rule.CodeRule -> codeRules.add(CodeRule.get(it.rule, *it.args))
+                }
+            }
+        }
+
+        fun matches(packageName: String, info: ApplicationInfo): Boolean {
+            return packages.contains(packageName)
+                    || categories.any { intentMatches.getCategoryMatches(it).contains(packageName) }
+                    || actions.any { intentMatches.getActionMatches(it).contains(packageName) }
+                    || codeRules.any { it.matches(info) }
+        }
+    }
 }
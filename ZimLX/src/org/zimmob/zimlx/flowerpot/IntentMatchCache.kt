@@ -0,0 +1,75 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot
+
+import android.content.Context
+import android.content.Intent
+
+/**
+ * Packages matching the intent rules, shared by all pots so that every action or category is
+ * only queried once. Package changes only re-query the changed package.
+ */
+class IntentMatchCache(private val context: Context) {
+
+    private val actionMatches = mutableMapOf<String, MutableSet<String>>()
+    private val categoryMatches = mutableMapOf<String, MutableSet<String>>()
+
+    @Synchronized
+    fun getActionMatches(action: String): Set<String> = actionMatches.getOrPut(action) {
+        query(actionIntent(action), null)
+    }
+
+    @Synchronized
+    fun getCategoryMatches(category: String): Set<String> = categoryMatches.getOrPut(category) {
+        query(categoryIntent(category), null)
+    }
+
+    @Synchronized
+    fun onPackageChanged(packageName: String) {
+        actionMatches.forEach { (action, packages) ->
+            update(packages, packageName, actionIntent(action))
+        }
+        categoryMatches.forEach { (category, packages) ->
+            update(packages, packageName, categoryIntent(category))
+        }
+    }
+
+    @Synchronized
+    fun onPackageRemoved(packageName: String) {
+        actionMatches.values.forEach { it.remove(packageName) }
+        categoryMatches.values.forEach { it.remove(packageName) }
+    }
+
+    private fun update(packages: MutableSet<String>, packageName: String, intent: Intent) {
+        if (query(intent, packageName).isEmpty()) {
+            packages.remove(packageName)
+        } else {
+            packages.add(packageName)
+        }
+    }
+
+    private fun query(intent: Intent, packageName: String?): MutableSet<String> {
+        intent.`package` = packageName
+        return context.packageManager.queryIntentActivities(intent, 0)
+                .mapTo(HashSet()) { it.activityInfo.packageName }
+    }
+
+    private fun actionIntent(action: String) = Intent(action)
+
+    private fun categoryIntent(category: String) = Intent(Intent.ACTION_MAIN).addCategory(category)
+}
@@ -0,0 +1,127 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot.parser
+
+import org.zimmob.zimlx.flowerpot.Flowerpot
+import org.zimmob.zimlx.flowerpot.FlowerpotFormatException
+import org.zimmob.zimlx.flowerpot.rules.Rule
+import java.io.InputStream
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+
+/**
+ * The flowerpot files of the assets, precompiled by the compileFlowerpotDb build task.
+ *
+ * Layout (big endian):
+ *  - magic, format version
+ *  - string table: count, then each string as an unsigned short length and its UTF-8 bytes
+ *  - pot index: count, then name, flowerpot version, rule count and offset of the rules
+ *  - rules: type byte and string index, code rules add an argument count byte and the argument indices
+ *
+ * The strings are shared by all pots, and the rules of a pot are only decoded when it is loaded.
+ */
+class FlowerpotDatabase private constructor(private val data: ByteBuffer,
+                                            private val strings: Array<String>,
+                                            private val pots: Map<String, PotEntry>,
+                                            private val rulesStart: Int) {
+
+    val potNames get() = pots.keys
+
+    fun readRules(name: String): List<Rule> {
+        val pot = pots[name] ?: throw FlowerpotFormatException("Unknown pot $name")
+        if (!Flowerpot.SUPPORTED_VERSIONS.contains(pot.version)) {
+            throw FlowerpotFormatException("Unsupported version ${pot.version} for pot $name")
+        }
+        val buffer = data.duplicate()
+        buffer.position(rulesStart + pot.offset)
+        try {
+            return List(pot.ruleCount) { readRule(buffer) }
+        } catch (e: BufferUnderflowException) {
+            throw FlowerpotFormatException("Truncated rules for pot $name")
+        }
+    }
+
+    private fun readRule(buffer: ByteBuffer): Rule {
+        val type = buffer.get().toInt()
+        val value = string(buffer.int)
+        return when (type) {
+            TYPE_PACKAGE -> Rule.Package(value)
+            TYPE_INTENT_ACTION -> Rule.IntentAction(value)
+            TYPE_INTENT_CATEGORY -> Rule.IntentCategory(value)
+            TYPE_CODE_RULE -> Rule.CodeRule(value, Array(buffer.get().toInt()) { string(buffer.int) })
+            else -> throw FlowerpotFormatException("Unknown rule type $type")
+        }
+    }
+
+    private fun string(index: Int): String {
+        if (index < 0 || index >= strings.size) {
+            throw FlowerpotFormatException("Invalid string index $index")
+        }
+        return strings[index]
+    }
+
+    private class PotEntry(val version: Int, val ruleCount: Int, val offset: Int)
+
+    companion object {
+
+        const val ASSET_NAME = "flowerpot.db"
+
+        private const val MAGIC = 0x46504442 // FPDB
+        private const val FORMAT_VERSION = 1
+
+        private const val TYPE_PACKAGE = 1
+        private const val TYPE_INTENT_ACTION = 2
+        private const val TYPE_INTENT_CATEGORY = 3
+        private const val TYPE_CODE_RULE = 4
+
+        /**
+         * Reads the whole database at once, the pots are decoded by [readRules].
+         */
+        fun read(inputStream: InputStream): FlowerpotDatabase {
+            val data = ByteBuffer.wrap(inputStream.readBytes())
+            try {
+                if (data.int != MAGIC) {
+                    throw FlowerpotFormatException("Not a flowerpot database")
+                }
+                val format = data.int
+                if (format != FORMAT_VERSION) {
+                    throw FlowerpotFormatException("Unsupported database format $format")
+                }
+                val bytes = data.array()
+                val strings = Array(data.int) {
+                    val length = data.short.toInt() and 0xffff
+                    val start = data.position()
+                    data.position(start + length)
+                    String(bytes, start, length, Charsets.UTF_8)
+                }
+                val potCount = data.int
+                val pots = LinkedHashMap<String, PotEntry>(potCount)
+                repeat(potCount) {
+                    val name = strings.getOrNull(data.int)
+                            ?: throw FlowerpotFormatException("Invalid pot name")
+                    pots[name] = PotEntry(data.int, data.int, data.int)
+                }
+                return FlowerpotDatabase(data, strings, pots, data.position())
+            } catch (e: BufferUnderflowException) {
+                throw FlowerpotFormatException("Truncated flowerpot database")
+            } catch (e: IllegalArgumentException) {
+                throw FlowerpotFormatException("Truncated flowerpot database")
+            }
+        }
+    }
+}
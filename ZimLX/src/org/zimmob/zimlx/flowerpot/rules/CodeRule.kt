@@ -52,8 +52,8 @@ sealed class CodeRule(vararg val args: String) {
     }
 
     companion object {
-        private val cache = mutableMapOf<Pair<String, Array<out String>>, CodeRule>()
-        fun get(name: String, vararg args: String) = cache.getOrPut(Pair(name, args)) {
+        private val cache = mutableMapOf<Pair<String, List<String>>, CodeRule>()
+        fun get(name: String, vararg args: String) = cache.getOrPut(Pair(name, args.toList())) {
             when (name) {
                 "isGame" -> IsGame(*args)
                 "category" -> Category(*args)
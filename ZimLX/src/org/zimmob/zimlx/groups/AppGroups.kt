@@ -51,9 +51,10 @@ abstract class AppGroups<T : AppGroups.Group>(private val manager: AppGroupsMana
     private val prefs = manager.prefs
     val context = prefs.context
 
-    private var groupsDataJson by prefs.StringPref(type.prefsKey, "{}", prefs.withChangeCallback {
-        onGroupsChanged(it)
-    })
+    private val store = prefs.collectionStore
+    // The groups as last saved, to only write the ones which changed
+    private var savedGroups: List<String>? = null
+    private var savedVersion = 0
     private val groups = ArrayList<T>()
 
     var isEnabled = manager.categorizationEnabled && manager.categorizationType == type
@@ -62,24 +63,38 @@ abstract class AppGroups<T : AppGroups.Group>(private val manager: AppGroupsMana
     private val defaultGroups by lazy { getDefaultCreators().mapNotNull { it(context) } }
 
     init {
+        prefs.registerStoreKey(type.prefsKey, prefs.withChangeCallback { onGroupsChanged(it) })
         loadGroups()
     }
 
     private fun loadGroupsArray(): JSONArray {
+        prefs.migrateToStore(prefs.sharedPrefs, type.prefsKey, ::migrateFromJson)
+        savedVersion = store.readMap(type.prefsKey)[KEY_VERSION]?.toIntOrNull() ?: 0
+        if (savedVersion > currentVersion) return JSONArray()
+        val rows = store.readList(type.prefsKey) ?: return JSONArray()
         try {
-            val obj = JSONObject(groupsDataJson)
-            val version = if (obj.has(KEY_VERSION)) obj.getInt(KEY_VERSION) else 0
-            if (version > currentVersion) return JSONArray()
-            return obj.getJSONArray(KEY_GROUPS)
+            val arr = JSONArray()
+            rows.forEach { arr.put(JSONObject(it)) }
+            savedGroups = rows
+            return arr
         } catch (ignored: JSONException) {
         }
 
-        try {
-            return JSONArray(groupsDataJson)
+        return JSONArray()
+    }
+
+    private fun migrateFromJson(json: String): Boolean {
+        var version = 0
+        val arr = try {
+            val obj = JSONObject(json)
+            if (obj.has(KEY_VERSION)) version = obj.getInt(KEY_VERSION)
+            obj.getJSONArray(KEY_GROUPS)
         } catch (ignored: JSONException) {
+            JSONArray(json)
         }
-
-        return JSONArray()
+        val rows = (0 until arr.length()).map { arr.getJSONObject(it).toString() }
+        return store.putEntry(type.prefsKey, KEY_VERSION, "$version", true)
+                && store.writeList(type.prefsKey, rows, null, true)
     }
 
     private fun loadGroups() {
@@ -142,15 +157,20 @@ abstract class AppGroups<T : AppGroups.Group>(private val manager: AppGroupsMana
     }
 
     fun saveToJson() {
-        val arr = JSONArray()
-        groups.forEach { group ->
-            arr.put(JSONObject(group.saveCustomizationsInternal(context)))
+        val rows = groups.map { group ->
+            JSONObject(group.saveCustomizationsInternal(context)).toString()
         }
 
-        val obj = JSONObject()
-        obj.put(KEY_VERSION, currentVersion)
-        obj.put(KEY_GROUPS, arr)
-        groupsDataJson = obj.toString()
+        val blocking = prefs.blockingEditing && !prefs.bulkEditing
+        if (savedVersion != currentVersion) {
+            store.putEntry(type.prefsKey, KEY_VERSION, "$currentVersion", blocking)
+            savedVersion = currentVersion
+            savedGroups = null
+        }
+        if (store.writeList(type.prefsKey, rows, savedGroups, blocking)) {
+            savedGroups = rows
+            prefs.onStoreChanged(type.prefsKey)
+        }
     }
 
     companion object {
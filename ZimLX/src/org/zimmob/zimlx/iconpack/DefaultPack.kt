@@ -89,7 +89,7 @@ class DefaultPack(context: Context) : IconPack(context, "") {
         getRoundIcon(component, iconDpi)?.let {
             roundIcon = it.apply { mutate() }
         }
-        val gen = AdaptiveIconGenerator(context, roundIcon ?: originalIcon)
+        val gen = AdaptiveIconGenerator(context, roundIcon ?: originalIcon, component.packageName)
         return gen.result
     }
 
@@ -116,7 +116,7 @@ class DefaultPack(context: Context) : IconPack(context, "") {
             getRoundIcon(component, iconDpi)?.let {
                 roundIcon = it.apply { mutate() }
             }
-            val gen = AdaptiveIconGenerator(context, roundIcon ?: originalIcon)
+            val gen = AdaptiveIconGenerator(context, roundIcon ?: originalIcon, packageName)
             return gen.result
         }
         return iconProvider.getDynamicIcon(info, iconDpi, flattenDrawable)
@@ -126,7 +126,7 @@ class DefaultPack(context: Context) : IconPack(context, "") {
         ensureInitialLoadComplete()
 
         val drawable = DeepShortcutManager.getInstance(context).getShortcutIconDrawable(shortcutInfo, iconDpi)
-        val gen = AdaptiveIconGenerator(context, drawable)
+        val gen = AdaptiveIconGenerator(context, drawable, shortcutInfo.`package`)
         return gen.result
     }
 
@@ -27,21 +27,20 @@ import android.content.res.XmlResourceParser
 import android.graphics.Bitmap
 import android.graphics.drawable.Drawable
 import android.text.TextUtils
+import android.util.LruCache
 import android.util.Xml
 import android.widget.Toast
 import com.android.launcher3.*
-import com.android.launcher3.compat.LauncherAppsCompat
 import com.android.launcher3.compat.UserManagerCompat
-import com.android.launcher3.shortcuts.DeepShortcutManager
 import com.android.launcher3.shortcuts.ShortcutInfoCompat
 import com.android.launcher3.util.ComponentKey
-import com.google.android.apps.nexuslauncher.CustomIconUtils
 import com.google.android.apps.nexuslauncher.clock.CustomClock
 import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 import org.xmlpull.v1.XmlPullParserFactory
 import org.zimmob.zimlx.adaptive.AdaptiveIconGenerator
 import org.zimmob.zimlx.get
+import org.zimmob.zimlx.reloadIconsFromComponents
 import org.zimmob.zimlx.iconpack.*
 import org.zimmob.zimlx.toTitleCase
 import java.io.IOException
@@ -70,17 +69,11 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     override val packInfo = IconPackList.PackInfoImpl(context, packPackageName)
 
     override fun onDateChanged() {
-        val apps = LauncherAppsCompat.getInstance(context)
-        val model = LauncherAppState.getInstance(context).model
-        val shortcutManager = DeepShortcutManager.getInstance(context)
+        val components = HashSet<ComponentKey>()
         for (user in UserManagerCompat.getInstance(context).userProfiles) {
-            packCalendars.keys.forEach {
-                val pkg = it.packageName
-                if (!apps.getActivityList(pkg, user).isEmpty()) {
-                    CustomIconUtils.reloadIcon(shortcutManager, model, user, pkg)
-                }
-            }
+            packCalendars.keys.mapTo(components) { ComponentKey(it, user) }
         }
+        reloadIconsFromComponents(context, components)
     }
 
     override fun loadPack() {
@@ -225,7 +218,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                     drawable = DynamicDrawable.getIcon(context, drawable, packDynamicDrawables[drawableId]!!, iconDpi)
                 }
                 if (prefs.adaptifyIconPacks) {
-                    val gen = AdaptiveIconGenerator(context, drawable.mutate())
+                    val gen = AdaptiveIconGenerator(context, drawable.mutate(), getCacheKey(drawableId))
                     return gen.result
                 }
                 return drawable.mutate()
@@ -261,7 +254,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                     drawable = DynamicDrawable.getIcon(context, drawable, packDynamicDrawables[drawableId]!!, iconDpi)
                 }
                 if (prefs.adaptifyIconPacks) {
-                    val gen = AdaptiveIconGenerator(context, drawable.mutate())
+                    val gen = AdaptiveIconGenerator(context, drawable.mutate(), getCacheKey(drawableId))
                     return gen.result
                 }
                 return drawable.mutate()
@@ -276,7 +269,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                     customIconEntry, iconProvider)
             val icon = packMask.getIcon(context, baseIcon, launcherActivityInfo.componentName)
             if (prefs.adaptifyIconPacks) {
-                val gen = AdaptiveIconGenerator(context, icon)
+                val gen = AdaptiveIconGenerator(context, icon, getMaskCacheKey(launcherActivityInfo.componentName))
                 return gen.result
             }
             return icon
@@ -293,7 +286,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             if (baseIcon != null) {
                 val icon = packMask.getIcon(context, baseIcon, shortcutInfo.activity)
                 if (prefs.adaptifyIconPacks) {
-                    val gen = AdaptiveIconGenerator(context, icon)
+                    val gen = AdaptiveIconGenerator(context, icon, getMaskCacheKey(shortcutInfo.activity))
                     return gen.result
                 }
                 return icon
@@ -344,29 +337,54 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             }
         }
         var found = false
-        val startTime = System.currentTimeMillis()
-        var entry: Entry
+
+        val cached = getCachedCatalogue()
+        if (cached != null) {
+            // Nothing is parsed, so the entries are sent in a single batch
+            for (item in cached) {
+                if (cancel()) return
+                when (item) {
+                    is CatalogueItem.Title -> tmpList.add(item.title)
+                    is CatalogueItem.Icon -> if (filter(item.drawableName)) {
+                        tmpList.add(Entry(item.drawableName, item.id))
+                        found = true
+                    }
+                }
+            }
+            sendResults(true)
+            if (found) return
+            super.getAllIcons(callback, cancel, filter)
+            return
+        }
+
+        // Stream the entries while building the catalogue, so that the next call can skip parsing
+        val catalogue = ArrayList<CatalogueItem>()
         try {
             val parser = getXml("drawable")
             while (parser != null && parser.next() != XmlPullParser.END_DOCUMENT) {
                 if (cancel()) return
                 if (parser.eventType != XmlPullParser.START_TAG) continue
                 if ("category" == parser.name) {
-                    tmpList.add(CategoryTitle(parser["title"]!!))
+                    val title = CategoryTitle(parser["title"]!!)
+                    catalogue.add(CatalogueItem.Title(title))
+                    tmpList.add(title)
                     sendResults(false)
                 } else if ("item" == parser.name) {
                     val drawableName = parser["drawable"]!!
-                    if (filter(drawableName)) {
-                        val resId = getDrawableId(drawableName)
-                        if (resId != 0) {
-                            entry = Entry(drawableName, resId)
-                            tmpList.add(entry)
-                            sendResults(false)
+                    val resId = getDrawableId(drawableName)
+                    if (resId != 0) {
+                        catalogue.add(CatalogueItem.Icon(drawableName, resId))
+                        if (filter(drawableName)) {
+                            tmpList.add(Entry(drawableName, resId))
+                            if (tmpList.size % SEND_BATCH_SIZE == 0) {
+                                sendResults(false)
+                            }
                             found = true
                         }
                     }
                 }
             }
+            putCachedCatalogue(catalogue)
             sendResults(true)
             if (found) {
                 return
@@ -377,6 +395,21 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         super.getAllIcons(callback, cancel, filter)
     }
 
+    private val catalogueKey by lazy {
+        val lastUpdate = try {
+            context.packageManager.getPackageInfo(packPackageName, 0).lastUpdateTime
+        } catch (e: PackageManager.NameNotFoundException) {
+            0L
+        }
+        "$packPackageName@$lastUpdate"
+    }
+
+    private fun getCachedCatalogue() = synchronized(catalogues) { catalogues.get(catalogueKey) }
+
+    private fun putCachedCatalogue(catalogue: List<CatalogueItem>) {
+        synchronized(catalogues) { catalogues.put(catalogueKey, catalogue) }
+    }
+
     override fun supportsMasking(): Boolean = packMask.hasMask
 
     private fun getXml(name: String): XmlPullParser? {
@@ -411,6 +444,13 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     private val idCache = mutableMapOf<String, Int>()
     private fun getDrawableId(name: String) = packResources.getIdentifier(name, "drawable", packPackageName)// idCache.getOrPut(name) {    }
 
+    // Clocks and dynamic drawables change while they are shown, their analysis isn't persisted
+    private fun getCacheKey(drawableId: Int) =
+            if (packClocks.containsKey(drawableId) || packDynamicDrawables.containsKey(drawableId)) null
+            else "$packPackageName/$drawableId"
+
+    private fun getMaskCacheKey(component: ComponentName) = "$packPackageName/mask/${component.packageName}"
+
     fun createEntry(icon: Intent.ShortcutIconResource): Entry {
         val id = packResources.getIdentifier(icon.resourceName, null, null)
         val simpleName = packResources.getResourceEntryName(id)
@@ -459,7 +499,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             val baseIcon = defaultPack.getIcon(key, density)!!
             val icon = packMask.getIcon(context, baseIcon, key.componentName)
             if (prefs.adaptifyIconPacks) {
-                val gen = AdaptiveIconGenerator(context, icon)
+                val gen = AdaptiveIconGenerator(context, icon, getMaskCacheKey(key.componentName))
                 return gen.result
             }
             return icon
@@ -468,4 +508,20 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         override fun toCustomEntry() = IconPackManager.CustomIconEntry(packPackageName, key.toString(), "mask")
     }
 
+    private sealed class CatalogueItem {
+        class Title(val title: CategoryTitle) : CatalogueItem()
+        class Icon(val drawableName: String, val id: Int) : CatalogueItem()
+    }
+
+    companion object {
+
+        /**
+         * Parsed drawable.xml catalogues, keyed by package and last update time so that
+         * updating a pack invalidates its catalogue.
+         */
+        private val catalogues = LruCache<String, List<CatalogueItem>>(4)
+
+        // Parsed entries between two checks of the time since results were last sent
+        private const val SEND_BATCH_SIZE = 32
+    }
 }
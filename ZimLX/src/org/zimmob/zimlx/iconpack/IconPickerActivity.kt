@@ -20,12 +20,16 @@ package org.zimmob.zimlx.iconpack
 import android.app.Activity
 import android.content.Context
 import android.content.Intent
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
 import android.os.Bundle
 import android.os.Handler
 import android.os.Message
 import android.os.Process
 import android.text.TextUtils
+import android.util.LruCache
 import android.view.*
 import android.widget.SearchView
 import android.widget.TextView
@@ -41,7 +45,6 @@ import org.zimmob.zimlx.*
 import org.zimmob.zimlx.iconpack.EditIconActivity.Companion.EXTRA_ENTRY
 import org.zimmob.zimlx.settings.ui.SettingsBaseActivity
 import org.zimmob.zimlx.views.FadingImageView
-import java.text.Collator
 import java.util.*
 import java.util.concurrent.Semaphore
 
@@ -57,8 +60,13 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
     private val adapter = IconGridAdapter()
     private val layoutManager = GridLayoutManager(this, 1)
     private var canceled = false
-    private val collator = Collator.getInstance()
     private val showDebugInfo = zimPrefs.showDebugInfo
+    private val iconSize by lazy { resources.getDimensionPixelSize(R.dimen.icon_preview_size) }
+    private val thumbnails = ThumbnailCache()
+
+    // Only accessed on the icon pack ui thread
+    private val searchIndex = IconSearchIndex<AdapterItem>()
+    private var lastQuery: String? = null
 
     private var dynamicPadding = 0
 
@@ -109,10 +117,6 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 waiter.release()
             }
         }
-        collator.apply {
-            decomposition = Collator.CANONICAL_DECOMPOSITION
-            strength = Collator.TERTIARY
-        }
     }
 
     override fun finish() {
@@ -124,10 +128,11 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
         val newItems = entries.mapNotNull {
             when (it) {
                 is IconPack.CategoryTitle -> CategoryItem(it.title)
-                is IconPack.Entry -> if (it.isAvailable) IconItem(it) else null
+                is IconPack.Entry -> if (it.isAvailable) IconItem(it, thumbnails, iconSize) else null
                 else -> null
             }
         }
+        newItems.forEach { if (it is IconItem) searchIndex.add(it, it.entry.displayName) }
         runOnUiThread {
             if (items.size == 1 && items[0] is LoadingItem) {
                 items.removeAt(0)
@@ -138,6 +143,10 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
             items.addAll(newItems)
             adapter.notifyItemRangeInserted(addIndex, newItems.size)
         }
+        if (!TextUtils.isEmpty(lastQuery)) {
+            // Refresh the results with the newly added icons
+            processSearchQuery(lastQuery)
+        }
     }
 
     override fun onQueryTextSubmit(query: String?): Boolean {
@@ -156,9 +165,8 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     private fun processSearchQuery(query: String?) {
         val q = query?.trim()
-        val filtered = if (!TextUtils.isEmpty(q)) {
-            actualItems.filter { it is IconItem && collator.matches(q!!, it.entry.displayName) }.toMutableList()
-        } else null
+        lastQuery = q
+        val filtered = if (!TextUtils.isEmpty(q)) searchIndex.query(q!!).toMutableList() else null
         runOnUiThread {
             val hashCode = items.hashCode()
             searchItems = filtered
@@ -220,6 +228,7 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
     override fun onDestroy() {
         super.onDestroy()
         canceled = true
+        thumbnails.evictAll()
     }
 
     override fun onLayoutChange(v: View?, left: Int, top: Int, right: Int, bottom: Int, oldLeft: Int, oldTop: Int, oldRight: Int, oldBottom: Int) {
@@ -285,6 +294,12 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
             }
         }
 
+        override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
+            if (holder is IconHolder) {
+                holder.unbind()
+            }
+        }
+
         fun isItem(position: Int) = getItemViewType(position) == itemType
 
         inner class IconHolder(itemView: View) : RecyclerView.ViewHolder(itemView), View.OnClickListener, IconItem.Callback {
@@ -317,6 +332,10 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
                 iconLoader?.loadIcon()
             }
 
+            fun unbind() {
+                iconLoader = null
+            }
+
             override fun onIconLoaded(drawable: Drawable, name: String) {
                 (itemView as FadingImageView).image = drawable
                 this.name = name
@@ -352,18 +371,35 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     class CategoryItem(val title: String) : AdapterItem()
 
-    class IconItem(val entry: IconPack.Entry) : AdapterItem() {
+    class IconItem(val entry: IconPack.Entry, private val thumbnails: ThumbnailCache,
+                   private val size: Int) : AdapterItem() {
 
+        @Volatile
         var callback: Callback? = null
 
         fun loadIcon() {
+            val cached = thumbnails.get(entry.identifierName)
+            if (cached != null) {
+                callback?.onIconLoaded(BitmapDrawable(null, cached), entry.displayName)
+                return
+            }
             runOnUiWorkerThread {
-                val drawable = entry.drawable
+                // The cell might have been scrolled away while this was queued
+                if (callback == null) return@runOnUiWorkerThread
+                val bitmap = thumbnails.get(entry.identifierName)
+                        ?: createThumbnail(entry.drawable).also { thumbnails.put(entry.identifierName, it) }
                 val displayName = entry.displayName
-                runOnMainThread { callback?.onIconLoaded(drawable, displayName) }
+                runOnMainThread { callback?.onIconLoaded(BitmapDrawable(null, bitmap), displayName) }
             }
         }
 
+        private fun createThumbnail(drawable: Drawable): Bitmap {
+            val bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888)
+            drawable.setBounds(0, 0, size, size)
+            drawable.draw(Canvas(bitmap))
+            return bitmap
+        }
+
         interface Callback {
 
             fun onIconLoaded(drawable: Drawable, name: String)
@@ -372,6 +408,14 @@ class IconPickerActivity : SettingsBaseActivity(), View.OnLayoutChangeListener,
 
     class LoadingItem : AdapterItem()
 
+    /**
+     * Rendered icon previews, bounded by their size in bytes.
+     */
+    class ThumbnailCache : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 16).toInt()) {
+
+        override fun sizeOf(key: String, value: Bitmap) = value.byteCount
+    }
+
     companion object {
 
         private const val EXTRA_ICON_PACK = "pack"
@@ -0,0 +1,122 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.iconpack
+
+import java.text.Normalizer
+import java.util.*
+
+/**
+ * In-memory search index over icon names. Names are normalized once when added, distinct words
+ * are kept in a sorted array with the items using them for prefix lookups, and the normalized
+ * names are scanned for substrings.
+ *
+ * Not thread safe, all calls should happen on the same thread.
+ */
+class IconSearchIndex<T> {
+
+    private val items = ArrayList<T>()
+    private val names = ArrayList<String>()
+
+    private var words = emptyArray<String>()
+    // Indices of the items using each word
+    private var wordOwners = emptyArray<IntArray>()
+    private var pendingWords = ArrayList<Pair<String, Int>>()
+
+    val size get() = items.size
+
+    fun add(item: T, name: String) {
+        val index = items.size
+        val normalized = normalize(name)
+        items.add(item)
+        names.add(normalized)
+        normalized.split(' ').forEach {
+            if (it.isNotEmpty()) pendingWords.add(it to index)
+        }
+    }
+
+    fun clear() {
+        items.clear()
+        names.clear()
+        words = emptyArray()
+        wordOwners = emptyArray()
+        pendingWords.clear()
+    }
+
+    /**
+     * Returns the items having a word starting with [query], followed by the items which only
+     * contain [query] somewhere in their name.
+     */
+    fun query(query: String): List<T> {
+        val q = normalize(query)
+        if (q.isEmpty()) return ArrayList(items)
+        val prefixMatches = BitSet(items.size)
+        if (q.indexOf(' ') < 0) {
+            collectPrefixMatches(q, prefixMatches)
+        }
+        val otherMatches = BitSet(items.size)
+        for (i in names.indices) {
+            if (!prefixMatches[i] && names[i].contains(q)) {
+                otherMatches.set(i)
+            }
+        }
+        val result = ArrayList<T>(prefixMatches.cardinality() + otherMatches.cardinality())
+        addAll(prefixMatches, result)
+        addAll(otherMatches, result)
+        return result
+    }
+
+    private fun addAll(matches: BitSet, out: MutableList<T>) {
+        var i = matches.nextSetBit(0)
+        while (i >= 0) {
+            out.add(items[i])
+            i = matches.nextSetBit(i + 1)
+        }
+    }
+
+    private fun collectPrefixMatches(prefix: String, out: BitSet) {
+        ensureWordsSorted()
+        var i = Arrays.binarySearch(words, prefix).let { if (it < 0) -it - 1 else it }
+        while (i < words.size && words[i].startsWith(prefix)) {
+            wordOwners[i].forEach { out.set(it) }
+            i++
+        }
+    }
+
+    private fun ensureWordsSorted() {
+        if (pendingWords.isEmpty()) return
+        // Sorted like Arrays.binarySearch expects, with each word only once
+        val owners = TreeMap<String, MutableList<Int>>()
+        words.forEachIndexed { i, word ->
+            owners.getOrPut(word) { ArrayList() }.addAll(wordOwners[i].asList())
+        }
+        pendingWords.forEach { (word, owner) -> owners.getOrPut(word) { ArrayList() }.add(owner) }
+        words = owners.keys.toTypedArray()
+        wordOwners = owners.values.map { it.toIntArray() }.toTypedArray()
+        pendingWords = ArrayList()
+    }
+
+    companion object {
+
+        private val combiningMarks = Regex("\\p{Mn}+")
+
+        fun normalize(name: String): String {
+            return combiningMarks.replace(Normalizer.normalize(name, Normalizer.Form.NFD), "")
+                    .toLowerCase(Locale.ROOT).trim()
+        }
+    }
+}
@@ -68,6 +68,8 @@ import com.android.launcher3.R;
 import com.android.launcher3.SessionCommitReceiver;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.logging.FrameStats;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.notification.NotificationListener;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.ContentWriter;
@@ -674,6 +676,8 @@ public class SettingsActivity extends SettingsBaseActivity implements
 
                 case R.xml.zim_preferences_dev_options:
                     findPreference("kill").setOnPreferenceClickListener(this);
+                    findPreference("frame_stats").setOnPreferenceClickListener(this);
+                    findPreference("profiler_stats").setOnPreferenceClickListener(this);
                     break;
 
                 case R.xml.zim_preferences_about:
@@ -855,6 +859,22 @@ public class SettingsActivity extends SettingsBaseActivity implements
                 case "kill":
                     Utilities.killLauncher();
                     break;
+                case "frame_stats":
+                    new AlertDialog.Builder(getContext())
+                            .setTitle(preference.getTitle())
+                            .setMessage(FrameStats.getSummary())
+                            .setPositiveButton(android.R.string.ok, null)
+                            .setNeutralButton(R.string.frame_stats_reset, (dialog, which) -> FrameStats.reset())
+                            .show();
+                    return true;
+                case "profiler_stats":
+                    new AlertDialog.Builder(getContext())
+                            .setTitle(preference.getTitle())
+                            .setMessage(Profiler.getSummary())
+                            .setPositiveButton(android.R.string.ok, null)
+                            .setNeutralButton(R.string.frame_stats_reset, (dialog, which) -> Profiler.reset())
+                            .show();
+                    return true;
             }
             return false;
         }
@@ -0,0 +1,122 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.settings.ui.search
+
+import androidx.preference.PreferenceGroup
+import org.xmlpull.v1.XmlPullParser
+import org.zimmob.zimlx.preferences.SwitchSubPreference
+import org.zimmob.zimlx.settings.ui.SubPreference
+import org.zimmob.zimlx.settings.ui.search.SettingsIndexBuilder.PreferenceNode
+
+/**
+ * Reads the preferences declared by a preference XML screen into the nodes walked by
+ * [SettingsIndexBuilder]. Only the attributes are read through [readAttributes], so the walk
+ * itself works with any [XmlPullParser].
+ *
+ * @param readAttributes reads the attributes of the preference at the current start tag
+ */
+class PreferenceXmlReader(private val readAttributes: (XmlPullParser) -> Attributes) {
+
+    fun read(parser: XmlPullParser): List<PreferenceNode> {
+        parser.require(XmlPullParser.START_DOCUMENT, null, null)
+        // Move to the root preference screen
+        while (parser.next() != XmlPullParser.START_TAG) {
+            if (parser.eventType == XmlPullParser.END_DOCUMENT) {
+                return emptyList()
+            }
+        }
+        return readSection(parser)
+    }
+
+    private fun readSection(parser: XmlPullParser): List<PreferenceNode> {
+        val nodes = ArrayList<PreferenceNode>()
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.eventType != XmlPullParser.START_TAG) {
+                continue
+            }
+            val cls = try {
+                // The class is only inspected, its initializers don't need to run
+                Class.forName(parser.name, false, PreferenceXmlReader::class.java.classLoader)
+            } catch (e: ClassNotFoundException) {
+                null
+            }
+            val type = when {
+                cls == null -> PreferenceNode.Type.PREFERENCE
+                SwitchSubPreference::class.java.isAssignableFrom(cls) ->
+                    PreferenceNode.Type.SWITCH_SUB_SCREEN
+                SubPreference::class.java.isAssignableFrom(cls) -> PreferenceNode.Type.SUB_SCREEN
+                PreferenceGroup::class.java.isAssignableFrom(cls) -> PreferenceNode.Type.GROUP
+                else -> PreferenceNode.Type.PREFERENCE
+            }
+            val attrs = readAttributes(parser)
+
+            val children = if (type == PreferenceNode.Type.GROUP) {
+                readSection(parser)
+            } else {
+                skip(parser)
+                emptyList()
+            }
+            val sliceClass = if (type == PreferenceNode.Type.PREFERENCE) getSliceClass(cls) else null
+            nodes.add(PreferenceNode(type, attrs.key, attrs.title, attrs.summary, attrs.iconRes,
+                    attrs.contentRes, attrs.hasPreview, attrs.defaultValue, attrs.controllerClass,
+                    sliceClass, children))
+        }
+        return nodes
+    }
+
+    private fun getSliceClass(cls: Class<*>?): String? {
+        if (cls == null) return null
+        return try {
+            cls.getDeclaredField(SLICE_PROVIDER_FIELD)
+            cls.name
+        } catch (e: NoSuchFieldException) {
+            null
+        }
+    }
+
+    private fun skip(parser: XmlPullParser) {
+        if (parser.eventType != XmlPullParser.START_TAG) {
+            throw IllegalStateException()
+        }
+        var depth = 1
+        while (depth != 0) {
+            when (parser.next()) {
+                XmlPullParser.END_TAG -> depth--
+                XmlPullParser.START_TAG -> depth++
+            }
+        }
+    }
+
+    /**
+     * The indexed attributes of a preference, with the strings already resolved.
+     */
+    class Attributes(
+            val key: String?,
+            val title: String?,
+            val summary: String?,
+            val iconRes: Int,
+            val contentRes: Int,
+            val hasPreview: Boolean,
+            val defaultValue: Boolean,
+            val controllerClass: String?)
+
+    companion object {
+        // Static field of the preference classes providing a SearchIndex.SliceProvider
+        const val SLICE_PROVIDER_FIELD = "sliceProvider"
+    }
+}
@@ -18,185 +18,199 @@
 package org.zimmob.zimlx.settings.ui.search
 
 import android.content.Context
-import android.content.res.TypedArray
+import android.util.AtomicFile
 import android.util.AttributeSet
+import android.util.Log
 import android.util.Xml
 import android.view.View
-import androidx.preference.PreferenceGroup
+import com.android.launcher3.BuildConfig
 import com.android.launcher3.R
 import com.android.launcher3.Utilities
 import org.xmlpull.v1.XmlPullParser
-import org.zimmob.zimlx.preferences.SwitchSubPreference
+import org.zimmob.zimlx.locale
+import org.zimmob.zimlx.runOnUiWorkerThread
 import org.zimmob.zimlx.settings.ui.PreferenceController
-import org.zimmob.zimlx.settings.ui.SubPreference
+import org.zimmob.zimlx.settings.ui.search.SettingsIndexBuilder.PreferenceNode
+import org.zimmob.zimlx.settings.ui.search.SettingsIndexData.Companion.NO_PARENT
+import java.io.*
 
+/**
+ * The settings which can be searched. The preference screens are only parsed once per app
+ * version and locale, the resulting [SettingsIndexData] is saved and loaded on the next
+ * searches, while the controllers and the switches hiding screens are applied every time.
+ */
 class SearchIndex(private val context: Context) {
 
     companion object {
         private const val TAG = "SearchIndex"
+        private const val INDEX_FILE = "settings_search_index"
+        private const val ANDROID_NS = "http://schemas.android.com/apk/res/android"
+    }
+
+    private val indexFile = AtomicFile(File(context.cacheDir, INDEX_FILE))
+    private val stamp by lazy {
+        val lastUpdateTime = context.packageManager
+                .getPackageInfo(context.packageName, 0).lastUpdateTime
+        "${BuildConfig.VERSION_CODE}/$lastUpdateTime/${context.locale}"
     }
 
+    private val xmlReader = PreferenceXmlReader(::readAttributes)
+    private val data = loadIndex() ?: buildIndex()
+
     val entries = ArrayList<SettingsEntry>()
-    val addedKeys = HashSet<String>()
+    // Entry shown for each entry of the data, or null if it's hidden
+    private val shownEntries = arrayOfNulls<SettingsEntry>(data.entries.size)
 
     init {
-        indexScreen(R.xml.zim_preferences, null)
+        val prefs = Utilities.getPrefs(context)
+        val screens = arrayOfNulls<SettingsScreen>(data.screens.size)
+        data.screens.forEachIndexed { i, screen ->
+            val parent = if (screen.parent != NO_PARENT) {
+                screens[screen.parent] ?: return@forEachIndexed
+            } else null
+            val controller = createController(screen.controllerClass)
+            if (controller?.isVisible == false) return@forEachIndexed
+            if (screen.switchKey != null
+                    && !prefs.getBoolean(screen.switchKey, screen.switchDefault)) {
+                return@forEachIndexed
+            }
+            val title = if (screen.isCategory) parent!!.title else controller?.title ?: screen.title
+            screens[i] = SettingsScreen(title, screen.breadcrumbs, screen.contentRes,
+                    screen.hasPreview)
+        }
+
+        val addedKeys = HashSet<String>()
+        data.entries.forEachIndexed { i, entry ->
+            val screen = screens[entry.screen] ?: return@forEachIndexed
+            val controller = createController(entry.controllerClass)
+            if (controller?.isVisible == false || !addedKeys.add(entry.key)) {
+                return@forEachIndexed
+            }
+            val settingsEntry = SettingsEntry(entry.iconRes, entry.key,
+                    controller?.title ?: entry.title, controller?.summary ?: entry.summary,
+                    screen, entry.sliceClass)
+            entries.add(settingsEntry)
+            shownEntries[i] = settingsEntry
+        }
     }
 
-    private fun indexScreen(resourceId: Int, parent: SettingsScreen?) {
-        val resources = context.resources
-        val parser = resources.getXml(resourceId)
-        parser.require(XmlPullParser.START_DOCUMENT, null, null)
-        parser.next()
-        parser.next()
-        indexSection(parser, parent)
+    /**
+     * Returns the shown entries matching [query], best matches first.
+     */
+    fun search(query: String): List<SettingsEntry> {
+        return data.search(query).mapNotNull { shownEntries[it] }
     }
 
-    private fun indexSection(parser: XmlPullParser, parent: SettingsScreen?) {
-        while (parser.next() != XmlPullParser.END_TAG) {
-            if (parser.eventType != XmlPullParser.START_TAG) {
-                continue
-            }
-            val cls = try {
-                Class.forName(parser.name)
-            } catch (e: ClassNotFoundException) {
-                null
+    private fun loadIndex(): SettingsIndexData? {
+        if (!indexFile.baseFile.exists()) return null
+        return try {
+            DataInputStream(BufferedInputStream(indexFile.openRead())).use {
+                SettingsIndexData.read(it, stamp)
             }
-            val attrs = Xml.asAttributeSet(parser)
-            val ta = context.obtainStyledAttributes(attrs, R.styleable.IndexablePreference)
-            when {
-                cls != null && SubPreference::class.java.isAssignableFrom(cls) -> {
-                    val controller = createController(ta)
-                    if (controller?.isVisible != false) {
-                        val iconRes = ta.getResourceId(R.styleable.IndexablePreference_android_icon, 0)
-                        val title = controller?.title
-                                ?: ta.getString(R.styleable.IndexablePreference_android_title)
-                        val content = ta.getResourceId(R.styleable.IndexablePreference_content, 0)
-                        val hasPreview = ta.getBoolean(R.styleable.IndexablePreference_hasPreview, false)
-                        var canIndex = true
-                        if (SwitchSubPreference::class.java.isAssignableFrom(cls)) {
-                            val key = ta.getString(R.styleable.IndexablePreference_android_key)
-                            val defaultValue = ta.getBoolean(R.styleable.IndexablePreference_android_defaultValue, false)
-                            val summary = controller?.summary
-                                    ?: ta.getString(R.styleable.IndexablePreference_android_summary)
-                            if (parent != null && key != null) {
-                                if (addedKeys.add(key)) {
-                                    entries.add(SettingsEntry(iconRes, key, title!!, summary, parent))
-                                }
-                            }
-                            canIndex = Utilities.getPrefs(context).getBoolean(key, defaultValue)
-                        }
-                        if (canIndex) {
-                            indexScreen(content, SettingsScreen(title!!, title, findScreen(parent), content, hasPreview))
-                        }
-                    }
-                    skip(parser)
-                }
-                cls != null && PreferenceGroup::class.java.isAssignableFrom(cls) -> {
-                    val controller = createController(ta)
-                    if (controller?.isVisible != false) {
-                        val title = controller?.title
-                                ?: ta.getString(R.styleable.IndexablePreference_android_title)
-                        if (parent != null) {
-                            indexSection(parser, SettingsCategory(parent.title, title,
-                                    parent, parent.contentRes, parent.hasPreview))
-                        } else {
-                            indexSection(parser, null)
-                        }
-                    } else {
-                        skip(parser)
-                    }
-                }
-                else -> {
-                    val controller = createController(ta)
-                    if (controller?.isVisible != false) {
-                        val iconRes = ta.getResourceId(R.styleable.IndexablePreference_android_icon, 0)
-                        val key = ta.getString(R.styleable.IndexablePreference_android_key)
-                        val title = controller?.title
-                                ?: ta.getString(R.styleable.IndexablePreference_android_title)
-                        val summary = controller?.summary
-                                ?: ta.getString(R.styleable.IndexablePreference_android_summary)
-                        if (parent != null && key != null && title != null) {
-                            if (addedKeys.add(key)) {
-                                entries.add(SettingsEntry(iconRes, key, title, summary, parent, getSlice(cls, attrs)))
-                            }
-                        }
-                    }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to load the search index", e)
+            null
+        }
+    }
 
-                    skip(parser)
-                }
+    private fun buildIndex(): SettingsIndexData {
+        val data = SettingsIndexBuilder(::loadScreen) { breadcrumbs, title ->
+            context.getString(R.string.search_breadcrumb_connector, breadcrumbs, title)
+        }.build(R.xml.zim_preferences)
+        runOnUiWorkerThread { saveIndex(data) }
+        return data
+    }
+
+    private fun saveIndex(data: SettingsIndexData) {
+        var stream: FileOutputStream? = null
+        try {
+            stream = indexFile.startWrite()
+            val out = DataOutputStream(BufferedOutputStream(stream))
+            data.write(out, stamp)
+            out.flush()
+            indexFile.finishWrite(stream)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to save the search index", e)
+            if (stream != null) {
+                indexFile.failWrite(stream)
             }
+        }
+    }
+
+    private fun loadScreen(resourceId: Int): List<PreferenceNode> {
+        val parser = context.resources.getXml(resourceId)
+        try {
+            return xmlReader.read(parser)
+        } finally {
+            parser.close()
+        }
+    }
 
+    private fun readAttributes(parser: XmlPullParser): PreferenceXmlReader.Attributes {
+        val ta = context.obtainStyledAttributes(Xml.asAttributeSet(parser),
+                R.styleable.IndexablePreference)
+        try {
+            return PreferenceXmlReader.Attributes(
+                    ta.getString(R.styleable.IndexablePreference_android_key),
+                    ta.getString(R.styleable.IndexablePreference_android_title),
+                    ta.getString(R.styleable.IndexablePreference_android_summary),
+                    ta.getResourceId(R.styleable.IndexablePreference_android_icon, 0),
+                    ta.getResourceId(R.styleable.IndexablePreference_content, 0),
+                    ta.getBoolean(R.styleable.IndexablePreference_hasPreview, false),
+                    ta.getBoolean(R.styleable.IndexablePreference_android_defaultValue, false),
+                    ta.getString(R.styleable.IndexablePreference_controllerClass))
+        } finally {
             ta.recycle()
         }
     }
 
-    private fun getSlice(cls: Class<*>?, attrs: AttributeSet): Slice? {
-        if (cls == null) return null
+    /**
+     * Creates the slice of [entry] from the attributes of its preference, which are only parsed
+     * again when the entry gets shown.
+     */
+    private fun createSlice(entry: SettingsEntry): Slice? {
         val provider: SliceProvider
         try {
-            val providerField = cls.getDeclaredField("sliceProvider")
+            val providerField = Class.forName(entry.sliceClass ?: return null)
+                    .getDeclaredField(PreferenceXmlReader.SLICE_PROVIDER_FIELD)
             providerField.isAccessible = true
             provider = providerField.get(null) as? SliceProvider ?: return null
         } catch (t: Throwable) {
 
             return null
         }
-        return provider.getSlice(context, attrs)
-    }
-
-    private fun createController(ta: TypedArray): PreferenceController? {
-        val controllerClass = ta.getString(R.styleable.IndexablePreference_controllerClass)
-        return PreferenceController.create(context, controllerClass)
-    }
-
-    private tailrec fun findScreen(screen: SettingsScreen?): SettingsScreen? {
-        return if (screen is SettingsCategory)
-            findScreen(screen.parent)
-        else
-            screen
-    }
-
-    private fun skip(parser: XmlPullParser) {
-        if (parser.eventType != XmlPullParser.START_TAG) {
-            throw IllegalStateException()
-        }
-        var depth = 1
-        while (depth != 0) {
-            when (parser.next()) {
-                XmlPullParser.END_TAG -> depth--
-                XmlPullParser.START_TAG -> depth++
+        val parser = context.resources.getXml(entry.parent.contentRes)
+        try {
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.eventType == XmlPullParser.START_TAG
+                        && parser.getAttributeValue(ANDROID_NS, "key") == entry.key) {
+                    return provider.getSlice(context, Xml.asAttributeSet(parser))
+                }
             }
+        } finally {
+            parser.close()
         }
+        return null
     }
 
-    inner class SettingsCategory(title: String, categoryTitle: String?,
-                                 parent: SettingsScreen?, contentRes: Int,
-                                 hasPreview: Boolean)
-        : SettingsScreen(title, categoryTitle, parent, contentRes, hasPreview)
-
-    open inner class SettingsScreen(val title: String, private val categoryTitle: String?,
-                                    val parent: SettingsScreen?,
-                                    val contentRes: Int, val hasPreview: Boolean) {
-
-        val breadcrumbs: String
-            get() = when {
-                parent == null -> categoryTitle ?: ""
-                categoryTitle != null -> context.getString(R.string.search_breadcrumb_connector,
-                        parent.breadcrumbs, categoryTitle)
-                else -> parent.breadcrumbs
-            }
+    private fun createController(controllerClass: String?): PreferenceController? {
+        return controllerClass?.let { PreferenceController.create(context, it) }
     }
 
+    class SettingsScreen(val title: String, val breadcrumbs: String,
+                         val contentRes: Int, val hasPreview: Boolean)
+
     inner class SettingsEntry(
             val iconRes: Int,
             val key: String,
             val title: String,
             val summary: String?,
-            val parent: SettingsScreen?,
-            private val slice: Slice? = null) {
+            val parent: SettingsScreen,
+            val sliceClass: String?) {
+
+        val breadcrumbs get() = parent.breadcrumbs
 
-        val breadcrumbs get() = parent?.breadcrumbs ?: ""
+        private val slice by lazy { createSlice(this) }
 
         fun getId(): Long {
             var id = title.hashCode().toLong() shl 32
@@ -0,0 +1,126 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.settings.ui.search
+
+import org.zimmob.zimlx.settings.ui.search.SettingsIndexData.Companion.NO_PARENT
+
+/**
+ * Walks the preference screens from a root screen and collects what [SettingsIndexData] keeps.
+ *
+ * @param loadScreen returns the preferences declared by a preference XML screen
+ * @param connectBreadcrumbs joins the breadcrumbs of a screen with the title of a child
+ */
+class SettingsIndexBuilder(
+        private val loadScreen: (Int) -> List<PreferenceNode>,
+        private val connectBreadcrumbs: (String, String) -> String) {
+
+    private val screens = ArrayList<SettingsIndexData.Screen>()
+    private val entries = ArrayList<SettingsIndexData.Entry>()
+
+    fun build(rootRes: Int): SettingsIndexData {
+        screens.clear()
+        entries.clear()
+        indexSection(loadScreen(rootRes), NO_PARENT)
+        return SettingsIndexData.create(ArrayList(screens), ArrayList(entries))
+    }
+
+    private fun indexSection(nodes: List<PreferenceNode>, parent: Int) {
+        for (node in nodes) {
+            when (node.type) {
+                PreferenceNode.Type.SUB_SCREEN, PreferenceNode.Type.SWITCH_SUB_SCREEN -> {
+                    val title = node.title ?: continue
+                    val isSwitch = node.type == PreferenceNode.Type.SWITCH_SUB_SCREEN
+                    if (isSwitch) {
+                        if (parent != NO_PARENT && node.key != null) {
+                            entries.add(SettingsIndexData.Entry(node.iconRes, node.key, title,
+                                    node.summary, parent, node.controllerClass, null))
+                        }
+                        if (node.key == null && !node.defaultValue) {
+                            // Can never be switched on
+                            continue
+                        }
+                    }
+                    val screenParent = findScreen(parent)
+                    val breadcrumbs = if (screenParent == NO_PARENT) title
+                    else connectBreadcrumbs(screens[screenParent].breadcrumbs, title)
+                    val index = addScreen(SettingsIndexData.Screen(title, breadcrumbs,
+                            screenParent, node.contentRes, node.hasPreview, false,
+                            node.controllerClass, if (isSwitch) node.key else null,
+                            node.defaultValue))
+                    indexSection(loadScreen(node.contentRes), index)
+                }
+                PreferenceNode.Type.GROUP -> {
+                    if (parent == NO_PARENT) {
+                        indexSection(node.children, NO_PARENT)
+                        continue
+                    }
+                    val screen = screens[parent]
+                    val breadcrumbs = if (node.title != null)
+                        connectBreadcrumbs(screen.breadcrumbs, node.title)
+                    else screen.breadcrumbs
+                    val index = addScreen(SettingsIndexData.Screen(screen.title, breadcrumbs,
+                            parent, screen.contentRes, screen.hasPreview, true,
+                            node.controllerClass, null, false))
+                    indexSection(node.children, index)
+                }
+                PreferenceNode.Type.PREFERENCE -> {
+                    if (parent != NO_PARENT && node.key != null && node.title != null) {
+                        entries.add(SettingsIndexData.Entry(node.iconRes, node.key, node.title,
+                                node.summary, parent, node.controllerClass, node.sliceClass))
+                    }
+                }
+            }
+        }
+    }
+
+    private fun addScreen(screen: SettingsIndexData.Screen): Int {
+        screens.add(screen)
+        return screens.size - 1
+    }
+
+    private tailrec fun findScreen(index: Int): Int {
+        return if (index != NO_PARENT && screens[index].isCategory)
+            findScreen(screens[index].parent)
+        else
+            index
+    }
+
+    /**
+     * A preference as declared in a preference XML screen.
+     *
+     * @param sliceClass the class providing a slice for this preference, if any
+     * @param children the preferences of a [Type.GROUP]
+     */
+    class PreferenceNode(
+            val type: Type,
+            val key: String?,
+            val title: String?,
+            val summary: String?,
+            val iconRes: Int,
+            val contentRes: Int,
+            val hasPreview: Boolean,
+            val defaultValue: Boolean,
+            val controllerClass: String?,
+            val sliceClass: String?,
+            val children: List<PreferenceNode>) {
+
+        enum class Type {
+            SUB_SCREEN, SWITCH_SUB_SCREEN, GROUP, PREFERENCE
+        }
+    }
+}
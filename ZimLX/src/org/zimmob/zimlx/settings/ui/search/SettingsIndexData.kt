@@ -0,0 +1,274 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.settings.ui.search
+
+import org.zimmob.zimlx.iconpack.IconSearchIndex
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.util.*
+
+/**
+ * The settings found by [SettingsSearchActivity], as derived from the preference XML screens by
+ * [SettingsIndexBuilder], along with an inverted index of the words in their titles and
+ * summaries.
+ *
+ * Everything depending on the device or on the user's settings (controllers and switches hiding
+ * a screen) is kept as is, and applied by [SearchIndex] whenever the index is loaded.
+ */
+class SettingsIndexData(
+        val screens: List<Screen>,
+        val entries: List<Entry>,
+        private val terms: Array<String>,
+        private val postings: Array<IntArray>) {
+
+    private val normalizedTitles by lazy { entries.map { IconSearchIndex.normalize(it.title) } }
+
+    /**
+     * A screen or a category of a screen.
+     *
+     * @param title the title of the screen, which is also the title of its categories
+     * @param parent the index of the parent screen in [screens], or [NO_PARENT]
+     * @param switchKey the key of the switch enabling this screen, if any
+     */
+    data class Screen(
+            val title: String,
+            val breadcrumbs: String,
+            val parent: Int,
+            val contentRes: Int,
+            val hasPreview: Boolean,
+            val isCategory: Boolean,
+            val controllerClass: String?,
+            val switchKey: String?,
+            val switchDefault: Boolean)
+
+    /**
+     * A preference, [screen] being the index of its screen in [screens] and [sliceClass] the
+     * class providing its slice, if any.
+     */
+    data class Entry(
+            val iconRes: Int,
+            val key: String,
+            val title: String,
+            val summary: String?,
+            val screen: Int,
+            val controllerClass: String?,
+            val sliceClass: String?)
+
+    /**
+     * Returns the indices in [entries] of the entries having words starting with every word of
+     * [query], allowing one typo in the longer words. Matches in titles come first, followed
+     * by the entries whose title only contains [query] somewhere.
+     */
+    fun search(query: String): List<Int> {
+        val queryTerms = tokenize(query)
+        if (queryTerms.isEmpty()) return emptyList()
+
+        val scores = IntArray(entries.size)
+        val matches = BitSet(entries.size).apply { set(0, entries.size) }
+        val termScores = IntArray(entries.size)
+        for (queryTerm in queryTerms) {
+            Arrays.fill(termScores, 0)
+            for (i in terms.indices) {
+                val quality = matchQuality(queryTerm, terms[i])
+                if (quality == 0) continue
+                for (posting in postings[i]) {
+                    val entry = posting shr 1
+                    val score = if (posting and FIELD_TITLE != 0) quality * 2 else quality
+                    termScores[entry] = Math.max(termScores[entry], score)
+                }
+            }
+            for (entry in entries.indices) {
+                if (termScores[entry] == 0) matches.clear(entry)
+                scores[entry] += termScores[entry]
+            }
+        }
+
+        val result = ArrayList<Int>(matches.cardinality())
+        var i = matches.nextSetBit(0)
+        while (i >= 0) {
+            result.add(i)
+            i = matches.nextSetBit(i + 1)
+        }
+        // Stable, entries with the same score keep the order of the screens
+        result.sortByDescending { scores[it] }
+
+        val normalizedQuery = IconSearchIndex.normalize(query)
+        normalizedTitles.forEachIndexed { index, title ->
+            if (!matches[index] && title.contains(normalizedQuery)) {
+                result.add(index)
+            }
+        }
+        return result
+    }
+
+    fun write(out: DataOutputStream, stamp: String) {
+        out.writeInt(FORMAT_VERSION)
+        out.writeUTF(stamp)
+        out.writeInt(screens.size)
+        screens.forEach {
+            out.writeUTF(it.title)
+            out.writeUTF(it.breadcrumbs)
+            out.writeInt(it.parent)
+            out.writeInt(it.contentRes)
+            out.writeBoolean(it.hasPreview)
+            out.writeBoolean(it.isCategory)
+            out.writeNullableUTF(it.controllerClass)
+            out.writeNullableUTF(it.switchKey)
+            out.writeBoolean(it.switchDefault)
+        }
+        out.writeInt(entries.size)
+        entries.forEach {
+            out.writeInt(it.iconRes)
+            out.writeUTF(it.key)
+            out.writeUTF(it.title)
+            out.writeNullableUTF(it.summary)
+            out.writeInt(it.screen)
+            out.writeNullableUTF(it.controllerClass)
+            out.writeNullableUTF(it.sliceClass)
+        }
+        out.writeInt(terms.size)
+        terms.forEachIndexed { i, term ->
+            out.writeUTF(term)
+            out.writeInt(postings[i].size)
+            postings[i].forEach { out.writeInt(it) }
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is SettingsIndexData
+                && screens == other.screens
+                && entries == other.entries
+                && terms.contentEquals(other.terms)
+                && postings.contentDeepEquals(other.postings)
+    }
+
+    override fun hashCode() = Objects.hash(screens, entries, terms.contentHashCode())
+
+    companion object {
+
+        const val NO_PARENT = -1
+
+        private const val FORMAT_VERSION = 1
+
+        private const val FIELD_TITLE = 1
+
+        // Shorter words must be typed correctly, as they would match too many others
+        private const val MIN_TYPO_LENGTH = 4
+
+        private val separators = Regex("[^\\p{L}\\p{N}]+")
+
+        fun create(screens: List<Screen>, entries: List<Entry>): SettingsIndexData {
+            val index = TreeMap<String, MutableSet<Int>>()
+            entries.forEachIndexed { i, entry ->
+                tokenize(entry.title).forEach {
+                    index.getOrPut(it) { TreeSet() }.add(i shl 1 or FIELD_TITLE)
+                }
+                entry.summary?.let { summary ->
+                    tokenize(summary).forEach { index.getOrPut(it) { TreeSet() }.add(i shl 1) }
+                }
+            }
+            return SettingsIndexData(screens, entries,
+                    index.keys.toTypedArray(),
+                    index.values.map { it.toIntArray() }.toTypedArray())
+        }
+
+        /**
+         * Reads an index written by [write], returns null if it was written with another
+         * [stamp].
+         */
+        @Throws(IOException::class)
+        fun read(input: DataInputStream, stamp: String): SettingsIndexData? {
+            if (input.readInt() != FORMAT_VERSION || input.readUTF() != stamp) {
+                return null
+            }
+            val screens = List(input.readInt()) {
+                Screen(input.readUTF(), input.readUTF(), input.readInt(), input.readInt(),
+                        input.readBoolean(), input.readBoolean(), input.readNullableUTF(),
+                        input.readNullableUTF(), input.readBoolean())
+            }
+            val entries = List(input.readInt()) {
+                Entry(input.readInt(), input.readUTF(), input.readUTF(), input.readNullableUTF(),
+                        input.readInt(), input.readNullableUTF(), input.readNullableUTF())
+            }
+            val count = input.readInt()
+            val terms = arrayOfNulls<String>(count)
+            val postings = arrayOfNulls<IntArray>(count)
+            for (i in 0 until count) {
+                terms[i] = input.readUTF()
+                postings[i] = IntArray(input.readInt()) { input.readInt() }
+            }
+            @Suppress("UNCHECKED_CAST")
+            return SettingsIndexData(screens, entries,
+                    terms as Array<String>, postings as Array<IntArray>)
+        }
+
+        fun tokenize(text: String): List<String> {
+            return IconSearchIndex.normalize(text).split(separators).filter { it.isNotEmpty() }
+        }
+
+        /**
+         * Returns 2 if [term] starts with [query], 1 if it starts with [query] give or take a
+         * typo, 0 otherwise.
+         */
+        fun matchQuality(query: String, term: String): Int {
+            return when {
+                term.startsWith(query) -> 2
+                query.length >= MIN_TYPO_LENGTH && prefixDistance(query, term) <= 1 -> 1
+                else -> 0
+            }
+        }
+
+        /**
+         * Returns the smallest edit distance between [query] and a prefix of [term], counting
+         * the transposition of two letters as a single edit.
+         */
+        private fun prefixDistance(query: String, term: String): Int {
+            var previous2 = IntArray(term.length + 1)
+            var previous = IntArray(term.length + 1)
+            var current = IntArray(term.length + 1) { it }
+            for (i in 1..query.length) {
+                val tmp = previous2
+                previous2 = previous
+                previous = current
+                current = tmp
+                current[0] = i
+                for (j in 1..term.length) {
+                    val cost = if (query[i - 1] == term[j - 1]) 0 else 1
+                    var distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                            previous[j - 1] + cost)
+                    if (i > 1 && j > 1 && query[i - 1] == term[j - 2]
+                            && query[i - 2] == term[j - 1]) {
+                        distance = Math.min(distance, previous2[j - 2] + 1)
+                    }
+                    current[j] = distance
+                }
+            }
+            return current.min()!!
+        }
+
+        private fun DataOutputStream.writeNullableUTF(value: String?) {
+            writeBoolean(value != null)
+            if (value != null) writeUTF(value)
+        }
+
+        private fun DataInputStream.readNullableUTF(): String? {
+            return if (readBoolean()) readUTF() else null
+        }
+    }
+}
@@ -120,7 +120,7 @@ class SettingsSearchActivity : SettingsBaseActivity(), SearchView.OnQueryTextLis
         val matches = if (query.isEmpty())
             emptyList()
         else
-            searchIndex.entries.filter { it.title.toLowerCase().contains(query.toLowerCase()) }
+            searchIndex.search(query)
         val showNoResults = matches.isEmpty() && !query.isEmpty()
         no_results_layout.animate().alpha(if (showNoResults) 1f else 0f).start()
         searchAdapter.postSearchResults(matches)
@@ -226,11 +226,9 @@ class SettingsSearchActivity : SettingsBaseActivity(), SearchView.OnQueryTextLis
                     val context = itemView.context
                     val intent = Intent(context, SettingsActivity::class.java)
                     intent.putExtra(EXTRA_FRAGMENT_ARG_KEY, entry.key)
-                    if (entry.parent != null) {
-                        intent.putExtra(TITLE, entry.parent.title)
-                        intent.putExtra(CONTENT_RES_ID, entry.parent.contentRes)
-                        intent.putExtra(HAS_PREVIEW, entry.parent.hasPreview)
-                    }
+                    intent.putExtra(TITLE, entry.parent.title)
+                    intent.putExtra(CONTENT_RES_ID, entry.parent.contentRes)
+                    intent.putExtra(HAS_PREVIEW, entry.parent.hasPreview)
                     context.startActivity(intent)
                 }
             }
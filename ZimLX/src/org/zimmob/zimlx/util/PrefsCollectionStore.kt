@@ -0,0 +1,248 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.util
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import android.os.Looper
+import android.util.Log
+import com.android.launcher3.LauncherModel
+import com.android.launcher3.util.LooperExecutor
+import com.android.launcher3.util.NoLocaleSQLiteHelper
+import java.util.concurrent.Callable
+
+/**
+ * Keyed storage for the collection preferences (maps and lists), with one row per entry so that
+ * changing an entry doesn't rewrite the whole collection.
+ *
+ * Reads are synchronous, writes are applied in order on the ui worker thread unless blocking.
+ * Blocking writes return whether they were committed.
+ */
+class PrefsCollectionStore(context: Context, name: String) : NoLocaleSQLiteHelper(context, name, VERSION) {
+
+    private val looper: Looper = LauncherModel.getUiWorkerLooper()
+    private val executor = LooperExecutor(looper)
+    private var batch: ArrayList<(SQLiteDatabase) -> Unit>? = null
+
+    init {
+        // Backups only copy the database file itself
+        setWriteAheadLoggingEnabled(false)
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL("CREATE TABLE $TABLE_MAPS (" +
+                "$COLUMN_PREF TEXT NOT NULL, " +
+                "$COLUMN_KEY TEXT NOT NULL, " +
+                "$COLUMN_VALUE TEXT NOT NULL, " +
+                "PRIMARY KEY ($COLUMN_PREF, $COLUMN_KEY))")
+        db.execSQL("CREATE TABLE $TABLE_LISTS (" +
+                "$COLUMN_PREF TEXT NOT NULL, " +
+                "$COLUMN_POSITION INTEGER NOT NULL, " +
+                "$COLUMN_VALUE TEXT NOT NULL, " +
+                "PRIMARY KEY ($COLUMN_PREF, $COLUMN_POSITION))")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+
+    }
+
+    override fun onDowngrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Unknown schema, discard the data and start over
+        db.execSQL("DROP TABLE IF EXISTS $TABLE_MAPS")
+        db.execSQL("DROP TABLE IF EXISTS $TABLE_LISTS")
+        onCreate(db)
+    }
+
+    fun readMap(pref: String): Map<String, String> {
+        val result = HashMap<String, String>()
+        try {
+            readableDatabase.query(TABLE_MAPS, arrayOf(COLUMN_KEY, COLUMN_VALUE),
+                    "$COLUMN_PREF = ?", arrayOf(pref), null, null, null).use { c ->
+                while (c.moveToNext()) {
+                    result[c.getString(0)] = c.getString(1)
+                }
+            }
+        } catch (e: SQLiteException) {
+            Log.e(TAG, "Failed to read $pref", e)
+        }
+        return result
+    }
+
+    /**
+     * Returns the saved list, or null if it was never saved.
+     */
+    fun readList(pref: String): List<String>? {
+        try {
+            readableDatabase.query(TABLE_LISTS, arrayOf(COLUMN_POSITION, COLUMN_VALUE),
+                    "$COLUMN_PREF = ?", arrayOf(pref), null, null, COLUMN_POSITION).use { c ->
+                if (!c.moveToFirst() || c.getInt(0) != POSITION_SIZE) return null
+                val size = c.getString(1).toInt()
+                val result = ArrayList<String>(size)
+                while (c.moveToNext() && result.size < size) {
+                    result.add(c.getString(1))
+                }
+                return if (result.size == size) result else null
+            }
+        } catch (e: SQLiteException) {
+            Log.e(TAG, "Failed to read $pref", e)
+            return null
+        } catch (e: NumberFormatException) {
+            return null
+        }
+    }
+
+    fun putEntry(pref: String, key: String, value: String, blocking: Boolean): Boolean {
+        return write(blocking) { db -> db.replace(TABLE_MAPS, null, mapRow(pref, key, value)) }
+    }
+
+    fun removeEntry(pref: String, key: String, blocking: Boolean): Boolean {
+        return write(blocking) { db ->
+            db.delete(TABLE_MAPS, "$COLUMN_PREF = ? AND $COLUMN_KEY = ?", arrayOf(pref, key))
+        }
+    }
+
+    fun replaceMap(pref: String, entries: Map<String, String>, blocking: Boolean): Boolean {
+        val copy = HashMap(entries)
+        return write(blocking) { db ->
+            db.delete(TABLE_MAPS, "$COLUMN_PREF = ?", arrayOf(pref))
+            copy.forEach { (key, value) -> db.insert(TABLE_MAPS, null, mapRow(pref, key, value)) }
+        }
+    }
+
+    /**
+     * Saves [values] in place of [previous], only writing the positions which changed.
+     *
+     * @return false if there was nothing to write, or if the blocking write failed
+     */
+    fun writeList(pref: String, values: List<String>, previous: List<String>?, blocking: Boolean): Boolean {
+        val changed = ArrayList<Pair<Int, String>>()
+        values.forEachIndexed { i, value ->
+            if (previous == null || i >= previous.size || previous[i] != value) {
+                changed.add(i to value)
+            }
+        }
+        val size = values.size
+        if (changed.isEmpty() && previous != null && previous.size == size) return false
+        return write(blocking) { db ->
+            db.replace(TABLE_LISTS, null, listRow(pref, POSITION_SIZE, size.toString()))
+            changed.forEach { (position, value) ->
+                db.replace(TABLE_LISTS, null, listRow(pref, position, value))
+            }
+            if (previous == null || previous.size > size) {
+                db.delete(TABLE_LISTS, "$COLUMN_PREF = ? AND $COLUMN_POSITION >= ?",
+                        arrayOf(pref, size.toString()))
+            }
+        }
+    }
+
+    /**
+     * Holds the non blocking writes until [endBatch], which applies them in a single transaction.
+     */
+    fun beginBatch() {
+        if (batch == null) {
+            batch = ArrayList()
+        }
+    }
+
+    fun endBatch(blocking: Boolean) {
+        val ops = batch ?: return
+        batch = null
+        if (ops.isNotEmpty()) {
+            write(blocking) { db -> ops.forEach { it(db) } }
+        }
+    }
+
+    /**
+     * Waits for the non blocking writes posted so far, so that the database file can be copied.
+     * Writes held by a batch are only posted by [endBatch].
+     */
+    fun flush() {
+        if (Looper.myLooper() == looper) return
+        executor.submit(Runnable { }).get()
+    }
+
+    /**
+     * @return false if a blocking write failed, non blocking writes are only logged if they fail
+     */
+    private fun write(blocking: Boolean, op: (SQLiteDatabase) -> Unit): Boolean {
+        if (!blocking) {
+            batch?.let {
+                it.add(op)
+                return true
+            }
+        }
+        val task = Callable {
+            try {
+                val db = writableDatabase
+                db.beginTransaction()
+                try {
+                    op(db)
+                    db.setTransactionSuccessful()
+                } finally {
+                    db.endTransaction()
+                }
+                true
+            } catch (e: SQLiteException) {
+                Log.e(TAG, "Failed to write preferences", e)
+                false
+            }
+        }
+        return when {
+            !blocking -> {
+                executor.execute { task.call() }
+                true
+            }
+            // Waiting for the executor from its own thread would never return
+            Looper.myLooper() == looper -> task.call()
+            else -> executor.submit(task).get()
+        }
+    }
+
+    private fun mapRow(pref: String, key: String, value: String) = ContentValues(3).apply {
+        put(COLUMN_PREF, pref)
+        put(COLUMN_KEY, key)
+        put(COLUMN_VALUE, value)
+    }
+
+    private fun listRow(pref: String, position: Int, value: String) = ContentValues(3).apply {
+        put(COLUMN_PREF, pref)
+        put(COLUMN_POSITION, position)
+        put(COLUMN_VALUE, value)
+    }
+
+    companion object {
+
+        private const val TAG = "PrefsCollectionStore"
+
+        private const val VERSION = 1
+
+        private const val TABLE_MAPS = "map_entries"
+        private const val TABLE_LISTS = "list_entries"
+
+        private const val COLUMN_PREF = "pref"
+        private const val COLUMN_KEY = "entry_key"
+        private const val COLUMN_POSITION = "position"
+        private const val COLUMN_VALUE = "value"
+
+        // The row before the items holds the size, so that an empty list can be told
+        // apart from one that was never saved
+        private const val POSITION_SIZE = -1
+    }
+}
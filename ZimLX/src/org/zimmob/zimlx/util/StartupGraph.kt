@@ -0,0 +1,163 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.util
+
+import android.content.Context
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import android.view.View
+import android.view.ViewTreeObserver
+import org.zimmob.zimlx.mainHandler
+import org.zimmob.zimlx.uiWorkerHandler
+
+/**
+ * Initializes the launcher subsystems in dependency order, running the ones needed for the first
+ * frame right away and deferring the others until the launcher has drawn once.
+ *
+ * Deferred initializers run when the main thread is idle or on the ui worker thread, depending on
+ * their lane, once all of their dependencies are done. Initializers only warm up singletons which
+ * also create themselves on first use, so code which needs one earlier doesn't have to wait for
+ * the graph. The time taken by each initializer is logged.
+ */
+class StartupGraph(context: Context) {
+
+    private val context = context.applicationContext
+    private val nodes = LinkedHashMap<String, Node>()
+    private var deferredStarted = false
+    private var deferredStartTime = 0L
+
+    /**
+     * Adds an initializer, its dependencies must have been added before.
+     *
+     * @param firstFrame whether the initializer must run before the launcher draws its first frame
+     * @param lane the thread the initializer runs on when deferred
+     */
+    fun add(name: String, vararg dependencies: String, firstFrame: Boolean = false,
+            lane: Lane = Lane.MAIN, init: (Context) -> Unit) {
+        require(!nodes.containsKey(name)) { "Initializer $name already added" }
+        val deps = dependencies.map {
+            nodes[it] ?: throw IllegalArgumentException("Unknown dependency $it of $name")
+        }
+        nodes[name] = Node(name, deps, firstFrame, lane, init)
+    }
+
+    /**
+     * Runs the initializers needed for the first frame and their dependencies, must be called on
+     * the main thread.
+     */
+    fun runFirstFrame() {
+        nodes.values.filter { it.firstFrame }.forEach { runNow(it) }
+    }
+
+    /**
+     * Starts the deferred initializers once [view] has drawn, only the first call has an effect.
+     */
+    fun runAfterFirstDraw(view: View) {
+        if (deferredStarted) return
+        view.viewTreeObserver.addOnDrawListener(object : ViewTreeObserver.OnDrawListener {
+            private var drawn = false
+
+            override fun onDraw() {
+                if (drawn) return
+                drawn = true
+                // Listeners can't be removed while dispatching
+                view.post {
+                    view.viewTreeObserver.removeOnDrawListener(this)
+                    startDeferred()
+                }
+            }
+        })
+    }
+
+    private fun startDeferred() {
+        if (deferredStarted) return
+        deferredStarted = true
+        deferredStartTime = SystemClock.uptimeMillis()
+        scheduleReady()
+    }
+
+    private fun runNow(node: Node) {
+        node.dependencies.forEach { runNow(it) }
+        synchronized(node) {
+            if (node.done) return
+            val start = SystemClock.uptimeMillis()
+            try {
+                node.init(context)
+            } catch (e: RuntimeException) {
+                Log.e(TAG, "Initializer ${node.name} failed", e)
+            }
+            node.done = true
+            Log.d(TAG, "${node.name} took ${SystemClock.uptimeMillis() - start}ms " +
+                    "on ${Thread.currentThread().name}")
+        }
+    }
+
+    /**
+     * Dispatches the deferred initializers whose dependencies are done.
+     */
+    private fun scheduleReady() {
+        synchronized(this) {
+            var remaining = false
+            for (node in nodes.values) {
+                if (node.done) continue
+                remaining = true
+                if (node.scheduled || node.dependencies.any { !it.done }) continue
+                node.scheduled = true
+                when (node.lane) {
+                    Lane.MAIN -> mainHandler.post {
+                        Looper.myQueue().addIdleHandler {
+                            runDeferred(node)
+                            false
+                        }
+                    }
+                    Lane.BACKGROUND -> uiWorkerHandler.post { runDeferred(node) }
+                }
+            }
+            if (!remaining && deferredStartTime != 0L) {
+                Log.d(TAG, "Deferred startup done " +
+                        "${SystemClock.uptimeMillis() - deferredStartTime}ms after first draw")
+                deferredStartTime = 0L
+            }
+        }
+    }
+
+    private fun runDeferred(node: Node) {
+        val ran = !node.done
+        runNow(node)
+        if (ran) {
+            scheduleReady()
+        }
+    }
+
+    enum class Lane {
+        MAIN,
+        BACKGROUND
+    }
+
+    private class Node(val name: String, val dependencies: List<Node>, val firstFrame: Boolean,
+                       val lane: Lane, val init: (Context) -> Unit) {
+        @Volatile
+        var done = false
+        var scheduled = false
+    }
+
+    companion object {
+        private const val TAG = "StartupGraph"
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.adaptive
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Checks the colors counted by [IconColorHistogram]. How it behaves on the sample drawn by
+ * [AdaptiveIconGenerator] is checked by the instrumentation tests, which can draw it.
+ */
+class IconColorHistogramTest {
+
+    @Test
+    fun testSingleColor() {
+        val pixels = IntArray(100) { if (it < 30) 0x20FFFFFF else 0xFF3F51B5.toInt() }
+        val histogram = IconColorHistogram.compute(pixels, MIN_VISIBLE_ALPHA)
+        assertEquals(0xFF324BAF.toInt(), histogram.bestColor)
+        assertEquals(30, histogram.transparentPixels)
+        assertEquals(100, histogram.totalPixels)
+    }
+
+    @Test
+    fun testPosterizedShades() {
+        // Shades within one posterization step add up, and outnumber a more frequent color
+        val pixels = IntArray(100) {
+            when {
+                it < 30 -> 0xFF3F51B5.toInt()
+                it < 60 -> 0xFF3A4EB0.toInt()
+                else -> 0xFF1A2870.toInt()
+            }
+        }
+        val histogram = IconColorHistogram.compute(pixels, MIN_VISIBLE_ALPHA)
+        assertEquals(0xFF324BAF.toInt(), histogram.bestColor)
+        assertEquals(0, histogram.transparentPixels)
+    }
+
+    companion object {
+        private const val MIN_VISIBLE_ALPHA = 0xEF
+    }
+}
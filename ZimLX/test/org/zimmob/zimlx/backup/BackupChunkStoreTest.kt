@@ -0,0 +1,107 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.backup
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.*
+
+/**
+ * Stores a large database-like file twice with a few pages changed in between, and checks that
+ * only the changed chunks are stored again.
+ */
+class BackupChunkStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun testRoundTrip() {
+        val store = BackupChunkStore(folder.newFolder())
+        listOf(0, 1, BackupChunkStore.CHUNK_SIZE, BackupChunkStore.CHUNK_SIZE + 1, 300_000).forEach { size ->
+            val data = randomBytes(size, size.toLong())
+            val chunks = store.write(ByteArrayInputStream(data))
+            assertEquals((size + BackupChunkStore.CHUNK_SIZE - 1) / BackupChunkStore.CHUNK_SIZE, chunks.size)
+            assertArrayEquals("size $size", data, read(store, roundTripManifest(chunks)))
+        }
+    }
+
+    @Test
+    fun testChangedPagesOnly() {
+        val dir = folder.newFolder()
+        val store = BackupChunkStore(dir)
+        val data = randomBytes(DB_SIZE, 0)
+
+        var start = System.nanoTime()
+        val first = store.write(ByteArrayInputStream(data))
+        val createMillis = (System.nanoTime() - start) / 1_000_000
+        assertEquals(DB_SIZE / BackupChunkStore.CHUNK_SIZE, dir.list()!!.size)
+
+        // Rewrite a few pages in place, as SQLite does
+        val random = Random(1)
+        val changedChunks = HashSet<Int>()
+        repeat(CHANGED_PAGES) {
+            val page = random.nextInt(DB_SIZE / PAGE_SIZE)
+            Arrays.fill(data, page * PAGE_SIZE, (page + 1) * PAGE_SIZE, it.toByte())
+            changedChunks.add(page * PAGE_SIZE / BackupChunkStore.CHUNK_SIZE)
+        }
+        start = System.nanoTime()
+        val second = store.write(ByteArrayInputStream(data))
+        val incrementalMillis = (System.nanoTime() - start) / 1_000_000
+        assertEquals(first.size + changedChunks.size, dir.list()!!.size)
+        assertEquals(changedChunks.size, first.indices.count { first[it] != second[it] })
+
+        start = System.nanoTime()
+        val restored = read(store, second)
+        val restoreMillis = (System.nanoTime() - start) / 1_000_000
+        val timings = "${DB_SIZE / 1024 / 1024}MB: created in ${createMillis}ms, " +
+                "${changedChunks.size} changed chunks stored in ${incrementalMillis}ms, " +
+                "restored in ${restoreMillis}ms"
+        assertArrayEquals(timings, data, restored)
+
+        // Chunks of the first version are only deleted once it isn't used anymore
+        assertEquals(timings, 0, store.deleteUnused((first + second).toSet()))
+        assertEquals(timings, changedChunks.size, store.deleteUnused(second.toSet()))
+        assertArrayEquals(timings, data, read(store, second))
+    }
+
+    private fun roundTripManifest(chunks: List<String>): List<String> {
+        val out = ByteArrayOutputStream()
+        BackupChunkStore.writeManifest(chunks, out)
+        return BackupChunkStore.readManifest(ByteArrayInputStream(out.toByteArray()))
+    }
+
+    private fun read(store: BackupChunkStore, chunks: List<String>): ByteArray {
+        return store.open(chunks).use { it.readBytes() }
+    }
+
+    private fun randomBytes(size: Int, seed: Long): ByteArray {
+        return ByteArray(size).also { Random(seed).nextBytes(it) }
+    }
+
+    companion object {
+        private const val DB_SIZE = 32 * 1024 * 1024
+        private const val PAGE_SIZE = 4096
+        private const val CHANGED_PAGES = 20
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.flowerpot
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.zimmob.zimlx.flowerpot.parser.FlowerpotDatabase
+import org.zimmob.zimlx.flowerpot.parser.FlowerpotReader
+import org.zimmob.zimlx.flowerpot.rules.Rule
+import java.io.File
+
+/**
+ * Checks the database built by compileFlowerpotDb against the text files it was compiled from.
+ */
+class FlowerpotDatabaseTest {
+
+    private val textDir = File(systemDir("zimlx.projectDir"), "assets/${Flowerpot.ASSETS_PATH}")
+    private val databaseFile = File(systemDir("zimlx.flowerpotDbDir"), FlowerpotDatabase.ASSET_NAME)
+
+    @Test
+    fun testSameRulesAsText() {
+        val database = loadDatabase()
+        val names = textDir.list()!!.toSet()
+        assertFalse(names.isEmpty())
+        assertEquals(names, database.potNames)
+        names.forEach { name ->
+            assertEquals(name, loadText(name).map(::describe), database.readRules(name).map(::describe))
+        }
+    }
+
+    @Test
+    fun testLoadAllPots() {
+        val names = textDir.list()!!
+        // Warm up both paths before measuring
+        repeat(WARMUP_RUNS) {
+            names.forEach { loadText(it) }
+            loadDatabase().let { db -> names.forEach { db.readRules(it) } }
+        }
+
+        var textRules = emptyList<Int>()
+        var start = System.nanoTime()
+        repeat(RUNS) {
+            textRules = names.map { loadText(it).size }
+        }
+        val textNanos = (System.nanoTime() - start) / RUNS
+
+        var databaseRules = emptyList<Int>()
+        start = System.nanoTime()
+        repeat(RUNS) {
+            databaseRules = loadDatabase().let { db -> names.map { db.readRules(it).size } }
+        }
+        val databaseNanos = (System.nanoTime() - start) / RUNS
+
+        // The timings depend on the machine, they are only reported
+        val timings = "Loading ${names.size} pots: text ${textNanos / 1000}us, database ${databaseNanos / 1000}us"
+        assertTrue(timings, textRules.sum() > 0)
+        assertEquals(timings, textRules, databaseRules)
+    }
+
+    private fun systemDir(property: String) = File(System.getProperty(property)
+            ?: throw IllegalStateException("$property is set by the unit test options in build.gradle"))
+
+    private fun loadText(name: String) = File(textDir, name).inputStream().use {
+        FlowerpotReader(it).readRules()
+    }
+
+    private fun loadDatabase() = databaseFile.inputStream().use { FlowerpotDatabase.read(it) }
+
+    private fun describe(rule: Rule) = when (rule) {
+        // Arrays don't take part in the data class equality
+        is Rule.CodeRule -> "CodeRule(${rule.rule}, ${rule.args.toList()})"
+        else -> rule.toString()
+    }
+
+    companion object {
+        private const val WARMUP_RUNS = 5
+        private const val RUNS = 20
+    }
+}
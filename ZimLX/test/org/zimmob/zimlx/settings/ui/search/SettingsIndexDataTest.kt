@@ -0,0 +1,204 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.zimmob.zimlx.settings.ui.search
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.kxml2.io.KXmlParser
+import org.xmlpull.v1.XmlPullParser
+import org.zimmob.zimlx.preferences.StyledSwitchPreferenceCompat
+import org.zimmob.zimlx.settings.ui.search.SettingsIndexBuilder.PreferenceNode
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Checks the settings search index, once saved and loaded, against the preference screens it
+ * was derived from. The screens are read by the [PreferenceXmlReader] of the app, from the
+ * uncompiled XML of the project.
+ */
+class SettingsIndexDataTest {
+
+    private val projectDir = File(System.getProperty(PROJECT_DIR) ?: throw IllegalStateException(
+            "$PROJECT_DIR is set by the unit test options in build.gradle"))
+    private val xmlDir = File(projectDir, "ZimLX/res/xml")
+    private val strings = readStrings(File(projectDir, "res/values/strings.xml"))
+    private val resourceIds = HashMap<String, Int>()
+    private val xmlReader = PreferenceXmlReader(::readAttributes)
+
+    @Test
+    fun testSavedIndexMatchesXml() {
+        val index = buildIndex()
+        assertFalse(index.entries.isEmpty())
+        assertEquals(index, reload(index, STAMP))
+
+        // Every titled preference of the indexed screens is found with its texts
+        index.screens.filter { !it.isCategory }.map { it.contentRes }.toSet().forEach { res ->
+            val nodes = preferences(loadScreen(res)).filter { it.key != null && it.title != null }
+            nodes.forEach { node ->
+                assertTrue("${node.key} of ${resourceName(res)}", index.entries.any {
+                    it.key == node.key && it.title == node.title && it.sliceClass == node.sliceClass
+                })
+            }
+        }
+    }
+
+    @Test
+    fun testSliceClasses() {
+        val sliceClasses = buildIndex().entries.mapNotNull { it.sliceClass }.toSet()
+        assertTrue(sliceClasses.toString(),
+                StyledSwitchPreferenceCompat::class.java.name in sliceClasses)
+    }
+
+    @Test
+    fun testSavedIndexSearch() {
+        val index = buildIndex()
+        val loaded = reload(index, STAMP)!!
+        val queries = index.entries.flatMap { SettingsIndexData.tokenize(it.title) }.toSet()
+        assertFalse(queries.isEmpty())
+        queries.forEach { query ->
+            val results = loaded.search(query)
+            assertEquals(query, index.search(query), results)
+            assertFalse(query, results.isEmpty())
+        }
+    }
+
+    @Test
+    fun testTypoTolerance() {
+        val index = buildIndex()
+        index.entries.forEachIndexed { i, entry ->
+            val word = SettingsIndexData.tokenize(entry.title).firstOrNull { it.length >= 5 }
+                    ?: return@forEachIndexed
+            val typo = word.substring(0, 1) + word[2] + word[1] + word.substring(3)
+            assertTrue("$typo in ${entry.title}", i in index.search(typo))
+            // A prefix of the word also finds the entry
+            assertTrue(word, i in index.search(word.substring(0, 3)))
+        }
+        assertEquals(2, SettingsIndexData.matchQuality("ico", "icons"))
+        assertEquals(1, SettingsIndexData.matchQuality("icnos", "icons"))
+        assertEquals(1, SettingsIndexData.matchQuality("icoms", "icons"))
+        assertEquals(0, SettingsIndexData.matchQuality("icn", "icons"))
+        assertEquals(0, SettingsIndexData.matchQuality("dock", "icons"))
+    }
+
+    @Test
+    fun testStaleIndexIgnored() {
+        val index = buildIndex()
+        assertNull(reload(index, "$STAMP-other"))
+    }
+
+    private fun reload(index: SettingsIndexData, stamp: String): SettingsIndexData? {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { index.write(it, STAMP) }
+        return DataInputStream(ByteArrayInputStream(bytes.toByteArray())).use {
+            SettingsIndexData.read(it, stamp)
+        }
+    }
+
+    private fun buildIndex(): SettingsIndexData {
+        return SettingsIndexBuilder(::loadScreen) { breadcrumbs, title -> "$breadcrumbs > $title" }
+                .build(resourceId("@xml/zim_preferences"))
+    }
+
+    private fun loadScreen(res: Int): List<PreferenceNode> {
+        return File(xmlDir, "${resourceName(res)}.xml").reader().use {
+            xmlReader.read(createParser().apply { setInput(it) })
+        }
+    }
+
+    private fun readAttributes(parser: XmlPullParser) = PreferenceXmlReader.Attributes(
+            parser.getAttributeValue(ANDROID_NS, "key"),
+            resolve(parser.getAttributeValue(ANDROID_NS, "title")),
+            resolve(parser.getAttributeValue(ANDROID_NS, "summary")),
+            optionalId(parser.getAttributeValue(ANDROID_NS, "icon")),
+            optionalId(parser.getAttributeValue(APP_NS, "content")),
+            parser.getAttributeValue(APP_NS, "hasPreview") == "true",
+            parser.getAttributeValue(ANDROID_NS, "defaultValue") == "true",
+            parser.getAttributeValue(APP_NS, "controllerClass"))
+
+    private fun preferences(nodes: List<PreferenceNode>): List<PreferenceNode> {
+        return nodes.flatMap {
+            when (it.type) {
+                PreferenceNode.Type.GROUP -> preferences(it.children)
+                PreferenceNode.Type.PREFERENCE -> listOf(it)
+                else -> emptyList()
+            }
+        }
+    }
+
+    private fun resolve(value: String?): String? {
+        if (value == null) return null
+        return if (value.startsWith("@string/")) strings[value.substring(8)] ?: value else value
+    }
+
+    private fun optionalId(value: String?) = if (value == null) 0 else resourceId(value)
+
+    private fun resourceId(name: String) = resourceIds.getOrPut(name) { resourceIds.size + 1 }
+
+    private fun resourceName(id: Int): String {
+        val name = resourceIds.entries.first { it.value == id }.key
+        return name.substring("@xml/".length)
+    }
+
+    private fun createParser(): XmlPullParser {
+        return KXmlParser().apply { setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true) }
+    }
+
+    private fun readStrings(file: File): Map<String, String> {
+        val strings = HashMap<String, String>()
+        file.reader().use {
+            val parser = createParser().apply { setInput(it) }
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.eventType == XmlPullParser.START_TAG && parser.name == "string") {
+                    val name = parser.getAttributeValue(null, "name")
+                    strings[name] = readText(parser).trim()
+                }
+            }
+        }
+        return strings
+    }
+
+    /**
+     * Returns the text of the current element, including the text of nested tags like
+     * xliff:g placeholders.
+     */
+    private fun readText(parser: XmlPullParser): String {
+        val text = StringBuilder()
+        var depth = 1
+        while (depth != 0) {
+            when (parser.next()) {
+                XmlPullParser.START_TAG -> depth++
+                XmlPullParser.END_TAG -> depth--
+                XmlPullParser.TEXT -> text.append(parser.text)
+            }
+        }
+        return text.toString()
+    }
+
+    companion object {
+        private const val STAMP = "1/0/en_US"
+        private const val PROJECT_DIR = "zimlx.projectDir"
+        private const val ANDROID_NS = "http://schemas.android.com/apk/res/android"
+        private const val APP_NS = "http://schemas.android.com/apk/res-auto"
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.text.PrecomputedText;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import com.android.launcher3.util.LooperExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Prepares the labels of items on a worker thread before they are bound to a
+ * {@link BubbleTextView}, so that binding mostly attaches the prepared text.
+ *
+ * Labels are measured with the text settings of the last view created for the same display,
+ * as a {@link PrecomputedText} from P, or only warming the text layout cache before that.
+ * Icon drawables are still created when binding, as the drawable factory reads the icon packs
+ * which are only updated on the main thread.
+ */
+public class BubbleTextPreparer {
+
+    private static final TextSpec[] sTextSpecs = new TextSpec[BubbleTextView.DISPLAY_COUNT];
+    @SuppressWarnings("unchecked")
+    private static final Map<ItemInfoWithIcon, Prepared>[] sPrepared =
+            new Map[BubbleTextView.DISPLAY_COUNT];
+
+    private static LooperExecutor sExecutor;
+
+    private BubbleTextPreparer() { }
+
+    /**
+     * Records the text settings of {@param view}, which are used to prepare the next labels.
+     */
+    static void onViewCreated(BubbleTextView view, int display) {
+        if (display >= BubbleTextView.DISPLAY_COUNT) {
+            return;
+        }
+        TextSpec spec = sTextSpecs[display];
+        if (spec == null || !spec.matches(view)) {
+            synchronized (sTextSpecs) {
+                sTextSpecs[display] = new TextSpec(view);
+            }
+        }
+    }
+
+    public static void prepareWorkspaceItemsInBackground(List<? extends ItemInfo> items) {
+        prepareInBackground(items, BubbleTextView.DISPLAY_WORKSPACE);
+    }
+
+    public static void prepareAllAppsInBackground(List<? extends ItemInfo> apps) {
+        prepareInBackground(apps, BubbleTextView.DISPLAY_ALL_APPS);
+    }
+
+    private static void prepareInBackground(List<? extends ItemInfo> items, int display) {
+        final ArrayList<ItemInfo> copy = new ArrayList<>(items);
+        getExecutor().execute(() -> prepare(copy, display));
+    }
+
+    private static synchronized LooperExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new LooperExecutor(LauncherModel.getUiWorkerLooper());
+        }
+        return sExecutor;
+    }
+
+    private static void prepare(List<? extends ItemInfo> items, int display) {
+        TextSpec spec;
+        synchronized (sTextSpecs) {
+            spec = sTextSpecs[display];
+        }
+        if (spec == null) {
+            // No view to take the text settings from yet
+            return;
+        }
+        Map<ItemInfoWithIcon, Prepared> prepared = getPreparedMap(display);
+        for (ItemInfo item : items) {
+            if (!(item instanceof ItemInfoWithIcon)) {
+                continue;
+            }
+            ItemInfoWithIcon info = (ItemInfoWithIcon) item;
+            if (info.iconBitmap == null || (info instanceof ShortcutInfo
+                    && ((ShortcutInfo) info).hasPromiseIconUi())) {
+                continue;
+            }
+            prepared.put(info, new Prepared(info, spec.prepareText(info.title)));
+        }
+    }
+
+    private static Map<ItemInfoWithIcon, Prepared> getPreparedMap(int display) {
+        synchronized (sPrepared) {
+            if (sPrepared[display] == null) {
+                sPrepared[display] = Collections.synchronizedMap(new WeakHashMap<>());
+            }
+            return sPrepared[display];
+        }
+    }
+
+    /**
+     * Returns what was prepared for {@param info}, if it is still valid, or null.
+     */
+    static Prepared get(ItemInfoWithIcon info, int display) {
+        if (display >= BubbleTextView.DISPLAY_COUNT) {
+            return null;
+        }
+        Map<ItemInfoWithIcon, Prepared> prepared;
+        synchronized (sPrepared) {
+            prepared = sPrepared[display];
+        }
+        if (prepared == null) {
+            return null;
+        }
+        Prepared entry = prepared.get(info);
+        if (entry != null && !entry.isValidFor(info)) {
+            prepared.remove(info);
+            return null;
+        }
+        return entry;
+    }
+
+    static class Prepared {
+        private final Bitmap mIconBitmap;
+        private final boolean mDisabled;
+        private final CharSequence mTitle;
+        private final CharSequence mText;
+
+        Prepared(ItemInfoWithIcon info, CharSequence text) {
+            mIconBitmap = info.iconBitmap;
+            mDisabled = info.isDisabled();
+            mTitle = info.title;
+            mText = text;
+        }
+
+        boolean isValidFor(ItemInfoWithIcon info) {
+            return mIconBitmap == info.iconBitmap && mDisabled == info.isDisabled()
+                    && TextUtils.equals(mTitle, info.title);
+        }
+
+        /**
+         * Returns the label to set on {@param view}.
+         */
+        CharSequence getText(BubbleTextView view) {
+            if (mText == null || (Utilities.ATLEAST_P && !canSetPrecomputedText(view))) {
+                return mTitle;
+            }
+            return mText;
+        }
+
+        @TargetApi(Build.VERSION_CODES.P)
+        private boolean canSetPrecomputedText(BubbleTextView view) {
+            // The text would be transformed, and TextView rejects mismatching parameters
+            return view.getTransformationMethod() == null
+                    && ((PrecomputedText) mText).getParams().equals(view.getTextMetricsParams());
+        }
+    }
+
+    private static class TextSpec {
+        private final TextPaint mPaint;
+        private final Object mParams;
+
+        TextSpec(BubbleTextView view) {
+            mPaint = new TextPaint(view.getPaint());
+            mParams = Utilities.ATLEAST_P ? view.getTextMetricsParams() : null;
+        }
+
+        boolean matches(BubbleTextView view) {
+            if (Utilities.ATLEAST_P) {
+                return mParams.equals(view.getTextMetricsParams());
+            }
+            TextPaint paint = view.getPaint();
+            return mPaint.getTextSize() == paint.getTextSize()
+                    && mPaint.getTypeface() == paint.getTypeface();
+        }
+
+        CharSequence prepareText(CharSequence title) {
+            if (TextUtils.isEmpty(title)) {
+                return null;
+            }
+            if (Utilities.ATLEAST_P) {
+                return createPrecomputedText(title);
+            }
+            // Measuring fills the text layout cache used when the view measures the label
+            synchronized (mPaint) {
+                mPaint.measureText(title, 0, title.length());
+            }
+            return null;
+        }
+
+        @TargetApi(Build.VERSION_CODES.P)
+        private CharSequence createPrecomputedText(CharSequence title) {
+            return PrecomputedText.create(title, (PrecomputedText.Params) mParams);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.text.TextUtils.TruncateAt;
 import android.util.AttributeSet;
@@ -46,12 +47,18 @@ import com.android.launcher3.IconCache.ItemInfoUpdateReceiver;
 import com.android.launcher3.Launcher.OnResumeCallback;
 import com.android.launcher3.badge.BadgeInfo;
 import com.android.launcher3.badge.BadgeRenderer;
+import com.android.launcher3.badge.BadgeViewIndex;
 import com.android.launcher3.folder.FolderIcon;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.DrawableFactory;
 import com.android.launcher3.graphics.IconPalette;
 import com.android.launcher3.graphics.PreloadIconDrawable;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.model.PackageItemInfo;
+import com.android.launcher3.popup.PopupShortcutCache;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.util.PackageUserKey;
+import com.android.launcher3.util.Preconditions;
 
 import org.zimmob.zimlx.ZimLauncher;
 import org.zimmob.zimlx.ZimPreferences;
@@ -63,18 +70,23 @@ import org.zimmob.zimlx.gestures.handlers.ViewSwipeUpGestureHandler;
 import org.zimmob.zimlx.override.CustomInfoProvider;
 
 import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * TextView that draws a bubble behind the text. We cannot use a LineBackgroundSpan
  * because we want to make the bubble taller than the text and TextView's clip is
  * too aggressive.
  */
-public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver, OnResumeCallback {
+public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver, OnResumeCallback,
+        BadgeViewIndex.BadgeTarget {
 
-    private static final int DISPLAY_WORKSPACE = 0;
-    private static final int DISPLAY_ALL_APPS = 1;
+    static final int DISPLAY_WORKSPACE = 0;
+    static final int DISPLAY_ALL_APPS = 1;
     private static final int DISPLAY_FOLDER = 2;
     private static final int DISPLAY_DRAWER_FOLDER = 5;
+    // Displays whose items can be prepared by BubbleTextPreparer
+    static final int DISPLAY_COUNT = 2;
 
     private static final int[] STATE_PRESSED = new int[]{android.R.attr.state_pressed};
 
@@ -115,7 +127,11 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
     private final float mSlop;
 
     private final boolean mLayoutHorizontal;
+    private final int mDisplay;
+    private final int mIconSizeOverride;
     private int mIconSize;
+    // Set while the settings read on the main thread haven't been applied, see finishInflation()
+    private boolean mDisplaySettingsPending;
 
     @ViewDebug.ExportedProperty(category = "launcher")
     private boolean mIsIconVisible = true;
@@ -131,9 +147,12 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
     private boolean mForceHideBadge;
     private Point mTempSpaceForBadgeOffset = new Point();
     private Rect mTempIconBounds = new Rect();
+    // Key this view is indexed by while attached, null if its item can't have a badge
+    private PackageUserKey mBadgeKey;
 
     @ViewDebug.ExportedProperty(category = "launcher")
     private boolean mStayPressed;
+    private boolean mPrefetchingShortcuts;
     @ViewDebug.ExportedProperty(category = "launcher")
     private boolean mIgnorePressedStateChange;
     @ViewDebug.ExportedProperty(category = "launcher")
@@ -158,6 +177,8 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
 
         if (mActivity == null) {
             mLayoutHorizontal = false;
+            mDisplay = -1;
+            mIconSizeOverride = -1;
             mIconSize = 0;
             mCenterVertically = true;
             mLongPressHelper = null;
@@ -165,23 +186,53 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
             mSlop = 0;
             return;
         }
-        DeviceProfile grid = mActivity.getDeviceProfile();
         mSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
 
         TypedArray a = context.obtainStyledAttributes(attrs,
                 R.styleable.BubbleTextView, defStyle, 0);
         mLayoutHorizontal = a.getBoolean(R.styleable.BubbleTextView_layoutHorizontal, false);
+        mDisplay = a.getInteger(R.styleable.BubbleTextView_iconDisplay, DISPLAY_WORKSPACE);
+        mCenterVertically = a.getBoolean(R.styleable.BubbleTextView_centerVertically, false);
+        mIconSizeOverride = a.getDimensionPixelSize(R.styleable.BubbleTextView_iconSizeOverride,
+                -1);
+        a.recycle();
+
+        mLongPressHelper = new CheckLongPressHelper(this);
+        mStylusEventHelper = new StylusEventHelper(new SimpleOnStylusPressListener(this), this);
 
-        int display = a.getInteger(R.styleable.BubbleTextView_iconDisplay, DISPLAY_WORKSPACE);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            applyDisplaySettings();
+        } else {
+            // Inflated ahead by AllAppsViewPool, see finishInflation()
+            mDisplaySettingsPending = true;
+        }
+        setTextAlpha(1f);
+    }
+
+    /**
+     * Applies the parts of the construction which read the device profile, the preferences and
+     * the launcher, for a view which was inflated on a worker thread. Must be called on the main
+     * thread before the view is used.
+     */
+    public void finishInflation() {
+        Preconditions.assertUIThread();
+        if (mDisplaySettingsPending) {
+            mDisplaySettingsPending = false;
+            applyDisplaySettings();
+        }
+    }
+
+    private void applyDisplaySettings() {
+        DeviceProfile grid = mActivity.getDeviceProfile();
         int defaultIconSize = grid.iconSizePx;
-        ZimPreferences prefs = Utilities.getZimPrefs(context);
-        if (display == DISPLAY_WORKSPACE) {
+        ZimPreferences prefs = Utilities.getZimPrefs(getContext());
+        if (mDisplay == DISPLAY_WORKSPACE) {
             mHideText = prefs.getHideAppLabels();
             setTextSize(TypedValue.COMPLEX_UNIT_PX, grid.iconTextSizePx);
             setCompoundDrawablePadding(grid.iconDrawablePaddingPx);
             int lines = prefs.getHomeLabelRows();
             setLineCount(lines);
-        } else if (display == DISPLAY_ALL_APPS) {
+        } else if (mDisplay == DISPLAY_ALL_APPS) {
             mHideText = prefs.getHideAllAppsAppLabels();
             setTextSize(TypedValue.COMPLEX_UNIT_PX, isTextHidden() ? 0 : grid.allAppsIconTextSizePx);
             setTextSize(TypedValue.COMPLEX_UNIT_PX, grid.allAppsIconTextSizePx);
@@ -189,7 +240,7 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
             defaultIconSize = grid.allAppsIconSizePx;
             int lines = prefs.getDrawerLabelRows();
             setLineCount(lines);
-        } else if (display == DISPLAY_FOLDER) {
+        } else if (mDisplay == DISPLAY_FOLDER) {
             mHideText = prefs.getHideAppLabels();
             setTextSize(TypedValue.COMPLEX_UNIT_PX, isTextHidden() ? 0 : grid.folderChildTextSizePx);
             setTextSize(TypedValue.COMPLEX_UNIT_PX, grid.folderChildTextSizePx);
@@ -197,7 +248,7 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
             defaultIconSize = grid.folderChildIconSizePx;
             int lines = prefs.getHomeLabelRows();
             setLineCount(lines);
-        } else if (display == DISPLAY_DRAWER_FOLDER) {
+        } else if (mDisplay == DISPLAY_DRAWER_FOLDER) {
             mHideText = prefs.getHideAllAppsAppLabels();
             setTextSize(TypedValue.COMPLEX_UNIT_PX,
                     isTextHidden() ? 0 : grid.allAppsFolderChildTextSizePx);
@@ -206,18 +257,10 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
             int lines = prefs.getDrawerLabelRows();
             setLineCount(lines);
         }
-
-        mCenterVertically = a.getBoolean(R.styleable.BubbleTextView_centerVertically, false);
-
-        mIconSize = a.getDimensionPixelSize(R.styleable.BubbleTextView_iconSizeOverride,
-                defaultIconSize);
-        a.recycle();
-
-        mLongPressHelper = new CheckLongPressHelper(this);
-        mStylusEventHelper = new StylusEventHelper(new SimpleOnStylusPressListener(this), this);
+        mIconSize = mIconSizeOverride >= 0 ? mIconSizeOverride : defaultIconSize;
 
         setAccessibilityDelegate(mActivity.getAccessibilityDelegate());
-        setTextAlpha(1f);
+        BubbleTextPreparer.onViewCreated(this, mDisplay);
     }
 
     public void setLineCount(int lines) {
@@ -250,6 +293,7 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
     }
 
     public void applyFromShortcutInfo(ShortcutInfo info, boolean promiseStateChanged) {
+        long start = Profiler.BUBBLE_TEXT_VIEW_BIND.start();
         applyIconAndLabel(info);
         applySwipeUpAction(info);
         setTag(info);
@@ -258,9 +302,12 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
         }
 
         applyBadgeState(info, false /* animate */);
+        updateBadgeKey(BadgeViewIndex.getKey(info));
+        Profiler.BUBBLE_TEXT_VIEW_BIND.end(start);
     }
 
     public void applyFromApplicationInfo(AppInfo info) {
+        long start = Profiler.BUBBLE_TEXT_VIEW_BIND.start();
         applyIconAndLabel(info);
 
         // We don't need to check the info since it's not a ShortcutInfo
@@ -274,24 +321,29 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
             applyProgressLevel(promiseAppInfo.level);
         }
         applyBadgeState(info, false /* animate */);
+        updateBadgeKey(BadgeViewIndex.getKey(info));
+        Profiler.BUBBLE_TEXT_VIEW_BIND.end(start);
     }
 
     public void applyFromPackageItemInfo(PackageItemInfo info) {
         applyIconAndLabel(info);
         // We don't need to check the info since it's not a ShortcutInfo
         super.setTag(info);
+        updateBadgeKey(null);
 
         // Verify high res immediately
         verifyHighRes();
     }
 
     private void applyIconAndLabel(ItemInfoWithIcon info) {
+        BubbleTextPreparer.Prepared prepared = mDisplay < 0 ? null
+                : BubbleTextPreparer.get(info, mDisplay);
         FastBitmapDrawable iconDrawable = DrawableFactory.get(getContext()).newIcon(info);
         mBadgeColor = IconPalette.getMutedColor(info.iconColor, 0.54f);
 
         setIcon(iconDrawable);
         if (!isTextHidden())
-            setText(info.title);
+            setText(prepared == null ? info.title : prepared.getText(this));
         if (info.contentDescription != null) {
             setContentDescription(info.isDisabled()
                     ? getContext().getString(R.string.disabled_app_label, info.contentDescription)
@@ -386,15 +438,18 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
                 // If we're in a stylus button press, don't check for long press.
                 if (!mStylusEventHelper.inStylusButtonPressed()) {
                     mLongPressHelper.postCheckForLongPress();
+                    prefetchShortcuts();
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP:
                 mLongPressHelper.cancelLongPress();
+                cancelPrefetchShortcuts();
                 break;
             case MotionEvent.ACTION_MOVE:
                 if (!Utilities.pointInView(this, event.getX(), event.getY(), mSlop)) {
                     mLongPressHelper.cancelLongPress();
+                    cancelPrefetchShortcuts();
                 }
                 break;
         }
@@ -408,6 +463,29 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
         return result;
     }
 
+    /**
+     * Starts loading the shortcuts shown on long press, so that the popup can show them as soon
+     * as it opens.
+     */
+    private void prefetchShortcuts() {
+        Launcher launcher = ZimUtilsKt.getLauncherOrNull(getContext());
+        if (launcher == null || !(getTag() instanceof ItemInfo)
+                || !DeepShortcutManager.supportsShortcuts((ItemInfo) getTag())) {
+            return;
+        }
+        ItemInfo info = (ItemInfo) getTag();
+        PopupShortcutCache.getInstance(launcher).prefetch(info,
+                launcher.getPopupDataProvider().getShortcutIdsForItem(info));
+        mPrefetchingShortcuts = true;
+    }
+
+    private void cancelPrefetchShortcuts() {
+        if (mPrefetchingShortcuts) {
+            mPrefetchingShortcuts = false;
+            PopupShortcutCache.getInstance(getContext()).cancelPrefetch();
+        }
+    }
+
     public void setStayPressed(boolean stayPressed) {
         mStayPressed = stayPressed;
         refreshDrawableState();
@@ -606,6 +684,54 @@ public class BubbleTextView extends TextView implements ItemInfoUpdateReceiver,
         return null;
     }
 
+    private void updateBadgeKey(PackageUserKey key) {
+        BadgeViewIndex index = getBadgeViewIndex();
+        if (index == null) {
+            return;
+        }
+        mBadgeKey = key;
+        if (isAttachedToWindow()) {
+            indexBadgeKey(index);
+        }
+    }
+
+    private void indexBadgeKey(BadgeViewIndex index) {
+        if (mBadgeKey != null) {
+            index.put(this, Collections.singletonList(mBadgeKey));
+        } else {
+            index.remove(this);
+        }
+    }
+
+    private BadgeViewIndex getBadgeViewIndex() {
+        return mActivity instanceof Launcher ? ((Launcher) mActivity).getBadgeViewIndex() : null;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        BadgeViewIndex index = getBadgeViewIndex();
+        if (index != null && mBadgeKey != null) {
+            // Badge changes aren't applied while detached, eg. in a closed folder
+            applyBadgeState((ItemInfo) getTag(), false /* animate */);
+            indexBadgeKey(index);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        BadgeViewIndex index = getBadgeViewIndex();
+        if (index != null) {
+            index.remove(this);
+        }
+    }
+
+    @Override
+    public void onBadgesChanged(Set<PackageUserKey> updatedBadges, PackageUserKey tmpKey) {
+        applyBadgeState((ItemInfo) getTag(), true /* animate */);
+    }
+
     public void applyBadgeState(ItemInfo itemInfo, boolean animate) {
         if (mIcon instanceof FastBitmapDrawable) {
             boolean wasBadged = mBadgeInfo != null;
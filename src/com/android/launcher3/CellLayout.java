@@ -191,6 +191,36 @@ public class CellLayout extends ViewGroup {
 
     private final Rect mTempRect = new Rect();
 
+    // Scratch objects of the reorder search, which runs on every drag-move callback. They are
+    // reused across searches to keep the drag path allocation free.
+    private final ItemConfiguration mSwapSolution = new ItemConfiguration();
+    private final ItemConfiguration mNoShuffleSolution = new ItemConfiguration();
+    private final int[] mReorderCell = new int[2];
+    private final int[] mNoShuffleCell = new int[2];
+    private final int[] mNoShuffleSpan = new int[2];
+    private final int[] mDirectionTargetCell = new int[2];
+    private final Rect mDirectionDragRect = new Rect();
+    private final Rect mDirectionDropRect = new Rect();
+    private final Rect mIntersectRect0 = new Rect();
+    private final Rect mIntersectRect1 = new Rect();
+    private final Rect mBlockBoundingRect = new Rect();
+    private final Rect mNearestBestRect = new Rect();
+    private final Stack<Rect> mNearestValidRegions = new Stack<>();
+    private GridOccupancy mBlockOccupied;
+    private ViewCluster mViewCluster;
+
+    // Inputs of the last swap solution search. When performReorder is invoked again for the same
+    // drag position over an unchanged layout (the reorder hint followed by the reorder alarm, or
+    // accept drop followed by drop), mSwapSolution is reused as is.
+    private final int[] mLastReorderInputs = new int[8];
+    private final int[] mScratchReorderInputs = new int[8];
+    private final ArrayList<View> mLastReorderChildren = new ArrayList<>();
+    private int[] mLastReorderChildCells = new int[0];
+    private GridOccupancy mLastReorderOccupied;
+    private View mLastReorderDragView;
+    private boolean mLastReorderAllowOverlap;
+    private boolean mLastReorderValid = false;
+
     private final static Paint sPaint = new Paint();
 
     // Related to accessible drag and drop
@@ -384,6 +414,10 @@ public class CellLayout extends ViewGroup {
         mCountY = y;
         mOccupied = new GridOccupancy(mCountX, mCountY);
         mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+        mBlockOccupied = null;
+        mViewCluster = null;
+        mLastReorderOccupied = null;
+        mLastReorderValid = false;
         mTempRectStack.clear();
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mCountX, mCountY);
         requestLayout();
@@ -464,7 +498,7 @@ public class CellLayout extends ViewGroup {
             cd.setBounds(0, 0, mCellWidth, mCellHeight);
             for (int i = 0; i < mCountX; i++) {
                 for (int j = 0; j < mCountY; j++) {
-                    if (mOccupied.cells[i][j]) {
+                    if (mOccupied.isOccupied(i, j)) {
                         cellToPoint(i, j, pt);
                         canvas.save();
                         canvas.translate(pt[0], pt[1]);
@@ -1105,8 +1139,9 @@ public class CellLayout extends ViewGroup {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         double bestDistance = Double.MAX_VALUE;
-        final Rect bestRect = new Rect(-1, -1, -1, -1);
-        final Stack<Rect> validRegions = new Stack<>();
+        final Rect bestRect = mNearestBestRect;
+        bestRect.set(-1, -1, -1, -1);
+        final Stack<Rect> validRegions = mNearestValidRegions;
 
         final int countX = mCountX;
         final int countY = mCountY;
@@ -1125,7 +1160,7 @@ public class CellLayout extends ViewGroup {
                     // First, let's see if this thing fits anywhere
                     for (int i = 0; i < minSpanX; i++) {
                         for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
+                            if (mOccupied.isOccupied(x + i, y + j)) {
                                 continue inner;
                             }
                         }
@@ -1142,7 +1177,7 @@ public class CellLayout extends ViewGroup {
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
                             for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX - 1 || mOccupied.cells[x + xSize][y + j]) {
+                                if (x + xSize > countX - 1 || mOccupied.isOccupied(x + xSize, y + j)) {
                                     // We can't move out horizontally
                                     hitMaxX = true;
                                 }
@@ -1152,7 +1187,7 @@ public class CellLayout extends ViewGroup {
                             }
                         } else if (!hitMaxY) {
                             for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
+                                if (y + ySize > countY - 1 || mOccupied.isOccupied(x + i, y + ySize)) {
                                     // We can't move out vertically
                                     hitMaxY = true;
                                 }
@@ -1230,7 +1265,7 @@ public class CellLayout extends ViewGroup {
      *         nearest the requested location.
      */
     private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-                                  boolean[][] occupied, boolean[][] blockOccupied, int[] result) {
+                                  GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         float bestDistance = Float.MAX_VALUE;
@@ -1243,12 +1278,9 @@ public class CellLayout extends ViewGroup {
             inner:
             for (int x = 0; x < countX - (spanX - 1); x++) {
                 // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.canFitBlock(x, y, spanX, spanY, blockOccupied)) {
+                    continue inner;
                 }
 
                 float distance = (float) Math.hypot(x - cellX, y - cellY);
@@ -1285,7 +1317,7 @@ public class CellLayout extends ViewGroup {
         mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
 
         findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
-                mTmpOccupied.cells, null, mTempLocation);
+                mTmpOccupied, null, mTempLocation);
 
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
             c.cellX = mTempLocation[0];
@@ -1308,8 +1340,8 @@ public class CellLayout extends ViewGroup {
         final static int RIGHT = 1 << 2;
         final static int BOTTOM = 1 << 3;
 
-        final ArrayList<View> views;
-        final ItemConfiguration config;
+        final ArrayList<View> views = new ArrayList<>();
+        ItemConfiguration config;
         final Rect boundingRect = new Rect();
 
         final int[] leftEdge = new int[mCountY];
@@ -1319,11 +1351,12 @@ public class CellLayout extends ViewGroup {
         int dirtyEdges;
         boolean boundingRectDirty;
 
-        @SuppressWarnings("unchecked")
-        public ViewCluster(ArrayList<View> views, ItemConfiguration config) {
-            this.views = (ArrayList<View>) views.clone();
+        ViewCluster init(ArrayList<View> views, ItemConfiguration config) {
+            this.views.clear();
+            this.views.addAll(views);
             this.config = config;
             resetEdges();
+            return this;
         }
 
         void resetEdges() {
@@ -1486,7 +1519,10 @@ public class CellLayout extends ViewGroup {
     private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
                                             int[] direction, View dragView, ItemConfiguration currentState) {
 
-        ViewCluster cluster = new ViewCluster(views, currentState);
+        if (mViewCluster == null) {
+            mViewCluster = new ViewCluster();
+        }
+        ViewCluster cluster = mViewCluster.init(views, currentState);
         Rect clusterRect = cluster.getBoundingRect();
         int whichEdge;
         int pushDistance;
@@ -1583,7 +1619,7 @@ public class CellLayout extends ViewGroup {
         if (views.size() == 0) return true;
 
         boolean success = false;
-        Rect boundingRect = new Rect();
+        Rect boundingRect = mBlockBoundingRect;
         // We construct a rect which represents the entire group of views passed in
         currentState.getBoundingRectForViews(views, boundingRect);
 
@@ -1593,7 +1629,11 @@ public class CellLayout extends ViewGroup {
             mTmpOccupied.markCells(c, false);
         }
 
-        GridOccupancy blockOccupied = new GridOccupancy(boundingRect.width(), boundingRect.height());
+        if (mBlockOccupied == null) {
+            mBlockOccupied = new GridOccupancy(mCountX, mCountY);
+        }
+        GridOccupancy blockOccupied = mBlockOccupied;
+        blockOccupied.clear();
         int top = boundingRect.top;
         int left = boundingRect.left;
         // We mark more precisely which parts of the bounding rect are truly occupied, allowing
@@ -1607,7 +1647,7 @@ public class CellLayout extends ViewGroup {
 
         findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
                 boundingRect.height(), direction,
-                mTmpOccupied.cells, blockOccupied.cells, mTempLocation);
+                mTmpOccupied, blockOccupied, mTempLocation);
 
         // If we successfuly found a location by pushing the block of views, we commit it
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
@@ -1734,7 +1774,7 @@ public class CellLayout extends ViewGroup {
         mIntersectingViews.clear();
         if (mPrefs.getAllowOverlap()) {
             // let's pretend no intersections exist
-            solution.intersectingViews = new ArrayList<>(mIntersectingViews);
+            solution.setIntersectingViews(mIntersectingViews);
             return true;
         }
         mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
@@ -1747,8 +1787,9 @@ public class CellLayout extends ViewGroup {
                 c.cellY = cellY;
             }
         }
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
+        Rect r0 = mIntersectRect0;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Rect r1 = mIntersectRect1;
         for (View child : solution.map.keySet()) {
             if (child == ignoreView) continue;
             CellAndSpan c = solution.map.get(child);
@@ -1762,7 +1803,7 @@ public class CellLayout extends ViewGroup {
             }
         }
 
-        solution.intersectingViews = new ArrayList<>(mIntersectingViews);
+        solution.setIntersectingViews(mIntersectingViews);
 
         // First we try to find a solution which respects the push mechanic. That is,
         // we try to find a solution such that no displaced item travels through another item
@@ -1815,8 +1856,7 @@ public class CellLayout extends ViewGroup {
 
         // We find the nearest cell into which we would place the dragged item, assuming there's
         // nothing in its way.
-        int[] result = new int[2];
-        result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
+        int[] result = findNearestArea(pixelX, pixelY, spanX, spanY, mReorderCell);
 
         boolean success;
         // First we try the exact nearest position of the item being dragged,
@@ -1850,13 +1890,11 @@ public class CellLayout extends ViewGroup {
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            CellAndSpan c;
             if (temp) {
-                c = new CellAndSpan(lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
+                solution.add(child, lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
             } else {
-                c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
+                solution.add(child, lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
             }
-            solution.add(child, c);
         }
     }
 
@@ -2129,8 +2167,8 @@ public class CellLayout extends ViewGroup {
 
     private ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX, int minSpanY,
                                                          int spanX, int spanY, View dragView, ItemConfiguration solution) {
-        int[] result = new int[2];
-        int[] resultSpan = new int[2];
+        int[] result = mNoShuffleCell;
+        int[] resultSpan = mNoShuffleSpan;
         findNearestVacantArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, result,
                 resultSpan);
         if (result[0] >= 0 && result[1] >= 0) {
@@ -2156,14 +2194,14 @@ public class CellLayout extends ViewGroup {
     */
     private void getDirectionVectorForDrop(int dragViewCenterX, int dragViewCenterY, int spanX,
                                            int spanY, View dragView, int[] resultDirection) {
-        int[] targetDestination = new int[2];
+        int[] targetDestination = mDirectionTargetCell;
 
         findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY, targetDestination);
-        Rect dragRect = new Rect();
+        Rect dragRect = mDirectionDragRect;
         regionToRect(targetDestination[0], targetDestination[1], spanX, spanY, dragRect);
         dragRect.offset(dragViewCenterX - dragRect.centerX(), dragViewCenterY - dragRect.centerY());
 
-        Rect dropRegionRect = new Rect();
+        Rect dropRegionRect = mDirectionDropRect;
         getViewsIntersectingRegion(targetDestination[0], targetDestination[1], spanX, spanY,
                 dragView, dropRegionRect, mIntersectingViews);
 
@@ -2199,8 +2237,9 @@ public class CellLayout extends ViewGroup {
             boundingRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
         }
         intersectingViews.clear();
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
+        Rect r0 = mIntersectRect0;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Rect r1 = mIntersectRect1;
         final int count = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < count; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2301,12 +2340,20 @@ public class CellLayout extends ViewGroup {
         }
 
         // Find a solution involving pushing / displacing any items in the way
-        ItemConfiguration swapSolution = findReorderSolution(pixelX, pixelY, minSpanX, minSpanY,
-                spanX, spanY, mDirectionVector, dragView, true, new ItemConfiguration());
+        ItemConfiguration swapSolution = mSwapSolution;
+        if (!isLastReorderSolutionValid(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                mDirectionVector, dragView)) {
+            swapSolution.clear();
+            findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                    mDirectionVector, dragView, true, swapSolution);
+            saveLastReorderState(dragView);
+        }
 
         // We attempt the approach which doesn't shuffle views at all
-        ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
-                minSpanY, spanX, spanY, dragView, new ItemConfiguration());
+        ItemConfiguration noShuffleSolution = mNoShuffleSolution;
+        noShuffleSolution.clear();
+        findConfigurationNoShuffle(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, dragView,
+                noShuffleSolution);
 
         ItemConfiguration finalSolution = null;
 
@@ -2376,6 +2423,72 @@ public class CellLayout extends ViewGroup {
         return result;
     }
 
+    /**
+     * Returns true if {@link #mSwapSolution} was computed for the same inputs and the same
+     * committed layout. The inputs are kept in {@link #mScratchReorderInputs} so that they can
+     * be saved by {@link #saveLastReorderState} if the solution needs to be recomputed.
+     */
+    private boolean isLastReorderSolutionValid(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, int[] direction, View dragView) {
+        int[] inputs = mScratchReorderInputs;
+        inputs[0] = pixelX;
+        inputs[1] = pixelY;
+        inputs[2] = minSpanX;
+        inputs[3] = minSpanY;
+        inputs[4] = spanX;
+        inputs[5] = spanY;
+        inputs[6] = direction[0];
+        inputs[7] = direction[1];
+        if (!mLastReorderValid || mLastReorderDragView != dragView
+                || mLastReorderAllowOverlap != mPrefs.getAllowOverlap()
+                || !Arrays.equals(inputs, mLastReorderInputs)
+                || !mOccupied.contentEquals(mLastReorderOccupied)) {
+            return false;
+        }
+        int childCount = mShortcutsAndWidgets.getChildCount();
+        if (childCount != mLastReorderChildren.size()) {
+            return false;
+        }
+        int[] cells = mLastReorderChildCells;
+        for (int i = 0; i < childCount; i++) {
+            View child = mShortcutsAndWidgets.getChildAt(i);
+            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (child != mLastReorderChildren.get(i) || cells[i * 4] != lp.cellX
+                    || cells[i * 4 + 1] != lp.cellY || cells[i * 4 + 2] != lp.cellHSpan
+                    || cells[i * 4 + 3] != lp.cellVSpan) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void saveLastReorderState(View dragView) {
+        System.arraycopy(mScratchReorderInputs, 0, mLastReorderInputs, 0,
+                mLastReorderInputs.length);
+        mLastReorderDragView = dragView;
+        mLastReorderAllowOverlap = mPrefs.getAllowOverlap();
+        if (mLastReorderOccupied == null) {
+            mLastReorderOccupied = new GridOccupancy(mCountX, mCountY);
+        }
+        mOccupied.copyTo(mLastReorderOccupied);
+
+        int childCount = mShortcutsAndWidgets.getChildCount();
+        if (mLastReorderChildCells.length < childCount * 4) {
+            mLastReorderChildCells = new int[childCount * 4];
+        }
+        mLastReorderChildren.clear();
+        for (int i = 0; i < childCount; i++) {
+            View child = mShortcutsAndWidgets.getChildAt(i);
+            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            mLastReorderChildren.add(child);
+            mLastReorderChildCells[i * 4] = lp.cellX;
+            mLastReorderChildCells[i * 4 + 1] = lp.cellY;
+            mLastReorderChildCells[i * 4 + 2] = lp.cellHSpan;
+            mLastReorderChildCells[i * 4 + 3] = lp.cellVSpan;
+        }
+        mLastReorderValid = true;
+    }
+
     void setItemPlacementDirty(boolean dirty) {
         mItemPlacementDirty = dirty;
     }
@@ -2390,6 +2503,36 @@ public class CellLayout extends ViewGroup {
         ArrayList<View> intersectingViews;
         boolean isSolution = false;
 
+        private final ArrayList<View> mIntersectingViewsStore = new ArrayList<>();
+        private final ArrayList<CellAndSpan> mPool = new ArrayList<>();
+
+        /**
+         * Resets this configuration to its initial state, keeping the allocated cells for reuse.
+         */
+        void clear() {
+            mPool.addAll(map.values());
+            mPool.addAll(savedMap.values());
+            map.clear();
+            savedMap.clear();
+            sortedViews.clear();
+            intersectingViews = null;
+            isSolution = false;
+            cellX = -1;
+            cellY = -1;
+            spanX = 1;
+            spanY = 1;
+        }
+
+        void setIntersectingViews(ArrayList<View> views) {
+            mIntersectingViewsStore.clear();
+            mIntersectingViewsStore.addAll(views);
+            intersectingViews = mIntersectingViewsStore;
+        }
+
+        private CellAndSpan obtain() {
+            return mPool.isEmpty() ? new CellAndSpan() : mPool.remove(mPool.size() - 1);
+        }
+
         void save() {
             // Copy current state into savedMap
             for (View v : map.keySet()) {
@@ -2404,9 +2547,17 @@ public class CellLayout extends ViewGroup {
             }
         }
 
-        void add(View v, CellAndSpan cs) {
-            map.put(v, cs);
-            savedMap.put(v, new CellAndSpan());
+        void add(View v, int cellX, int cellY, int spanX, int spanY) {
+            CellAndSpan cs = map.get(v);
+            if (cs == null) {
+                cs = obtain();
+                map.put(v, cs);
+                savedMap.put(v, obtain());
+            }
+            cs.cellX = cellX;
+            cs.cellY = cellY;
+            cs.spanX = spanX;
+            cs.spanY = spanY;
             sortedViews.add(v);
         }
 
@@ -2558,7 +2709,7 @@ public class CellLayout extends ViewGroup {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied.cells[x][y] && !mPrefs.getAllowOverlap();
+            return mOccupied.isOccupied(x, y) && !mPrefs.getAllowOverlap();
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
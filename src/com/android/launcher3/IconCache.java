@@ -49,9 +49,11 @@ import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.BitmapRenderer;
 import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
+import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
@@ -59,10 +61,12 @@ import com.android.launcher3.util.Thunk;
 
 import org.zimmob.zimlx.iconpack.ZimIconProvider;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -256,6 +260,50 @@ public class IconCache {
                 new String[]{packageName + "/%", Long.toString(userSerial)});
     }
 
+    /**
+     * Regenerates the entries for the given components only, in memory and persistent DB.
+     * Components are resolved with a single activity list query per package, and entries
+     * for components which no longer exist are dropped.
+     */
+    public synchronized void updateIconsForComponents(Collection<ComponentKey> components) {
+        Preconditions.assertWorkerThread();
+        HashMap<PackageUserKey, HashSet<ComponentName>> byPackage = new HashMap<>();
+        for (ComponentKey key : components) {
+            PackageUserKey packageKey =
+                    new PackageUserKey(key.componentName.getPackageName(), key.user);
+            HashSet<ComponentName> names = byPackage.get(packageKey);
+            if (names == null) {
+                names = new HashSet<>();
+                byPackage.put(packageKey, names);
+            }
+            names.add(key.componentName);
+        }
+
+        for (Map.Entry<PackageUserKey, HashSet<ComponentName>> e : byPackage.entrySet()) {
+            UserHandle user = e.getKey().mUser;
+            HashSet<ComponentName> pending = e.getValue();
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            try {
+                PackageInfo info = mPackageManager.getPackageInfo(e.getKey().mPackageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES);
+                for (LauncherActivityInfo app :
+                        mLauncherApps.getActivityList(e.getKey().mPackageName, user)) {
+                    if (pending.remove(app.getComponentName())) {
+                        addIconToDBAndMemCache(app, info, userSerial, true /*replace existing*/);
+                    }
+                }
+            } catch (NameNotFoundException ex) {
+                Log.d(TAG, "Package not found", ex);
+            }
+            for (ComponentName cn : pending) {
+                mCache.remove(new ComponentKey(cn, user));
+                mIconDb.delete(
+                        IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
+                        new String[]{cn.flattenToString(), Long.toString(userSerial)});
+            }
+        }
+    }
+
     public synchronized void removeAllIcons() {
         Preconditions.assertWorkerThread();
         mCache.clear();
@@ -546,9 +594,11 @@ public class IconCache {
             @NonNull Provider<LauncherActivityInfo> infoProvider,
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
+        long start = Profiler.ICON_CACHE_LOOKUP.start();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+            Profiler.ICON_CACHE_MISSES.increment();
             entry = new CacheEntry();
             mCache.put(cacheKey, entry);
 
@@ -596,6 +646,7 @@ public class IconCache {
                 }
             }
         }
+        Profiler.ICON_CACHE_LOOKUP.end(start);
         return entry;
     }
 
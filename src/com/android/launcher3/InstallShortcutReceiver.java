@@ -19,12 +19,16 @@ package com.android.launcher3;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.BroadcastReceiver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.LauncherActivityInfo;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Handler;
@@ -45,6 +49,7 @@ import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.NoLocaleSQLiteHelper;
 import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
@@ -57,8 +62,8 @@ import org.json.JSONStringer;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -107,12 +112,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                 case MSG_ADD_TO_QUEUE: {
                     Pair<Context, PendingInstallShortcutInfo> pair =
                             (Pair<Context, PendingInstallShortcutInfo>) msg.obj;
-                    String encoded = pair.second.encodeToString();
-                    SharedPreferences prefs = Utilities.getPrefs(pair.first);
-                    Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
-                    strings = (strings != null) ? new HashSet<>(strings) : new HashSet<String>(1);
-                    strings.add(encoded);
-                    prefs.edit().putStringSet(APPS_PENDING_INSTALL, strings).apply();
+                    getQueueDb(pair.first).add(pair.second);
                     return;
                 }
                 case MSG_FLUSH_QUEUE: {
@@ -124,32 +124,43 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                     }
 
                     ArrayList<Pair<ItemInfo, Object>> installQueue = new ArrayList<>();
-                    SharedPreferences prefs = Utilities.getPrefs(context);
-                    Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
-                    if (DBG) Log.d(TAG, "Getting and clearing APPS_PENDING_INSTALL: " + strings);
-                    if (strings == null) {
-                        return;
-                    }
-
+                    InstallQueueDb queueDb = getQueueDb(context);
                     LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
-                    for (String encoded : strings) {
-                        PendingInstallShortcutInfo info = decode(encoded, context);
-                        if (info == null) {
-                            continue;
+                    long lastId = -1;
+                    try (Cursor c = queueDb.query(new String[]{InstallQueueDb.COLUMN_ID,
+                            InstallQueueDb.COLUMN_TYPE, InstallQueueDb.COLUMN_DATA}, null, null)) {
+                        while (c.moveToNext()) {
+                            long id = c.getLong(0);
+                            lastId = Math.max(lastId, id);
+                            // Only custom shortcuts can have an icon of their own
+                            byte[] icon = c.getInt(1) == InstallQueueDb.TYPE_CUSTOM
+                                    ? queueDb.getIcon(id) : null;
+                            PendingInstallShortcutInfo info =
+                                    decode(c.getString(2), icon, context);
+                            if (info == null) {
+                                continue;
+                            }
+
+                            String pkg = getIntentPackage(info.launchIntent);
+                            if (!TextUtils.isEmpty(pkg)
+                                    && !launcherApps.isPackageEnabledForProfile(pkg, info.user)) {
+                                if (DBG) Log.d(TAG, "Ignoring shortcut for absent package: "
+                                        + info.launchIntent);
+                                continue;
+                            }
+
+                            // Generate a shortcut info to add into the model
+                            installQueue.add(info.getItemInfo());
                         }
-
-                        String pkg = getIntentPackage(info.launchIntent);
-                        if (!TextUtils.isEmpty(pkg)
-                                && !launcherApps.isPackageEnabledForProfile(pkg, info.user)) {
-                            if (DBG) Log.d(TAG, "Ignoring shortcut for absent package: "
-                                    + info.launchIntent);
-                            continue;
-                        }
-
-                        // Generate a shortcut info to add into the model
-                        installQueue.add(info.getItemInfo());
+                    } catch (SQLiteException e) {
+                        Log.e(TAG, "Error reading the install queue", e);
                     }
-                    prefs.edit().remove(APPS_PENDING_INSTALL).apply();
+                    if (DBG) Log.d(TAG, "Flushing install queue up to " + lastId);
+                    if (lastId < 0) {
+                        return;
+                    }
+                    queueDb.delete(InstallQueueDb.COLUMN_ID + " <= ?",
+                            new String[]{Long.toString(lastId)});
                     if (!installQueue.isEmpty()) {
                         model.addAndBindAddedWorkspaceItems(installQueue);
                     }
@@ -159,38 +170,46 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         }
     };
 
+    private static InstallQueueDb sQueueDb;
+
+    /**
+     * Returns the queue of pending installs, moving the entries which were queued in the shared
+     * preferences by an older version into it.
+     */
+    private static synchronized InstallQueueDb getQueueDb(Context context) {
+        if (sQueueDb == null) {
+            context = context.getApplicationContext();
+            sQueueDb = new InstallQueueDb(context);
+
+            SharedPreferences prefs = Utilities.getPrefs(context);
+            Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
+            if (strings != null) {
+                for (String encoded : strings) {
+                    sQueueDb.addLegacy(encoded, context);
+                }
+                prefs.edit().remove(APPS_PENDING_INSTALL).apply();
+            }
+        }
+        return sQueueDb;
+    }
+
     public static void removeFromInstallQueue(Context context, HashSet<String> packageNames,
                                               UserHandle user) {
         if (packageNames.isEmpty()) {
             return;
         }
         Preconditions.assertWorkerThread();
+        if (DBG) Log.d(TAG, "Removing packages from install queue: " + packageNames);
 
-        SharedPreferences sp = Utilities.getPrefs(context);
-        Set<String> strings = sp.getStringSet(APPS_PENDING_INSTALL, null);
-        if (DBG) {
-            Log.d(TAG, "APPS_PENDING_INSTALL: " + strings
-                    + ", removing packages: " + packageNames);
-        }
-        if (Utilities.isEmpty(strings)) {
-            return;
-        }
-        Set<String> newStrings = new HashSet<>(strings);
-        Iterator<String> newStringsIter = newStrings.iterator();
-        while (newStringsIter.hasNext()) {
-            String encoded = newStringsIter.next();
-            try {
-                Decoder decoder = new Decoder(encoded, context);
-                if (packageNames.contains(getIntentPackage(decoder.launcherIntent)) &&
-                        user.equals(decoder.user)) {
-                    newStringsIter.remove();
-                }
-            } catch (JSONException | URISyntaxException e) {
-                Log.d(TAG, "Exception reading shortcut to add: " + e);
-                newStringsIter.remove();
-            }
+        String[] args = new String[packageNames.size() + 1];
+        args[0] = Long.toString(UserManagerCompat.getInstance(context).getSerialNumberForUser(user));
+        int i = 1;
+        for (String packageName : packageNames) {
+            args[i++] = packageName;
         }
-        sp.edit().putStringSet(APPS_PENDING_INSTALL, newStrings).apply();
+        getQueueDb(context).delete(InstallQueueDb.COLUMN_USER + " = ? AND "
+                + InstallQueueDb.COLUMN_PACKAGE + " IN ("
+                + TextUtils.join(", ", Collections.nCopies(packageNames.size(), "?")) + ")", args);
     }
 
     public void onReceive(Context context, Intent data) {
@@ -267,20 +286,19 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
     public static HashSet<ShortcutKey> getPendingShortcuts(Context context) {
         HashSet<ShortcutKey> result = new HashSet<>();
 
-        Set<String> strings = Utilities.getPrefs(context).getStringSet(APPS_PENDING_INSTALL, null);
-        if (Utilities.isEmpty(strings)) {
-            return result;
-        }
-
-        for (String encoded : strings) {
-            try {
-                Decoder decoder = new Decoder(encoded, context);
-                if (decoder.optBoolean(DEEPSHORTCUT_TYPE_KEY)) {
+        try (Cursor c = getQueueDb(context).query(new String[]{InstallQueueDb.COLUMN_DATA},
+                InstallQueueDb.COLUMN_TYPE + " = ?",
+                new String[]{Integer.toString(InstallQueueDb.TYPE_DEEP_SHORTCUT)})) {
+            while (c.moveToNext()) {
+                try {
+                    Decoder decoder = new Decoder(c.getString(0), context);
                     result.add(ShortcutKey.fromIntent(decoder.launcherIntent, decoder.user));
+                } catch (JSONException | URISyntaxException e) {
+                    Log.d(TAG, "Exception reading shortcut to add: " + e);
                 }
-            } catch (JSONException | URISyntaxException e) {
-                Log.d(TAG, "Exception reading shortcut to add: " + e);
             }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Error reading the install queue", e);
         }
         return result;
     }
@@ -303,6 +321,8 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         if (sInstallQueueDisabledFlags != 0) {
             return;
         }
+        // A burst of queued items is added with a single flush, after the last of them
+        sHandler.removeMessages(MSG_FLUSH_QUEUE);
         Message.obtain(sHandler, MSG_FLUSH_QUEUE, context.getApplicationContext()).sendToTarget();
     }
 
@@ -449,21 +469,15 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                 // This name is only used for comparisons and notifications, so fall back to activity
                 // name if not supplied
                 String name = ensureValidName(mContext, launchIntent, label).toString();
-                Bitmap icon = data.getParcelableExtra(Intent.EXTRA_SHORTCUT_ICON);
                 Intent.ShortcutIconResource iconResource =
                         data.getParcelableExtra(Intent.EXTRA_SHORTCUT_ICON_RESOURCE);
 
-                // Only encode the parameters which are supported by the API.
+                // Only encode the parameters which are supported by the API. The icon bitmap is
+                // saved separately, see encodeIcon().
                 JSONStringer json = new JSONStringer()
                         .object()
                         .key(LAUNCH_INTENT_KEY).value(launchIntent.toUri(0))
                         .key(NAME_KEY).value(name);
-                if (icon != null) {
-                    byte[] iconByteArray = Utilities.flattenBitmap(icon);
-                    json = json.key(ICON_KEY).value(
-                            Base64.encodeToString(
-                                    iconByteArray, 0, iconByteArray.length, Base64.DEFAULT));
-                }
                 if (iconResource != null) {
                     json = json.key(ICON_RESOURCE_NAME_KEY).value(iconResource.resourceName);
                     json = json.key(ICON_RESOURCE_PACKAGE_NAME_KEY)
@@ -476,6 +490,28 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
             }
         }
 
+        /**
+         * Returns the icon bitmap of a custom shortcut, if it has one.
+         */
+        public byte[] encodeIcon() {
+            if (data == null) {
+                return null;
+            }
+            Bitmap icon = data.getParcelableExtra(Intent.EXTRA_SHORTCUT_ICON);
+            return icon == null ? null : Utilities.flattenBitmap(icon);
+        }
+
+        public int getQueueType() {
+            if (activityInfo != null) {
+                return InstallQueueDb.TYPE_APP;
+            } else if (shortcutInfo != null) {
+                return InstallQueueDb.TYPE_DEEP_SHORTCUT;
+            } else if (providerInfo != null) {
+                return InstallQueueDb.TYPE_WIDGET;
+            }
+            return InstallQueueDb.TYPE_CUSTOM;
+        }
+
         public Pair<ItemInfo, Object> getItemInfo() {
             if (activityInfo != null) {
                 AppInfo appInfo = new AppInfo(mContext, activityInfo, user);
@@ -531,7 +567,8 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                 ? intent.getPackage() : intent.getComponent().getPackageName();
     }
 
-    private static PendingInstallShortcutInfo decode(String encoded, Context context) {
+    private static PendingInstallShortcutInfo decode(String encoded, byte[] icon,
+                                                     Context context) {
         try {
             Decoder decoder = new Decoder(encoded, context);
             if (decoder.optBoolean(APP_SHORTCUT_TYPE_KEY)) {
@@ -566,12 +603,10 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
             data.putExtra(Intent.EXTRA_SHORTCUT_INTENT, decoder.launcherIntent);
             data.putExtra(Intent.EXTRA_SHORTCUT_NAME, decoder.getString(NAME_KEY));
 
-            String iconBase64 = decoder.optString(ICON_KEY);
             String iconResourceName = decoder.optString(ICON_RESOURCE_NAME_KEY);
             String iconResourcePackageName = decoder.optString(ICON_RESOURCE_PACKAGE_NAME_KEY);
-            if (iconBase64 != null && !iconBase64.isEmpty()) {
-                byte[] iconArray = Base64.decode(iconBase64, Base64.DEFAULT);
-                Bitmap b = BitmapFactory.decodeByteArray(iconArray, 0, iconArray.length);
+            if (icon != null && icon.length > 0) {
+                Bitmap b = BitmapFactory.decodeByteArray(icon, 0, icon.length);
                 data.putExtra(Intent.EXTRA_SHORTCUT_ICON, b);
             } else if (iconResourceName != null && !iconResourceName.isEmpty()) {
                 Intent.ShortcutIconResource iconResource =
@@ -671,4 +706,140 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         return info;
     }
 
+    /**
+     * Queue of the pending installs, one row per item. Custom shortcut icons are kept in their
+     * own column, at the end of the row, so that reading the queue doesn't need to load them.
+     * Write errors are logged and ignored, as they were when the queue was kept in the shared
+     * preferences.
+     */
+    private static final class InstallQueueDb extends NoLocaleSQLiteHelper {
+        private final static int VERSION = 1;
+
+        private final static String TABLE_NAME = "install_queue";
+        final static String COLUMN_ID = "_id";
+        final static String COLUMN_TYPE = "itemType";
+        final static String COLUMN_PACKAGE = "packageName";
+        final static String COLUMN_USER = "profileId";
+        final static String COLUMN_DATA = "data";
+        final static String COLUMN_ICON = "icon";
+
+        final static int TYPE_CUSTOM = 0;
+        final static int TYPE_APP = 1;
+        final static int TYPE_DEEP_SHORTCUT = 2;
+        final static int TYPE_WIDGET = 3;
+
+        private final UserManagerCompat mUserManager;
+
+        public InstallQueueDb(Context context) {
+            super(context, LauncherFiles.INSTALL_QUEUE_DB, VERSION);
+            mUserManager = UserManagerCompat.getInstance(context);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                    COLUMN_TYPE + " INTEGER NOT NULL, " +
+                    COLUMN_PACKAGE + " TEXT, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_DATA + " TEXT NOT NULL, " +
+                    COLUMN_ICON + " BLOB " +
+                    ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The queue holds items the user asked for, so every schema change adds a step
+            // here which keeps the rows, falling through to the next version.
+            switch (oldVersion) {
+                case 1: {
+                    // Current version
+                    return;
+                }
+            }
+            Log.w(TAG, "Unknown install queue version " + oldVersion + ", clearing the queue");
+            recreateTable(db);
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The schema of a newer version is unknown
+            recreateTable(db);
+        }
+
+        private void recreateTable(SQLiteDatabase db) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            onCreate(db);
+        }
+
+        public Cursor query(String[] columns, String selection, String[] selectionArgs) {
+            return getReadableDatabase().query(
+                    TABLE_NAME, columns, selection, selectionArgs, null, null, null);
+        }
+
+        /**
+         * Returns the icon saved for a custom shortcut, or null.
+         */
+        public byte[] getIcon(long id) {
+            try (Cursor c = query(new String[]{COLUMN_ICON}, COLUMN_ID + " = ?",
+                    new String[]{Long.toString(id)})) {
+                return c.moveToNext() ? c.getBlob(0) : null;
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error reading the install queue", e);
+                return null;
+            }
+        }
+
+        public void delete(String whereClause, String[] whereArgs) {
+            try {
+                getWritableDatabase().delete(TABLE_NAME, whereClause, whereArgs);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error writing the install queue", e);
+            }
+        }
+
+        public void add(PendingInstallShortcutInfo info) {
+            String encoded = info.encodeToString();
+            if (encoded == null) {
+                return;
+            }
+            insert(info.getQueueType(), getIntentPackage(info.launchIntent),
+                    mUserManager.getSerialNumberForUser(info.user), encoded, info.encodeIcon());
+        }
+
+        /**
+         * Adds an entry of the old shared preferences queue, which had its icon inlined.
+         */
+        public void addLegacy(String encoded, Context context) {
+            try {
+                Decoder decoder = new Decoder(encoded, context);
+                int type = decoder.optBoolean(APP_SHORTCUT_TYPE_KEY) ? TYPE_APP
+                        : decoder.optBoolean(DEEPSHORTCUT_TYPE_KEY) ? TYPE_DEEP_SHORTCUT
+                        : decoder.optBoolean(APP_WIDGET_TYPE_KEY) ? TYPE_WIDGET
+                        : TYPE_CUSTOM;
+                String iconBase64 = (String) decoder.remove(ICON_KEY);
+                byte[] icon = TextUtils.isEmpty(iconBase64)
+                        ? null : Base64.decode(iconBase64, Base64.DEFAULT);
+                insert(type, getIntentPackage(decoder.launcherIntent),
+                        mUserManager.getSerialNumberForUser(decoder.user), decoder.toString(), icon);
+            } catch (JSONException | URISyntaxException | IllegalArgumentException e) {
+                Log.d(TAG, "Exception reading shortcut to add: " + e);
+            }
+        }
+
+        private void insert(int type, String packageName, long userSerial, String data,
+                            byte[] icon) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TYPE, type);
+            values.put(COLUMN_PACKAGE, packageName);
+            values.put(COLUMN_USER, userSerial);
+            values.put(COLUMN_DATA, data);
+            values.put(COLUMN_ICON, icon);
+            try {
+                getWritableDatabase().insert(TABLE_NAME, null, values);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error writing the install queue", e);
+            }
+        }
+    }
 }
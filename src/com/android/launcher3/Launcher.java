@@ -53,6 +53,7 @@ import android.text.TextUtils;
 import android.text.method.TextKeyListener;
 import android.util.Log;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.KeyEvent;
 import android.view.KeyboardShortcutGroup;
@@ -61,6 +62,7 @@ import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.animation.OvershootInterpolator;
 import android.view.inputmethod.InputMethodManager;
@@ -77,6 +79,7 @@ import com.android.launcher3.allapps.AllAppsContainerView;
 import com.android.launcher3.allapps.AllAppsTransitionController;
 import com.android.launcher3.allapps.DiscoveryBounce;
 import com.android.launcher3.badge.BadgeInfo;
+import com.android.launcher3.badge.BadgeViewIndex;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.LauncherAppsCompatVO;
 import com.android.launcher3.config.FeatureFlags;
@@ -89,6 +92,8 @@ import com.android.launcher3.folder.FolderIconPreviewVerifier;
 import com.android.launcher3.keyboard.CustomActionsPopup;
 import com.android.launcher3.keyboard.ViewGroupFocusHelper;
 import com.android.launcher3.logging.FileLog;
+import com.android.launcher3.logging.FrameStats;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.logging.UserEventDispatcher;
 import com.android.launcher3.model.ModelWriter;
 import com.android.launcher3.notification.NotificationListener;
@@ -107,6 +112,7 @@ import com.android.launcher3.util.ActivityResultInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.ComponentKeyMapper;
 import com.android.launcher3.util.ItemInfoMatcher;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.MultiValueAlpha;
 import com.android.launcher3.util.PackageManagerHelper;
@@ -132,14 +138,18 @@ import com.android.launcher3.widget.WidgetsFullSheet;
 import com.android.launcher3.widget.custom.CustomWidgetParser;
 import com.google.android.apps.nexuslauncher.CustomAppPredictor;
 import com.google.android.apps.nexuslauncher.NexusLauncherActivity;
+import com.google.android.apps.nexuslauncher.clock.ClockTicker;
 
 import org.zimmob.zimlx.ZimLauncher;
 import org.zimmob.zimlx.ZimPreferences;
 import org.zimmob.zimlx.blur.BlurWallpaperProvider;
 
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -246,6 +256,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
 
     @Thunk
     boolean mWorkspaceLoading = true;
+    // Time to the first drawn frame of the workspace, measured from onCreate
+    private long mCreateTime;
+    private long mFirstWorkspaceFrameTime = -1;
+    private boolean mFirstPageFromSnapshot;
     private OnResumeCallback mOnResumeCallback;
 
     private View mLauncherView;
@@ -265,6 +279,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     private IconCache mIconCache;
     private LauncherAccessibilityDelegate mAccessibilityDelegate;
     private PopupDataProvider mPopupDataProvider;
+    private final BadgeViewIndex mBadgeViewIndex = new BadgeViewIndex();
+    // Badge changes received since the last frame, applied together on the next one
+    private final HashSet<PackageUserKey> mPendingBadgeUpdates = new HashSet<>();
+    private final Choreographer.FrameCallback mApplyBadgeUpdates = frameTimeNanos -> applyIconBadges();
     // We only want to get the SharedPreferences once since it does an FS stat each time we get
     // it from the context.
     private SharedPreferences mSharedPrefs;
@@ -306,6 +324,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
                     .build());
         }
         TraceHelper.beginSection("Launcher-onCreate");
+        mCreateTime = SystemClock.uptimeMillis();
 
         super.onCreate(savedInstanceState);
         TraceHelper.partitionSection("Launcher-onCreate", "super call");
@@ -325,6 +344,8 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         initDeviceProfile(app.getInvariantDeviceProfile());
 
         showNotificationCount = prefs.getFolderBadgeCount();
+        FrameStats.setEnabled(this, prefs.getRecordFrameStats());
+        Profiler.setEnabled(prefs.getProfileHotPaths());
         mSharedPrefs = Utilities.getPrefs(this);
         mIconCache = app.getIconCache();
         mAccessibilityDelegate = new LauncherAccessibilityDelegate(this);
@@ -419,6 +440,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         super.onDestroy();
 
         unregisterReceiver(mScreenOffReceiver);
+        Choreographer.getInstance().removeFrameCallback(mApplyBadgeUpdates);
         mWorkspace.removeFolderListeners();
 
         UiFactory.setOnTouchControllersChangedListener(this, null);
@@ -623,6 +645,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         return mPopupDataProvider;
     }
 
+    public BadgeViewIndex getBadgeViewIndex() {
+        return mBadgeViewIndex;
+    }
+
     public void onInsetsChanged(Rect insets) {
         mDeviceProfile.updateInsets(insets);
         mDeviceProfile.layout(this, true);
@@ -891,6 +917,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     protected void onStop() {
         super.onStop();
         FirstFrameAnimatorHelper.setIsVisible(false);
+        ClockTicker.getInstance().setStarted(false);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onStop();
@@ -913,6 +940,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     protected void onStart() {
         super.onStart();
         FirstFrameAnimatorHelper.setIsVisible(true);
+        ClockTicker.getInstance().setStarted(true);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onStart();
@@ -1285,9 +1313,24 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         }
     };
 
+    /**
+     * Updates the badges of the icons showing {@param updatedBadges} on the next frame, along
+     * with any other badge changed before it.
+     */
     public void updateIconBadges(final Set<PackageUserKey> updatedBadges) {
-        mWorkspace.updateIconBadges(updatedBadges);
-        mAppsView.getAppsStore().updateIconBadges(updatedBadges);
+        if (mPendingBadgeUpdates.isEmpty()) {
+            Choreographer.getInstance().postFrameCallback(mApplyBadgeUpdates);
+        }
+        mPendingBadgeUpdates.addAll(updatedBadges);
+    }
+
+    private void applyIconBadges() {
+        if (mPendingBadgeUpdates.isEmpty()) {
+            return;
+        }
+        HashSet<PackageUserKey> updatedBadges = new HashSet<>(mPendingBadgeUpdates);
+        mPendingBadgeUpdates.clear();
+        mBadgeViewIndex.onBadgesChanged(updatedBadges);
 
         PopupContainerWithArrow popup = PopupContainerWithArrow.getOpen(Launcher.this);
         if (popup != null) {
@@ -1859,7 +1902,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
             SQLiteDatabase.releaseMemory();
 
             // This clears all widget bitmaps from the widget tray
-            // TODO(hyunyoungs)
+            LauncherAppState.getInstance(this).getWidgetCache().trimMemory();
         }
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
@@ -2317,8 +2360,63 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         }
     }
 
+    /**
+     * Binds the first page from the snapshot of the last session, while the workspace is
+     * still loading.
+     */
+    @Override
+    public void bindWorkspaceSnapshot(ArrayList<Long> orderedScreenIds,
+                                      ArrayList<ItemInfo> items) {
+        clearPendingBinds();
+        startBinding();
+        bindScreens(orderedScreenIds);
+        bindItems(items, false);
+        mFirstPageFromSnapshot = true;
+        finishFirstPageBind(null);
+    }
+
+    /**
+     * Removes the snapshot items which are not part of the loaded workspace, and attaches the
+     * loaded items to the views bound from the snapshot.
+     */
+    @Override
+    public void reconcileWorkspaceSnapshot(LongArrayMap<Boolean> staleItemIds,
+                                           ArrayList<ItemInfo> unchangedItems) {
+        clearPendingBinds();
+        for (int i = 0; i < staleItemIds.size(); i++) {
+            View v = mWorkspace.getHomescreenIconByItemId(staleItemIds.keyAt(i));
+            if (v != null) {
+                mWorkspace.removeWorkspaceItem(v);
+            }
+        }
+        for (ItemInfo info : unchangedItems) {
+            View v = mWorkspace.getHomescreenIconByItemId(info.id);
+            if (v instanceof BubbleTextView && info instanceof ShortcutInfo) {
+                ((BubbleTextView) v).applyFromShortcutInfo((ShortcutInfo) info);
+            }
+        }
+    }
+
+    private void trackFirstWorkspaceFrame() {
+        if (mFirstWorkspaceFrameTime >= 0 || mCreateTime == 0) {
+            return;
+        }
+        mWorkspace.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mWorkspace.getViewTreeObserver().removeOnPreDrawListener(this);
+                        mFirstWorkspaceFrameTime = SystemClock.uptimeMillis() - mCreateTime;
+                        Log.d(TAG, "First workspace frame after " + mFirstWorkspaceFrameTime
+                                + "ms" + (mFirstPageFromSnapshot ? " (snapshot)" : ""));
+                        return true;
+                    }
+                });
+    }
+
     @Override
     public void finishFirstPageBind(final ViewOnDrawExecutor executor) {
+        trackFirstWorkspaceFrame();
         MultiValueAlpha.AlphaProperty property = mDragLayer.getAlphaProperty(ALPHA_INDEX_LAUNCHER_LOAD);
         if (property.getValue() < 1) {
             ObjectAnimator anim = ObjectAnimator.ofFloat(property, MultiValueAlpha.VALUE, 1);
@@ -2514,7 +2612,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     }
 
     /**
-     * $ adb shell dumpsys activity com.android.launcher3.Launcher [--all]
+     * $ adb shell dumpsys activity com.android.launcher3.Launcher [--all] [--profiler-export]
      */
     @Override
     public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
@@ -2548,7 +2646,20 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         writer.print(prefix + "\tmWorkspaceLoading=" + mWorkspaceLoading);
         writer.print(" mPendingRequestArgs=" + mPendingRequestArgs);
         writer.println(" mPendingActivityResult=" + mPendingActivityResult);
+        writer.println(prefix + "\tfirstWorkspaceFrame=" + mFirstWorkspaceFrameTime + "ms"
+                + " fromSnapshot=" + mFirstPageFromSnapshot);
         writer.println(" mRotationHelper: " + mRotationHelper);
+        FrameStats.dump(prefix + "\t", writer);
+        Profiler.dump(prefix + "\t", writer);
+        if (Arrays.asList(args).contains("--profiler-export")) {
+            File file = new File(getExternalFilesDir(null), "profiler.csv");
+            try {
+                Profiler.export(file);
+                writer.println(prefix + "\tProfiler exported to " + file);
+            } catch (IOException e) {
+                writer.println(prefix + "\tProfiler export failed: " + e);
+            }
+        }
         dumpMisc(writer);
 
         try {
@@ -23,6 +23,12 @@ public class LauncherFiles {
     public static final String REFLECTION_PREFERENCES_KEY = "reflection.private.properties";
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
     public static final String APP_ICONS_DB = "app_icons.db";
+    public static final String ADAPTIVE_ICONS_DB = "adaptive_icons.db";
+    public static final String WORKSPACE_SNAPSHOT = "workspace_snapshot";
+    public static final String PREFS_COLLECTIONS_DB = "prefs_collections.db";
+    public static final String INSTALL_QUEUE_DB = "install_queue.db";
+    // Collections of the device preferences, not backed up either.
+    public static final String DEVICE_PREFS_COLLECTIONS_DB = "device_prefs_collections.db";
     private static final String XML = ".xml";
     public static final List<String> ALL_FILES = Collections.unmodifiableList(Arrays.asList(
             LAUNCHER_DB,
@@ -31,5 +37,10 @@ public class LauncherFiles {
             MANAGED_USER_PREFERENCES_KEY + XML,
             DEVICE_PREFERENCES_KEY + XML,
             REFLECTION_PREFERENCES_KEY + XML,
-            APP_ICONS_DB));
+            APP_ICONS_DB,
+            ADAPTIVE_ICONS_DB,
+            WORKSPACE_SNAPSHOT,
+            PREFS_COLLECTIONS_DB,
+            DEVICE_PREFS_COLLECTIONS_DB,
+            INSTALL_QUEUE_DB));
 }
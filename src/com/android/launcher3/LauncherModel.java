@@ -54,6 +54,7 @@ import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.ItemInfoMatcher;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
@@ -170,6 +171,11 @@ public class LauncherModel extends BroadcastReceiver
 
         void finishFirstPageBind(ViewOnDrawExecutor executor);
 
+        void bindWorkspaceSnapshot(ArrayList<Long> orderedScreenIds, ArrayList<ItemInfo> items);
+
+        void reconcileWorkspaceSnapshot(LongArrayMap<Boolean> staleItemIds,
+                                        ArrayList<ItemInfo> unchangedItems);
+
         void finishBindingItems();
 
         void bindAllApplications(ArrayList<AppInfo> apps);
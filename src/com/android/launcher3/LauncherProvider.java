@@ -395,10 +395,25 @@ public class LauncherProvider extends ContentProvider {
                 mOpenHelper.removeGhostWidgets(mOpenHelper.getWritableDatabase());
                 return null;
             }
+            case LauncherSettings.Settings.METHOD_COPY_DB: {
+                Bundle result = new Bundle();
+                result.putBoolean(LauncherSettings.Settings.EXTRA_VALUE, copyDatabase(new File(arg)));
+                return result;
+            }
         }
         return null;
     }
 
+    private boolean copyDatabase(File destination) {
+        try {
+            LauncherDbUtils.copyDatabase(mOpenHelper.getWritableDatabase(), destination);
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to copy the database", e);
+            return false;
+        }
+    }
+
     /**
      * Deletes any empty folder from the DB.
      * @return Ids of deleted folders.
@@ -334,6 +334,12 @@ public class LauncherSettings {
 
         public static final String METHOD_REMOVE_GHOST_WIDGETS = "remove_ghost_widgets";
 
+        /**
+         * Copies the database to the path passed as arg, and puts whether it succeeded in
+         * {@link #EXTRA_VALUE}.
+         */
+        public static final String METHOD_COPY_DB = "copy_db";
+
         public static final String EXTRA_VALUE = "value";
 
         public static Bundle call(ContentResolver cr, String method) {
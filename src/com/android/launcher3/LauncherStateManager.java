@@ -29,6 +29,7 @@ import com.android.launcher3.anim.AnimatorPlaybackController;
 import com.android.launcher3.anim.AnimatorSetBuilder;
 import com.android.launcher3.anim.PropertySetter;
 import com.android.launcher3.anim.PropertySetter.AnimatedPropertySetter;
+import com.android.launcher3.logging.FrameStats;
 import com.android.launcher3.uioverrides.UiFactory;
 
 import java.lang.annotation.Retention;
@@ -369,6 +370,9 @@ public class LauncherStateManager {
         }
 
         final AnimatorSet animation = builder.build();
+        if (FrameStats.isEnabled()) {
+            animation.addListener(FrameStats.newTransitionListener(mState, state));
+        }
         animation.addListener(new AnimationSuccessListener() {
 
             @Override
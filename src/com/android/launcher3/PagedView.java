@@ -42,6 +42,7 @@ import android.widget.ScrollView;
 
 import com.android.launcher3.anim.Interpolators;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.logging.FrameStats;
 import com.android.launcher3.pageindicators.PageIndicator;
 import com.android.launcher3.touch.OverScroll;
 import com.android.launcher3.util.Thunk;
@@ -316,6 +317,9 @@ public abstract class PagedView<T extends View & PageIndicator> extends ViewGrou
     protected void pageBeginTransition() {
         if (!mIsPageInTransition) {
             mIsPageInTransition = true;
+            if (FrameStats.isEnabled()) {
+                FrameStats.begin(FrameStats.CHANNEL_SCROLL, getClass().getSimpleName() + " scroll");
+            }
             onPageBeginTransition();
         }
     }
@@ -323,6 +327,7 @@ public abstract class PagedView<T extends View & PageIndicator> extends ViewGrou
     protected void pageEndTransition() {
         if (mIsPageInTransition) {
             mIsPageInTransition = false;
+            FrameStats.end(FrameStats.CHANNEL_SCROLL);
             onPageEndTransition();
         }
     }
@@ -27,6 +27,7 @@ import android.os.Handler;
 import android.os.UserHandle;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
@@ -45,6 +46,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
@@ -57,8 +62,30 @@ public class WidgetPreviewLoader {
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
+    // Fraction of the heap used to keep decoded previews in memory
+    private static final int MEMORY_CACHE_FRACTION = 16;
+    // Size above which the least recently used previews are removed from the DB
+    private static final long MAX_DB_BYTES = 12 * 1024 * 1024;
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
+    /**
+     * Decoded previews, bounded by their size in bytes. These bitmaps can be shown by several
+     * cells at once, so they are never added to {@link #mUnusedBitmaps}.
+     */
+    private final LruCache<WidgetCacheKey, Bitmap> mMemoryCache;
+
+    /**
+     * Previews present in the DB, loaded once and then kept in sync with the DB, ordered from the
+     * least to the most recently used.
+     */
+    private final LinkedHashMap<WidgetCacheKey, IndexEntry> mIndex =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private boolean mIndexLoaded;
+    private long mIndexBytes;
+
+    private Runnable mPendingPrefetch;
+
     /**
      * Weak reference objects, do not prevent their referents from being made finalizable,
      * finalized, and then reclaimed.
@@ -86,11 +113,20 @@ public class WidgetPreviewLoader {
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION,
+                Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<WidgetCacheKey, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(WidgetCacheKey key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}, or applies it
+     * directly if it is already in memory. Must be called on UI thread
      *
      * @return a request id which can be used to cancel the request.
      */
@@ -99,6 +135,12 @@ public class WidgetPreviewLoader {
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
 
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            caller.applyPreview(cached);
+            return new CancellationSignal();
+        }
+
         PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
         task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
 
@@ -107,6 +149,38 @@ public class WidgetPreviewLoader {
         return signal;
     }
 
+    /**
+     * Decodes the previews of {@param items} which are in the DB into memory on the worker
+     * thread, so that they can be applied as soon as their cells are bound. Replaces the
+     * previous prefetch request if it hasn't started yet. Must be called on UI thread
+     */
+    public void prefetchPreviews(List<WidgetItem> items, int previewWidth, int previewHeight) {
+        String size = previewWidth + "x" + previewHeight;
+        final ArrayList<WidgetCacheKey> keys = new ArrayList<>();
+        for (WidgetItem item : items) {
+            WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
+            if (mMemoryCache.get(key) == null) {
+                keys.add(key);
+            }
+        }
+
+        if (mPendingPrefetch != null) {
+            mWorkerHandler.removeCallbacks(mPendingPrefetch);
+            mPendingPrefetch = null;
+        }
+        if (!keys.isEmpty()) {
+            mPendingPrefetch = () -> prefetchFromDb(keys);
+            mWorkerHandler.post(mPendingPrefetch);
+        }
+    }
+
+    /**
+     * Clears the decoded previews kept in memory.
+     */
+    public void trimMemory() {
+        mMemoryCache.evictAll();
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
@@ -151,8 +225,170 @@ public class WidgetPreviewLoader {
         values.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
         values.put(CacheDb.COLUMN_VERSION, versions[0]);
         values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
-        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
+        byte[] blob = Utilities.flattenBitmap(preview);
+        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, blob);
         mDb.insertOrReplace(values);
+
+        ensureIndexLoaded();
+        synchronized (mIndex) {
+            IndexEntry previous = mIndex.put(key,
+                    new IndexEntry(versions[0], versions[1], blob == null ? 0 : blob.length));
+            if (previous != null) {
+                mIndexBytes -= previous.bytes;
+            }
+            mIndexBytes += blob == null ? 0 : blob.length;
+        }
+        trimDbToSize(MAX_DB_BYTES);
+    }
+
+    /**
+     * Loads the list of previews in the DB, without their bitmaps. Rows are read in the order
+     * they were written, which is the best guess of their use order after a restart.
+     */
+    private void ensureIndexLoaded() {
+        synchronized (mIndex) {
+            if (mIndexLoaded) {
+                return;
+            }
+            mIndexLoaded = true;
+            Cursor c = null;
+            try {
+                c = mDb.query(
+                        new String[]{CacheDb.COLUMN_COMPONENT, CacheDb.COLUMN_USER,
+                                CacheDb.COLUMN_SIZE, CacheDb.COLUMN_VERSION,
+                                CacheDb.COLUMN_LAST_UPDATED,
+                                "length(" + CacheDb.COLUMN_PREVIEW_BITMAP + ")"},
+                        null, null);
+                LongSparseArray<UserHandle> users = new LongSparseArray<>();
+                while (c.moveToNext()) {
+                    ComponentName cn = ComponentName.unflattenFromString(c.getString(0));
+                    long userId = c.getLong(1);
+                    UserHandle user = users.get(userId);
+                    if (user == null) {
+                        user = mUserManager.getUserForSerialNumber(userId);
+                        users.put(userId, user);
+                    }
+                    if (cn == null || user == null) {
+                        // Removed by the next call to removeObsoletePreviews
+                        continue;
+                    }
+                    IndexEntry entry = new IndexEntry(c.getLong(3), c.getLong(4), c.getInt(5));
+                    mIndex.put(new WidgetCacheKey(cn, user, c.getString(2)), entry);
+                    mIndexBytes += entry.bytes;
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "Error loading widget preview index", e);
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the DB has a preview for {@param key} which matches the installed package,
+     * and marks it as used.
+     */
+    private boolean isInDb(WidgetCacheKey key) {
+        ensureIndexLoaded();
+        IndexEntry entry;
+        synchronized (mIndex) {
+            entry = mIndex.get(key);
+        }
+        if (entry == null) {
+            return false;
+        }
+        long[] versions = getPackageVersion(key.componentName.getPackageName());
+        return entry.version == versions[0] && entry.lastUpdated == versions[1];
+    }
+
+    /**
+     * Removes the least recently used previews from the DB until they take less than
+     * {@param maxBytes}.
+     */
+    private void trimDbToSize(long maxBytes) {
+        ArrayList<WidgetCacheKey> removed = new ArrayList<>();
+        synchronized (mIndex) {
+            Iterator<Map.Entry<WidgetCacheKey, IndexEntry>> it = mIndex.entrySet().iterator();
+            while (mIndexBytes > maxBytes && it.hasNext()) {
+                Map.Entry<WidgetCacheKey, IndexEntry> entry = it.next();
+                mIndexBytes -= entry.getValue().bytes;
+                removed.add(entry.getKey());
+                it.remove();
+            }
+        }
+        for (WidgetCacheKey key : removed) {
+            mDb.delete(
+                    CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND "
+                            + CacheDb.COLUMN_SIZE + " = ?",
+                    new String[]{
+                            key.componentName.flattenToShortString(),
+                            Long.toString(mUserManager.getSerialNumberForUser(key.user)),
+                            key.size
+                    });
+        }
+        if (DEBUG && !removed.isEmpty()) {
+            Log.d(TAG, "Removed " + removed.size() + " previews from the DB");
+        }
+    }
+
+    @Thunk
+    void prefetchFromDb(ArrayList<WidgetCacheKey> keys) {
+        HashMap<String, WidgetCacheKey> wanted = new HashMap<>();
+        HashSet<String> components = new HashSet<>();
+        String size = null;
+        for (WidgetCacheKey key : keys) {
+            if (isInDb(key)) {
+                String cn = key.componentName.flattenToShortString();
+                wanted.put(cn + "/" + mUserManager.getSerialNumberForUser(key.user), key);
+                components.add(cn);
+                size = key.size;
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+
+        String[] args = new String[components.size() + 1];
+        StringBuilder selection = new StringBuilder(CacheDb.COLUMN_SIZE).append(" = ? AND ")
+                .append(CacheDb.COLUMN_COMPONENT).append(" IN (");
+        args[0] = size;
+        int i = 1;
+        for (String cn : components) {
+            selection.append(i > 1 ? ", ?" : "?");
+            args[i++] = cn;
+        }
+        selection.append(')');
+
+        Cursor c = null;
+        try {
+            c = mDb.query(
+                    new String[]{CacheDb.COLUMN_COMPONENT, CacheDb.COLUMN_USER,
+                            CacheDb.COLUMN_PREVIEW_BITMAP},
+                    selection.toString(), args);
+            while (c.moveToNext()) {
+                WidgetCacheKey key = wanted.get(c.getString(0) + "/" + c.getLong(1));
+                if (key == null || mMemoryCache.get(key) != null) {
+                    continue;
+                }
+                byte[] blob = c.getBlob(2);
+                try {
+                    Bitmap preview = BitmapFactory.decodeByteArray(blob, 0, blob.length);
+                    if (preview != null) {
+                        mMemoryCache.put(key, preview);
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Error decoding preview for " + key.componentName, e);
+                }
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "Error prefetching previews from DB", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
     }
 
     public void removePackage(String packageName, UserHandle user) {
@@ -163,16 +399,43 @@ public class WidgetPreviewLoader {
         synchronized (mPackageVersions) {
             mPackageVersions.remove(packageName);
         }
+        synchronized (mIndex) {
+            Iterator<Map.Entry<WidgetCacheKey, IndexEntry>> it = mIndex.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<WidgetCacheKey, IndexEntry> entry = it.next();
+                if (isForPackage(entry.getKey(), packageName, user, userSerial)) {
+                    mIndexBytes -= entry.getValue().bytes;
+                    it.remove();
+                }
+            }
+        }
+        removeFromMemory(packageName, user, userSerial);
 
         mDb.delete(
                 CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
                 new String[]{packageName, Long.toString(userSerial)});
     }
 
+    private void removeFromMemory(String packageName, UserHandle user, long userSerial) {
+        for (WidgetCacheKey key : mMemoryCache.snapshot().keySet()) {
+            if (isForPackage(key, packageName, user, userSerial)) {
+                mMemoryCache.remove(key);
+            }
+        }
+    }
+
+    private boolean isForPackage(WidgetCacheKey key, String packageName, UserHandle user,
+                                 long userSerial) {
+        return key.componentName.getPackageName().equals(packageName) && (user != null
+                ? key.user.equals(user)
+                : mUserManager.getSerialNumberForUser(key.user) == userSerial);
+    }
+
     /**
      * Updates the persistent DB:
      *   1. Any preview generated for an old package version is removed
      *   2. Any preview for an absent package is removed
+     *   3. The least recently used previews are removed if the DB grew too large
      * This ensures that we remove entries for packages which changed while the launcher was dead.
      *
      * @param packageUser if provided, specifies that list only contains previews for the
@@ -197,6 +460,10 @@ public class WidgetPreviewLoader {
         LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
         long passedUserId = packageUser == null ? 0
                 : mUserManager.getSerialNumberForUser(packageUser.mUser);
+        if (packageUser != null) {
+            // The package changed, previews only in memory may be outdated too
+            removeFromMemory(packageUser.mPackageName, packageUser.mUser, passedUserId);
+        }
         Cursor c = null;
         try {
             c = mDb.query(
@@ -240,6 +507,8 @@ public class WidgetPreviewLoader {
                     removePackage(pkg, user, userId);
                 }
             }
+            ensureIndexLoaded();
+            trimDbToSize(MAX_DB_BYTES);
         } catch (SQLException e) {
             Log.e(TAG, "Error updating widget previews", e);
         } finally {
@@ -543,6 +812,9 @@ public class WidgetPreviewLoader {
         long[] mVersions;
         @Thunk
         Bitmap mBitmapToRecycle;
+        // Whether the preview can be kept in memory, ie. it is or will be in the DB
+        @Thunk
+        boolean mCacheable;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
                         int previewHeight, WidgetCell caller) {
@@ -587,7 +859,8 @@ public class WidgetPreviewLoader {
             if (isCancelled()) {
                 return unusedBitmap;
             }
-            Bitmap preview = readFromDb(mKey, unusedBitmap, this);
+            Bitmap preview = isInDb(mKey) ? readFromDb(mKey, unusedBitmap, this) : null;
+            mCacheable = preview != null;
             // Only consider generating the preview if we have not cancelled the task already
             if (!isCancelled() && preview == null) {
                 // Fetch the version info before we generate the preview, so that, in-case the
@@ -597,6 +870,7 @@ public class WidgetPreviewLoader {
                         || mInfo.activityInfo.isPersistable();
                 mVersions = persistable ? getPackageVersion(mKey.componentName.getPackageName())
                         : null;
+                mCacheable = persistable;
 
                 // it's not in the db... we need to generate it
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
@@ -607,6 +881,10 @@ public class WidgetPreviewLoader {
         @Override
         protected void onPostExecute(final Bitmap preview) {
             mCaller.applyPreview(preview);
+            if (mCacheable && preview != null) {
+                // Shared from now on, the bitmap must not be recycled
+                mMemoryCache.put(mKey, preview);
+            }
 
             // Write the generated preview to the DB in the worker thread
             if (mVersions != null) {
@@ -617,8 +895,10 @@ public class WidgetPreviewLoader {
                             // If we are still using this preview, then write it to the DB and then
                             // let the normal clear mechanism recycle the bitmap
                             writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
+                            if (!mCacheable) {
+                                mBitmapToRecycle = preview;
+                            }
+                        } else if (!mCacheable) {
                             // If we've already cancelled, then skip writing the bitmap to the DB
                             // and manually add the bitmap back to the recycled set
                             synchronized (mUnusedBitmaps) {
@@ -629,8 +909,10 @@ public class WidgetPreviewLoader {
                 });
             } else {
                 // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
+                // the normal clear mechanism, unless it is kept in memory
+                if (!mCacheable) {
+                    mBitmapToRecycle = preview;
+                }
             }
         }
 
@@ -674,6 +956,18 @@ public class WidgetPreviewLoader {
         }
     }
 
+    private static final class IndexEntry {
+        final long version;
+        final long lastUpdated;
+        final int bytes;
+
+        IndexEntry(long version, long lastUpdated, int bytes) {
+            this.version = version;
+            this.lastUpdated = lastUpdated;
+            this.bytes = bytes;
+        }
+    }
+
     private static final class WidgetCacheKey extends ComponentKey {
 
         @Thunk
@@ -56,7 +56,6 @@ import com.android.launcher3.accessibility.AccessibleDragListenerAdapter;
 import com.android.launcher3.accessibility.WorkspaceAccessibilityHelper;
 import com.android.launcher3.anim.AnimatorSetBuilder;
 import com.android.launcher3.anim.Interpolators;
-import com.android.launcher3.badge.FolderBadgeInfo;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.dragndrop.DragController;
@@ -79,7 +78,6 @@ import com.android.launcher3.userevent.nano.LauncherLogProto.ContainerType;
 import com.android.launcher3.userevent.nano.LauncherLogProto.Target;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LongArrayMap;
-import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.util.WallpaperOffsetInterpolator;
 import com.android.launcher3.widget.LauncherAppWidgetHostView;
@@ -3302,36 +3300,6 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         });
     }
 
-    public void updateIconBadges(final Set<PackageUserKey> updatedBadges) {
-        final PackageUserKey packageUserKey = new PackageUserKey(null, null);
-        final HashSet<Long> folderIds = new HashSet<>();
-        mapOverItems(MAP_RECURSE, (info, v) -> {
-            if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                    && packageUserKey.updateFromItemInfo(info)) {
-                if (updatedBadges.contains(packageUserKey)) {
-                    ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
-                    folderIds.add(info.container);
-                }
-            }
-            // process all the shortcuts
-            return false;
-        });
-
-        // Update folder icons
-        mapOverItems(MAP_NO_RECURSE, (info, v) -> {
-            if (info instanceof FolderInfo && folderIds.contains(info.id)
-                    && v instanceof FolderIcon) {
-                FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
-                for (ShortcutInfo si : ((FolderInfo) info).contents) {
-                    folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
-                }
-                ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
-            }
-            // process all the shortcuts
-            return false;
-        });
-    }
-
     public void removeAbandonedPromise(String packageName, UserHandle user) {
         HashSet<String> packages = new HashSet<>(1);
         packages.add(packageName);
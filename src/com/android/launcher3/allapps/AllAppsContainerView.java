@@ -84,6 +84,7 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
     private final ItemInfoMatcher mPersonalMatcher = ItemInfoMatcher.ofUser(Process.myUserHandle());
     private final ItemInfoMatcher mWorkMatcher = ItemInfoMatcher.not(mPersonalMatcher);
     private final AllAppsStore mAllAppsStore = new AllAppsStore();
+    private final AllAppsViewPool mViewPool;
 
     private final Paint mNavBarScrimPaint;
     private int mNavBarScrimHeight = 0;
@@ -119,6 +120,7 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
 
         mLauncher = Launcher.getLauncher(context);
         mLauncher.addOnDeviceProfileChangeListener(this);
+        mViewPool = new AllAppsViewPool(mLauncher);
 
         mSearchQueryBuilder = new SpannableStringBuilder();
         Selection.setSelection(mSearchQueryBuilder, 0);
@@ -147,6 +149,10 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
         return mAllAppsStore;
     }
 
+    public AllAppsViewPool getViewPool() {
+        return mViewPool;
+    }
+
     @Override
     protected void setDampedScrollShift(float shift) {
         // Bound the shift amount to avoid content from drawing on top (Y-val) of the QSB.
@@ -161,9 +167,10 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
                 // Remove all views and clear the pool, while keeping the data same. After this
                 // call, all the viewHolders will be recreated.
                 holder.recyclerView.swapAdapter(holder.recyclerView.getAdapter(), true);
-                holder.recyclerView.getRecycledViewPool().clear();
             }
         }
+        // Shared by all the lists
+        mViewPool.clear();
     }
 
     private void onAppsUpdated() {
@@ -183,6 +190,11 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
         }
 
         rebindAdapters(mTabsController.getShouldShowTabs(), force);
+
+        AllAppsRecyclerView rv = getActiveRecyclerView();
+        if (rv != null) {
+            mViewPool.preinflateWhenIdle(rv);
+        }
     }
 
     /**
@@ -579,6 +591,7 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
         AdapterHolder(boolean isWork) {
             appsList = new AlphabeticalAppsList(mLauncher, mAllAppsStore, isWork);
             adapter = new AllAppsGridAdapter(mLauncher, appsList);
+            adapter.setViewPool(mViewPool);
             appsList.setAdapter(adapter);
             layoutManager = adapter.getLayoutManager();
         }
@@ -589,8 +602,11 @@ public class AllAppsContainerView extends SpringRelativeLayout implements DragSo
             recyclerView.setEdgeEffectFactory(createEdgeEffectFactory());
             recyclerView.setApps(appsList, mUsingTabs);
             recyclerView.setLayoutManager(layoutManager);
+            recyclerView.setRecycledViewPool(mViewPool);
             recyclerView.setAdapter(adapter);
             recyclerView.setHasFixedSize(true);
+            // Keep a whole row attached when it scrolls out, the grid prefetches a row ahead
+            recyclerView.setItemViewCacheSize(mLauncher.getDeviceProfile().inv.numColsDrawer);
             // No animations will occur when changes occur to the items in this RecyclerView.
             recyclerView.setItemAnimator(null);
             FocusedItemDecorator focusedItemDecorator = new FocusedItemDecorator(recyclerView);
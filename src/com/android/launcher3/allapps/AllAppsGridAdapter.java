@@ -196,6 +196,7 @@ public class AllAppsGridAdapter extends RecyclerView.Adapter<AllAppsGridAdapter.
 
     private BindViewCallback mBindViewCallback;
     private OnFocusChangeListener mIconFocusListener;
+    private AllAppsViewPool mViewPool;
 
     // The text to show when there are no search results and no market search handler.
     private String mEmptySearchMessage;
@@ -232,6 +233,13 @@ public class AllAppsGridAdapter extends RecyclerView.Adapter<AllAppsGridAdapter.
         mIconFocusListener = focusListener;
     }
 
+    /**
+     * Sets the pool providing the icons inflated ahead.
+     */
+    public void setViewPool(AllAppsViewPool viewPool) {
+        mViewPool = viewPool;
+    }
+
     /**
      * Sets the last search query that was made, used to show when there are no results and to also
      * seed the intent for searching the market.
@@ -260,12 +268,17 @@ public class AllAppsGridAdapter extends RecyclerView.Adapter<AllAppsGridAdapter.
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         switch (viewType) {
             case VIEW_TYPE_ICON:
-                BubbleTextView icon = (BubbleTextView) mLayoutInflater.inflate(
-                        R.layout.all_apps_icon, parent, false);
+                BubbleTextView icon = mViewPool == null ? null : mViewPool.takeIcon();
+                if (icon == null) {
+                    icon = (BubbleTextView) mLayoutInflater.inflate(
+                            R.layout.all_apps_icon, parent, false);
+                    if (mViewPool != null) {
+                        mViewPool.onIconInflated();
+                    }
+                }
                 icon.setOnClickListener(ItemClickHandler.INSTANCE);
                 icon.setOnLongClickListener(ItemLongClickListener.INSTANCE_ALL_APPS);
                 icon.setLongPressTimeout(ViewConfiguration.getLongPressTimeout());
-                icon.setOnFocusChangeListener(mIconFocusListener);
 
                 // Ensure the all apps icon height matches the workspace icons in portrait mode.
                 icon.getLayoutParams().height = mLauncher.getDeviceProfile().allAppsCellHeightPx;
@@ -311,6 +324,8 @@ public class AllAppsGridAdapter extends RecyclerView.Adapter<AllAppsGridAdapter.
                 AppInfo info = mApps.getAdapterItems().get(position).appInfo;
                 BubbleTextView icon = (BubbleTextView) holder.itemView;
                 icon.reset();
+                // The view may have been created by the adapter of another tab
+                icon.setOnFocusChangeListener(mIconFocusListener);
                 icon.applyFromApplicationInfo(info);
                 break;
 
@@ -20,34 +20,25 @@ import android.view.ViewGroup;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.BubbleTextView;
-import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.PromiseAppInfo;
-import com.android.launcher3.folder.FolderIcon;
 import com.android.launcher3.util.ComponentKey;
-import com.android.launcher3.util.PackageUserKey;
 
 import org.zimmob.zimlx.util.DbHelper;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.WeakHashMap;
 
 /**
  * A utility class to maintain the collection of all apps.
  */
 public class AllAppsStore {
 
-    private PackageUserKey mTempKey = new PackageUserKey(null, null);
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
     private final List<OnUpdateListener> mUpdateListeners = new ArrayList<>();
     private final ArrayList<ViewGroup> mIconContainers = new ArrayList<>();
-    private final Set<FolderIcon> mFolderIcons = Collections.newSetFromMap(new WeakHashMap<>());
 
     private boolean mDeferUpdates = false;
     private boolean mUpdatePending = false;
@@ -141,38 +132,6 @@ public class AllAppsStore {
         mIconContainers.remove(container);
     }
 
-    public void registerFolderIcon(FolderIcon folderIcon) {
-        mFolderIcons.add(folderIcon);
-    }
-
-    public void updateIconBadges(Set<PackageUserKey> updatedBadges) {
-        updateAllIcons((child) -> {
-            if (child.getTag() instanceof ItemInfo) {
-                ItemInfo info = (ItemInfo) child.getTag();
-                if (mTempKey.updateFromItemInfo(info) && updatedBadges.contains(mTempKey)) {
-                    child.applyBadgeState(info, true /* animate */);
-                }
-            }
-        });
-
-        Set<FolderIcon> foldersToUpdate = new HashSet<>();
-        for (FolderIcon folderIcon : mFolderIcons) {
-            folderIcon.getFolder().iterateOverItems((info, view) -> {
-                if (mTempKey.updateFromItemInfo(info) && updatedBadges.contains(mTempKey)) {
-                    if (view instanceof BubbleTextView) {
-                        ((BubbleTextView) view).applyBadgeState(info, true);
-                    }
-                    foldersToUpdate.add(folderIcon);
-                }
-                return false;
-            });
-        }
-
-        for (FolderIcon folderIcon : foldersToUpdate) {
-            folderIcon.updateIconBadges(updatedBadges, mTempKey);
-        }
-    }
-
     public void updatePromiseAppProgress(PromiseAppInfo app) {
         updateAllIcons((child) -> {
             if (child.getTag() == app) {
@@ -0,0 +1,213 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.allapps;
+
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.launcher3.BubbleTextView;
+import com.android.launcher3.DeviceProfile;
+import com.android.launcher3.Launcher;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.MainThreadExecutor;
+import com.android.launcher3.R;
+import com.android.launcher3.util.LooperExecutor;
+import com.android.launcher3.util.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Views shared by all the apps lists: a single {@link RecyclerView.RecycledViewPool} for every
+ * tab, and icons inflated ahead on a worker thread while the launcher is idle, which are used
+ * by the lists and the predictions row before inflating on the main thread.
+ *
+ * The worker only runs the view constructors, like AsyncLayoutInflater: it uses its own
+ * LayoutInflater and no parent, so no attached view is read. {@link BubbleTextView} defers
+ * reading the device profile, the preferences, the accessibility delegate and the label
+ * preparer to {@link BubbleTextView#finishInflation}, which is called with the layout params
+ * on the main thread once the icons are handed over.
+ *
+ * All methods must be called on the main thread.
+ */
+public class AllAppsViewPool extends RecyclerView.RecycledViewPool {
+
+    private static final String TAG = "AllAppsViewPool";
+
+    // Rows inflated on top of the visible ones, for the prefetched row and the view cache
+    private static final int EXTRA_ROWS = 2;
+
+    private final Launcher mLauncher;
+    private final ArrayDeque<BubbleTextView> mPreinflatedIcons = new ArrayDeque<>();
+    private final MainThreadExecutor mMainExecutor = new MainThreadExecutor();
+    private LooperExecutor mWorkerExecutor;
+    private ViewGroup mParent;
+
+    // Incremented when the preinflated icons are dropped, to ignore pending results
+    private int mGeneration;
+    private boolean mInflating;
+    private boolean mIdleHandlerPosted;
+    private int mMainThreadInflations;
+    private int mBackgroundInflations;
+    private boolean mPreinflateEnabled = true;
+
+    public AllAppsViewPool(Launcher launcher) {
+        mLauncher = launcher;
+    }
+
+    /**
+     * Returns the number of icons needed to fill the visible rows, plus the prefetched and
+     * cached rows.
+     */
+    public int getExpectedIconCount() {
+        DeviceProfile grid = mLauncher.getDeviceProfile();
+        int rows = (int) Math.ceil((float) grid.availableHeightPx / grid.allAppsCellHeightPx);
+        return (rows + EXTRA_ROWS) * grid.inv.numColsDrawer;
+    }
+
+    /**
+     * Returns an icon inflated ahead, or null if none is left.
+     */
+    public BubbleTextView takeIcon() {
+        return mPreinflatedIcons.poll();
+    }
+
+    /**
+     * Called when an icon had to be inflated on the main thread, refills the icons inflated
+     * ahead for the next ones.
+     */
+    void onIconInflated() {
+        mMainThreadInflations++;
+        if (mParent != null) {
+            preinflateWhenIdle(mParent);
+        }
+    }
+
+    public int getMainThreadInflations() {
+        return mMainThreadInflations;
+    }
+
+    public int getPreinflatedIconCount() {
+        return mPreinflatedIcons.size();
+    }
+
+    public int getBackgroundInflations() {
+        return mBackgroundInflations;
+    }
+
+    /**
+     * Turns the icons inflated ahead on or off, so that tests can compare with inflating every
+     * icon on the main thread.
+     */
+    @VisibleForTesting
+    public void setPreinflateEnabled(boolean enabled) {
+        mPreinflateEnabled = enabled;
+        if (!enabled) {
+            super.clear();
+            mPreinflatedIcons.clear();
+            mGeneration++;
+        } else if (mParent != null) {
+            preinflateWhenIdle(mParent);
+        }
+    }
+
+    /**
+     * Inflates the missing icons on a worker thread, once the main thread is idle.
+     *
+     * @param parent the list which will use the icons, they are only inflated ahead while it is
+     *               set
+     */
+    public void preinflateWhenIdle(ViewGroup parent) {
+        Preconditions.assertUIThread();
+        mParent = parent;
+        if (!mPreinflateEnabled || mIdleHandlerPosted || mInflating) {
+            return;
+        }
+        mIdleHandlerPosted = true;
+        Looper.myQueue().addIdleHandler(() -> {
+            mIdleHandlerPosted = false;
+            if (mParent != null && mPreinflateEnabled) {
+                preinflate();
+            }
+            return false;
+        });
+    }
+
+    private void preinflate() {
+        int count = getExpectedIconCount() - mPreinflatedIcons.size()
+                - getRecycledViewCount(AllAppsGridAdapter.VIEW_TYPE_ICON);
+        if (count <= 0) {
+            return;
+        }
+        mInflating = true;
+        final int generation = mGeneration;
+        // LayoutInflater isn't thread safe, use a separate instance
+        final LayoutInflater inflater = LayoutInflater.from(mLauncher).cloneInContext(mLauncher);
+        getWorkerExecutor().execute(() -> {
+            ArrayList<BubbleTextView> icons = new ArrayList<>(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    icons.add((BubbleTextView) inflater.inflate(
+                            R.layout.all_apps_icon, null, false));
+                }
+            } catch (RuntimeException e) {
+                // The remaining icons will be inflated on the main thread when needed
+                Log.w(TAG, "Failed to inflate icons in the background", e);
+            }
+            mMainExecutor.execute(() -> {
+                mInflating = false;
+                if (generation != mGeneration) {
+                    return;
+                }
+                for (BubbleTextView icon : icons) {
+                    icon.finishInflation();
+                    // Same as all_apps_icon.xml, the lists set the height when binding
+                    icon.setLayoutParams(new RecyclerView.LayoutParams(
+                            ViewGroup.LayoutParams.MATCH_PARENT,
+                            ViewGroup.LayoutParams.WRAP_CONTENT));
+                }
+                mBackgroundInflations += icons.size();
+                mPreinflatedIcons.addAll(icons);
+            });
+        });
+    }
+
+    private LooperExecutor getWorkerExecutor() {
+        if (mWorkerExecutor == null) {
+            mWorkerExecutor = new LooperExecutor(LauncherModel.getUiWorkerLooper());
+        }
+        return mWorkerExecutor;
+    }
+
+    /**
+     * Drops the recycled views and the icons inflated ahead, eg. after the device profile
+     * changed.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        mPreinflatedIcons.clear();
+        mParent = null;
+        mGeneration++;
+    }
+}
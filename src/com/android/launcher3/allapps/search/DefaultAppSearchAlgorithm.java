@@ -28,6 +28,7 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.util.ComponentKey;
 
 import org.zimmob.zimlx.ZimAppFilter;
@@ -72,7 +73,9 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
     @Override
     public void doSearch(final String query,
                          final AllAppsSearchBarController.Callbacks callback) {
+        long start = Profiler.SEARCH_QUERY.start();
         final ArrayList<ComponentKey> result = getTitleMatchResult(query);
+        Profiler.SEARCH_QUERY.end(start);
         final List<String> suggestions = getSuggestions(query);
         mResultHandler.post(new Runnable() {
 
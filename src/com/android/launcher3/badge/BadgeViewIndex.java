@@ -0,0 +1,112 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.badge;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.util.PackageUserKey;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Index of the views showing notification badges, by the packages and users of the items they
+ * show, so that a badge change only updates the views of the affected packages instead of
+ * walking every icon container.
+ *
+ * Views are indexed while they are attached to the window. A detached view, eg. in a closed
+ * folder or recycled by a list, misses badge changes and must refresh its badge when it gets
+ * attached again. Must be accessed on the UI thread.
+ */
+public class BadgeViewIndex {
+
+    /**
+     * A view showing the badges of one or more packages.
+     */
+    public interface BadgeTarget {
+        /**
+         * Called when the badges of some of the packages shown by this view changed.
+         *
+         * @param tmpKey a key which can be updated to look up {@param updatedBadges}
+         */
+        void onBadgesChanged(Set<PackageUserKey> updatedBadges, PackageUserKey tmpKey);
+    }
+
+    private final HashMap<PackageUserKey, HashSet<BadgeTarget>> mTargets = new HashMap<>();
+    private final HashMap<BadgeTarget, Collection<PackageUserKey>> mKeys = new HashMap<>();
+    private final PackageUserKey mTempKey = new PackageUserKey(null, null);
+
+    /**
+     * Returns the key {@param info} is indexed by, or null if it can't have a badge.
+     */
+    public static PackageUserKey getKey(ItemInfo info) {
+        return info != null && DeepShortcutManager.supportsShortcuts(info)
+                ? PackageUserKey.fromItemInfo(info) : null;
+    }
+
+    /**
+     * Indexes {@param target} by {@param keys}, replacing its previous keys.
+     */
+    public void put(BadgeTarget target, Collection<PackageUserKey> keys) {
+        remove(target);
+        if (keys.isEmpty()) {
+            return;
+        }
+        mKeys.put(target, keys);
+        for (PackageUserKey key : keys) {
+            HashSet<BadgeTarget> targets = mTargets.get(key);
+            if (targets == null) {
+                targets = new HashSet<>();
+                mTargets.put(key, targets);
+            }
+            targets.add(target);
+        }
+    }
+
+    public void remove(BadgeTarget target) {
+        Collection<PackageUserKey> keys = mKeys.remove(target);
+        if (keys == null) {
+            return;
+        }
+        for (PackageUserKey key : keys) {
+            HashSet<BadgeTarget> targets = mTargets.get(key);
+            if (targets != null && targets.remove(target) && targets.isEmpty()) {
+                mTargets.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Notifies the views showing any of {@param updatedBadges}, each view once.
+     */
+    public void onBadgesChanged(Set<PackageUserKey> updatedBadges) {
+        LinkedHashSet<BadgeTarget> targets = new LinkedHashSet<>();
+        for (PackageUserKey key : updatedBadges) {
+            HashSet<BadgeTarget> keyTargets = mTargets.get(key);
+            if (keyTargets != null) {
+                targets.addAll(keyTargets);
+            }
+        }
+        for (BadgeTarget target : targets) {
+            target.onBadgesChanged(updatedBadges, mTempKey);
+        }
+    }
+}
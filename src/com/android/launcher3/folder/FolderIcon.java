@@ -57,6 +57,7 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.Workspace;
 import com.android.launcher3.anim.Interpolators;
 import com.android.launcher3.badge.BadgeRenderer;
+import com.android.launcher3.badge.BadgeViewIndex;
 import com.android.launcher3.badge.FolderBadgeInfo;
 import com.android.launcher3.dragndrop.BaseItemDragListener;
 import com.android.launcher3.dragndrop.DragLayer;
@@ -77,6 +78,7 @@ import org.zimmob.zimlx.gestures.handlers.ViewSwipeUpGestureHandler;
 import org.zimmob.zimlx.groups.DrawerFolderInfo;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -86,7 +88,8 @@ import static com.android.launcher3.folder.PreviewItemManager.INITIAL_ITEM_ANIMA
 /**
  * An icon that can appear on in the workspace representing an {@link Folder}.
  */
-public class FolderIcon extends FrameLayout implements FolderListener, Launcher.OnResumeCallback {
+public class FolderIcon extends FrameLayout implements FolderListener, Launcher.OnResumeCallback,
+        BadgeViewIndex.BadgeTarget {
     @Thunk
     Launcher mLauncher;
     @Thunk
@@ -190,7 +193,6 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         if (folderInfo instanceof DrawerFolderInfo) {
             lp.topMargin = grid.allAppsIconSizePx + grid.allAppsIconDrawablePaddingPx;
             icon.mBackground = new PreviewBackground(true);
-            ((DrawerFolderInfo) folderInfo).getAppsStore().registerFolderIcon(icon);
         } else {
             lp.topMargin = grid.iconSizePx + grid.iconDrawablePaddingPx;
         }
@@ -563,12 +565,7 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         if (mFolder == null) return;
         if (mFolder.getItemCount() == 0 && !mAnimating) return;
 
-        final int saveCount = canvas.save();
-        canvas.clipPath(mBackground.getClipPath());
-
-        mPreviewItemManager.draw(canvas);
-
-        canvas.restoreToCount(saveCount);
+        mPreviewItemManager.drawClipped(canvas);
 
         if (!mBackground.drawingDelegated()) {
             mBackground.drawBackgroundStroke(canvas);
@@ -651,6 +648,12 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         }
     }
 
+    @Override
+    public void invalidateDrawable(@NonNull Drawable drawable) {
+        mPreviewItemManager.onPreviewDrawableInvalidated(drawable);
+        super.invalidateDrawable(drawable);
+    }
+
     @Override
     protected boolean verifyDrawable(@NonNull Drawable who) {
         return mPreviewItemManager.verifyDrawable(who) || super.verifyDrawable(who);
@@ -665,6 +668,9 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         updatePreviewItems(animate);
         invalidate();
         requestLayout();
+        if (isAttachedToWindow()) {
+            updateBadgeKeys();
+        }
     }
 
     private void updatePreviewItems(boolean animate) {
@@ -685,6 +691,9 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         updateBadgeScale(wasBadged, isBadged);
         invalidate();
         requestLayout();
+        if (isAttachedToWindow()) {
+            updateBadgeKeys();
+        }
     }
 
     @Override
@@ -695,6 +704,9 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         updateBadgeScale(wasBadged, isBadged);
         invalidate();
         requestLayout();
+        if (isAttachedToWindow()) {
+            updateBadgeKeys();
+        }
     }
 
     @Override
@@ -843,12 +855,48 @@ public class FolderIcon extends FrameLayout implements FolderListener, Launcher.
         setStayPressed(false);
     }
 
-    public void updateIconBadges(Set<PackageUserKey> updatedBadges, PackageUserKey tmpKey) {
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mInfo != null) {
+            // Badge changes aren't applied while detached, eg. in a closed drawer folder
+            refreshBadgeInfo();
+            updateBadgeKeys();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mLauncher.getBadgeViewIndex().remove(this);
+    }
+
+    private void updateBadgeKeys() {
+        HashSet<PackageUserKey> keys = new HashSet<>();
+        for (ShortcutInfo si : mInfo.contents) {
+            PackageUserKey key = BadgeViewIndex.getKey(si);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        mLauncher.getBadgeViewIndex().put(this, keys);
+    }
+
+    @Override
+    public void onBadgesChanged(Set<PackageUserKey> updatedBadges, PackageUserKey tmpKey) {
+        updateIconBadges(updatedBadges, tmpKey);
+    }
+
+    private void refreshBadgeInfo() {
         FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
         for (ShortcutInfo si : mInfo.contents) {
             folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
         }
         setBadgeInfo(folderBadgeInfo);
+    }
+
+    public void updateIconBadges(Set<PackageUserKey> updatedBadges, PackageUserKey tmpKey) {
+        refreshBadgeInfo();
 
         if (isCoverMode()) {
             ShortcutInfo coverInfo = getCoverInfo();
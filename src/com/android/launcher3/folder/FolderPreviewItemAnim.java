@@ -68,12 +68,18 @@ class FolderPreviewItemAnim {
             }
         });
         mValueAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationStart(Animator animation) {
+                previewItemManager.onPreviewAnimationStart();
+            }
+
             @Override
             public void onAnimationEnd(Animator animation) {
                 if (onCompleteRunnable != null) {
                     onCompleteRunnable.run();
                 }
                 params.anim = null;
+                previewItemManager.onPreviewAnimationEnd();
             }
         });
         mValueAnimator.setDuration(duration);
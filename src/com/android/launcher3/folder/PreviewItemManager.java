@@ -19,7 +19,9 @@ package com.android.launcher3.folder;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.view.View;
@@ -28,6 +30,9 @@ import android.widget.TextView;
 import com.android.launcher3.BubbleTextView;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.graphics.BitmapRenderer;
+
+import org.zimmob.zimlx.folder.FolderShape;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -61,6 +66,14 @@ public class PreviewItemManager {
     private float mCurrentPageItemsTransX = 0;
     private boolean mShouldSlideInFirstPage;
 
+    // Rendering of the clipped preview items, reused across frames until the contents, the
+    // folder shape or the preview size change. Not used while preview items are animating.
+    private final Paint mCachedPreviewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Bitmap mCachedPreview;
+    private FolderShape mCachedPreviewShape;
+    private boolean mCachedPreviewValid = false;
+    private int mRunningPreviewAnimations = 0;
+
     static final int INITIAL_ITEM_ANIMATION_DURATION = 350;
     private static final int FINAL_ITEM_ANIMATION_DURATION = 200;
 
@@ -165,9 +178,62 @@ public class PreviewItemManager {
     }
 
     public void onParamsChanged() {
+        mCachedPreviewValid = false;
         mIcon.invalidate();
     }
 
+    void onPreviewAnimationStart() {
+        mRunningPreviewAnimations++;
+    }
+
+    void onPreviewAnimationEnd() {
+        mRunningPreviewAnimations--;
+        invalidatePreviewCache();
+    }
+
+    /**
+     * Marks the cached preview as stale, it will be re-rendered on the next draw.
+     */
+    public void invalidatePreviewCache() {
+        mCachedPreviewValid = false;
+    }
+
+    private boolean canUseCachedPreview(PreviewBackground bg) {
+        return mRunningPreviewAnimations == 0 && mCurrentPageParams.isEmpty()
+                && bg.mScale == 1f && bg.previewSize > 0;
+    }
+
+    /**
+     * Draws the preview items clipped to the folder shape. While nothing in the preview is
+     * animating, the items are rendered once into a bitmap which is then reused on every frame.
+     */
+    public void drawClipped(Canvas canvas) {
+        final PreviewBackground bg = mIcon.getFolderBackground();
+        if (!canUseCachedPreview(bg)) {
+            mCachedPreviewValid = false;
+            final int saveCount = canvas.save();
+            canvas.clipPath(bg.getClipPath());
+            draw(canvas);
+            canvas.restoreToCount(saveCount);
+            return;
+        }
+
+        final int size = bg.previewSize;
+        if (!mCachedPreviewValid || mCachedPreview == null
+                || mCachedPreviewShape != FolderShape.sInstance
+                || mCachedPreview.getWidth() != size) {
+            mCachedPreview = BitmapRenderer.createHardwareBitmap(size, size, c -> {
+                c.translate(-bg.basePreviewOffsetX, -bg.basePreviewOffsetY);
+                c.clipPath(bg.getClipPath());
+                draw(c);
+            });
+            mCachedPreviewShape = FolderShape.sInstance;
+            mCachedPreviewValid = true;
+        }
+        canvas.drawBitmap(mCachedPreview, bg.basePreviewOffsetX, bg.basePreviewOffsetY,
+                mCachedPreviewPaint);
+    }
+
     private void drawPreviewItem(Canvas canvas, PreviewItemDrawingParams params) {
         canvas.save();
         canvas.translate(params.transX, params.transY);
@@ -195,12 +261,14 @@ public class PreviewItemManager {
                 mFirstPageParams.get(index) : null;
         if (params != null) {
             params.hidden = hidden;
+            mCachedPreviewValid = false;
         }
     }
 
     void buildParamsForPage(int page, ArrayList<PreviewItemDrawingParams> params, boolean animate) {
         List<BubbleTextView> items = mIcon.getPreviewItemsOnPage(page);
         int prevNumItems = params.size();
+        mCachedPreviewValid = false;
 
         // We adjust the size of the list to match the number of items in the preview.
         while (items.size() < params.size()) {
@@ -247,6 +315,8 @@ public class PreviewItemManager {
         // If we are not closing on the first page, we animate the current page preview items
         // out, and animate the first page preview items in.
         mShouldSlideInFirstPage = currentPage != 0;
+        // Preview drawables were detached while the folder was open and may have changed.
+        mCachedPreviewValid = false;
         if (mShouldSlideInFirstPage) {
             mCurrentPageItemsTransX = 0;
             buildParamsForPage(currentPage, mCurrentPageParams, false);
@@ -276,6 +346,15 @@ public class PreviewItemManager {
         buildParamsForPage(0, mFirstPageParams, animate);
     }
 
+    /**
+     * Called when one of the preview drawables requested a redraw.
+     */
+    void onPreviewDrawableInvalidated(@NonNull Drawable who) {
+        if (verifyDrawable(who)) {
+            mCachedPreviewValid = false;
+        }
+    }
+
     boolean verifyDrawable(@NonNull Drawable who) {
         for (int i = 0; i < mFirstPageParams.size(); i++) {
             if (mFirstPageParams.get(i).drawable == who) {
@@ -0,0 +1,293 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.logging;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.content.Context;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import com.android.launcher3.LauncherState;
+import com.android.launcher3.util.Preconditions;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects frame times while a launcher state transition or a page scroll is running, using
+ * {@link Choreographer} frame callbacks. Frames are aggregated per section in a histogram along
+ * with the number of dropped frames.
+ *
+ * Nothing is tracked (and no callback is posted) unless enabled from the developer options.
+ * All methods must be called on the UI thread, except for {@link #dump}.
+ */
+public final class FrameStats {
+
+    public static final int CHANNEL_STATE = 0;
+    public static final int CHANNEL_SCROLL = 1;
+    private static final int CHANNEL_COUNT = 2;
+
+    // Upper bounds of the histogram buckets, in ms. The last bucket holds the longer frames.
+    private static final int[] BUCKETS_MS = {8, 12, 17, 25, 34, 50, 100};
+
+    private static boolean sEnabled = false;
+    private static long sFrameIntervalNanos = 16_666_667;
+
+    private static final String[] sActiveSections = new String[CHANNEL_COUNT];
+    private static final Map<String, Section> sSections = new LinkedHashMap<>();
+    private static final FrameCallback sFrameCallback = new FrameCallback();
+
+    private FrameStats() { }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        Preconditions.assertUIThread();
+        if (sEnabled == enabled) {
+            return;
+        }
+        sEnabled = enabled;
+        if (enabled) {
+            WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+            float refreshRate = wm == null ? 0 : wm.getDefaultDisplay().getRefreshRate();
+            if (refreshRate > 0) {
+                sFrameIntervalNanos = (long) (1_000_000_000L / refreshRate);
+            }
+        } else {
+            for (int i = 0; i < CHANNEL_COUNT; i++) {
+                sActiveSections[i] = null;
+            }
+            sFrameCallback.stop();
+        }
+    }
+
+    /**
+     * Attributes the next frames to {@param section}, until {@link #end} is called for the
+     * channel. Starting a section ends the previous section of the same channel.
+     */
+    public static void begin(int channel, String section) {
+        if (!sEnabled) {
+            return;
+        }
+        sActiveSections[channel] = section;
+        sFrameCallback.start();
+    }
+
+    public static void end(int channel) {
+        if (!sEnabled || sActiveSections[channel] == null) {
+            return;
+        }
+        sActiveSections[channel] = null;
+        for (String active : sActiveSections) {
+            if (active != null) {
+                return;
+            }
+        }
+        sFrameCallback.stop();
+    }
+
+    /**
+     * Returns a listener tracking the frames of a state transition animation, from its start
+     * until it ends or gets cancelled.
+     */
+    public static Animator.AnimatorListener newTransitionListener(LauncherState fromState,
+                                                                  LauncherState toState) {
+        final String section = "state " + getStateName(fromState) + " -> "
+                + getStateName(toState);
+        return new AnimatorListenerAdapter() {
+            private boolean mRunning;
+
+            @Override
+            public void onAnimationStart(Animator animation) {
+                mRunning = true;
+                begin(CHANNEL_STATE, section);
+            }
+
+            @Override
+            public void onAnimationCancel(Animator animation) {
+                onAnimationEnd(animation);
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // Don't end a section started by a newer transition
+                if (mRunning && section.equals(sActiveSections[CHANNEL_STATE])) {
+                    end(CHANNEL_STATE);
+                }
+                mRunning = false;
+            }
+        };
+    }
+
+    private static String getStateName(LauncherState state) {
+        if (state == LauncherState.NORMAL) {
+            return "NORMAL";
+        } else if (state == LauncherState.ALL_APPS) {
+            return "ALL_APPS";
+        } else if (state == LauncherState.OVERVIEW) {
+            return "OVERVIEW";
+        } else if (state == LauncherState.FAST_OVERVIEW) {
+            return "FAST_OVERVIEW";
+        } else if (state == LauncherState.SPRING_LOADED) {
+            return "SPRING_LOADED";
+        } else if (state == LauncherState.OPTIONS) {
+            return "OPTIONS";
+        }
+        return state.getClass().getSimpleName() + state.ordinal;
+    }
+
+    public static void reset() {
+        synchronized (sSections) {
+            sSections.clear();
+        }
+    }
+
+    private static void onFrame(long frameIntervalNanos) {
+        synchronized (sSections) {
+            for (String name : sActiveSections) {
+                if (name == null) {
+                    continue;
+                }
+                Section section = sSections.get(name);
+                if (section == null) {
+                    section = new Section();
+                    sSections.put(name, section);
+                }
+                section.addFrame(frameIntervalNanos);
+            }
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        if (!sEnabled) {
+            writer.println(prefix + "FrameStats: disabled");
+            return;
+        }
+        ArrayList<Map.Entry<String, Section>> sections;
+        synchronized (sSections) {
+            sections = new ArrayList<>(sSections.entrySet());
+            writer.println(prefix + "FrameStats: frameInterval="
+                    + String.format(Locale.US, "%.2fms", sFrameIntervalNanos / 1e6f));
+            StringBuilder header = new StringBuilder(prefix).append("\t  buckets(ms):");
+            for (int bound : BUCKETS_MS) {
+                header.append(" <").append(bound);
+            }
+            header.append(" >=").append(BUCKETS_MS[BUCKETS_MS.length - 1]);
+            writer.println(header);
+            for (Map.Entry<String, Section> e : sections) {
+                writer.println(prefix + "\t" + e.getKey() + ": " + e.getValue());
+            }
+        }
+        if (sections.isEmpty()) {
+            writer.println(prefix + "\tno frames recorded");
+        }
+    }
+
+    /**
+     * Returns the collected stats, as printed by {@link #dump}.
+     */
+    public static String getSummary() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump("", writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    private static class Section {
+        final int[] histogram = new int[BUCKETS_MS.length + 1];
+        int frames;
+        int droppedFrames;
+        long totalNanos;
+        long maxNanos;
+
+        void addFrame(long nanos) {
+            frames++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            // A frame taking n vsync intervals replaced n - 1 frames
+            long missed = (nanos + sFrameIntervalNanos / 2) / sFrameIntervalNanos - 1;
+            if (missed > 0) {
+                droppedFrames += missed;
+            }
+            long ms = nanos / 1_000_000;
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && ms >= BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            histogram[bucket]++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("frames=").append(frames)
+                    .append(" dropped=").append(droppedFrames)
+                    .append(String.format(Locale.US, " avg=%.1fms max=%.1fms",
+                            frames == 0 ? 0 : totalNanos / 1e6f / frames, maxNanos / 1e6f))
+                    .append(" histogram=[");
+            for (int i = 0; i < histogram.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(histogram[i]);
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+    /**
+     * Measures the interval between consecutive frames while a section is active.
+     */
+    private static class FrameCallback implements Choreographer.FrameCallback {
+        private boolean mPosted;
+        private long mLastFrameTimeNanos;
+
+        void start() {
+            if (!mPosted) {
+                mPosted = true;
+                mLastFrameTimeNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            if (mPosted) {
+                mPosted = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mPosted) {
+                return;
+            }
+            if (mLastFrameTimeNanos != 0) {
+                onFrame(frameTimeNanos - mLastFrameTimeNanos);
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.logging;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers and counters placed on the launcher hot paths. Every probe is declared here so that
+ * recording never looks up or allocates anything: a timer keeps its count, total and max
+ * durations and a log-linear histogram in atomic fields, and durations over its threshold are
+ * also kept in a ring buffer of recent slow events.
+ *
+ * Usage:
+ * <pre>
+ *     long start = Profiler.ICON_CACHE_LOOKUP.start();
+ *     ...
+ *     Profiler.ICON_CACHE_LOOKUP.end(start);
+ * </pre>
+ *
+ * Nothing is recorded unless enabled from the developer options, in which case the probes are a
+ * single boolean check. The stats are printed by {@link #dump}, and can be exported with
+ * $ adb shell dumpsys activity com.android.launcher3.Launcher --profiler-export
+ */
+public final class Profiler {
+
+    // Each power of 2 is split in 2^SUB_BUCKET_BITS buckets, for at most 25% of error
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Durations are recorded in µs, the last bucket holds the ones over 2^MAX_EXPONENT µs (~18min)
+    private static final int MAX_EXPONENT = 30;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + 1;
+
+    private static final int SLOW_EVENT_COUNT = 64;
+
+    private static final ArrayList<Probe> sProbes = new ArrayList<>();
+
+    public static final Timer ICON_CACHE_LOOKUP = timer("IconCache.cacheLocked", 8);
+    public static final Counter ICON_CACHE_MISSES = counter("IconCache.misses");
+    public static final Timer LOADER_BIND_SNAPSHOT = timer("LoaderTask.bindWorkspaceSnapshot", 50);
+    public static final Timer LOADER_WORKSPACE = timer("LoaderTask.loadWorkspace", 200);
+    public static final Timer LOADER_BIND_WORKSPACE = timer("LoaderTask.bindWorkspace", 100);
+    public static final Timer LOADER_ALL_APPS = timer("LoaderTask.loadAllApps", 200);
+    public static final Timer LOADER_BIND_ALL_APPS = timer("LoaderTask.bindAllApps", 100);
+    public static final Timer LOADER_UPDATE_ICON_CACHE = timer("LoaderTask.updateIconCache", 200);
+    public static final Timer LOADER_DEEP_SHORTCUTS = timer("LoaderTask.loadDeepShortcuts", 100);
+    public static final Timer LOADER_WIDGETS = timer("LoaderTask.loadWidgets", 200);
+    public static final Timer BUBBLE_TEXT_VIEW_BIND = timer("BubbleTextView.bind", 2);
+    public static final Timer SEARCH_QUERY = timer("AllAppsSearch.query", 16);
+    public static final Timer MODEL_WRITER_UPDATE = timer("ModelWriter.update", 50);
+
+    private static volatile boolean sEnabled = false;
+
+    // Ring buffer of the slow events, entries may be torn while being overwritten
+    private static final AtomicInteger sNextSlowEvent = new AtomicInteger();
+    private static final int[] sSlowEventProbes = new int[SLOW_EVENT_COUNT];
+    private static final long[] sSlowEventTimes = new long[SLOW_EVENT_COUNT];
+    private static final long[] sSlowEventDurations = new long[SLOW_EVENT_COUNT];
+
+    private Profiler() { }
+
+    private static Timer timer(String name, long slowThresholdMs) {
+        Timer timer = new Timer(sProbes.size(), name, slowThresholdMs * 1_000_000);
+        sProbes.add(timer);
+        return timer;
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(sProbes.size(), name);
+        sProbes.add(counter);
+        return counter;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static void reset() {
+        for (Probe probe : sProbes) {
+            probe.reset();
+        }
+        for (int i = 0; i < SLOW_EVENT_COUNT; i++) {
+            sSlowEventTimes[i] = 0;
+        }
+    }
+
+    /**
+     * Returns the histogram bucket of a duration of {@param micros}.
+     */
+    static int getBucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        if (micros >= 1L << MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        long mantissa = micros >> (exponent - SUB_BUCKET_BITS);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) (mantissa - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the smallest duration in µs held by {@param bucket}.
+     */
+    static long getBucketStart(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static void addSlowEvent(Timer timer, long durationNanos) {
+        int index = sNextSlowEvent.getAndIncrement() & (SLOW_EVENT_COUNT - 1);
+        sSlowEventProbes[index] = timer.mId;
+        sSlowEventDurations[index] = durationNanos;
+        sSlowEventTimes[index] = SystemClock.uptimeMillis();
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        if (!sEnabled) {
+            writer.println(prefix + "Profiler: disabled");
+            return;
+        }
+        writer.println(prefix + "Profiler:");
+        for (Probe probe : sProbes) {
+            writer.println(prefix + "\t" + probe.mName + ": " + probe);
+        }
+
+        writer.println(prefix + "\tslow events:");
+        long now = SystemClock.uptimeMillis();
+        int next = sNextSlowEvent.get();
+        boolean empty = true;
+        // Oldest first
+        for (int i = 0; i < SLOW_EVENT_COUNT; i++) {
+            int index = (next + i) & (SLOW_EVENT_COUNT - 1);
+            long time = sSlowEventTimes[index];
+            if (time == 0) {
+                continue;
+            }
+            empty = false;
+            writer.println(prefix + "\t\t" + String.format(Locale.US, "-%.1fs %s %.1fms",
+                    (now - time) / 1000f, sProbes.get(sSlowEventProbes[index]).mName,
+                    sSlowEventDurations[index] / 1e6f));
+        }
+        if (empty) {
+            writer.println(prefix + "\t\tnone");
+        }
+    }
+
+    /**
+     * Returns the collected stats, as printed by {@link #dump}.
+     */
+    public static String getSummary() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump("", writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    /**
+     * Writes the full histograms and the slow events to {@param file} for offline analysis, as
+     * comma separated lines:
+     * <pre>
+     *     timer,name,count,totalNanos,maxNanos,bucketStartMicros:count;...
+     *     counter,name,value
+     *     slow,name,uptimeMillis,durationNanos
+     * </pre>
+     */
+    public static void export(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("# uptimeMillis=" + SystemClock.uptimeMillis());
+            for (Probe probe : sProbes) {
+                probe.export(writer);
+            }
+            int next = sNextSlowEvent.get();
+            for (int i = 0; i < SLOW_EVENT_COUNT; i++) {
+                int index = (next + i) & (SLOW_EVENT_COUNT - 1);
+                if (sSlowEventTimes[index] != 0) {
+                    writer.println("slow," + sProbes.get(sSlowEventProbes[index]).mName + ","
+                            + sSlowEventTimes[index] + "," + sSlowEventDurations[index]);
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("Failed to write " + file);
+            }
+        }
+    }
+
+    private static abstract class Probe {
+        final int mId;
+        final String mName;
+
+        Probe(int id, String name) {
+            mId = id;
+            mName = name;
+        }
+
+        abstract void reset();
+
+        abstract void export(PrintWriter writer);
+    }
+
+    /**
+     * Counts the occurrences of an event.
+     */
+    public static final class Counter extends Probe {
+        private final AtomicLong mValue = new AtomicLong();
+
+        Counter(int id, String name) {
+            super(id, name);
+        }
+
+        public void increment() {
+            if (sEnabled) {
+                mValue.incrementAndGet();
+            }
+        }
+
+        @Override
+        void reset() {
+            mValue.set(0);
+        }
+
+        @Override
+        void export(PrintWriter writer) {
+            writer.println("counter," + mName + "," + mValue.get());
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(mValue.get());
+        }
+    }
+
+    /**
+     * Records the durations of a section of code.
+     */
+    public static final class Timer extends Probe {
+        private final long mSlowThresholdNanos;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+        Timer(int id, String name, long slowThresholdNanos) {
+            super(id, name);
+            mSlowThresholdNanos = slowThresholdNanos;
+        }
+
+        /**
+         * Returns the start time to pass to {@link #end}, or 0 if the profiler is disabled.
+         */
+        public long start() {
+            return sEnabled ? System.nanoTime() : 0;
+        }
+
+        public void end(long start) {
+            if (start != 0) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        void record(long nanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+            mHistogram.incrementAndGet(getBucket(nanos / 1000));
+            if (nanos >= mSlowThresholdNanos) {
+                addSlowEvent(this, nanos);
+            }
+        }
+
+        /**
+         * Returns the duration in µs under which {@param percentile}% of the recorded durations
+         * are, rounded up to the end of its histogram bucket.
+         */
+        long getPercentileMicros(long count, int percentile) {
+            long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                seen += mHistogram.get(i);
+                if (seen >= rank) {
+                    return getBucketStart(i + 1);
+                }
+            }
+            return mMaxNanos.get() / 1000;
+        }
+
+        @Override
+        void reset() {
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mHistogram.set(i, 0);
+            }
+        }
+
+        @Override
+        void export(PrintWriter writer) {
+            StringBuilder sb = new StringBuilder("timer,").append(mName)
+                    .append(',').append(mCount.get())
+                    .append(',').append(mTotalNanos.get())
+                    .append(',').append(mMaxNanos.get()).append(',');
+            boolean first = true;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long count = mHistogram.get(i);
+                if (count != 0) {
+                    if (!first) sb.append(';');
+                    sb.append(getBucketStart(i)).append(':').append(count);
+                    first = false;
+                }
+            }
+            writer.println(sb);
+        }
+
+        @Override
+        public String toString() {
+            long count = mCount.get();
+            if (count == 0) {
+                return "count=0";
+            }
+            return String.format(Locale.US,
+                    "count=%d avg=%.2fms p50<%.2fms p90<%.2fms p99<%.2fms max=%.2fms",
+                    count, mTotalNanos.get() / 1e6f / count,
+                    getPercentileMicros(count, 50) / 1e3f,
+                    getPercentileMicros(count, 90) / 1e3f,
+                    getPercentileMicros(count, 99) / 1e3f,
+                    mMaxNanos.get() / 1e6f);
+        }
+    }
+}
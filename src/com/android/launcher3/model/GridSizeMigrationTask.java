@@ -31,7 +31,9 @@ import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.LongArrayMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 
@@ -65,6 +67,7 @@ public class GridSizeMigrationTask {
     public final ArrayList<ContentProviderOperation> mUpdateOperations = new ArrayList<>();
     protected final ArrayList<DbEntry> mCarryOver = new ArrayList<>();
     private final HashSet<String> mValidPackages;
+    private LongArrayMap<FolderItems> mFolderItems;
 
     private final int mSrcX, mSrcY;
     private final int mTrgX, mTrgY;
@@ -405,9 +408,26 @@ public class GridSizeMigrationTask {
         return finalItems;
     }
 
-    private class OptimalPlacementSolution {
+    /**
+     * Branch and bound search for the placement of {@link #itemsToPlace} with the least weight
+     * loss. A branch is cut as soon as it can not give a strictly lower weight loss than the best
+     * solution found so far, using:
+     *   1) a lower bound of the weight which will be lost because of the remaining free space,
+     *      computed by filling the free cells with the densest items first (allowing fractions).
+     *   2) the best weight loss already proven for the same item and grid occupancy.
+     * Only branches which can't lead to an accepted solution are cut, so the result is the same
+     * as the one of the exhaustive search.
+     */
+    static class OptimalPlacementSolution {
+
+        // Tolerance for the float sums of the weights being done in different orders
+        private static final float EPSILON = 1e-4f;
+        // Max number of sub placements remembered per item
+        private static final int MAX_MEMO_SIZE = 1 << 14;
+
         private final ArrayList<DbEntry> itemsToPlace;
         private final GridOccupancy occupied;
+        private final int trgX, trgY;
 
         // If set to true, item movement are not considered in move cost, leading to a more
         // linear placement.
@@ -416,6 +436,13 @@ public class GridSizeMigrationTask {
         // The first row in the grid from where the placement should start.
         private final int startY;
 
+        // For every index, the items from that index on sorted by decreasing weight per cell.
+        private final DbEntry[][] densestItems;
+        // The lower bound of the weight lost for the sub placements, keyed by occupancy.
+        private final ArrayList<HashMap<Long, Float>> memo;
+
+        private final ArrayList<DbEntry> itemsPlaced = new ArrayList<>();
+
         float lowestWeightLoss = Float.MAX_VALUE;
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
@@ -431,13 +458,66 @@ public class GridSizeMigrationTask {
             this.itemsToPlace = itemsToPlace;
             this.ignoreMove = ignoreMove;
             this.startY = startY;
+            trgX = occupied.getCountX();
+            trgY = occupied.getCountY();
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
+
+            int count = itemsToPlace.size();
+            densestItems = new DbEntry[count][];
+            for (int i = 0; i < count; i++) {
+                densestItems[i] = itemsToPlace.subList(i, count).toArray(new DbEntry[0]);
+                Arrays.sort(densestItems[i], (a, b) -> Float.compare(
+                        b.weight / getMinArea(b), a.weight / getMinArea(a)));
+            }
+
+            if (occupied.canPack()) {
+                memo = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    memo.add(new HashMap<>());
+                }
+            } else {
+                memo = null;
+            }
         }
 
         public void find() {
-            find(0, 0, 0, new ArrayList<DbEntry>());
+            find(0, 0, 0);
+        }
+
+        /**
+         * The smallest number of cells the item can take, as widgets can only be shrunk
+         * by one cell in each direction.
+         */
+        private static int getMinArea(DbEntry item) {
+            int w = item.spanX > item.minSpanX ? item.spanX - 1 : item.spanX;
+            int h = item.spanY > item.minSpanY ? item.spanY - 1 : item.spanY;
+            return Math.max(1, w * h);
+        }
+
+        /**
+         * Returns the minimum weight which will be lost when placing the items starting at
+         * {@param index} in the free cells.
+         */
+        private float getWeightLossLowerBound(int index) {
+            int freeCells = occupied.countVacantCells(startY);
+            float loss = 0;
+            for (DbEntry item : densestItems[index]) {
+                int area = getMinArea(item);
+                if (freeCells >= area) {
+                    freeCells -= area;
+                } else {
+                    // Only a fraction of this item fits
+                    loss += item.weight * (area - freeCells) / area;
+                    freeCells = 0;
+                }
+            }
+            return loss;
+        }
+
+        private boolean cannotImprove(float weightLoss, float minRemainingLoss) {
+            return weightLoss + minRemainingLoss - EPSILON >= lowestWeightLoss;
         }
 
         /**
@@ -446,10 +526,8 @@ public class GridSizeMigrationTask {
          * @param index       the position in {@link #itemsToPlace} to start looking at.
          * @param weightLoss  total weight loss upto this point
          * @param moveCost    total move cost upto this point
-         * @param itemsPlaced all the items already placed upto this point
          */
-        public void find(int index, float weightLoss, float moveCost,
-                         ArrayList<DbEntry> itemsPlaced) {
+        private void find(int index, float weightLoss, float moveCost) {
             if ((weightLoss >= lowestWeightLoss) ||
                     ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
                 // Abort, as we already have a better solution.
@@ -465,15 +543,39 @@ public class GridSizeMigrationTask {
                 return;
             }
 
+            if (lowestWeightLoss != Float.MAX_VALUE
+                    && cannotImprove(weightLoss, getWeightLossLowerBound(index))) {
+                return;
+            }
+
+            HashMap<Long, Float> subPlacements = memo == null ? null : memo.get(index);
+            long state = 0;
+            if (subPlacements != null) {
+                state = occupied.pack();
+                Float known = subPlacements.get(state);
+                if (known != null && cannotImprove(weightLoss, known)) {
+                    return;
+                }
+            }
+
+            placeItem(index, weightLoss, moveCost);
+
+            // Nothing better than the current solution exists below this point.
+            if (subPlacements != null && lowestWeightLoss != Float.MAX_VALUE
+                    && subPlacements.size() < MAX_MEMO_SIZE) {
+                float bound = lowestWeightLoss - weightLoss;
+                Float known = subPlacements.get(state);
+                if (known == null || known < bound) {
+                    subPlacements.put(state, bound);
+                }
+            }
+        }
+
+        private void placeItem(int index, float weightLoss, float moveCost) {
             DbEntry me = itemsToPlace.get(index);
             int myX = me.cellX;
             int myY = me.cellY;
 
-            // List of items to pass over if this item was placed.
-            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
-            itemsIncludingMe.addAll(itemsPlaced);
-            itemsIncludingMe.add(me);
-
             if (me.spanX > 1 || me.spanY > 1) {
                 // If the current item is a widget (and it greater than 1x1), try to place it at
                 // all possible positions. This is because a widget placed at one position can
@@ -481,8 +583,9 @@ public class GridSizeMigrationTask {
                 int myW = me.spanX;
                 int myH = me.spanY;
 
-                for (int y = startY; y < mTrgY; y++) {
-                    for (int x = 0; x < mTrgX; x++) {
+                itemsPlaced.add(me);
+                for (int y = startY; y < trgY; y++) {
+                    for (int x = 0; x < trgX; x++) {
                         float newMoveCost = moveCost;
                         if (x != myX) {
                             me.cellX = x;
@@ -499,7 +602,7 @@ public class GridSizeMigrationTask {
                         if (occupied.isRegionVacant(x, y, myW, myH)) {
                             // place at this position and continue search.
                             occupied.markCells(me, true);
-                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                            find(index + 1, weightLoss, newMoveCost);
                             occupied.markCells(me, false);
                         }
 
@@ -508,7 +611,7 @@ public class GridSizeMigrationTask {
                             me.spanX--;
                             occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            find(index + 1, weightLoss, newMoveCost + 1);
                             occupied.markCells(me, false);
                             me.spanX++;
                         }
@@ -518,7 +621,7 @@ public class GridSizeMigrationTask {
                             me.spanY--;
                             occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            find(index + 1, weightLoss, newMoveCost + 1);
                             occupied.markCells(me, false);
                             me.spanY++;
                         }
@@ -530,7 +633,7 @@ public class GridSizeMigrationTask {
                             me.spanY--;
                             occupied.markCells(me, true);
                             // 2 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
+                            find(index + 1, weightLoss, newMoveCost + 2);
                             occupied.markCells(me, false);
                             me.spanX++;
                             me.spanY++;
@@ -539,11 +642,12 @@ public class GridSizeMigrationTask {
                         me.cellY = myY;
                     }
                 }
+                itemsPlaced.remove(itemsPlaced.size() - 1);
 
                 // Finally also try a solution when this item is not included. Trying it in the end
                 // causes it to get skipped in most cases due to higher weight loss, and prevents
                 // unnecessary deep copies of various configurations.
-                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                find(index + 1, weightLoss + me.weight, moveCost);
             } else {
                 // Since this is a 1x1 item and all the following items are also 1x1, just place
                 // it at 'the most appropriate position' and hope for the best.
@@ -551,9 +655,9 @@ public class GridSizeMigrationTask {
                 int newDistance = Integer.MAX_VALUE;
                 int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
 
-                for (int y = startY; y < mTrgY; y++) {
-                    for (int x = 0; x < mTrgX; x++) {
-                        if (!occupied.cells[x][y]) {
+                for (int y = startY; y < trgY; y++) {
+                    for (int x = 0; x < trgX; x++) {
+                        if (!occupied.isOccupied(x, y)) {
                             int dist = ignoreMove ? 0 :
                                     ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
                             if (dist < newDistance) {
@@ -565,7 +669,7 @@ public class GridSizeMigrationTask {
                     }
                 }
 
-                if (newX < mTrgX && newY < mTrgY) {
+                if (newX < trgX && newY < trgY) {
                     float newMoveCost = moveCost;
                     if (newX != myX) {
                         me.cellX = newX;
@@ -579,7 +683,9 @@ public class GridSizeMigrationTask {
                         newMoveCost = moveCost;
                     }
                     occupied.markCells(me, true);
-                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                    itemsPlaced.add(me);
+                    find(index + 1, weightLoss, newMoveCost);
+                    itemsPlaced.remove(itemsPlaced.size() - 1);
                     occupied.markCells(me, false);
                     me.cellX = myX;
                     me.cellY = myY;
@@ -592,14 +698,14 @@ public class GridSizeMigrationTask {
                     //      anyway be same.
                     if (index + 1 < itemsToPlace.size()
                             && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
-                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                        find(index + 1, weightLoss + me.weight, moveCost);
                     }
                 } else {
                     // No more space. Jump to the end.
                     for (int i = index + 1; i < itemsToPlace.size(); i++) {
                         weightLoss += itemsToPlace.get(i).weight;
                     }
-                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost);
                 }
             }
         }
@@ -772,21 +878,47 @@ public class GridSizeMigrationTask {
      * @return the number of valid items in the folder.
      */
     private int getFolderItemsCount(long folderId) {
+        if (mFolderItems == null) {
+            mFolderItems = loadFolderItems();
+        }
+        FolderItems items = mFolderItems.get(folderId);
+        if (items == null) {
+            return 0;
+        }
+        mEntryToRemove.addAll(items.invalidIds);
+        return items.validCount;
+    }
+
+    /**
+     * Loads the items of all the folders at once.
+     */
+    private LongArrayMap<FolderItems> loadFolderItems() {
         Cursor c = queryWorkspace(
-                new String[]{Favorites._ID, Favorites.INTENT},
-                Favorites.CONTAINER + " = " + folderId);
+                new String[]{Favorites._ID, Favorites.INTENT, Favorites.CONTAINER},
+                Favorites.CONTAINER + " >= 0");
 
-        int total = 0;
+        LongArrayMap<FolderItems> folders = new LongArrayMap<>();
         while (c.moveToNext()) {
+            long folderId = c.getLong(2);
+            FolderItems items = folders.get(folderId);
+            if (items == null) {
+                items = new FolderItems();
+                folders.put(folderId, items);
+            }
             try {
                 verifyIntent(c.getString(1));
-                total++;
+                items.validCount++;
             } catch (Exception e) {
-                mEntryToRemove.add(c.getLong(0));
+                items.invalidIds.add(c.getLong(0));
             }
         }
         c.close();
-        return total;
+        return folders;
+    }
+
+    private static class FolderItems {
+        int validCount;
+        final ArrayList<Long> invalidIds = new ArrayList<>();
     }
 
     protected Cursor queryWorkspace(String[] columns, String where) {
@@ -865,7 +997,7 @@ public class GridSizeMigrationTask {
         }
     }
 
-    private static ArrayList<DbEntry> deepCopy(ArrayList<DbEntry> src) {
+    static ArrayList<DbEntry> deepCopy(ArrayList<DbEntry> src) {
         ArrayList<DbEntry> dup = new ArrayList<>(src.size());
         for (DbEntry e : src) {
             dup.add(e.copy());
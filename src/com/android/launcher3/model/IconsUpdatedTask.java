@@ -0,0 +1,105 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.ComponentName;
+import android.os.UserHandle;
+
+import com.android.launcher3.AllAppsList;
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.IconCache;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Invalidates the icons of a precise set of components, without reloading their packages.
+ * All affected items are regenerated in one pass and bound in a single callback.
+ */
+public class IconsUpdatedTask extends BaseModelUpdateTask {
+
+    private final HashSet<ComponentKey> mComponents;
+    private final Runnable mOnBound;
+
+    public IconsUpdatedTask(HashSet<ComponentKey> components) {
+        this(components, null);
+    }
+
+    /**
+     * @param onBound optional callback run on the UI thread after the updates have been bound
+     */
+    public IconsUpdatedTask(HashSet<ComponentKey> components, Runnable onBound) {
+        mComponents = components;
+        mOnBound = onBound;
+    }
+
+    @Override
+    public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList apps) {
+        IconCache iconCache = app.getIconCache();
+        iconCache.updateIconsForComponents(mComponents);
+
+        final ArrayList<AppInfo> updatedApps = new ArrayList<>();
+        final HashMap<UserHandle, ArrayList<ShortcutInfo>> updatedShortcuts = new HashMap<>();
+        synchronized (dataModel) {
+            for (ItemInfo info : dataModel.itemsIdMap) {
+                if (info instanceof ShortcutInfo
+                        && info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                    ShortcutInfo si = (ShortcutInfo) info;
+                    ComponentName cn = si.getTargetComponent();
+                    if (cn != null && mComponents.contains(new ComponentKey(cn, si.user))) {
+                        iconCache.getTitleAndIcon(si, si.usingLowResIcon);
+                        ArrayList<ShortcutInfo> list = updatedShortcuts.get(si.user);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            updatedShortcuts.put(si.user, list);
+                        }
+                        list.add(si);
+                    }
+                }
+            }
+            for (AppInfo info : apps.data) {
+                if (mComponents.contains(info.toComponentKey())) {
+                    iconCache.updateTitleAndIcon(info);
+                    updatedApps.add(info);
+                }
+            }
+        }
+
+        if (updatedApps.isEmpty() && updatedShortcuts.isEmpty() && mOnBound == null) {
+            return;
+        }
+        scheduleCallbackTask(callbacks -> {
+            for (Map.Entry<UserHandle, ArrayList<ShortcutInfo>> e : updatedShortcuts.entrySet()) {
+                callbacks.bindShortcutsChanged(e.getValue(), e.getKey());
+            }
+            if (!updatedApps.isEmpty()) {
+                callbacks.bindAppsAddedOrUpdated(updatedApps);
+            }
+            if (mOnBound != null) {
+                mOnBound.run();
+            }
+        });
+    }
+}
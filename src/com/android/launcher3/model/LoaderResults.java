@@ -21,6 +21,7 @@ import android.util.Log;
 
 import com.android.launcher3.AllAppsList;
 import com.android.launcher3.AppInfo;
+import com.android.launcher3.BubbleTextPreparer;
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.LauncherAppState;
@@ -31,7 +32,9 @@ import com.android.launcher3.MainThreadExecutor;
 import com.android.launcher3.PagedView;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.ViewOnDrawExecutor;
@@ -64,6 +67,9 @@ public class LoaderResults {
 
     private final WeakReference<Callbacks> mCallbacks;
 
+    // Snapshot bound before loading, to be reconciled by the next bindWorkspace
+    private WorkspaceSnapshot mBoundSnapshot;
+
     public LoaderResults(LauncherAppState app, BgDataModel dataModel,
                          AllAppsList allAppsList, int pageToBindFirst, WeakReference<Callbacks> callbacks) {
         mUiExecutor = new MainThreadExecutor();
@@ -74,6 +80,31 @@ public class LoaderResults {
         mCallbacks = callbacks == null ? new WeakReference<Callbacks>(null) : callbacks;
     }
 
+    /**
+     * Binds the first page saved by the last session, if any, before the workspace is loaded.
+     * Only used for the first load of the process.
+     */
+    public void bindWorkspaceSnapshot() {
+        Callbacks callbacks = mCallbacks.get();
+        if (callbacks == null || mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE) {
+            return;
+        }
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.loadOnce(mApp.getContext(),
+                mApp.getInvariantDeviceProfile());
+        if (snapshot == null || snapshot.pageIndex != callbacks.getCurrentWorkspaceScreen()) {
+            return;
+        }
+        final ArrayList<Long> orderedScreenIds = new ArrayList<>(snapshot.orderedScreenIds);
+        final ArrayList<ItemInfo> items = snapshot.createItemInfos(mApp.getContext());
+        mBoundSnapshot = snapshot;
+        mUiExecutor.execute(() -> {
+            Callbacks callbacks1 = mCallbacks.get();
+            if (callbacks1 != null) {
+                callbacks1.bindWorkspaceSnapshot(orderedScreenIds, items);
+            }
+        });
+    }
+
     /**
      * Binds all loaded data to actual views on the main thread.
      */
@@ -128,27 +159,41 @@ public class LoaderResults {
         sortWorkspaceItemsSpatially(currentWorkspaceItems);
         sortWorkspaceItemsSpatially(otherWorkspaceItems);
 
-        // Tell the workspace that we're about to start binding items
-        r = () -> {
-            Callbacks callbacks1 = mCallbacks.get();
-            if (callbacks1 != null) {
-                callbacks1.clearPendingBinds();
-                callbacks1.startBinding();
-            }
-        };
-        mUiExecutor.execute(r);
-
-        // Bind workspace screens
-        mUiExecutor.execute(() -> {
-            Callbacks callbacks12 = mCallbacks.get();
-            if (callbacks12 != null) {
-                callbacks12.bindScreens(orderedScreenIds);
-            }
-        });
+        if (validFirstPage) {
+            WorkspaceSnapshot.save(mApp.getContext(), mApp.getInvariantDeviceProfile(),
+                    currentScreen, currentScreenId, orderedScreenIds, currentWorkspaceItems);
+        }
 
         Executor mainExecutor = mUiExecutor;
-        // Load items on the current page.
-        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        WorkspaceSnapshot snapshot = mBoundSnapshot;
+        mBoundSnapshot = null;
+        if (snapshot != null && snapshot.matchesScreens(orderedScreenIds, currentScreenId)) {
+            // The first page is already showing, only bind what changed since the snapshot
+            bindSnapshotChanges(snapshot, currentWorkspaceItems, currentAppWidgets);
+        } else {
+            // Tell the workspace that we're about to start binding items
+            r = () -> {
+                Callbacks callbacks1 = mCallbacks.get();
+                if (callbacks1 != null) {
+                    callbacks1.clearPendingBinds();
+                    callbacks1.startBinding();
+                }
+            };
+            mUiExecutor.execute(r);
+
+            // Bind workspace screens
+            mUiExecutor.execute(() -> {
+                Callbacks callbacks12 = mCallbacks.get();
+                if (callbacks12 != null) {
+                    callbacks12.bindScreens(orderedScreenIds);
+                }
+            });
+
+            // Load items on the current page. Their labels are prepared first on the ui worker,
+            // binding doesn't wait for them.
+            BubbleTextPreparer.prepareWorkspaceItemsInBackground(currentWorkspaceItems);
+            bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        }
 
         // In case of validFirstPage, only bind the first screen, and defer binding the
         // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -166,6 +211,7 @@ public class LoaderResults {
             }
         });
 
+        BubbleTextPreparer.prepareWorkspaceItemsInBackground(otherWorkspaceItems);
         bindWorkspaceItems(otherWorkspaceItems, otherAppWidgets, deferredExecutor);
 
         // Tell the workspace that we're done binding items
@@ -195,6 +241,37 @@ public class LoaderResults {
     }
 
 
+    private void bindSnapshotChanges(WorkspaceSnapshot snapshot,
+                                     ArrayList<ItemInfo> currentWorkspaceItems,
+                                     ArrayList<LauncherAppWidgetInfo> currentAppWidgets) {
+        UserManagerCompat userManager = UserManagerCompat.getInstance(mApp.getContext());
+        LongArrayMap<WorkspaceSnapshot.Item> snapshotItems = snapshot.getItemsById();
+        final ArrayList<ItemInfo> unchangedItems = new ArrayList<>();
+        final ArrayList<ItemInfo> changedItems = new ArrayList<>();
+        for (ItemInfo info : currentWorkspaceItems) {
+            WorkspaceSnapshot.Item item = snapshotItems.get(info.id);
+            if (item != null
+                    && item.matches(info, userManager.getSerialNumberForUser(info.user))) {
+                unchangedItems.add(info);
+                snapshotItems.remove(info.id);
+            } else {
+                changedItems.add(info);
+            }
+        }
+        // Everything left in the snapshot is either gone or has been changed
+        final LongArrayMap<Boolean> staleItemIds = new LongArrayMap<>();
+        for (int i = 0; i < snapshotItems.size(); i++) {
+            staleItemIds.put(snapshotItems.keyAt(i), true);
+        }
+        mUiExecutor.execute(() -> {
+            Callbacks callbacks = mCallbacks.get();
+            if (callbacks != null) {
+                callbacks.reconcileWorkspaceSnapshot(staleItemIds, unchangedItems);
+            }
+        });
+        bindWorkspaceItems(changedItems, currentAppWidgets, mUiExecutor);
+    }
+
     /**
      * Filters the set of items who are directly or indirectly (via another container) on the
      * specified screen.
@@ -328,6 +405,7 @@ public class LoaderResults {
     public void bindAllApps() {
         // shallow copy
         @SuppressWarnings("unchecked") final ArrayList<AppInfo> list = (ArrayList<AppInfo>) mBgAllAppsList.data.clone();
+        BubbleTextPreparer.prepareAllAppsInBackground(list);
 
         Runnable r = () -> {
             Callbacks callbacks = mCallbacks.get();
@@ -55,6 +55,7 @@ import com.android.launcher3.folder.Folder;
 import com.android.launcher3.folder.FolderIconPreviewVerifier;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.provider.ImportDataTask;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
@@ -167,12 +168,21 @@ public class LoaderTask implements Runnable {
 
         TraceHelper.beginSection(TAG);
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
+            TraceHelper.partitionSection(TAG, "step 1.0: bind workspace snapshot");
+            long start = Profiler.LOADER_BIND_SNAPSHOT.start();
+            mResults.bindWorkspaceSnapshot();
+            Profiler.LOADER_BIND_SNAPSHOT.end(start);
+
             TraceHelper.partitionSection(TAG, "step 1.1: loading workspace");
+            start = Profiler.LOADER_WORKSPACE.start();
             loadWorkspace();
+            Profiler.LOADER_WORKSPACE.end(start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 1.2: bind workspace workspace");
+            start = Profiler.LOADER_BIND_WORKSPACE.start();
             mResults.bindWorkspace();
+            Profiler.LOADER_BIND_WORKSPACE.end(start);
 
             // Notify the installer packages of packages with active installs on the first screen.
             TraceHelper.partitionSection(TAG, "step 1.3: send first screen broadcast");
@@ -185,15 +195,21 @@ public class LoaderTask implements Runnable {
 
             // second step
             TraceHelper.partitionSection(TAG, "step 2.1: loading all apps");
+            start = Profiler.LOADER_ALL_APPS.start();
             loadAllApps();
+            Profiler.LOADER_ALL_APPS.end(start);
 
             TraceHelper.partitionSection(TAG, "step 2.2: Binding all apps");
             verifyNotStopped();
+            start = Profiler.LOADER_BIND_ALL_APPS.start();
             mResults.bindAllApps();
+            Profiler.LOADER_BIND_ALL_APPS.end(start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 2.3: Update icon cache");
+            start = Profiler.LOADER_UPDATE_ICON_CACHE.start();
             updateIconCache();
+            Profiler.LOADER_UPDATE_ICON_CACHE.end(start);
 
             // Take a break
             TraceHelper.partitionSection(TAG, "step 2 completed, wait for idle");
@@ -202,7 +218,9 @@ public class LoaderTask implements Runnable {
 
             // third step
             TraceHelper.partitionSection(TAG, "step 3.1: loading deep shortcuts");
+            start = Profiler.LOADER_DEEP_SHORTCUTS.start();
             loadDeepShortcuts();
+            Profiler.LOADER_DEEP_SHORTCUTS.end(start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 3.2: bind deep shortcuts");
@@ -215,7 +233,9 @@ public class LoaderTask implements Runnable {
 
             // fourth step
             TraceHelper.partitionSection(TAG, "step 4.1: loading widgets");
+            start = Profiler.LOADER_WIDGETS.start();
             mBgDataModel.widgetsModel.update(mApp, null);
+            Profiler.LOADER_WIDGETS.end(start);
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 4.2: Binding widgets");
@@ -40,6 +40,7 @@ import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.LauncherSettings.Settings;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.logging.Profiler;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LooperExecutor;
@@ -387,9 +388,11 @@ public class ModelWriter {
 
         @Override
         public void run() {
+            long start = Profiler.MODEL_WRITER_UPDATE.start();
             Uri uri = Favorites.getContentUri(mItemId);
             mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
             updateItemArrays(mItem, mItemId);
+            Profiler.MODEL_WRITER_UPDATE.end(start);
         }
     }
 
@@ -404,6 +407,7 @@ public class ModelWriter {
 
         @Override
         public void run() {
+            long start = Profiler.MODEL_WRITER_UPDATE.start();
             ArrayList<ContentProviderOperation> ops = new ArrayList<>();
             int count = mItems.size();
             for (int i = 0; i < count; i++) {
@@ -420,6 +424,7 @@ public class ModelWriter {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            Profiler.MODEL_WRITER_UPDATE.end(start);
         }
     }
 
@@ -0,0 +1,372 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.LooperExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact copy of the last bound first page (workspace and hotseat icons), which is bound
+ * before the real workspace has been loaded on a cold start. {@link LoaderResults} reconciles
+ * the snapshot against the loaded model and only rebinds the items which differ.
+ *
+ * Folders and widgets are never part of the snapshot, they are bound with the loaded model.
+ */
+public class WorkspaceSnapshot {
+
+    private static final String TAG = "WorkspaceSnapshot";
+
+    private static final int VERSION = 1;
+
+    // Only the first load of the process may use the snapshot
+    private static boolean sConsumed = false;
+    private static int sLastSavedSignature = 0;
+    // Saves are written one at a time, as they share the temporary file
+    private static LooperExecutor sSaveExecutor;
+
+    public final int pageIndex;
+    public final long screenId;
+    public final ArrayList<Long> orderedScreenIds;
+    public final ArrayList<Item> items;
+
+    private WorkspaceSnapshot(int pageIndex, long screenId, ArrayList<Long> orderedScreenIds,
+                              ArrayList<Item> items) {
+        this.pageIndex = pageIndex;
+        this.screenId = screenId;
+        this.orderedScreenIds = orderedScreenIds;
+        this.items = items;
+    }
+
+    /**
+     * Returns true if the snapshot was taken for the same screens and the same bound page.
+     */
+    public boolean matchesScreens(List<Long> orderedScreenIds, long currentScreenId) {
+        return screenId == currentScreenId && this.orderedScreenIds.equals(orderedScreenIds);
+    }
+
+    /**
+     * Creates the items to bind, dropping the ones whose user doesn't exist anymore.
+     */
+    public ArrayList<ItemInfo> createItemInfos(Context context) {
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        ArrayList<ItemInfo> result = new ArrayList<>(items.size());
+        for (Item item : items) {
+            UserHandle user = userManager.getUserForSerialNumber(item.userSerial);
+            if (user == null) {
+                continue;
+            }
+            try {
+                result.add(item.toShortcutInfo(user));
+            } catch (URISyntaxException e) {
+                Log.d(TAG, "Invalid intent in snapshot", e);
+            }
+        }
+        return result;
+    }
+
+    public LongArrayMap<Item> getItemsById() {
+        LongArrayMap<Item> map = new LongArrayMap<>();
+        for (Item item : items) {
+            map.put(item.id, item);
+        }
+        return map;
+    }
+
+    /**
+     * Reads the snapshot, if this is the first load of the process and it was written for the
+     * current grid.
+     */
+    public static WorkspaceSnapshot loadOnce(Context context, InvariantDeviceProfile idp) {
+        synchronized (WorkspaceSnapshot.class) {
+            if (sConsumed) {
+                return null;
+            }
+            sConsumed = true;
+        }
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION || in.readInt() != idp.numRows
+                    || in.readInt() != idp.numColumns || in.readInt() != idp.numHotseatIcons) {
+                return null;
+            }
+            int pageIndex = in.readInt();
+            long screenId = in.readLong();
+            int screenCount = in.readInt();
+            ArrayList<Long> screenIds = new ArrayList<>(screenCount);
+            for (int i = 0; i < screenCount; i++) {
+                screenIds.add(in.readLong());
+            }
+            int itemCount = in.readInt();
+            ArrayList<Item> items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                Item item = new Item(in);
+                if (item.icon != null) {
+                    items.add(item);
+                }
+            }
+            return new WorkspaceSnapshot(pageIndex, screenId, screenIds, items);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read workspace snapshot", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Saves the first page being bound. The items are copied on the calling thread and written
+     * in the background, unless they didn't change since the last save.
+     */
+    public static void save(Context context, InvariantDeviceProfile idp, int pageIndex,
+                            long screenId, ArrayList<Long> orderedScreenIds,
+                            List<? extends ItemInfo> firstPageItems) {
+        final Context appContext = context.getApplicationContext();
+        final UserManagerCompat userManager = UserManagerCompat.getInstance(appContext);
+        final ArrayList<Item> items = new ArrayList<>();
+        for (ItemInfo info : firstPageItems) {
+            if (Item.canSnapshot(info)) {
+                ShortcutInfo si = (ShortcutInfo) info;
+                items.add(new Item(si, userManager.getSerialNumberForUser(si.user)));
+            }
+        }
+        final int numRows = idp.numRows;
+        final int numColumns = idp.numColumns;
+        final int numHotseatIcons = idp.numHotseatIcons;
+        final ArrayList<Long> screenIds = new ArrayList<>(orderedScreenIds);
+        getSaveExecutor().execute(() -> {
+            // The signature hashes the compressed icons, so it is computed in the background
+            int signature = Arrays.hashCode(new Object[]{numRows, numColumns,
+                    numHotseatIcons, pageIndex, screenId, screenIds});
+            for (Item item : items) {
+                signature = 31 * signature + item.signature();
+            }
+            if (signature == sLastSavedSignature) {
+                return;
+            }
+            sLastSavedSignature = signature;
+            File file = getFile(appContext);
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(VERSION);
+                out.writeInt(numRows);
+                out.writeInt(numColumns);
+                out.writeInt(numHotseatIcons);
+                out.writeInt(pageIndex);
+                out.writeLong(screenId);
+                out.writeInt(screenIds.size());
+                for (long id : screenIds) {
+                    out.writeLong(id);
+                }
+                out.writeInt(items.size());
+                for (Item item : items) {
+                    item.write(out);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write workspace snapshot", e);
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        });
+    }
+
+    private static synchronized LooperExecutor getSaveExecutor() {
+        if (sSaveExecutor == null) {
+            sSaveExecutor = new LooperExecutor(LauncherModel.getUiWorkerLooper());
+        }
+        return sSaveExecutor;
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), LauncherFiles.WORKSPACE_SNAPSHOT);
+    }
+
+    /**
+     * A first page icon, as it was bound.
+     */
+    public static class Item {
+
+        final long id;
+        final long container;
+        final long screenId;
+        final int cellX;
+        final int cellY;
+        final int spanX;
+        final int spanY;
+        final int itemType;
+        final long userSerial;
+        final String title;
+        final String intentUri;
+        final int iconColor;
+        final Bitmap icon;
+        // The icon as written, compressed on the saving thread
+        private byte[] mIconData;
+
+        Item(ShortcutInfo info, long userSerial) {
+            id = info.id;
+            container = info.container;
+            screenId = info.screenId;
+            cellX = info.cellX;
+            cellY = info.cellY;
+            spanX = info.spanX;
+            spanY = info.spanY;
+            itemType = info.itemType;
+            this.userSerial = userSerial;
+            title = info.title == null ? "" : info.title.toString();
+            intentUri = info.intent.toUri(0);
+            iconColor = info.iconColor;
+            icon = info.iconBitmap;
+        }
+
+        private Item(DataInputStream in) throws IOException {
+            id = in.readLong();
+            container = in.readLong();
+            screenId = in.readLong();
+            cellX = in.readInt();
+            cellY = in.readInt();
+            spanX = in.readInt();
+            spanY = in.readInt();
+            itemType = in.readInt();
+            userSerial = in.readLong();
+            title = in.readUTF();
+            intentUri = in.readUTF();
+            iconColor = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            icon = BitmapFactory.decodeByteArray(data, 0, data.length);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            byte[] data = getIconData();
+            out.writeLong(id);
+            out.writeLong(container);
+            out.writeLong(screenId);
+            out.writeInt(cellX);
+            out.writeInt(cellY);
+            out.writeInt(spanX);
+            out.writeInt(spanY);
+            out.writeInt(itemType);
+            out.writeLong(userSerial);
+            out.writeUTF(title);
+            out.writeUTF(intentUri);
+            out.writeInt(iconColor);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        ShortcutInfo toShortcutInfo(UserHandle user) throws URISyntaxException {
+            ShortcutInfo info = new ShortcutInfo();
+            info.id = id;
+            info.container = container;
+            info.screenId = screenId;
+            info.cellX = cellX;
+            info.cellY = cellY;
+            info.spanX = spanX;
+            info.spanY = spanY;
+            info.itemType = itemType;
+            info.user = user;
+            info.title = title;
+            info.contentDescription = title;
+            info.intent = Intent.parseUri(intentUri, 0);
+            info.iconColor = iconColor;
+            info.iconBitmap = icon;
+            return info;
+        }
+
+        /**
+         * Returns true if the loaded {@param info} would be bound exactly like this item.
+         */
+        public boolean matches(ItemInfo info, long userSerial) {
+            if (!canSnapshot(info)) {
+                return false;
+            }
+            ShortcutInfo si = (ShortcutInfo) info;
+            return id == si.id && container == si.container && screenId == si.screenId
+                    && cellX == si.cellX && cellY == si.cellY
+                    && spanX == si.spanX && spanY == si.spanY
+                    && itemType == si.itemType && this.userSerial == userSerial
+                    && TextUtils.equals(title, si.title)
+                    && intentUri.equals(si.intent.toUri(0));
+        }
+
+        static boolean canSnapshot(ItemInfo info) {
+            if (!(info instanceof ShortcutInfo)) {
+                return false;
+            }
+            ShortcutInfo si = (ShortcutInfo) info;
+            return (si.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                    || si.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT)
+                    && si.intent != null && si.iconBitmap != null
+                    && !si.isPromise() && !si.isDisabled();
+        }
+
+        int signature() {
+            return Arrays.hashCode(new Object[]{id, container, screenId, cellX, cellY, spanX,
+                    spanY, itemType, userSerial, title, intentUri, iconColor,
+                    Arrays.hashCode(getIconData())});
+        }
+
+        /**
+         * Returns the compressed icon, which also identifies its content as the icon cache
+         * creates a new bitmap for the same icon whenever it is reloaded. The pixels of the
+         * hardware bitmaps of the icon cache can't be read directly.
+         */
+        private byte[] getIconData() {
+            if (mIconData == null) {
+                byte[] data = Utilities.flattenBitmap(icon);
+                mIconData = data == null ? new byte[0] : data;
+            }
+            return mIconData;
+        }
+    }
+}
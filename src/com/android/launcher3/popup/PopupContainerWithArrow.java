@@ -275,11 +275,16 @@ public class PopupContainerWithArrow extends ArrowPopup implements DragSource,
         // All views are added. Animate layout from now on.
         setLayoutTransition(new LayoutTransition());
 
-        // Load the shortcuts on a background thread and update the container as it animates.
+        // Show the shortcuts loaded since the icon was touched right away, otherwise load them on
+        // a background thread and update the container as it animates.
+        PopupShortcutCache.Entry loaded = mShortcuts.isEmpty() ? null
+                : PopupShortcutCache.getInstance(mLauncher).getLoaded(originalItemInfo, shortcutIds);
+        boolean shortcutsApplied = loaded != null && PopupPopulator.applyLoadedShortcuts(
+                mLauncher, loaded, this, mShortcuts, notificationKeys);
         final Looper workerLooper = LauncherModel.getWorkerLooper();
         new Handler(workerLooper).postAtFrontOfQueue(PopupPopulator.createUpdateRunnable(
                 mLauncher, originalItemInfo, new Handler(Looper.getMainLooper()),
-                this, shortcutIds, mShortcuts, notificationKeys));
+                this, shortcutIds, mShortcuts, notificationKeys, shortcutsApplied));
     }
 
     private String getTitleForAccessibility() {
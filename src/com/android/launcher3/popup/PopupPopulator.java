@@ -24,10 +24,8 @@ import android.service.notification.StatusBarNotification;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.ShortcutInfo;
-import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.notification.NotificationInfo;
 import com.android.launcher3.notification.NotificationKeyData;
-import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.DeepShortcutView;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.PackageUserKey;
@@ -123,10 +121,46 @@ public class PopupPopulator {
         return filteredShortcuts;
     }
 
+    /**
+     * Returns the shortcuts of {@param entry} to show, in order.
+     */
+    private static List<ShortcutInfoCompat> getShortcutsToShow(PopupShortcutCache.Entry entry,
+                                                               List<NotificationKeyData> notificationKeys) {
+        String shortcutIdToDeDupe = notificationKeys.isEmpty() ? null
+                : notificationKeys.get(0).shortcutId;
+        return sortAndFilterShortcuts(new ArrayList<>(entry.shortcuts), shortcutIdToDeDupe);
+    }
+
+    /**
+     * Applies the shortcuts which were loaded ahead to {@param shortcutViews}, if all their icons
+     * are loaded. Must be called on UI thread.
+     *
+     * @return true if the shortcuts were applied.
+     */
+    public static boolean applyLoadedShortcuts(Launcher launcher, PopupShortcutCache.Entry entry,
+                                               PopupContainerWithArrow container,
+                                               List<DeepShortcutView> shortcutViews,
+                                               List<NotificationKeyData> notificationKeys) {
+        List<ShortcutInfoCompat> shortcuts = getShortcutsToShow(entry, notificationKeys);
+        int count = Math.min(shortcuts.size(), shortcutViews.size());
+        ShortcutInfo[] infos = new ShortcutInfo[count];
+        for (int i = 0; i < count; i++) {
+            infos[i] = entry.createShortcutInfo(launcher, shortcuts.get(i), i, false);
+            if (infos[i] == null) {
+                return false;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            shortcutViews.get(i).applyShortcutInfo(infos[i], shortcuts.get(i), container);
+        }
+        return true;
+    }
+
     public static Runnable createUpdateRunnable(final Launcher launcher, final ItemInfo originalInfo,
                                                 final Handler uiHandler, final PopupContainerWithArrow container,
                                                 final List<String> shortcutIds, final List<DeepShortcutView> shortcutViews,
-                                                final List<NotificationKeyData> notificationKeys) {
+                                                final List<NotificationKeyData> notificationKeys,
+                                                final boolean shortcutsApplied) {
         final ComponentName activity = originalInfo.getTargetComponent();
         final UserHandle user = originalInfo.user;
         return () -> {
@@ -141,22 +175,17 @@ public class PopupPopulator {
                 uiHandler.post(() -> container.applyNotificationInfos(infos));
             }
 
-            List<ShortcutInfoCompat> shortcuts = DeepShortcutManager.getInstance(launcher)
-                    .queryForShortcutsContainer(activity, shortcutIds, user);
-            String shortcutIdToDeDupe = notificationKeys.isEmpty() ? null
-                    : notificationKeys.get(0).shortcutId;
-            shortcuts = PopupPopulator.sortAndFilterShortcuts(shortcuts, shortcutIdToDeDupe);
-            for (int i = 0; i < shortcuts.size() && i < shortcutViews.size(); i++) {
-                final ShortcutInfoCompat shortcut = shortcuts.get(i);
-                final ShortcutInfo si = new ShortcutInfo(shortcut, launcher);
-                // Use unbadged icon for the menu.
-                LauncherIcons li = LauncherIcons.obtain(launcher);
-                li.createShortcutIcon(shortcut, false /* badged */).applyTo(si);
-                li.recycle();
-                si.rank = i;
-
-                final DeepShortcutView view = shortcutViews.get(i);
-                uiHandler.post(() -> view.applyShortcutInfo(si, shortcut, container));
+            if (!shortcutsApplied) {
+                PopupShortcutCache.Entry entry = PopupShortcutCache.getInstance(launcher)
+                        .load(activity, user, shortcutIds);
+                List<ShortcutInfoCompat> shortcuts = getShortcutsToShow(entry, notificationKeys);
+                for (int i = 0; i < shortcuts.size() && i < shortcutViews.size(); i++) {
+                    final ShortcutInfoCompat shortcut = shortcuts.get(i);
+                    final ShortcutInfo si = entry.createShortcutInfo(launcher, shortcut, i, true);
+
+                    final DeepShortcutView view = shortcutViews.get(i);
+                    uiHandler.post(() -> view.applyShortcutInfo(si, shortcut, container));
+                }
             }
 
             // This ensures that mLauncher.getWidgetsForPackageUser()
@@ -0,0 +1,240 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.popup;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.UserHandle;
+import android.util.LruCache;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.graphics.BitmapInfo;
+import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.shortcuts.ShortcutInfoCompat;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps the deep shortcuts of the last touched icons along with their icons, so that a
+ * {@link PopupContainerWithArrow} can show them as soon as it opens. Loading starts when a
+ * touch goes down on an icon and is cancelled if the touch ends before a long press.
+ *
+ * Shortcuts are loaded and invalidated on the model worker thread, so that a load never
+ * overlaps with a {@link com.android.launcher3.model.ShortcutsChangedTask}.
+ */
+public class PopupShortcutCache {
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static PopupShortcutCache sInstance;
+    private static final Object sInstanceLock = new Object();
+
+    public static PopupShortcutCache getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new PopupShortcutCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final LruCache<ComponentKey, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+
+    // Only accessed on the UI thread
+    private PrefetchTask mPendingPrefetch;
+
+    private PopupShortcutCache(Context context) {
+        mContext = context;
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+    }
+
+    /**
+     * Starts loading the shortcuts of {@param info} and their icons, replacing any previous
+     * prefetch. Must be called on UI thread.
+     */
+    public void prefetch(ItemInfo info, List<String> shortcutIds) {
+        Preconditions.assertUIThread();
+        cancelPrefetch();
+        ComponentName activity = info.getTargetComponent();
+        if (activity == null || shortcutIds.isEmpty()) {
+            return;
+        }
+        ComponentKey key = new ComponentKey(activity, info.user);
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.matches(shortcutIds) && entry.hasAllIcons()) {
+            return;
+        }
+        mPendingPrefetch = new PrefetchTask(key, new ArrayList<>(shortcutIds));
+        mWorkerHandler.post(mPendingPrefetch);
+    }
+
+    /**
+     * Stops the pending prefetch, eg. when the touch which started it ended without a long press.
+     */
+    public void cancelPrefetch() {
+        if (mPendingPrefetch != null) {
+            mPendingPrefetch.mCancelled = true;
+            mWorkerHandler.removeCallbacks(mPendingPrefetch);
+            mPendingPrefetch = null;
+        }
+    }
+
+    /**
+     * Returns the loaded shortcuts of {@param info} if they are still valid, or null. A pending
+     * prefetch for the item is left running as its popup is opening. Must be called on UI thread.
+     */
+    @Nullable
+    public Entry getLoaded(ItemInfo info, List<String> shortcutIds) {
+        ComponentName activity = info.getTargetComponent();
+        if (activity == null) {
+            return null;
+        }
+        ComponentKey key = new ComponentKey(activity, info.user);
+        if (mPendingPrefetch != null && mPendingPrefetch.mKey.equals(key)) {
+            mPendingPrefetch = null;
+        }
+        Entry entry = mEntries.get(key);
+        return entry != null && entry.matches(shortcutIds) ? entry : null;
+    }
+
+    /**
+     * Returns the shortcuts of {@param activity}, querying them if they aren't loaded. Must be
+     * called on the model worker thread.
+     */
+    public Entry load(ComponentName activity, UserHandle user, List<String> shortcutIds) {
+        return load(new ComponentKey(activity, user), shortcutIds);
+    }
+
+    private Entry load(ComponentKey key, List<String> shortcutIds) {
+        Preconditions.assertWorkerThread();
+        Entry entry = mEntries.get(key);
+        if (entry == null || !entry.matches(shortcutIds)) {
+            DeepShortcutManager manager = DeepShortcutManager.getInstance(mContext);
+            entry = new Entry(new ArrayList<>(shortcutIds), manager.queryForShortcutsContainer(
+                    key.componentName, shortcutIds, key.user));
+            if (manager.wasLastCallSuccess()) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Drops the shortcuts loaded for {@param packageName}. Must be called on the model worker
+     * thread.
+     */
+    public void invalidate(String packageName, UserHandle user) {
+        Preconditions.assertWorkerThread();
+        for (ComponentKey key : mEntries.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName) && key.user.equals(user)) {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * The shortcuts shown in the popup of an activity, with the icons loaded so far.
+     */
+    public static class Entry {
+        private final List<String> mShortcutIds;
+        final List<ShortcutInfoCompat> shortcuts;
+        private final HashMap<String, BitmapInfo> mIcons = new HashMap<>();
+
+        Entry(List<String> shortcutIds, List<ShortcutInfoCompat> shortcuts) {
+            mShortcutIds = shortcutIds;
+            this.shortcuts = shortcuts;
+        }
+
+        boolean matches(List<String> shortcutIds) {
+            return mShortcutIds.equals(shortcutIds);
+        }
+
+        synchronized boolean hasAllIcons() {
+            return mIcons.size() == shortcuts.size();
+        }
+
+        /**
+         * Creates the info shown in the popup for {@param shortcut}, or returns null if its icon
+         * isn't loaded and {@param loadIcon} is false.
+         */
+        @Nullable
+        ShortcutInfo createShortcutInfo(Context context, ShortcutInfoCompat shortcut, int rank,
+                                        boolean loadIcon) {
+            BitmapInfo icon = getIcon(context, shortcut, loadIcon);
+            if (icon == null) {
+                return null;
+            }
+            ShortcutInfo si = new ShortcutInfo(shortcut, context);
+            icon.applyTo(si);
+            si.rank = rank;
+            return si;
+        }
+
+        @Nullable
+        private BitmapInfo getIcon(Context context, ShortcutInfoCompat shortcut, boolean load) {
+            synchronized (this) {
+                BitmapInfo icon = mIcons.get(shortcut.getId());
+                if (icon != null || !load) {
+                    return icon;
+                }
+            }
+            // Use unbadged icon for the menu.
+            LauncherIcons li = LauncherIcons.obtain(context);
+            BitmapInfo icon = li.createShortcutIcon(shortcut, false /* badged */);
+            li.recycle();
+            synchronized (this) {
+                mIcons.put(shortcut.getId(), icon);
+            }
+            return icon;
+        }
+    }
+
+    private class PrefetchTask implements Runnable {
+        final ComponentKey mKey;
+        private final List<String> mShortcutIds;
+        volatile boolean mCancelled;
+
+        PrefetchTask(ComponentKey key, List<String> shortcutIds) {
+            mKey = key;
+            mShortcutIds = shortcutIds;
+        }
+
+        @Override
+        public void run() {
+            Entry entry = load(mKey, mShortcutIds);
+            for (ShortcutInfoCompat shortcut : entry.shortcuts) {
+                if (mCancelled) {
+                    return;
+                }
+                entry.getIcon(mContext, shortcut, true);
+            }
+        }
+    }
+}
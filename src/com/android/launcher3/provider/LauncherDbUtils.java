@@ -21,15 +21,20 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.LauncherSettings.WorkspaceScreens;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import static android.database.sqlite.SQLiteDatabase.CREATE_IF_NECESSARY;
+import static android.database.sqlite.SQLiteDatabase.NO_LOCALIZED_COLLATORS;
+
 /**
  * A set of utility methods for Launcher DB used for DB updates and migration.
  */
@@ -118,6 +123,95 @@ public class LauncherDbUtils {
         return out;
     }
 
+    /**
+     * Copies the content of {@param db} into a new database at {@param destination}. Rows are
+     * read in a single transaction, so the copy is consistent even if the database is being
+     * written, whatever its journal mode. The destination is written through its own
+     * connection: attaching it to {@param db} would prevent write-ahead logging from being
+     * enabled on that database.
+     */
+    public static void copyDatabase(SQLiteDatabase db, File destination) {
+        // Also removes the journal a failed copy may have left
+        SQLiteDatabase.deleteDatabase(destination);
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(destination.getPath(), null,
+                CREATE_IF_NECESSARY | NO_LOCALIZED_COLLATORS);
+        try (SQLiteTransaction readTransaction = new SQLiteTransaction(db);
+             SQLiteTransaction t = new SQLiteTransaction(copy)) {
+            ArrayList<String> tables = new ArrayList<>();
+            ArrayList<String> otherSchemas = new ArrayList<>();
+            boolean hasSequence = false;
+            try (Cursor c = db.rawQuery("SELECT type, name, sql FROM sqlite_master", null)) {
+                while (c.moveToNext()) {
+                    String name = c.getString(1);
+                    if (name.equals("sqlite_sequence")) {
+                        hasSequence = true;
+                    } else if (c.isNull(2) || name.startsWith("sqlite_")
+                            || name.equals("android_metadata")) {
+                        // Created by sqlite or the framework
+                    } else if ("table".equals(c.getString(0))) {
+                        tables.add(name);
+                        copy.execSQL(c.getString(2));
+                    } else {
+                        otherSchemas.add(c.getString(2));
+                    }
+                }
+            }
+
+            for (String table : tables) {
+                copyRows(db, copy, table);
+            }
+            if (hasSequence) {
+                copy.execSQL("DELETE FROM sqlite_sequence");
+                copyRows(db, copy, "sqlite_sequence");
+            }
+            // Indices are faster to create once the rows are there, and triggers mustn't fire
+            for (String sql : otherSchemas) {
+                copy.execSQL(sql);
+            }
+            copy.setVersion(db.getVersion());
+            t.commit();
+            // Nothing was written, but rolling back would fail an enclosing transaction
+            readTransaction.commit();
+        } finally {
+            copy.close();
+        }
+    }
+
+    private static void copyRows(SQLiteDatabase from, SQLiteDatabase to, String table) {
+        try (Cursor c = from.rawQuery("SELECT * FROM \"" + table + "\"", null)) {
+            int columnCount = c.getColumnCount();
+            StringBuilder sql = new StringBuilder("INSERT INTO \"").append(table)
+                    .append("\" VALUES (");
+            for (int i = 0; i < columnCount; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            try (SQLiteStatement insert = to.compileStatement(sql.append(')').toString())) {
+                while (c.moveToNext()) {
+                    for (int i = 0; i < columnCount; i++) {
+                        switch (c.getType(i)) {
+                            case Cursor.FIELD_TYPE_NULL:
+                                insert.bindNull(i + 1);
+                                break;
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                insert.bindLong(i + 1, c.getLong(i));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                insert.bindDouble(i + 1, c.getDouble(i));
+                                break;
+                            case Cursor.FIELD_TYPE_BLOB:
+                                insert.bindBlob(i + 1, c.getBlob(i));
+                                break;
+                            default:
+                                insert.bindString(i + 1, c.getString(i));
+                                break;
+                        }
+                    }
+                    insert.executeInsert();
+                }
+            }
+        }
+    }
+
     /**
      * Utility class to simplify managing sqlite transactions
      */
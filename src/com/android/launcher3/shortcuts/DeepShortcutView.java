@@ -114,6 +114,28 @@ public class DeepShortcutView extends FrameLayout {
         mBubbleText.applyFromShortcutInfo(info);
         mIconView.setBackground(mBubbleText.getIcon());
 
+        if (mBubbleText.isLaidOut()) {
+            updateLabel();
+        } else {
+            // Applied when the popup opens, the label is chosen once its width is known
+            mBubbleText.setText(mDetail.getShortLabel());
+            mBubbleText.addOnLayoutChangeListener(new OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    v.removeOnLayoutChangeListener(this);
+                    updateLabel();
+                }
+            });
+        }
+
+        // TODO: Add the click handler to this view directly and not the child view.
+        mBubbleText.setOnClickListener(ItemClickHandler.INSTANCE);
+        mBubbleText.setOnLongClickListener(container);
+        mBubbleText.setOnTouchListener(container);
+    }
+
+    private void updateLabel() {
         // Use the long label as long as it exists and fits.
         CharSequence longLabel = mDetail.getLongLabel();
         int availableWidth = mBubbleText.getWidth() - mBubbleText.getTotalPaddingLeft()
@@ -121,11 +143,6 @@ public class DeepShortcutView extends FrameLayout {
         boolean usingLongLabel = !TextUtils.isEmpty(longLabel)
                 && mBubbleText.getPaint().measureText(longLabel.toString()) <= availableWidth;
         mBubbleText.setText(usingLongLabel ? longLabel : mDetail.getShortLabel());
-
-        // TODO: Add the click handler to this view directly and not the child view.
-        mBubbleText.setOnClickListener(ItemClickHandler.INSTANCE);
-        mBubbleText.setOnLongClickListener(container);
-        mBubbleText.setOnTouchListener(container);
     }
 
     /**
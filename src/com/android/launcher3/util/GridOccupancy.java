@@ -4,19 +4,49 @@ import android.graphics.Rect;
 
 import com.android.launcher3.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bitmask, where bit x is set when cell (x, row) is occupied, so region
+ * checks cost one mask test per row. Grids are limited to {@link #MAX_COLUMNS} columns.
  */
 public class GridOccupancy {
 
-    public final boolean[][] cells;
+    public static final int MAX_COLUMNS = Long.SIZE;
+
+    private final long[] mRows;
     private final int mCountX;
     private final int mCountY;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COLUMNS) {
+            throw new IllegalArgumentException("Grid too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
+    }
+
+    private static long spanMask(int x, int spanX) {
+        return spanX >= MAX_COLUMNS ? -1L : ((1L << spanX) - 1) << x;
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        // Shifts wrap past the row mask width, so cells outside the grid must not reach it
+        if (x < 0 || y < 0 || x >= mCountX || y >= mCountY) {
+            return false;
+        }
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     /**
@@ -30,15 +60,7 @@ public class GridOccupancy {
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
         for (int y = 0; (y + spanY) <= mCountY; y++) {
             for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
+                if (isRegionVacantUnchecked(x, y, spanX, spanY)) {
                     vacantOut[0] = x;
                     vacantOut[1] = y;
                     return true;
@@ -49,11 +71,14 @@ public class GridOccupancy {
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
-        }
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
+    }
+
+    /**
+     * Returns true if both grids have the same size and the same occupied cells.
+     */
+    public boolean contentEquals(GridOccupancy other) {
+        return mCountX == other.mCountX && Arrays.equals(mRows, other.mRows);
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -62,11 +87,30 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        return isRegionVacantUnchecked(x, y, spanX, spanY);
+    }
+
+    private boolean isRegionVacantUnchecked(int x, int y, int spanX, int spanY) {
+        long mask = spanMask(x, spanX);
+        for (int j = y; j < y + spanY; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the cells of {@param block} (a grid whose origin is placed at x, y) can be
+     * placed without overlapping occupied cells of this grid. Only the top-left
+     * {@param spanX} x {@param spanY} cells of the block are considered. The region must lie
+     * within this grid.
+     */
+    public boolean canFitBlock(int x, int y, int spanX, int spanY, GridOccupancy block) {
+        long mask = spanMask(0, spanX);
+        for (int j = 0; j < spanY; j++) {
+            if (((mRows[y + j] >>> x) & block.mRows[j] & mask) != 0) {
+                return false;
             }
         }
         return true;
@@ -74,9 +118,15 @@ public class GridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        int endX = Math.min(cellX + spanX, mCountX);
+        int endY = Math.min(cellY + spanY, mCountY);
+        if (endX <= cellX) return;
+        long mask = spanMask(cellX, endX - cellX);
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -93,7 +143,39 @@ public class GridOccupancy {
         markCells(item.cellX, item.cellY, item.spanX, item.spanY, value);
     }
 
+    /**
+     * Returns the number of vacant cells in the rows starting at {@param startY}.
+     */
+    public int countVacantCells(int startY) {
+        int occupied = 0;
+        for (int y = startY; y < mCountY; y++) {
+            occupied += Long.bitCount(mRows[y]);
+        }
+        return (mCountY - startY) * mCountX - occupied;
+    }
+
+    /**
+     * Returns true if all the cells fit in a single long, see {@link #pack()}.
+     */
+    public boolean canPack() {
+        return mCountX * mCountY <= Long.SIZE;
+    }
+
+    /**
+     * Returns the occupancy of the whole grid as a single value, row after row.
+     */
+    public long pack() {
+        if (!canPack()) {
+            throw new IllegalStateException("Grid too large to pack: " + mCountX + "x" + mCountY);
+        }
+        long packed = 0;
+        for (int y = 0; y < mCountY; y++) {
+            packed |= mRows[y] << (y * mCountX);
+        }
+        return packed;
+    }
+
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0L);
     }
 }
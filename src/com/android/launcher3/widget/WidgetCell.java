@@ -151,6 +151,10 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
         }
     }
 
+    public int getPresetPreviewSize() {
+        return mPresetPreviewSize;
+    }
+
     public WidgetImageView getWidgetView() {
         return mWidgetImage;
     }
@@ -60,6 +60,8 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
     private final WidgetsDiffReporter mDiffReporter;
 
     private boolean mApplyBitmapDeferred;
+    // Size of the previews requested by the cells, known once a cell is bound
+    private int mPreviewSize;
 
     public WidgetsListAdapter(Context context, LayoutInflater layoutInflater,
                               WidgetPreviewLoader widgetPreviewLoader, IconCache iconCache,
@@ -110,6 +112,22 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         return mEntries.get(pos).titleSectionName;
     }
 
+    /**
+     * Loads the previews of {@param rowCount} rows starting at {@param startRow} in memory ahead
+     * of binding them.
+     */
+    public void prefetchPreviews(int startRow, int rowCount) {
+        if (mPreviewSize == 0) {
+            return;
+        }
+        ArrayList<WidgetItem> items = new ArrayList<>();
+        int end = Math.min(startRow + rowCount, mEntries.size());
+        for (int i = Math.max(startRow, 0); i < end; i++) {
+            items.addAll(mEntries.get(i).widgets);
+        }
+        mWidgetPreviewLoader.prefetchPreviews(items, mPreviewSize, mPreviewSize);
+    }
+
     @Override
     public void onBindViewHolder(WidgetsRowViewHolder holder, int pos) {
         WidgetListRowEntry entry = mEntries.get(pos);
@@ -156,6 +174,7 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         for (int i = 0; i < infoList.size(); i++) {
             WidgetCell widget = (WidgetCell) row.getChildAt(2 * i);
             widget.applyFromCellItem(infoList.get(i), mWidgetPreviewLoader);
+            mPreviewSize = widget.getPresetPreviewSize();
             widget.setApplyBitmapDeferred(mApplyBitmapDeferred);
             widget.ensurePreview();
             widget.setVisibility(View.VISIBLE);
@@ -34,7 +34,11 @@ import com.android.launcher3.R;
  */
 public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouchListener {
 
+    // Number of rows past the visible ones whose previews are loaded ahead
+    private static final int PREFETCH_ROWS = 3;
+
     private WidgetsListAdapter mAdapter;
+    private int mLastPrefetchRow = RecyclerView.NO_POSITION;
 
     private final int mScrollbarTop;
 
@@ -70,6 +74,22 @@ public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouch
         mAdapter = (WidgetsListAdapter) adapter;
     }
 
+    @Override
+    public void onScrolled(int dx, int dy) {
+        super.onScrolled(dx, dy);
+        if (isModelNotReady() || getChildCount() == 0) {
+            return;
+        }
+        // Load the rows about to appear in the scroll direction, the next ones by default
+        int startRow = dy < 0
+                ? getChildPosition(getChildAt(0)) - PREFETCH_ROWS
+                : getChildPosition(getChildAt(getChildCount() - 1)) + 1;
+        if (startRow != mLastPrefetchRow) {
+            mLastPrefetchRow = startRow;
+            mAdapter.prefetchPreviews(startRow, PREFETCH_ROWS);
+        }
+    }
+
     /**
      * Maps the touch (from 0..1) to the adapter position that should be visible.
      */
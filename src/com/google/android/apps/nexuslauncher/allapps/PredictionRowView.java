@@ -273,16 +273,18 @@ public class PredictionRowView extends LinearLayout implements UserEventDispatch
                 removeViewAt(0);
             }
             while (getChildCount() < mNumPredictedAppsPerRow) {
-                BubbleTextView icon = (BubbleTextView) mLauncher.getLayoutInflater().inflate(R.layout.all_apps_icon, this, false);
+                // Icons inflated ahead for the apps lists have list layout params
+                BubbleTextView icon = mLauncher.getAppsView().getViewPool().takeIcon();
+                if (icon == null) {
+                    icon = (BubbleTextView) mLauncher.getLayoutInflater().inflate(R.layout.all_apps_icon, this, false);
+                }
                 icon.setOnClickListener(ItemClickHandler.INSTANCE);
                 icon.setOnLongClickListener(ItemLongClickListener.INSTANCE_ALL_APPS);
                 icon.setLongPressTimeout(ViewConfiguration.getLongPressTimeout());
                 icon.setOnFocusChangeListener(mFocusHelper);
-                LayoutParams layoutParams = (LayoutParams) icon.getLayoutParams();
-                layoutParams.height = mLauncher.getDeviceProfile().allAppsCellHeightPx;
-                layoutParams.width = 0;
-                layoutParams.weight = 1.0f;
-                addView(icon);
+                LayoutParams layoutParams = new LayoutParams(0,
+                        mLauncher.getDeviceProfile().allAppsCellHeightPx, 1.0f);
+                addView(icon, layoutParams);
             }
         }
         int predictionCount = mPredictedApps.size();
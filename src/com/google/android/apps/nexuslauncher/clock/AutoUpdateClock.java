@@ -3,40 +3,54 @@ package com.google.android.apps.nexuslauncher.clock;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.os.SystemClock;
 
 import com.android.launcher3.FastBitmapDrawable;
 
 import java.util.TimeZone;
 
-public class AutoUpdateClock extends FastBitmapDrawable implements Runnable {
+/**
+ * A clock icon whose hands are moved by the {@link ClockTicker} while it is shown.
+ */
+public class AutoUpdateClock extends FastBitmapDrawable {
     private ClockLayers mLayers;
+    private TimeZone mTimeZone;
 
     AutoUpdateClock(Bitmap bitmap, ClockLayers layers) {
         super(bitmap);
         mLayers = layers;
     }
 
-    private void rescheduleUpdate() {
-        long millisInSecond = 1000L;
-        unscheduleSelf(this);
-        long uptimeMillis = SystemClock.uptimeMillis();
-        scheduleSelf(this, uptimeMillis - uptimeMillis % millisInSecond + millisInSecond);
-    }
-
     void updateLayers(ClockLayers layers) {
         mLayers = layers;
+        mTimeZone = null;
         if (mLayers != null) {
             mLayers.mDrawable.setBounds(getBounds());
         }
         invalidateSelf();
     }
 
-    void setTimeZone(TimeZone timeZone) {
-        if (mLayers != null) {
-            mLayers.setTimeZone(timeZone);
+    boolean hasSecondHand() {
+        return mLayers != null && mLayers.hasSecondHand();
+    }
+
+    /**
+     * Moves the hands to the current time.
+     *
+     * @return true if they moved, in which case the clock is invalidated.
+     */
+    boolean onTick() {
+        if (mLayers != null && mLayers.updateAngles()) {
             invalidateSelf();
+            return true;
+        }
+        return false;
+    }
+
+    void invalidateLayers() {
+        if (mLayers != null) {
+            mLayers.invalidateCache();
         }
+        invalidateSelf();
     }
 
     @Override
@@ -45,11 +59,19 @@ public class AutoUpdateClock extends FastBitmapDrawable implements Runnable {
         if (mLayers == null) {
             return;
         }
+        ClockTicker ticker = ClockTicker.getInstance();
+        TimeZone timeZone = ticker.getTimeZone();
+        if (mTimeZone != timeZone) {
+            mTimeZone = timeZone;
+            mLayers.setTimeZone(timeZone);
+        }
         mLayers.updateAngles();
         Rect bounds = getBounds();
+        int count = canvas.save();
         canvas.scale(mLayers.scale, mLayers.scale, bounds.exactCenterX(), bounds.exactCenterY());
-        mLayers.mDrawable.draw(canvas);
-        rescheduleUpdate();
+        mLayers.draw(canvas, bounds);
+        canvas.restoreToCount(count);
+        ticker.onClockDrawn(this);
     }
 
     @Override
@@ -57,15 +79,7 @@ public class AutoUpdateClock extends FastBitmapDrawable implements Runnable {
         super.onBoundsChange(bounds);
         if (mLayers != null) {
             mLayers.mDrawable.setBounds(bounds);
-        }
-    }
-
-    @Override
-    public void run() {
-        if (mLayers.updateAngles()) {
-            invalidateSelf();
-        } else {
-            rescheduleUpdate();
+            mLayers.invalidateCache();
         }
     }
 }
@@ -1,5 +1,10 @@
 package com.google.android.apps.nexuslauncher.clock;
 
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.AdaptiveIconDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
@@ -21,6 +26,12 @@ public class ClockLayers {
     float scale;
     private LayerDrawable mLayerDrawable;
 
+    // Layers drawn at the current angles, redrawn only when the hands move
+    private Bitmap mCache;
+    private Canvas mCacheCanvas;
+    private Paint mCachePaint;
+    private boolean mCacheValid;
+
     ClockLayers() {
         mCurrentTime = Calendar.getInstance();
     }
@@ -64,6 +75,9 @@ public class ClockLayers {
         if (mSecondIndex != -1 && mLayerDrawable.getDrawable(mSecondIndex).setLevel(second * 10)) {
             hasChanged = true;
         }
+        if (hasChanged) {
+            mCacheValid = false;
+        }
         return hasChanged;
     }
 
@@ -71,6 +85,41 @@ public class ClockLayers {
         mCurrentTime.setTimeZone(timeZone);
     }
 
+    /**
+     * Draws the layers at {@param bounds}, from a bitmap which is only redrawn when the hands
+     * moved or the bounds changed.
+     */
+    void draw(Canvas canvas, Rect bounds) {
+        int width = bounds.width();
+        int height = bounds.height();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (mCache == null || mCache.getWidth() != width || mCache.getHeight() != height) {
+            mCache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCacheCanvas = new Canvas(mCache);
+            mCachePaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+            mCacheValid = false;
+        }
+        if (!mCacheValid) {
+            mCache.eraseColor(Color.TRANSPARENT);
+            mCacheCanvas.save();
+            mCacheCanvas.translate(-bounds.left, -bounds.top);
+            mDrawable.draw(mCacheCanvas);
+            mCacheCanvas.restore();
+            mCacheValid = true;
+        }
+        canvas.drawBitmap(mCache, bounds.left, bounds.top, mCachePaint);
+    }
+
+    void invalidateCache() {
+        mCacheValid = false;
+    }
+
+    boolean hasSecondHand() {
+        return mSecondIndex != -1;
+    }
+
     LayerDrawable getLayerDrawable() {
         if (mDrawable instanceof LayerDrawable) {
             return (LayerDrawable) mDrawable;
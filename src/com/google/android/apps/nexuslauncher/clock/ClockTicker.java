@@ -0,0 +1,148 @@
+package com.google.android.apps.nexuslauncher.clock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Moves the hands of every {@link AutoUpdateClock} from a single callback on the main thread.
+ *
+ * Clocks are ticked while they keep being drawn: a clock which was invalidated by a tick and
+ * wasn't drawn before the next one is hidden (eg. on another page, in a closed folder or
+ * scrolled out of all apps) and is left alone until it gets drawn again. Ticks happen every
+ * second while a ticked clock has a second hand, every minute otherwise, and not at all while
+ * the launcher is stopped.
+ *
+ * All methods must be called on the main thread.
+ */
+public class ClockTicker implements Runnable {
+
+    private static final long SECOND_MILLIS = 1000L;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+
+    private static ClockTicker sInstance;
+
+    public static synchronized ClockTicker getInstance() {
+        if (sInstance == null) {
+            sInstance = new ClockTicker();
+        }
+        return sInstance;
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Set<AutoUpdateClock> mTicked = new HashSet<>();
+    private final Set<AutoUpdateClock> mAwaitingDraw = new HashSet<>();
+
+    private volatile TimeZone mTimeZone = TimeZone.getDefault();
+    private boolean mTimeZoneReceiverRegistered;
+    private boolean mStarted = true;
+    // Interval of the scheduled tick, or 0 if none is scheduled
+    private long mScheduledInterval;
+
+    private ClockTicker() { }
+
+    /**
+     * Listens to time zone changes, only the first call has an effect.
+     */
+    public void registerTimeZoneReceiver(Context context) {
+        if (mTimeZoneReceiverRegistered) {
+            return;
+        }
+        mTimeZoneReceiverRegistered = true;
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String timeZoneId = intent.getStringExtra("time-zone");
+                mTimeZone = timeZoneId == null
+                        ? TimeZone.getDefault()
+                        : TimeZone.getTimeZone(timeZoneId);
+                invalidateTicked();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED), null, mHandler);
+    }
+
+    TimeZone getTimeZone() {
+        return mTimeZone;
+    }
+
+    /**
+     * Stops ticking while the launcher is stopped, and moves the hands as soon as it restarts.
+     */
+    public void setStarted(boolean started) {
+        if (mStarted == started) {
+            return;
+        }
+        mStarted = started;
+        if (started) {
+            invalidateTicked();
+        } else {
+            mHandler.removeCallbacks(this);
+            mScheduledInterval = 0;
+        }
+    }
+
+    /**
+     * Called when {@param clock} is drawn, starts ticking it.
+     */
+    void onClockDrawn(AutoUpdateClock clock) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // Drawn into a bitmap, eg. for a drag preview
+            return;
+        }
+        mAwaitingDraw.remove(clock);
+        if (mTicked.add(clock)) {
+            schedule();
+        }
+    }
+
+    private void invalidateTicked() {
+        for (AutoUpdateClock clock : new ArrayList<>(mTicked)) {
+            clock.invalidateLayers();
+            mAwaitingDraw.add(clock);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (!mStarted || mTicked.isEmpty()) {
+            mHandler.removeCallbacks(this);
+            mScheduledInterval = 0;
+            return;
+        }
+        long interval = MINUTE_MILLIS;
+        for (AutoUpdateClock clock : mTicked) {
+            if (clock.hasSecondHand()) {
+                interval = SECOND_MILLIS;
+                break;
+            }
+        }
+        if (interval == mScheduledInterval) {
+            return;
+        }
+        mScheduledInterval = interval;
+        mHandler.removeCallbacks(this);
+        mHandler.postDelayed(this, interval - System.currentTimeMillis() % interval);
+    }
+
+    @Override
+    public void run() {
+        mScheduledInterval = 0;
+        // These clocks were not drawn since the last tick moved their hands
+        mTicked.removeAll(mAwaitingDraw);
+        mAwaitingDraw.clear();
+        for (AutoUpdateClock clock : new ArrayList<>(mTicked)) {
+            if (clock.onTick()) {
+                mAwaitingDraw.add(clock);
+            }
+        }
+        schedule();
+    }
+}
@@ -1,41 +1,31 @@
 package com.google.android.apps.nexuslauncher.clock;
 
 import android.annotation.TargetApi;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
-import android.os.Handler;
-import android.os.Looper;
 
 import com.android.launcher3.FastBitmapDrawable;
 import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.MainThreadExecutor;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.graphics.IconNormalizer;
 import com.android.launcher3.util.Preconditions;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.TimeZone;
-import java.util.WeakHashMap;
-
 @TargetApi(26)
 public class CustomClock {
     private final Context mContext;
-    private final Set<AutoUpdateClock> mUpdaters = Collections.newSetFromMap(new WeakHashMap<AutoUpdateClock, Boolean>());
 
     public CustomClock(Context context) {
         mContext = context;
 
-        mContext.registerReceiver(new BroadcastReceiver() {
+        new MainThreadExecutor().execute(new Runnable() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                loadTimeZone(intent.getStringExtra("time-zone"));
+            public void run() {
+                ClockTicker.getInstance().registerTimeZoneReceiver(mContext);
             }
-        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED), null, new Handler(Looper.getMainLooper()));
+        });
     }
 
     public static Drawable getClock(Context context, Drawable drawable, Metadata metadata, int iconDpi) {
@@ -78,23 +68,11 @@ public class CustomClock {
     }
 
     public FastBitmapDrawable drawIcon(Bitmap bitmap, Drawable drawableForDensity, Metadata metadata) {
-        final AutoUpdateClock updater = new AutoUpdateClock(bitmap, getClockLayers(mContext,
+        return new AutoUpdateClock(bitmap, getClockLayers(mContext,
                 drawableForDensity,
                 metadata,
                 LauncherAppState.getIDP(mContext).fillResIconDpi,
                 !FeatureFlags.LAUNCHER3_DISABLE_ICON_NORMALIZATION).clone());
-        mUpdaters.add(updater);
-        return updater;
-    }
-
-    private void loadTimeZone(String timeZoneId) {
-        TimeZone timeZone = timeZoneId == null ?
-                TimeZone.getDefault() :
-                TimeZone.getTimeZone(timeZoneId);
-
-        for (AutoUpdateClock a : mUpdaters) {
-            a.setTimeZone(timeZone);
-        }
     }
 
     public static class Metadata {
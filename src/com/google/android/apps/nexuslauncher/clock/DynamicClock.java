@@ -4,7 +4,6 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
@@ -12,7 +11,6 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.Looper;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
@@ -25,14 +23,13 @@ import com.google.android.apps.nexuslauncher.utils.ActionIntentFilter;
 
 import java.util.Collections;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.WeakHashMap;
 
 public class DynamicClock extends BroadcastReceiver {
     public static final ComponentName DESK_CLOCK = new ComponentName("com.google.android.deskclock", "com.android.deskclock.DeskClock");
     private final Set<AutoUpdateClock> mUpdaters;
     private final Context mContext;
-    private ClockLayers mLayers;
+    private volatile ClockLayers mLayers;
 
     public DynamicClock(Context context) {
         mUpdaters = Collections.newSetFromMap(new WeakHashMap<AutoUpdateClock, Boolean>());
@@ -51,12 +48,12 @@ public class DynamicClock extends BroadcastReceiver {
             }
         });
 
-        mContext.registerReceiver(new BroadcastReceiver() {
+        new MainThreadExecutor().execute(new Runnable() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                loadTimeZone(intent.getStringExtra("time-zone"));
+            public void run() {
+                ClockTicker.getInstance().registerTimeZoneReceiver(mContext);
             }
-        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED), null, new Handler(Looper.getMainLooper()));
+        });
     }
 
     public static Drawable getClock(Context context, int iconDpi) {
@@ -113,16 +110,6 @@ public class DynamicClock extends BroadcastReceiver {
         return layers;
     }
 
-    private void loadTimeZone(String timeZoneId) {
-        TimeZone timeZone = timeZoneId == null ?
-                TimeZone.getDefault() :
-                TimeZone.getTimeZone(timeZoneId);
-
-        for (AutoUpdateClock a : mUpdaters) {
-            a.setTimeZone(timeZone);
-        }
-    }
-
     private void updateMainThread() {
         new MainThreadExecutor().execute(new Runnable() {
             @Override
@@ -136,14 +123,18 @@ public class DynamicClock extends BroadcastReceiver {
 
     private void updateWrapper(ClockLayers wrapper) {
         this.mLayers = wrapper;
-        for (AutoUpdateClock updater : mUpdaters) {
-            updater.updateLayers(wrapper.clone());
+        synchronized (mUpdaters) {
+            for (AutoUpdateClock updater : mUpdaters) {
+                updater.updateLayers(wrapper.clone());
+            }
         }
     }
 
     public AutoUpdateClock drawIcon(Bitmap bitmap) {
         final AutoUpdateClock updater = new AutoUpdateClock(bitmap, mLayers.clone());
-        mUpdaters.add(updater);
+        synchronized (mUpdaters) {
+            mUpdaters.add(updater);
+        }
         return updater;
     }
 
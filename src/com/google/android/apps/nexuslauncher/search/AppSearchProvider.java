@@ -4,6 +4,7 @@ import android.content.ComponentName;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Bitmap;
@@ -12,15 +13,18 @@ import android.os.Bundle;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 
 import com.android.launcher3.AllAppsList;
 import com.android.launcher3.AppFilter;
 import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm;
 import com.android.launcher3.BuildConfig;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
+import com.android.launcher3.Utilities;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.LoaderResults;
@@ -28,6 +32,7 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.LooperExecutor;
 
 import org.zimmob.zimlx.ZimAppFilter;
+import org.zimmob.zimlx.ZimPreferences;
 import org.zimmob.zimlx.allapps.FuzzyAppSearchAlgorithm;
 
 import java.io.FileNotFoundException;
@@ -37,14 +42,42 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public class AppSearchProvider extends ContentProvider {
     private static final String[] eK = new String[]{"_id", "suggest_text_1", "suggest_icon_1", "suggest_intent_action", "suggest_intent_data"};
-    private final PipeDataWriter<Future> mPipeDataWriter;
+
+    private static final String EXTRA_URIS = "uris";
+
+    // Encoded icons are kept while the icon cache returns the same bitmap for the component
+    private static final int ENCODED_ICON_CACHE_BYTES = 2 * 1024 * 1024;
+    // Stays well below the binder transaction limit, the remaining icons are loaded one by one
+    private static final int MAX_BULK_ICON_BYTES = 512 * 1024;
+    private static final int MAX_CACHED_QUERIES = 8;
+
+    private final PipeDataWriter<byte[]> mPipeDataWriter;
+    private final LruCache<ComponentKey, EncodedIcon> mEncodedIcons =
+            new LruCache<ComponentKey, EncodedIcon>(ENCODED_ICON_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(ComponentKey key, EncodedIcon value) {
+                    return value.png.length;
+                }
+            };
+    private final LruCache<String, QueryResults> mQueryResults = new LruCache<>(MAX_CACHED_QUERIES);
+    // Bumped whenever the searched apps are filtered differently, results computed before are
+    // not cached
+    private volatile int mFilterVersion;
+    // Held here, as the preferences only keep a weak reference
+    private final SharedPreferences.OnSharedPreferenceChangeListener mFilterListener =
+            (prefs, key) -> {
+                if (ZimPreferences.HIDDEN_APP_SET.equals(key)
+                        || DefaultAppSearchAlgorithm.SEARCH_HIDDEN_APPS.equals(key)) {
+                    mFilterVersion++;
+                    mQueryResults.evictAll();
+                }
+            };
     private LooperExecutor mLooper;
     private LauncherAppState mApp;
 
@@ -55,7 +88,7 @@ public class AppSearchProvider extends ContentProvider {
             ParcelFileDescriptor.AutoCloseOutputStream outStream = null;
             try {
                 outStream = new ParcelFileDescriptor.AutoCloseOutputStream(output);
-                ((Bitmap) args.get()).compress(Bitmap.CompressFormat.PNG, 100, outStream);
+                outStream.write(args);
             } catch (Throwable e) {
                 Log.w("AppSearchProvider", "fail to write to pipe", e);
             }
@@ -104,18 +137,44 @@ public class AppSearchProvider extends ContentProvider {
         if ("loadIcon".equals(s)) try {
             final Uri parse = Uri.parse(s2);
             final ComponentKey dl = uriToComponent(parse, this.getContext());
-            final Callable<Bitmap> g = () -> {
-                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(dl);
-                mApp.getIconCache().getTitleAndIcon(d, false);
-                return d.iconBitmap;
-            };
             final Bundle bundle2 = new Bundle();
-            bundle2.putParcelable("suggest_icon_1", mLooper.submit(g).get());
+            bundle2.putParcelable("suggest_icon_1",
+                    loadIcons(Collections.singletonList(dl)).get(0));
             return bundle2;
         } catch (Exception ex) {
             Log.e("AppSearchProvider", "Unable to load icon " + ex);
             return null;
         }
+        if ("loadIcons".equals(s)) try {
+            // Returns the png of each requested uri, keyed by the uri, as far as they fit
+            final ArrayList<String> uris = bundle == null
+                    ? null : bundle.getStringArrayList(EXTRA_URIS);
+            if (uris == null) {
+                return null;
+            }
+            final List<ComponentKey> keys = new ArrayList<>(uris.size());
+            for (String uri : uris) {
+                keys.add(uriToComponent(Uri.parse(uri), this.getContext()));
+            }
+            final List<Bitmap> icons = loadIcons(keys);
+            final Bundle bundle2 = new Bundle();
+            int totalBytes = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                final byte[] png = getEncodedIcon(keys.get(i), icons.get(i));
+                if (png == null) {
+                    continue;
+                }
+                totalBytes += png.length;
+                if (totalBytes > MAX_BULK_ICON_BYTES) {
+                    break;
+                }
+                bundle2.putByteArray(uris.get(i), png);
+            }
+            return bundle2;
+        } catch (Exception ex) {
+            Log.e("AppSearchProvider", "Unable to load icons " + ex);
+            return null;
+        }
         return super.call(s, s2, bundle);
     }
 
@@ -134,6 +193,7 @@ public class AppSearchProvider extends ContentProvider {
     public boolean onCreate() {
         this.mLooper = new LooperExecutor(LauncherModel.getWorkerLooper());
         this.mApp = LauncherAppState.getInstance(this.getContext());
+        Utilities.getPrefs(getContext()).registerOnSharedPreferenceChangeListener(mFilterListener);
         return true;
     }
 
@@ -145,17 +205,54 @@ public class AppSearchProvider extends ContentProvider {
         try {
             final ComponentKey dl = uriToComponent(uri, this.getContext());
             final String s2 = "image/png";
-            final Callable<Bitmap> g = () -> {
-                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(dl);
-                mApp.getIconCache().getTitleAndIcon(d, false);
-                return d.iconBitmap;
-            };
-            return openPipeHelper(uri, s2, null, mLooper.submit(g), this.mPipeDataWriter);
+            final byte[] png = getEncodedIcon(dl, loadIcons(Collections.singletonList(dl)).get(0));
+            if (png == null) {
+                throw new FileNotFoundException("No icon for " + dl);
+            }
+            return openPipeHelper(uri, s2, null, png, this.mPipeDataWriter);
+        } catch (FileNotFoundException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new FileNotFoundException(ex.getMessage());
         }
     }
 
+    /**
+     * Loads the icons of all the components with a single task on the worker thread.
+     */
+    private List<Bitmap> loadIcons(final List<ComponentKey> keys)
+            throws ExecutionException, InterruptedException {
+        final Callable<List<Bitmap>> g = () -> {
+            final List<Bitmap> icons = new ArrayList<>(keys.size());
+            for (ComponentKey key : keys) {
+                final AppItemInfoWithIcon d = new AppItemInfoWithIcon(key);
+                mApp.getIconCache().getTitleAndIcon(d, false);
+                icons.add(d.iconBitmap);
+            }
+            return icons;
+        };
+        return mLooper.submit(g).get();
+    }
+
+    /**
+     * Returns the png of the icon, which is only encoded again once the icon cache has a
+     * different bitmap for the component.
+     */
+    private byte[] getEncodedIcon(ComponentKey key, Bitmap icon) {
+        if (icon == null) {
+            return null;
+        }
+        final EncodedIcon cached = mEncodedIcons.get(key);
+        if (cached != null && cached.source == icon) {
+            return cached.png;
+        }
+        final byte[] png = Utilities.flattenBitmap(icon);
+        if (png != null) {
+            mEncodedIcons.put(key, new EncodedIcon(icon, png));
+        }
+        return png;
+    }
+
     public Cursor query(@NonNull Uri uri, final String[] array, final String s, final String[] array2, final String s2) {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             Log.e("AppSearchProvider", "Content provider accessed on main thread");
@@ -182,6 +279,51 @@ public class AppSearchProvider extends ContentProvider {
         return mBaseFilter;
     }
 
+    /**
+     * Identifies the searched apps and their titles, the cached results are dropped once it
+     * changes.
+     */
+    private static int hashApps(List<AppInfo> apps) {
+        int hash = apps.size();
+        for (AppInfo app : apps) {
+            hash = 31 * hash + app.toComponentKey().hashCode();
+            hash = 31 * hash + (app.title == null ? 0 : app.title.toString().hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Copies what the cursor reads from a result, so that the model's apps are only read on the
+     * model thread.
+     */
+    private static AppInfo snapshot(AppInfo app) {
+        final AppInfo copy = new AppInfo();
+        copy.componentName = app.componentName;
+        copy.user = app.user;
+        copy.title = app.title == null ? "" : app.title.toString();
+        return copy;
+    }
+
+    private static class EncodedIcon {
+        final Bitmap source;
+        final byte[] png;
+
+        EncodedIcon(Bitmap source, byte[] png) {
+            this.source = source;
+            this.png = png;
+        }
+    }
+
+    private static class QueryResults {
+        final int appsHash;
+        final List<AppInfo> results;
+
+        QueryResults(int appsHash, List<AppInfo> results) {
+            this.appsHash = appsHash;
+            this.results = results;
+        }
+    }
+
     class f implements Callable<List<AppInfo>>, LauncherModel.ModelUpdateTask {
         private final FutureTask<List<AppInfo>> eN;
         private AllAppsList mAllAppsList;
@@ -204,13 +346,24 @@ public class AppSearchProvider extends ContentProvider {
                 Log.d("AppSearchProvider", "Loading workspace failed");
                 return Collections.emptyList();
             }
+            final int filterVersion = mFilterVersion;
+            final int appsHash = hashApps(mAllAppsList.data);
+            final QueryResults cached = mQueryResults.get(mQuery);
+            if (cached != null && cached.appsHash == appsHash) {
+                return cached.results;
+            }
             final List<AppInfo> results = FuzzyAppSearchAlgorithm.query(mApp.getContext(), mQuery, mAllAppsList.data, getBaseFilter());
+            final List<AppInfo> snapshots = new ArrayList<>(results.size());
             for (AppInfo appInfo : results) {
                 if (appInfo.usingLowResIcon) {
                     mApp.getIconCache().getTitleAndIcon(appInfo, false);
                 }
+                snapshots.add(snapshot(appInfo));
+            }
+            if (filterVersion == mFilterVersion) {
+                mQueryResults.put(mQuery, new QueryResults(appsHash, snapshots));
             }
-            return results;
+            return snapshots;
         }
 
         public void init(final LauncherAppState mApp, final LauncherModel mModel, final BgDataModel mBgDataModel, final AllAppsList mAllAppsList, final Executor executor) {
@@ -0,0 +1,201 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.android.launcher3;
+
+import android.util.Log;
+import android.view.View;
+
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.rule.LauncherActivityRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static com.android.launcher3.CellLayout.MODE_ACCEPT_DROP;
+import static com.android.launcher3.CellLayout.MODE_DRAG_OVER;
+import static com.android.launcher3.CellLayout.MODE_SHOW_REORDER_HINT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays drag paths through {@link CellLayout#performReorder} and checks every placement
+ * against a layout which has never searched before, so that reused solutions and scratch state
+ * can not change where items end up. The time spent in both is logged.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CellLayoutReorderTest {
+
+    private static final String TAG = "CellLayoutReorderTest";
+
+    private static final int CELL_SIZE = 100;
+    private static final int PATHS_PER_GRID = 4;
+    private static final int STEPS_PER_PATH = 40;
+
+    @Rule
+    public LauncherActivityRule mActivityMonitor = new LauncherActivityRule();
+
+    private long mReplayNanos;
+    private long mReferenceNanos;
+    private int mSteps;
+
+    @Test
+    public void testReorderMatchesColdSearch() {
+        mActivityMonitor.startLauncher();
+        Random random = new Random(42);
+        for (int size = 5; size <= 8; size++) {
+            int[][] items = createItems(random, size);
+            long seed = random.nextLong();
+            final int gridSize = size;
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                    () -> replayPaths(new Random(seed), gridSize, items));
+        }
+        Log.d(TAG, String.format("%d steps: replay %.3f ms/step, cold search %.3f ms/step",
+                mSteps, mReplayNanos / 1e6 / mSteps, mReferenceNanos / 1e6 / mSteps));
+    }
+
+    private void replayPaths(Random random, int size, int[][] items) {
+        Launcher launcher = mActivityMonitor.getActivity();
+        for (int path = 0; path < PATHS_PER_GRID; path++) {
+            // Alternate between moving an item of the page and dropping an external item
+            int dragIndex = path % 2 == 0 ? 0 : -1;
+            CellLayout layout = createLayout(launcher, size, items, dragIndex);
+            View dragView = dragIndex < 0 ? null
+                    : layout.getShortcutsAndWidgets().getChildAt(dragIndex);
+
+            int x = random.nextInt(size * CELL_SIZE);
+            int y = random.nextInt(size * CELL_SIZE);
+            for (int step = 0; step < STEPS_PER_PATH; step++) {
+                x = clamp(x + random.nextInt(CELL_SIZE) - CELL_SIZE / 2, size);
+                y = clamp(y + random.nextInt(CELL_SIZE) - CELL_SIZE / 2, size);
+
+                // The hint and the accept-drop check are followed by a search at the same
+                // position, as when the reorder alarm fires and when the item is dropped
+                long start = System.nanoTime();
+                String hint = reorder(layout, x, y, dragView, MODE_SHOW_REORDER_HINT);
+                String dragOver = reorder(layout, x, y, dragView, MODE_DRAG_OVER);
+                String accept = reorder(layout, x, y, dragView, MODE_ACCEPT_DROP);
+                mReplayNanos += System.nanoTime() - start;
+
+                CellLayout reference = createLayout(launcher, size, items, dragIndex);
+                View referenceDragView = dragIndex < 0 ? null
+                        : reference.getShortcutsAndWidgets().getChildAt(dragIndex);
+                start = System.nanoTime();
+                String expectedHint = reorder(reference, x, y, referenceDragView,
+                        MODE_SHOW_REORDER_HINT);
+                mReferenceNanos += System.nanoTime() - start;
+                reference = createLayout(launcher, size, items, dragIndex);
+                referenceDragView = dragIndex < 0 ? null
+                        : reference.getShortcutsAndWidgets().getChildAt(dragIndex);
+                start = System.nanoTime();
+                String expectedDragOver = reorder(reference, x, y, referenceDragView,
+                        MODE_DRAG_OVER);
+                String expectedAccept = reorder(reference, x, y, referenceDragView,
+                        MODE_ACCEPT_DROP);
+                mReferenceNanos += System.nanoTime() - start;
+
+                String where = size + "x" + size + " path " + path + " step " + step
+                        + " at " + x + "," + y;
+                assertEquals(where, expectedHint, hint);
+                assertEquals(where, expectedDragOver, dragOver);
+                assertEquals(where, expectedAccept, accept);
+                mSteps++;
+            }
+        }
+    }
+
+    /**
+     * Runs a 2x2 reorder and returns the target area, followed by the temporary position of
+     * every item when the search moved them.
+     */
+    private static String reorder(CellLayout layout, int x, int y, View dragView, int mode) {
+        int[] result = new int[2];
+        int[] resultSpan = new int[2];
+        layout.performReorder(x, y, 1, 1, 2, 2, dragView, result, resultSpan, mode);
+        StringBuilder sb = new StringBuilder()
+                .append(Arrays.toString(result)).append(Arrays.toString(resultSpan));
+        if (mode == MODE_DRAG_OVER && result[0] >= 0) {
+            ShortcutAndWidgetContainer children = layout.getShortcutsAndWidgets();
+            for (int i = 0; i < children.getChildCount(); i++) {
+                CellLayout.LayoutParams lp =
+                        (CellLayout.LayoutParams) children.getChildAt(i).getLayoutParams();
+                sb.append(' ').append(lp.tmpCellX).append(',').append(lp.tmpCellY);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static CellLayout createLayout(Launcher launcher, int size, int[][] items,
+            int dragIndex) {
+        CellLayout layout = new CellLayout(launcher);
+        layout.setGridSize(size, size);
+        layout.setCellDimensions(CELL_SIZE, CELL_SIZE);
+        for (int i = 0; i < items.length; i++) {
+            int[] item = items[i];
+            CellLayout.LayoutParams lp =
+                    new CellLayout.LayoutParams(item[0], item[1], item[2], item[3]);
+            layout.addViewToCellLayout(new View(launcher), -1, i + 1, lp, true);
+        }
+        if (dragIndex >= 0) {
+            // The workspace frees the cells of the item being dragged
+            layout.markCellsAsUnoccupiedForView(
+                    layout.getShortcutsAndWidgets().getChildAt(dragIndex));
+        }
+        return layout;
+    }
+
+    /**
+     * Places a 2x2 item to drag, then fills about three quarters of the grid with 1x1, 2x1, 1x2
+     * and 2x2 items.
+     */
+    private static int[][] createItems(Random random, int size) {
+        GridOccupancy occupied = new GridOccupancy(size, size);
+        ArrayList<int[]> items = new ArrayList<>();
+        int dragX = random.nextInt(size - 1);
+        int dragY = random.nextInt(size - 1);
+        occupied.markCells(dragX, dragY, 2, 2, true);
+        items.add(new int[] {dragX, dragY, 2, 2});
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (occupied.isOccupied(x, y) || random.nextInt(4) == 0) {
+                    continue;
+                }
+                int spanX = random.nextInt(3) == 0 ? 2 : 1;
+                int spanY = random.nextInt(3) == 0 ? 2 : 1;
+                if (x + spanX > size || y + spanY > size
+                        || !occupied.isRegionVacant(x, y, spanX, spanY)) {
+                    spanX = spanY = 1;
+                }
+                occupied.markCells(x, y, spanX, spanY, true);
+                items.add(new int[] {x, y, spanX, spanY});
+            }
+        }
+        return items.toArray(new int[0][]);
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size * CELL_SIZE - 1, value));
+    }
+}
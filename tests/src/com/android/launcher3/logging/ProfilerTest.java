@@ -0,0 +1,71 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.logging;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static com.android.launcher3.logging.Profiler.BUCKET_COUNT;
+import static com.android.launcher3.logging.Profiler.getBucket;
+import static com.android.launcher3.logging.Profiler.getBucketStart;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the histogram of {@link Profiler} timers.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfilerTest {
+
+    @Test
+    public void testBuckets_areContiguous() {
+        int previous = 0;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = getBucket(micros);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(getBucketStart(bucket) <= micros);
+            assertTrue(micros < getBucketStart(bucket + 1));
+            previous = bucket;
+        }
+        assertEquals(BUCKET_COUNT - 1, getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Profiler.Timer timer = new Profiler.Timer(0, "test", Long.MAX_VALUE);
+        // 1ms to 100ms
+        for (int i = 1; i <= 100; i++) {
+            timer.record(i * 1_000_000L);
+        }
+        assertPercentile(timer, 50, 50_000);
+        assertPercentile(timer, 90, 90_000);
+        assertPercentile(timer, 99, 99_000);
+        assertEquals(100_000, timer.getPercentileMicros(100, 100), 100_000 / 4);
+    }
+
+    private static void assertPercentile(Profiler.Timer timer, int percentile, long micros) {
+        long value = timer.getPercentileMicros(100, percentile);
+        // Rounded up to the end of a bucket, which is at most 25% wider than its start
+        assertTrue(value + " < " + micros, value >= micros);
+        assertTrue(value + " > " + micros, value <= micros * 5 / 4 + 1);
+    }
+}
@@ -0,0 +1,345 @@
+package com.android.launcher3.model;
+
+import android.util.Log;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.GridSizeMigrationTask.DbEntry;
+import com.android.launcher3.model.GridSizeMigrationTask.OptimalPlacementSolution;
+import com.android.launcher3.util.GridOccupancy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Tests for {@link GridSizeMigrationTask.OptimalPlacementSolution}
+ *
+ * Compares the placements with an exhaustive search and logs the time taken by both on the
+ * device. {@link DbEntry} reads the current user from the framework, so this can not run as a
+ * JVM test.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GridSizeMigrationTaskTest {
+
+    private static final String TAG = "GridSizeMigrationTaskTest";
+
+    private static final int[][] GRIDS = {{6, 6, 4, 5}, {5, 5, 4, 4}, {5, 6, 4, 5}, {4, 5, 3, 4}};
+
+    @Test
+    public void testPlacementMatchesExhaustiveSearch() {
+        Random random = new Random(42);
+        long referenceTime = 0;
+        long solverTime = 0;
+        for (int i = 0; i < 200; i++) {
+            int[] grid = GRIDS[i % GRIDS.length];
+            boolean ignoreMove = i % 3 == 0;
+            int startY = i % 5 == 0 ? 1 : 0;
+            GridOccupancy occupied = new GridOccupancy(grid[2], grid[3]);
+            ArrayList<DbEntry> items = generateItems(random, grid[0], grid[1], grid[2], grid[3],
+                    startY, occupied);
+
+            GridOccupancy referenceOccupied = new GridOccupancy(grid[2], grid[3]);
+            occupied.copyTo(referenceOccupied);
+            ReferenceSolution reference = new ReferenceSolution(referenceOccupied,
+                    GridSizeMigrationTask.deepCopy(items), startY, ignoreMove);
+            long start = System.nanoTime();
+            reference.find();
+            referenceTime += System.nanoTime() - start;
+
+            OptimalPlacementSolution solution = new OptimalPlacementSolution(occupied,
+                    GridSizeMigrationTask.deepCopy(items), startY, ignoreMove);
+            start = System.nanoTime();
+            solution.find();
+            solverTime += System.nanoTime() - start;
+
+            assertEquals(reference.lowestWeightLoss, solution.lowestWeightLoss, 1e-3f);
+            assertEquals(reference.lowestMoveCost, solution.lowestMoveCost, 1e-3f);
+            assertNotNull(solution.finalPlacedItems);
+            assertEquals(reference.finalPlacedItems.size(), solution.finalPlacedItems.size());
+            for (int j = 0; j < reference.finalPlacedItems.size(); j++) {
+                DbEntry expected = reference.finalPlacedItems.get(j);
+                DbEntry actual = solution.finalPlacedItems.get(j);
+                assertEquals(expected.id, actual.id);
+                assertEquals(expected.cellX, actual.cellX);
+                assertEquals(expected.cellY, actual.cellY);
+                assertEquals(expected.spanX, actual.spanX);
+                assertEquals(expected.spanY, actual.spanY);
+            }
+        }
+        Log.d(TAG, "Exhaustive search: " + referenceTime / 1000000 + "ms, branch and bound: "
+                + solverTime / 1000000 + "ms");
+    }
+
+    @Test
+    public void testDenseCarryOverMatchesExhaustiveSearch() {
+        // More widgets than can fit on an empty screen, the worst case for the search
+        Random random = new Random(4);
+        ArrayList<DbEntry> items = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DbEntry entry = createEntry(i + 1, Favorites.ITEM_TYPE_APPWIDGET, random.nextInt(3),
+                    random.nextInt(3), 2 + random.nextInt(2), 2, 2.4f);
+            entry.minSpanX = entry.minSpanY = 1;
+            items.add(entry);
+        }
+        for (int i = 0; i < 10; i++) {
+            items.add(createEntry(100 + i, Favorites.ITEM_TYPE_APPLICATION, random.nextInt(4),
+                    random.nextInt(5), 1, 1, i % 2 == 0 ? 0.8f : 1));
+        }
+
+        for (boolean ignoreMove : new boolean[]{false, true}) {
+            ReferenceSolution reference = new ReferenceSolution(new GridOccupancy(4, 4),
+                    GridSizeMigrationTask.deepCopy(items), 0, ignoreMove);
+            long start = System.nanoTime();
+            reference.find();
+            long referenceTime = System.nanoTime() - start;
+
+            OptimalPlacementSolution solution = new OptimalPlacementSolution(
+                    new GridOccupancy(4, 4), GridSizeMigrationTask.deepCopy(items), 0, ignoreMove);
+            start = System.nanoTime();
+            solution.find();
+            long solverTime = System.nanoTime() - start;
+
+            assertEquals(reference.lowestWeightLoss, solution.lowestWeightLoss, 1e-3f);
+            assertEquals(reference.lowestMoveCost, solution.lowestMoveCost, 1e-3f);
+            Log.d(TAG, "Dense carry over, exhaustive search: " + referenceTime / 1000000
+                    + "ms, branch and bound: " + solverTime / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * Fills a source grid with random items, keeps the ones which still fit in the target grid
+     * as already placed and returns the others.
+     */
+    private static ArrayList<DbEntry> generateItems(Random random, int srcX, int srcY,
+                                                    int trgX, int trgY, int startY,
+                                                    GridOccupancy trgOccupied) {
+        GridOccupancy srcOccupied = new GridOccupancy(srcX, srcY);
+        trgOccupied.markCells(0, 0, trgX, startY, true);
+        ArrayList<DbEntry> toPlace = new ArrayList<>();
+        long id = 1;
+        int widgets = random.nextInt(4);
+        for (int i = 0; i < widgets; i++) {
+            int spanX = 2 + random.nextInt(Math.min(3, srcX - 1));
+            int spanY = 1 + random.nextInt(3);
+            int x = random.nextInt(srcX - spanX + 1);
+            int y = random.nextInt(srcY - spanY + 1);
+            if (!srcOccupied.isRegionVacant(x, y, spanX, spanY)) {
+                continue;
+            }
+            srcOccupied.markCells(x, y, spanX, spanY, true);
+            DbEntry entry = createEntry(id++, Favorites.ITEM_TYPE_APPWIDGET, x, y, spanX, spanY,
+                    Math.max(2, 0.6f * spanX * spanY));
+            entry.minSpanX = 1 + random.nextInt(spanX);
+            entry.minSpanY = 1 + random.nextInt(spanY);
+            addOrKeep(entry, trgOccupied, toPlace);
+        }
+        for (int y = 0; y < srcY; y++) {
+            for (int x = 0; x < srcX; x++) {
+                if (srcOccupied.isOccupied(x, y) || random.nextInt(4) == 0) {
+                    continue;
+                }
+                srcOccupied.markCells(x, y, 1, 1, true);
+                int type = random.nextInt(5);
+                DbEntry entry = type == 0
+                        ? createEntry(id++, Favorites.ITEM_TYPE_FOLDER, x, y, 1, 1,
+                                0.5f * (1 + random.nextInt(6)))
+                        : type == 1
+                        ? createEntry(id++, Favorites.ITEM_TYPE_SHORTCUT, x, y, 1, 1, 1)
+                        : createEntry(id++, Favorites.ITEM_TYPE_APPLICATION, x, y, 1, 1, 0.8f);
+                addOrKeep(entry, trgOccupied, toPlace);
+            }
+        }
+        return toPlace;
+    }
+
+    private static void addOrKeep(DbEntry entry, GridOccupancy trgOccupied,
+                                  ArrayList<DbEntry> toPlace) {
+        if (trgOccupied.isRegionVacant(entry.cellX, entry.cellY, entry.spanX, entry.spanY)) {
+            trgOccupied.markCells(entry, true);
+        } else {
+            entry.cellX = Math.min(entry.cellX, trgOccupied.getCountX() - 1);
+            entry.cellY = Math.min(entry.cellY, trgOccupied.getCountY() - 1);
+            toPlace.add(entry);
+        }
+    }
+
+    private static DbEntry createEntry(long id, int itemType, int x, int y, int spanX, int spanY,
+                                       float weight) {
+        DbEntry entry = new DbEntry();
+        entry.id = id;
+        entry.itemType = itemType;
+        entry.cellX = x;
+        entry.cellY = y;
+        entry.spanX = spanX;
+        entry.spanY = spanY;
+        entry.minSpanX = spanX;
+        entry.minSpanY = spanY;
+        entry.weight = weight;
+        return entry;
+    }
+
+    /**
+     * The exhaustive search used before the branch and bound solver.
+     */
+    private static class ReferenceSolution {
+        private final ArrayList<DbEntry> itemsToPlace;
+        private final GridOccupancy occupied;
+        private final boolean ignoreMove;
+        private final int startY;
+        private final int trgX, trgY;
+
+        float lowestWeightLoss = Float.MAX_VALUE;
+        float lowestMoveCost = Float.MAX_VALUE;
+        ArrayList<DbEntry> finalPlacedItems;
+
+        ReferenceSolution(GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace, int startY,
+                          boolean ignoreMove) {
+            this.occupied = occupied;
+            this.itemsToPlace = itemsToPlace;
+            this.ignoreMove = ignoreMove;
+            this.startY = startY;
+            trgX = occupied.getCountX();
+            trgY = occupied.getCountY();
+            Collections.sort(this.itemsToPlace);
+        }
+
+        void find() {
+            find(0, 0, 0, new ArrayList<>());
+        }
+
+        void find(int index, float weightLoss, float moveCost, ArrayList<DbEntry> itemsPlaced) {
+            if ((weightLoss >= lowestWeightLoss) ||
+                    ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
+                return;
+            } else if (index >= itemsToPlace.size()) {
+                lowestWeightLoss = weightLoss;
+                lowestMoveCost = moveCost;
+                finalPlacedItems = GridSizeMigrationTask.deepCopy(itemsPlaced);
+                return;
+            }
+
+            DbEntry me = itemsToPlace.get(index);
+            int myX = me.cellX;
+            int myY = me.cellY;
+
+            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
+            itemsIncludingMe.addAll(itemsPlaced);
+            itemsIncludingMe.add(me);
+
+            if (me.spanX > 1 || me.spanY > 1) {
+                int myW = me.spanX;
+                int myH = me.spanY;
+
+                for (int y = startY; y < trgY; y++) {
+                    for (int x = 0; x < trgX; x++) {
+                        float newMoveCost = moveCost;
+                        if (x != myX) {
+                            me.cellX = x;
+                            newMoveCost++;
+                        }
+                        if (y != myY) {
+                            me.cellY = y;
+                            newMoveCost++;
+                        }
+                        if (ignoreMove) {
+                            newMoveCost = moveCost;
+                        }
+
+                        if (occupied.isRegionVacant(x, y, myW, myH)) {
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                        }
+
+                        if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
+                            me.spanX--;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanX++;
+                        }
+
+                        if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
+                            me.spanY--;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanY++;
+                        }
+
+                        if (myH > me.minSpanY && myW > me.minSpanX &&
+                                occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
+                            me.spanX--;
+                            me.spanY--;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanX++;
+                            me.spanY++;
+                        }
+                        me.cellX = myX;
+                        me.cellY = myY;
+                    }
+                }
+                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+            } else {
+                int newDistance = Integer.MAX_VALUE;
+                int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
+
+                for (int y = startY; y < trgY; y++) {
+                    for (int x = 0; x < trgX; x++) {
+                        if (!occupied.isOccupied(x, y)) {
+                            int dist = ignoreMove ? 0 :
+                                    ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
+                            if (dist < newDistance) {
+                                newX = x;
+                                newY = y;
+                                newDistance = dist;
+                            }
+                        }
+                    }
+                }
+
+                if (newX < trgX && newY < trgY) {
+                    float newMoveCost = moveCost;
+                    if (newX != myX) {
+                        me.cellX = newX;
+                        newMoveCost++;
+                    }
+                    if (newY != myY) {
+                        me.cellY = newY;
+                        newMoveCost++;
+                    }
+                    if (ignoreMove) {
+                        newMoveCost = moveCost;
+                    }
+                    occupied.markCells(me, true);
+                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                    occupied.markCells(me, false);
+                    me.cellX = myX;
+                    me.cellY = myY;
+
+                    if (index + 1 < itemsToPlace.size()
+                            && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
+                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                    }
+                } else {
+                    for (int i = index + 1; i < itemsToPlace.size(); i++) {
+                        weightLoss += itemsToPlace.get(i).weight;
+                    }
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                }
+            }
+        }
+    }
+}
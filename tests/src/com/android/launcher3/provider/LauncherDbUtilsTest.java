@@ -0,0 +1,198 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.LauncherProvider;
+import com.android.launcher3.LauncherProvider.DatabaseHelper;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LauncherDbUtils#copyDatabase}, with the timings of copying a large database.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class LauncherDbUtilsTest {
+
+    private static final String TAG = "LauncherDbUtilsTest";
+    private static final String DB_FILE = "test_copy.db";
+    private static final String COPY_FILE = "test_copy_snapshot.db";
+    private static final int ITEM_COUNT = 20000;
+
+    private File mDbFile;
+    private File mCopyFile;
+    private DatabaseHelper mHelper;
+
+    @Before
+    public void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbFile = context.getDatabasePath(DB_FILE);
+        mCopyFile = new File(context.getCacheDir(), COPY_FILE);
+        context.deleteDatabase(DB_FILE);
+        mHelper = new DatabaseHelper(context, null, DB_FILE) {
+            @Override
+            public void onOpen(SQLiteDatabase db) { }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(DB_FILE);
+        mCopyFile.delete();
+    }
+
+    @Test
+    public void testCopyLargeDatabase() throws Exception {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                insertItem(db, i);
+            }
+            t.commit();
+        }
+
+        long start = SystemClock.uptimeMillis();
+        LauncherDbUtils.copyDatabase(db, mCopyFile);
+        long copyMillis = SystemClock.uptimeMillis() - start;
+
+        start = SystemClock.uptimeMillis();
+        File rawCopy = new File(mCopyFile.getPath() + ".raw");
+        copyFile(mDbFile, rawCopy);
+        long rawCopyMillis = SystemClock.uptimeMillis() - start;
+        rawCopy.delete();
+        Log.d(TAG, "Copied " + ITEM_COUNT + " items (" + mDbFile.length() / 1024 + "kB) in "
+                + copyMillis + "ms, file copy " + rawCopyMillis + "ms");
+
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(mCopyFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            assertEquals(LauncherProvider.SCHEMA_VERSION, copy.getVersion());
+            assertEquals(getSchema(db), getSchema(copy));
+            assertEquals(ITEM_COUNT, DatabaseUtils.queryNumEntries(copy, Favorites.TABLE_NAME));
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    public void testCopyKeepsWriteAheadLogging() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.disableWriteAheadLogging();
+        insertItem(db, 0);
+        LauncherDbUtils.copyDatabase(db, mCopyFile);
+        // Fails once a database has been attached to the connection
+        assertTrue(db.enableWriteAheadLogging());
+    }
+
+    @Test
+    public void testCopyWhileWriting() throws Exception {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        final AtomicBoolean done = new AtomicBoolean();
+        // Items are always inserted in pairs
+        Thread writer = new Thread(() -> {
+            int id = 0;
+            while (!done.get()) {
+                try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+                    insertItem(db, id++);
+                    insertItem(db, id++);
+                    t.commit();
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                LauncherDbUtils.copyDatabase(db, mCopyFile);
+                SQLiteDatabase copy = SQLiteDatabase.openDatabase(mCopyFile.getPath(), null,
+                        SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+                try {
+                    long count = DatabaseUtils.queryNumEntries(copy, Favorites.TABLE_NAME);
+                    assertTrue("Copied " + count + " items", count % 2 == 0);
+                } finally {
+                    copy.close();
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    private static void insertItem(SQLiteDatabase db, int id) {
+        ContentValues values = new ContentValues();
+        values.put(Favorites._ID, id);
+        values.put(Favorites.TITLE, "title " + id);
+        values.put(Favorites.INTENT, "#Intent;component=com.example/.Activity" + id + ";end");
+        values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+        values.put(Favorites.SCREEN, id / 20);
+        values.put(Favorites.CELLX, id % 5);
+        values.put(Favorites.CELLY, id / 5 % 4);
+        db.insert(Favorites.TABLE_NAME, null, values);
+    }
+
+    private static ArrayList<String> getSchema(SQLiteDatabase db) {
+        ArrayList<String> schema = new ArrayList<>();
+        try (Cursor c = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql NOT NULL"
+                + " AND name != 'android_metadata' ORDER BY name", null)) {
+            while (c.moveToNext()) {
+                schema.add(c.getString(0));
+            }
+        }
+        return schema;
+    }
+
+    private static void copyFile(File from, File to) throws Exception {
+        try (InputStream in = new FileInputStream(from);
+             OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.ui;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.android.launcher3.allapps.AllAppsViewPool;
+import com.android.launcher3.util.Condition;
+import com.android.launcher3.util.Wait;
+import com.android.launcher3.util.rule.LauncherActivityRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiObject2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flings through all apps with and without the icons inflated ahead, and records the frame
+ * times of both. With the icons inflated ahead, no icon may be inflated on the main thread
+ * once all apps is showing, so inflating is not part of any frame.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class AllAppsFlingTest extends AbstractLauncherUiTest {
+
+    private static final String TAG = "AllAppsFlingTest";
+    private static final int FLINGS = 5;
+
+    @Rule
+    public LauncherActivityRule mActivityMonitor = new LauncherActivityRule();
+
+    @Test
+    public void testFling_noMainThreadInflation() throws Exception {
+        lockRotation(true);
+        mActivityMonitor.startLauncher();
+
+        final AllAppsViewPool pool = getOnUiThread(
+                () -> mActivityMonitor.getActivity().getAppsView().getViewPool());
+
+        // Every icon is inflated on the main thread, as a reference
+        getOnUiThread(() -> {
+            pool.setPreinflateEnabled(false);
+            return null;
+        });
+        FlingResult reference = fling(pool);
+        Log.d(TAG, "Without icons inflated ahead: " + reference);
+
+        getOnUiThread(() -> {
+            pool.setPreinflateEnabled(true);
+            return null;
+        });
+        mActivityMonitor.returnToHome();
+        mDevice.waitForIdle();
+        FlingResult result = fling(pool);
+        Log.d(TAG, "With icons inflated ahead: " + result);
+
+        assertEquals(0, result.mainThreadInflations);
+        assertTrue(getOnUiThread(pool::getBackgroundInflations) > 0);
+    }
+
+    private FlingResult fling(AllAppsViewPool pool) {
+        UiObject2 appsContainer = openAllApps();
+        assertTrue(Wait.atMost(Condition.minChildCount(appsContainer, 2), DEFAULT_UI_TIMEOUT));
+        // Let the icons be inflated ahead while idle
+        mDevice.waitForIdle();
+        int initialInflations = getOnUiThread(pool::getMainThreadInflations);
+
+        FrameRecorder recorder = new FrameRecorder();
+        getOnUiThread(() -> {
+            recorder.start();
+            return null;
+        });
+        for (int i = 0; i < FLINGS; i++) {
+            while (appsContainer.fling(Direction.DOWN)) { }
+            while (appsContainer.fling(Direction.UP)) { }
+        }
+        getOnUiThread(() -> {
+            recorder.stop();
+            return null;
+        });
+        return new FlingResult(recorder.mFrameNanos,
+                getOnUiThread(pool::getMainThreadInflations) - initialInflations);
+    }
+
+    private static class FlingResult {
+        final ArrayList<Long> frameNanos;
+        final int mainThreadInflations;
+
+        FlingResult(ArrayList<Long> frameNanos, int mainThreadInflations) {
+            this.frameNanos = new ArrayList<>(frameNanos);
+            this.mainThreadInflations = mainThreadInflations;
+            Collections.sort(this.frameNanos);
+        }
+
+        long getPercentileMs(int percentile) {
+            if (frameNanos.isEmpty()) {
+                return 0;
+            }
+            int index = Math.min(frameNanos.size() - 1, frameNanos.size() * percentile / 100);
+            return frameNanos.get(index) / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            return frameNanos.size() + " frames, p50 " + getPercentileMs(50) + "ms, p90 "
+                    + getPercentileMs(90) + "ms, p99 " + getPercentileMs(99) + "ms, max "
+                    + getPercentileMs(100) + "ms, main thread inflations: "
+                    + mainThreadInflations;
+        }
+    }
+
+    /**
+     * Records the time between consecutive frames while running.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        final ArrayList<Long> mFrameNanos = new ArrayList<>();
+        private long mLastFrameNanos;
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            mLastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                mFrameNanos.add(frameTimeNanos - mLastFrameNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.ui;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import com.android.launcher3.Launcher;
+import com.android.launcher3.R;
+import com.android.launcher3.util.rule.LauncherActivityRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.zimmob.zimlx.ZimLayoutInflater;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Inflates the most common launcher layouts with and without the launcher view factory, and
+ * logs the time taken by each.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class InflationBenchmarkTest extends AbstractLauncherUiTest {
+
+    private static final String TAG = "InflationBenchmarkTest";
+    private static final int ITERATIONS = 100;
+
+    private static final int[] LAYOUTS = new int[] {
+            R.layout.all_apps_icon,
+            R.layout.app_icon,
+            R.layout.folder_icon,
+            R.layout.deep_shortcut,
+            R.layout.system_shortcut,
+            R.layout.widget_cell,
+    };
+
+    @Rule
+    public LauncherActivityRule mActivityMonitor = new LauncherActivityRule();
+
+    @Test
+    public void testInflation() throws Exception {
+        mActivityMonitor.startLauncher();
+
+        getOnUiThread(() -> {
+            Launcher launcher = mActivityMonitor.getActivity();
+            LayoutInflater factoryInflater = LayoutInflater.from(launcher);
+            assertSame(ZimLayoutInflater.LauncherViewFactory.INSTANCE,
+                    factoryInflater.getFactory2());
+            // Cloned from the base context, without any factory
+            LayoutInflater plainInflater = LayoutInflater.from(launcher.getBaseContext())
+                    .cloneInContext(launcher);
+
+            for (int layout : LAYOUTS) {
+                String name = launcher.getResources().getResourceEntryName(layout);
+                View expected = plainInflater.inflate(layout, null, false);
+                View actual = factoryInflater.inflate(layout, null, false);
+                assertEquals(expected.getClass(), actual.getClass());
+
+                long plainTime = timeInflation(plainInflater, layout);
+                long factoryTime = timeInflation(factoryInflater, layout);
+                Log.d(TAG, name + ": " + plainTime / ITERATIONS + "us without factory, "
+                        + factoryTime / ITERATIONS + "us with factory");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the time taken to inflate {@param layout} {@link #ITERATIONS} times, in micros.
+     */
+    private static long timeInflation(LayoutInflater inflater, int layout) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            inflater.inflate(layout, null, false);
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+}
@@ -2,6 +2,8 @@ package com.android.launcher3.util;
 
 import junit.framework.TestCase;
 
+import java.util.Random;
+
 import androidx.test.filters.SmallTest;
 
 /**
@@ -46,13 +48,107 @@ public class GridOccupancyTest extends TestCase {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    public void testCanFitBlock() {
+        GridOccupancy grid = initGrid(3,
+                1, 0, 0, 1,
+                0, 0, 1, 1,
+                1, 0, 0, 0
+        );
+        GridOccupancy block = initGrid(2,
+                0, 1,
+                1, 1
+        );
+
+        assertTrue(grid.canFitBlock(0, 0, 2, 2, block));
+        assertFalse(grid.canFitBlock(1, 0, 2, 2, block));
+        assertFalse(grid.canFitBlock(2, 1, 2, 2, block));
+        assertFalse(grid.canFitBlock(1, 1, 2, 2, block));
+    }
+
+    public void testIsOccupiedOutsideGrid() {
+        GridOccupancy grid = new GridOccupancy(4, 3);
+        grid.markCells(0, 0, 4, 3, true);
+
+        assertTrue(grid.isOccupied(3, 2));
+        assertFalse(grid.isOccupied(-1, 0));
+        assertFalse(grid.isOccupied(4, 0));
+        assertFalse(grid.isOccupied(64, 0));
+        assertFalse(grid.isOccupied(0, -1));
+        assertFalse(grid.isOccupied(0, 3));
+    }
+
+    /**
+     * Replays random drag paths of a 2x2 item over dense grids, checking every query against a
+     * plain boolean grid.
+     */
+    public void testMatchesReferenceOnDragPaths() {
+        Random random = new Random(42);
+        for (int size = 5; size <= 8; size++) {
+            GridOccupancy grid = new GridOccupancy(size, size);
+            boolean[][] reference = new boolean[size][size];
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    boolean occupied = random.nextInt(4) != 0;
+                    grid.markCells(x, y, 1, 1, occupied);
+                    reference[x][y] = occupied;
+                }
+            }
+
+            int itemX = 0, itemY = 0;
+            for (int step = 0; step < 200; step++) {
+                grid.markCells(itemX, itemY, 2, 2, false);
+                markReference(reference, itemX, itemY, 2, 2, false);
+                itemX = random.nextInt(size);
+                itemY = random.nextInt(size);
+                grid.markCells(itemX, itemY, 2, 2, true);
+                markReference(reference, itemX, itemY, 2, 2, true);
+
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        assertEquals(reference[x][y], grid.isOccupied(x, y));
+                    }
+                }
+                int spanX = 1 + random.nextInt(3);
+                int spanY = 1 + random.nextInt(3);
+                int x = random.nextInt(size + 1) - 1;
+                int y = random.nextInt(size + 1) - 1;
+                assertEquals(isReferenceRegionVacant(reference, x, y, spanX, spanY),
+                        grid.isRegionVacant(x, y, spanX, spanY));
+            }
+        }
+    }
+
+    private static void markReference(boolean[][] cells, int cellX, int cellY, int spanX,
+            int spanY, boolean value) {
+        for (int x = cellX; x < cellX + spanX && x < cells.length; x++) {
+            for (int y = cellY; y < cellY + spanY && y < cells[x].length; y++) {
+                cells[x][y] = value;
+            }
+        }
+    }
+
+    private static boolean isReferenceRegionVacant(boolean[][] cells, int x, int y, int spanX,
+            int spanY) {
+        if (x < 0 || y < 0 || x + spanX > cells.length || y + spanY > cells[0].length) {
+            return false;
+        }
+        for (int i = x; i < x + spanX; i++) {
+            for (int j = y; j < y + spanY; j++) {
+                if (cells[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
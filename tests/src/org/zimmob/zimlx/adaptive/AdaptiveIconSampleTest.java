@@ -0,0 +1,121 @@
+/*
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.zimmob.zimlx.adaptive;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.LayerDrawable;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.graphics.ColorExtractor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the sample {@link AdaptiveIconGenerator} analyses an icon on gives about the same
+ * result as the icon drawn at its intrinsic size.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveIconSampleTest {
+
+    private static final int ICON_SIZE = 192;
+    private static final int SAMPLE_SIZE = 48;
+    private static final int MIN_VISIBLE_ALPHA = 0xEF;
+
+    private static final float MAX_HUE_DEVIATION = 5;
+    private static final float MAX_TRANSPARENT_DEVIATION = .05f;
+
+    private static final float[] HUES = new float[] {15, 60, 120, 200, 280};
+
+    @Test
+    public void testSampleSize() {
+        Bitmap sample = AdaptiveIconGenerator.drawSample(createIcon(0, 120, 96, 192));
+        assertEquals(SAMPLE_SIZE / 2, sample.getWidth());
+        assertEquals(SAMPLE_SIZE, sample.getHeight());
+
+        // Smaller icons are not scaled up
+        sample = AdaptiveIconGenerator.drawSample(createIcon(0, 120, 24, 24));
+        assertEquals(24, sample.getWidth());
+        assertEquals(24, sample.getHeight());
+    }
+
+    @Test
+    public void testSampleMatchesFullSize() {
+        for (float main : HUES) {
+            for (float accent : HUES) {
+                if (main == accent) continue;
+                Drawable icon = createIcon(main, accent, ICON_SIZE, ICON_SIZE);
+                Bitmap full = Utilities.drawableToBitmap(icon);
+                Bitmap sample = AdaptiveIconGenerator.drawSample(icon);
+                String name = "main " + main + ", accent " + accent;
+
+                assertEquals(name, main, getHue(ColorExtractor.findDominantColorByHue(full)),
+                        MAX_HUE_DEVIATION);
+                assertEquals(name, main, getHue(ColorExtractor.findDominantColorByHue(sample)),
+                        MAX_HUE_DEVIATION);
+
+                IconColorHistogram fullHistogram = computeHistogram(full);
+                IconColorHistogram sampleHistogram = computeHistogram(sample);
+                assertTrue(name, sampleHistogram.transparentPixels > 0);
+                assertEquals(name,
+                        (float) fullHistogram.transparentPixels / fullHistogram.totalPixels,
+                        (float) sampleHistogram.transparentPixels / sampleHistogram.totalPixels,
+                        MAX_TRANSPARENT_DEVIATION);
+            }
+        }
+    }
+
+    /**
+     * A round icon shaded from dark to light in the {@param main} hue, which crosses several
+     * posterization steps, with a band of the {@param accent} hue at the bottom.
+     */
+    private static Drawable createIcon(float main, float accent, int width, int height) {
+        GradientDrawable circle = new GradientDrawable(GradientDrawable.Orientation.TOP_BOTTOM,
+                new int[] {Color.HSVToColor(new float[] {main, .8f, .5f}),
+                        Color.HSVToColor(new float[] {main, .8f, 1f})});
+        circle.setShape(GradientDrawable.OVAL);
+        circle.setSize(width, height);
+        GradientDrawable band = new GradientDrawable();
+        band.setColor(Color.HSVToColor(new float[] {accent, .8f, .9f}));
+        LayerDrawable icon = new LayerDrawable(new Drawable[] {circle, band});
+        icon.setLayerInset(1, width / 4, height * 3 / 4, width / 4, height / 10);
+        return icon;
+    }
+
+    private static IconColorHistogram computeHistogram(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(),
+                bitmap.getHeight());
+        return IconColorHistogram.compute(pixels, MIN_VISIBLE_ALPHA);
+    }
+
+    private static float getHue(int color) {
+        float[] hsv = new float[3];
+        Color.colorToHSV(color, hsv);
+        return hsv[0];
+    }
+}